@@ -49,13 +49,16 @@ fn main() {
         java_dir.join("stubs/com/google/common/util/concurrent/ListenableFuture.java"),
         // Our callback implementation
         java_dir.join("se/brendan/frakt/RustUrlRequestCallback.java"),
+        java_dir.join("se/brendan/frakt/CallbackExecutor.java"),
+        java_dir.join("se/brendan/frakt/HeaderPacker.java"),
         // WorkManager download components
         java_dir.join("se/brendan/frakt/DownloadWorker.java"),
         java_dir.join("se/brendan/frakt/DownloadProgressCallback.java"),
+        java_dir.join("se/brendan/frakt/DownloadNotifications.java"),
         java_dir.join("se/brendan/frakt/DexWorkerFactory.java"),
         java_dir.join("se/brendan/frakt/BackgroundDownloader.java"),
-        // Upload progress tracking
-        java_dir.join("se/brendan/frakt/ProgressTrackingUploadDataProvider.java"),
+        // Streaming upload bodies
+        java_dir.join("se/brendan/frakt/NativeUploadDataProvider.java"),
     ];
 
     let status = Command::new(&javac)
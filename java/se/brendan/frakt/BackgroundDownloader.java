@@ -13,7 +13,8 @@ public class BackgroundDownloader {
             Context context,
             String url,
             String filePath,
-            String headersJson,
+            String[] headerNames,
+            String[] headerValues,
             DownloadProgressCallback progressCallback) {
 
         System.out.println("🚀 BackgroundDownloader.performDownload() called");
@@ -21,12 +22,13 @@ public class BackgroundDownloader {
         System.out.println("   File: " + filePath);
 
         // Call native download method (context is not needed for our implementation)
-        return nativeDownload(url, filePath, headersJson, progressCallback);
+        return nativeDownload(url, filePath, headerNames, headerValues, progressCallback);
     }
 
     private static native int nativeDownload(
             String url,
             String filePath,
-            String headersJson,
+            String[] headerNames,
+            String[] headerValues,
             DownloadProgressCallback callback);
 }
@@ -0,0 +1,120 @@
+package se.brendan.frakt;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Engine-wide executor for Cronet callbacks.
+ *
+ * One instance is created alongside each CronetEngine and shared by every
+ * UrlRequest and UploadDataProvider on that engine, so callback threads are
+ * bounded and reused instead of a new pool being leaked per request.
+ *
+ * In direct mode callbacks run inline on Cronet's network thread. This skips
+ * the thread hop entirely, which is the cheapest option for tiny responses,
+ * but requests must then be built with allowDirectExecutor().
+ */
+public class CallbackExecutor implements Executor {
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final ThreadPoolExecutor pool;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+
+    /**
+     * @param threadCount number of callback threads, or 0 to size from the CPU count
+     * @param direct run callbacks inline on the calling thread instead of the pool
+     */
+    public CallbackExecutor(int threadCount, boolean direct) {
+        if (direct) {
+            this.pool = null;
+            return;
+        }
+
+        int threads = threadCount > 0
+            ? threadCount
+            : Math.max(2, Runtime.getRuntime().availableProcessors());
+
+        this.pool = new ThreadPoolExecutor(
+            threads,
+            threads,
+            KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new NamedThreadFactory("frakt-cronet-callback")
+        );
+        // Idle engines should not pin threads
+        this.pool.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        if (pool == null) {
+            run(command);
+            return;
+        }
+
+        queued.incrementAndGet();
+        pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                queued.decrementAndGet();
+                CallbackExecutor.this.run(command);
+            }
+        });
+    }
+
+    private void run(Runnable command) {
+        active.incrementAndGet();
+        try {
+            command.run();
+        } finally {
+            active.decrementAndGet();
+            completed.incrementAndGet();
+        }
+    }
+
+    public boolean isDirect() {
+        return pool == null;
+    }
+
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    public int getQueuedCount() {
+        return queued.get();
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger counter = new AtomicInteger(1);
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package se.brendan.frakt;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.os.Build;
+import androidx.core.app.NotificationCompat;
+import androidx.work.ForegroundInfo;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Foreground notifications for running DownloadWorkers.
+ *
+ * Every worker posts its own notification with determinate progress on one
+ * channel. While more than one download runs, their notifications are grouped
+ * under a summary showing the combined progress.
+ */
+final class DownloadNotifications {
+    private static final String CHANNEL_ID = "download_channel";
+    private static final String GROUP_KEY = "se.brendan.frakt.DOWNLOADS";
+    private static final int SUMMARY_ID = 1;
+
+    // Android drops notification updates posted faster than a few per second
+    private static final long MIN_UPDATE_INTERVAL_MS = 1000;
+
+    private static final class Progress {
+        final String title;
+        long bytesDownloaded;
+        long totalBytes;
+        long lastUpdate;
+
+        Progress(String title) {
+            this.title = title;
+        }
+    }
+
+    private static final Map<Integer, Progress> active = new HashMap<>();
+
+    private DownloadNotifications() {}
+
+    /** Notification id for the download with the given completion id */
+    static int notificationId(long completionId) {
+        int id = (int) (completionId ^ (completionId >>> 32));
+        return id == SUMMARY_ID ? id + 1 : id;
+    }
+
+    /** Register a download and return its initial, indeterminate notification */
+    static synchronized ForegroundInfo start(Context context, int id, String title) {
+        createChannel(context);
+        Progress progress = new Progress(title);
+        progress.totalBytes = -1;
+        active.put(id, progress);
+        updateSummary(context);
+        return new ForegroundInfo(id, build(context, progress));
+    }
+
+    /**
+     * Record progress for a download.
+     *
+     * Returns an updated notification, or null if the last one was posted too
+     * recently. The final update is never dropped.
+     */
+    static synchronized ForegroundInfo update(
+            Context context, int id, long bytesDownloaded, long totalBytes) {
+        Progress progress = active.get(id);
+        if (progress == null) {
+            return null;
+        }
+        progress.bytesDownloaded = bytesDownloaded;
+        progress.totalBytes = totalBytes;
+
+        long now = System.currentTimeMillis();
+        boolean done = totalBytes > 0 && bytesDownloaded >= totalBytes;
+        if (!done && now - progress.lastUpdate < MIN_UPDATE_INTERVAL_MS) {
+            return null;
+        }
+        progress.lastUpdate = now;
+        updateSummary(context);
+        return new ForegroundInfo(id, build(context, progress));
+    }
+
+    /** Forget a download; WorkManager removes its own notification when the worker stops */
+    static synchronized void finish(Context context, int id) {
+        if (active.remove(id) != null) {
+            updateSummary(context);
+        }
+    }
+
+    private static Notification build(Context context, Progress progress) {
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, CHANNEL_ID)
+            .setContentTitle(progress.title)
+            .setSmallIcon(android.R.drawable.stat_sys_download)
+            .setOngoing(true)
+            .setOnlyAlertOnce(true)
+            .setGroup(GROUP_KEY);
+        applyProgress(builder, progress.bytesDownloaded, progress.totalBytes);
+        return builder.build();
+    }
+
+    private static void updateSummary(Context context) {
+        NotificationManager manager =
+            (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        if (manager == null) {
+            return;
+        }
+        if (active.size() < 2) {
+            manager.cancel(SUMMARY_ID);
+            return;
+        }
+
+        long bytesDownloaded = 0;
+        long totalBytes = 0;
+        for (Progress progress : active.values()) {
+            bytesDownloaded += progress.bytesDownloaded;
+            // One download of unknown size makes the combined total unknown
+            if (totalBytes >= 0) {
+                totalBytes = progress.totalBytes > 0 ? totalBytes + progress.totalBytes : -1;
+            }
+        }
+
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, CHANNEL_ID)
+            .setContentTitle(active.size() + " downloads")
+            .setSmallIcon(android.R.drawable.stat_sys_download)
+            .setOngoing(true)
+            .setOnlyAlertOnce(true)
+            .setGroup(GROUP_KEY)
+            .setGroupSummary(true);
+        applyProgress(builder, bytesDownloaded, totalBytes);
+        manager.notify(SUMMARY_ID, builder.build());
+    }
+
+    private static void applyProgress(
+            NotificationCompat.Builder builder, long bytesDownloaded, long totalBytes) {
+        if (totalBytes > 0) {
+            int percent = (int) Math.min(100, bytesDownloaded * 100 / totalBytes);
+            builder.setProgress(100, percent, false)
+                .setContentText(megabytes(bytesDownloaded) + " of " + megabytes(totalBytes));
+        } else {
+            builder.setProgress(0, 0, true)
+                .setContentText(megabytes(bytesDownloaded) + " downloaded");
+        }
+    }
+
+    private static String megabytes(long bytes) {
+        return String.format(java.util.Locale.US, "%.1f MB", bytes / 1048576.0);
+    }
+
+    private static void createChannel(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return;
+        }
+        NotificationManager manager =
+            (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        if (manager != null) {
+            manager.createNotificationChannel(new NotificationChannel(
+                CHANNEL_ID,
+                "Downloads",
+                NotificationManager.IMPORTANCE_LOW
+            ));
+        }
+    }
+}
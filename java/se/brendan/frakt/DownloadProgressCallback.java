@@ -1,16 +1,39 @@
 package se.brendan.frakt;
 
 public class DownloadProgressCallback {
+    /** Java-side observer of the same progress, such as the worker's notification */
+    public interface Listener {
+        void onProgress(long bytesDownloaded, long totalBytes);
+    }
+
     private final long handlerId;
+    private final Listener listener;
 
     public DownloadProgressCallback(long handlerId) {
+        this(handlerId, null);
+    }
+
+    public DownloadProgressCallback(long handlerId, Listener listener) {
         this.handlerId = handlerId;
+        this.listener = listener;
+    }
+
+    public long getHandlerId() {
+        return handlerId;
     }
 
     public void onProgress(long bytesDownloaded, long totalBytes) {
+        onListenerProgress(bytesDownloaded, totalBytes);
         // Call native method to invoke Rust callback
         nativeOnProgress(handlerId, bytesDownloaded, totalBytes);
     }
 
+    // Called by native code that has already handed the update to Rust directly
+    public void onListenerProgress(long bytesDownloaded, long totalBytes) {
+        if (listener != null) {
+            listener.onProgress(bytesDownloaded, totalBytes);
+        }
+    }
+
     private static native void nativeOnProgress(long handlerId, long bytesDownloaded, long totalBytes);
 }
@@ -1,11 +1,7 @@
 package se.brendan.frakt;
 
-import android.app.NotificationChannel;
-import android.app.NotificationManager;
 import android.content.Context;
-import android.os.Build;
 import androidx.annotation.NonNull;
-import androidx.core.app.NotificationCompat;
 import androidx.work.Data;
 import androidx.work.ForegroundInfo;
 import androidx.work.Worker;
@@ -24,6 +20,12 @@ public class DownloadWorker extends Worker {
         System.err.flush();
     }
 
+    // Reported when doWork() ends without a result from nativeDownload
+    private static final int RESULT_NO_DOWNLOAD = -4;
+
+    // nativeDownload stopped on a transient error; the partial file is kept for a retry
+    private static final int RESULT_RETRY = 1;
+
     @NonNull
     @Override
     public Result doWork() {
@@ -31,17 +33,24 @@ public class DownloadWorker extends Worker {
         System.err.flush();
         System.out.println("🚀 ENTERED doWork() - STDOUT - VERY FIRST LINE");
         System.out.flush();
+
+        // Rust waits on this id instead of polling WorkInfo
+        long completionId = getInputData().getLong("completion_handler_id", -1);
+        final int notificationId = DownloadNotifications.notificationId(completionId);
+        int result = RESULT_NO_DOWNLOAD;
         try {
             System.out.println("🔧 DownloadWorker.doWork() in try block");
 
-            // Promote to foreground service for long-running download
-            setForegroundAsync(createForegroundInfo());
-            System.out.println("🔧 Set foreground async");
-
             // Get input data
             String url = getInputData().getString("url");
             String filePath = getInputData().getString("file_path");
-            String headersJson = getInputData().getString("headers");
+            // Parallel arrays, so a header sent several times keeps every value
+            String[] headerNames = getInputData().getStringArray("header_names");
+            String[] headerValues = getInputData().getStringArray("header_values");
+            if (headerNames == null || headerValues == null) {
+                headerNames = new String[0];
+                headerValues = new String[0];
+            }
 
             System.out.println("🔧 Got input data - calling doWork() body");
             System.out.println("   URL: " + url);
@@ -52,23 +61,39 @@ public class DownloadWorker extends Worker {
                 return Result.failure();
             }
 
-            // Get progress handler ID if present
-            long progressHandlerId = getInputData().getLong("progress_handler_id", -1);
-            DownloadProgressCallback progressCallback = null;
+            // Promote to foreground service for long-running download
+            final Context context = getApplicationContext();
+            setForegroundAsync(DownloadNotifications.start(
+                context, notificationId, new java.io.File(filePath).getName()));
+            System.out.println("🔧 Set foreground async");
 
-            if (progressHandlerId != -1) {
-                System.out.println("📊 Progress handler ID: " + progressHandlerId);
-                progressCallback = new DownloadProgressCallback(progressHandlerId);
-            }
+            // The notification follows the same byte count as the Rust progress handler
+            long progressHandlerId = getInputData().getLong("progress_handler_id", -1);
+            System.out.println("📊 Progress handler ID: " + progressHandlerId);
+            DownloadProgressCallback progressCallback = new DownloadProgressCallback(
+                progressHandlerId,
+                new DownloadProgressCallback.Listener() {
+                    @Override
+                    public void onProgress(long bytesDownloaded, long totalBytes) {
+                        ForegroundInfo info = DownloadNotifications.update(
+                            context, notificationId, bytesDownloaded, totalBytes);
+                        if (info != null) {
+                            setForegroundAsync(info);
+                        }
+                    }
+                });
 
             // Call native download function
             System.out.println("📞 Calling nativeDownload...");
-            int result = nativeDownload(url, filePath, headersJson != null ? headersJson : "{}", progressCallback);
+            result = nativeDownload(url, filePath, headerNames, headerValues, progressCallback);
             System.out.println("📞 nativeDownload returned: " + result);
 
             if (result == 0) {
                 System.out.println("✅ Download succeeded");
                 return Result.success();
+            } else if (result == RESULT_RETRY) {
+                System.out.println("🔁 Download interrupted, retrying later");
+                return Result.retry();
             } else {
                 System.err.println("❌ Download failed with code: " + result);
                 Data failureData = new Data.Builder()
@@ -83,37 +108,27 @@ public class DownloadWorker extends Worker {
                     .putString("error", e.getMessage())
                     .build();
             return Result.failure(failureData);
+        } finally {
+            DownloadNotifications.finish(getApplicationContext(), notificationId);
+            // A retried worker runs again with the same id, so keep Rust waiting
+            if (completionId != -1 && result != RESULT_RETRY) {
+                nativeOnWorkFinished(completionId, result);
+            }
         }
     }
 
-    private native int nativeDownload(String url, String filePath, String headersJson, DownloadProgressCallback callback);
-
-    @NonNull
-    private ForegroundInfo createForegroundInfo() {
-        String channelId = "download_channel";
-        String title = "Background Download";
-
-        // Create notification channel for Android O+
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            NotificationChannel channel = new NotificationChannel(
-                channelId,
-                "Downloads",
-                NotificationManager.IMPORTANCE_LOW
-            );
-            NotificationManager notificationManager =
-                (NotificationManager) getApplicationContext().getSystemService(Context.NOTIFICATION_SERVICE);
-            if (notificationManager != null) {
-                notificationManager.createNotificationChannel(channel);
-            }
+    @Override
+    public void onStopped() {
+        // Cancelled or preempted; nativeDownload blocks doWork() until the attempt ends
+        long handlerId = getInputData().getLong("progress_handler_id", -1);
+        if (handlerId != -1) {
+            nativeStopDownload(handlerId);
         }
+    }
 
-        // Build notification
-        NotificationCompat.Builder builder = new NotificationCompat.Builder(getApplicationContext(), channelId)
-            .setContentTitle(title)
-            .setContentText("Downloading file...")
-            .setSmallIcon(android.R.drawable.stat_sys_download)
-            .setOngoing(true);
+    private native int nativeDownload(String url, String filePath, String[] headerNames, String[] headerValues, DownloadProgressCallback callback);
 
-        return new ForegroundInfo(1, builder.build());
-    }
+    private static native void nativeOnWorkFinished(long completionId, int result);
+
+    private static native void nativeStopDownload(long handlerId);
 }
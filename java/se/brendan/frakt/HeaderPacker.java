@@ -0,0 +1,71 @@
+package se.brendan.frakt;
+
+import org.chromium.net.UrlResponseInfo;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Flattens response headers into a single byte[] for Rust.
+ *
+ * Walking the header map from Rust costs several JNI calls per header; a
+ * packed array crosses once. The layout is big-endian: the header count,
+ * then for each header its name and its value, each written as a 4-byte
+ * length followed by that many UTF-8 bytes. Headers keep the order they
+ * arrived in, so repeated names stay separate.
+ */
+final class HeaderPacker {
+    private HeaderPacker() {}
+
+    static byte[] pack(UrlResponseInfo info) {
+        List<Map.Entry<String, String>> headers = info.getAllHeadersAsList();
+
+        // Encode first so the output can be allocated at its exact size
+        byte[][] fields = new byte[headers.size() * 2][];
+        int size = 4;
+        int i = 0;
+        for (Map.Entry<String, String> header : headers) {
+            fields[i] = encode(header.getKey());
+            fields[i + 1] = encode(header.getValue());
+            size += 8 + fields[i].length + fields[i + 1].length;
+            i += 2;
+        }
+
+        byte[] packed = new byte[size];
+        int offset = putInt(packed, 0, headers.size());
+        for (byte[] field : fields) {
+            offset = putInt(packed, offset, field.length);
+            System.arraycopy(field, 0, packed, offset, field.length);
+            offset += field.length;
+        }
+        return packed;
+    }
+
+    /**
+     * @return the Content-Length the server announced, or -1 if there is none
+     */
+    static long contentLength(UrlResponseInfo info) {
+        for (Map.Entry<String, String> header : info.getAllHeadersAsList()) {
+            if ("Content-Length".equalsIgnoreCase(header.getKey())) {
+                try {
+                    return Long.parseLong(header.getValue().trim());
+                } catch (NumberFormatException | NullPointerException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] encode(String value) {
+        return value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int putInt(byte[] out, int offset, int value) {
+        out[offset] = (byte) (value >>> 24);
+        out[offset + 1] = (byte) (value >>> 16);
+        out[offset + 2] = (byte) (value >>> 8);
+        out[offset + 3] = (byte) value;
+        return offset + 4;
+    }
+}
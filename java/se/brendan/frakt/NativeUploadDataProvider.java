@@ -0,0 +1,70 @@
+package se.brendan.frakt;
+
+import org.chromium.net.UploadDataProvider;
+import org.chromium.net.UploadDataSink;
+import java.nio.ByteBuffer;
+
+/**
+ * UploadDataProvider that pulls the request body from Rust.
+ *
+ * The body never lives on the Java heap: each read fills Cronet's direct
+ * buffer straight from native memory or from a file. A length of -1 makes
+ * Cronet use chunked transfer encoding. Upload progress is reported on the
+ * Rust side as the body is read.
+ */
+public class NativeUploadDataProvider extends UploadDataProvider {
+    private final long sourceId;
+    private final long length;
+
+    /**
+     * @param sourceId id of the Rust upload body
+     * @param length body length in bytes, or -1 if unknown
+     */
+    public NativeUploadDataProvider(long sourceId, long length) {
+        this.sourceId = sourceId;
+        this.length = length;
+    }
+
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public void read(UploadDataSink uploadDataSink, ByteBuffer byteBuffer) {
+        try {
+            int position = byteBuffer.position();
+            int read = nativeRead(sourceId, byteBuffer, position, byteBuffer.limit());
+
+            if (read < 0) {
+                // End of a chunked body
+                uploadDataSink.onReadSucceeded(true);
+                return;
+            }
+
+            byteBuffer.position(position + read);
+            uploadDataSink.onReadSucceeded(false);
+        } catch (Exception e) {
+            uploadDataSink.onReadError(e);
+        }
+    }
+
+    @Override
+    public void rewind(UploadDataSink uploadDataSink) {
+        try {
+            nativeRewind(sourceId);
+            uploadDataSink.onRewindSucceeded();
+        } catch (Exception e) {
+            uploadDataSink.onRewindError(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        nativeClose(sourceId);
+    }
+
+    private static native int nativeRead(long sourceId, ByteBuffer buffer, int position, int limit);
+    private static native void nativeRewind(long sourceId);
+    private static native void nativeClose(long sourceId);
+}
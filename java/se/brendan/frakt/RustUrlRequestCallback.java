@@ -18,8 +18,29 @@ public class RustUrlRequestCallback extends UrlRequest.Callback {
 
     private final long handlerId;
 
-    public RustUrlRequestCallback(long handlerId) {
+    // Pooled direct buffer for the small-response fast path, or null if off
+    private final ByteBuffer smallResponseBuffer;
+    private final int smallResponseThreshold;
+
+    // While set, the body is gathered in smallResponseBuffer and Rust hears
+    // about the response only once it is complete
+    private boolean buffering;
+    private int statusCode;
+    private byte[] headers;
+
+    /**
+     * @param smallResponseBuffer buffer larger than smallResponseThreshold,
+     *        or null to always stream
+     * @param smallResponseThreshold largest Content-Length gathered in Java
+     */
+    public RustUrlRequestCallback(
+        long handlerId,
+        ByteBuffer smallResponseBuffer,
+        int smallResponseThreshold
+    ) {
         this.handlerId = handlerId;
+        this.smallResponseBuffer = smallResponseBuffer;
+        this.smallResponseThreshold = smallResponseThreshold;
     }
 
     @Override
@@ -28,7 +49,12 @@ public class RustUrlRequestCallback extends UrlRequest.Callback {
         UrlResponseInfo info,
         String newLocationUrl
     ) throws Exception {
-        nativeOnRedirectReceived(request, info, newLocationUrl);
+        nativeOnRedirectReceived(
+            handlerId,
+            request,
+            HeaderPacker.pack(info),
+            newLocationUrl
+        );
     }
 
     @Override
@@ -36,7 +62,35 @@ public class RustUrlRequestCallback extends UrlRequest.Callback {
         UrlRequest request,
         UrlResponseInfo info
     ) throws Exception {
-        nativeOnResponseStarted(request, info);
+        int statusCode = info.getHttpStatusCode();
+        byte[] headers = HeaderPacker.pack(info);
+
+        // A small body is read in full before crossing into Rust, so the
+        // whole response costs one upcall instead of one per event
+        if (smallResponseBuffer != null) {
+            long contentLength = HeaderPacker.contentLength(info);
+            if (contentLength >= 0 && contentLength <= smallResponseThreshold) {
+                buffering = true;
+                this.statusCode = statusCode;
+                this.headers = headers;
+                smallResponseBuffer.clear();
+                request.read(smallResponseBuffer);
+                return;
+            }
+        }
+
+        // Status and headers are handed over in one crossing. Rust leases a
+        // pooled direct buffer sized for the response; null means it could
+        // not and has already cancelled the request.
+        ByteBuffer byteBuffer = nativeOnResponseStarted(
+            handlerId,
+            request,
+            statusCode,
+            headers
+        );
+        if (byteBuffer != null) {
+            request.read(byteBuffer);
+        }
     }
 
     @Override
@@ -45,7 +99,48 @@ public class RustUrlRequestCallback extends UrlRequest.Callback {
         UrlResponseInfo info,
         ByteBuffer byteBuffer
     ) throws Exception {
-        nativeOnReadCompleted(request, info, byteBuffer);
+        if (buffering) {
+            if (byteBuffer.remaining() > 0) {
+                request.read(byteBuffer);
+                return;
+            }
+
+            // More body than Content-Length promised (it counts compressed
+            // bytes), so start the response with what we have and stream
+            // the rest
+            buffering = false;
+            ByteBuffer next = nativeOnResponseBuffered(
+                handlerId,
+                request,
+                statusCode,
+                headers,
+                byteBuffer,
+                byteBuffer.position(),
+                byteBuffer.limit()
+            );
+            headers = null;
+            if (next != null) {
+                next.clear();
+                request.read(next);
+            }
+            return;
+        }
+
+        // Cronet wrote the body bytes from index 0 up to the current position.
+        // Rust copies them straight out of the direct buffer, so no byte[] is
+        // allocated and the buffer never has to be flipped. It hands back the
+        // buffer for the next read, which may be a larger one from the pool.
+        ByteBuffer next = nativeOnReadCompleted(
+            handlerId,
+            request,
+            byteBuffer,
+            byteBuffer.position(),
+            byteBuffer.limit()
+        );
+        if (next != null) {
+            next.clear();
+            request.read(next);
+        }
     }
 
     @Override
@@ -53,6 +148,19 @@ public class RustUrlRequestCallback extends UrlRequest.Callback {
         UrlRequest request,
         UrlResponseInfo info
     ) {
+        if (buffering) {
+            buffering = false;
+            nativeOnSmallResponse(
+                handlerId,
+                statusCode,
+                headers,
+                smallResponseBuffer,
+                smallResponseBuffer.position(),
+                smallResponseBuffer.limit()
+            );
+            headers = null;
+            return;
+        }
         nativeOnSucceeded(request, info);
     }
 
@@ -65,22 +173,74 @@ public class RustUrlRequestCallback extends UrlRequest.Callback {
         nativeOnFailed(request, info, error);
     }
 
+    @Override
+    public void onCanceled(
+        UrlRequest request,
+        UrlResponseInfo info
+    ) {
+        nativeOnCanceled(handlerId);
+    }
+
+    /**
+     * @param headers headers packed by {@link HeaderPacker#pack}
+     */
     private native void nativeOnRedirectReceived(
+        long handlerId,
         UrlRequest request,
-        UrlResponseInfo info,
+        byte[] headers,
         String newLocationUrl
     ) throws Exception;
 
-    private native void nativeOnResponseStarted(
+    /**
+     * @param headers headers packed by {@link HeaderPacker#pack}
+     */
+    private native ByteBuffer nativeOnResponseStarted(
+        long handlerId,
         UrlRequest request,
-        UrlResponseInfo info
+        int statusCode,
+        byte[] headers
     ) throws Exception;
 
-    private native void nativeOnReadCompleted(
+    /**
+     * @return the buffer for the next read, or null if Rust has paused the
+     *         request until its consumer drains (it resumes the read itself)
+     *         or has cancelled it
+     */
+    private native ByteBuffer nativeOnReadCompleted(
+        long handlerId,
         UrlRequest request,
-        UrlResponseInfo info,
-        ByteBuffer byteBuffer
-    ) throws Exception;
+        ByteBuffer byteBuffer,
+        int position,
+        int limit
+    );
+
+    /**
+     * Starts a response whose gathered body outgrew the small-response
+     * buffer. Takes the place of nativeOnResponseStarted followed by
+     * nativeOnReadCompleted, and returns the buffer for the next read.
+     */
+    private native ByteBuffer nativeOnResponseBuffered(
+        long handlerId,
+        UrlRequest request,
+        int statusCode,
+        byte[] headers,
+        ByteBuffer byteBuffer,
+        int position,
+        int limit
+    );
+
+    /**
+     * Delivers a complete small response: status, headers and the body
+     * Cronet wrote into byteBuffer up to position.
+     */
+    private native void nativeOnSmallResponse(
+        long handlerId,
+        int statusCode,
+        byte[] headers,
+        ByteBuffer byteBuffer,
+        int position,
+        int limit
+    );
 
     private native void nativeOnSucceeded(
         UrlRequest request,
@@ -93,6 +253,8 @@ public class RustUrlRequestCallback extends UrlRequest.Callback {
         CronetException error
     );
 
+    private native void nativeOnCanceled(long handlerId);
+
     public long getHandlerId() {
         return handlerId;
     }
@@ -10,6 +10,10 @@ public class NotificationCompat {
         public Builder setContentText(CharSequence text) { return this; }
         public Builder setSmallIcon(int icon) { return this; }
         public Builder setOngoing(boolean ongoing) { return this; }
+        public Builder setOnlyAlertOnce(boolean onlyAlertOnce) { return this; }
+        public Builder setProgress(int max, int progress, boolean indeterminate) { return this; }
+        public Builder setGroup(String groupKey) { return this; }
+        public Builder setGroupSummary(boolean isGroupSummary) { return this; }
         public Notification build() { return new Notification(); }
     }
 }
@@ -15,6 +15,11 @@ public class Data {
         return value != null ? value.toString() : null;
     }
 
+    public String[] getStringArray(String key) {
+        Object value = values.get(key);
+        return value instanceof String[] ? (String[]) value : null;
+    }
+
     public int getInt(String key, int defaultValue) {
         Object value = values.get(key);
         if (value instanceof Integer) {
@@ -39,6 +44,11 @@ public class Data {
             return this;
         }
 
+        public Builder putStringArray(String key, String[] value) {
+            values.put(key, value);
+            return this;
+        }
+
         public Builder putInt(String key, int value) {
             values.put(key, value);
             return this;
@@ -27,6 +27,10 @@ public abstract class ListenableWorker {
         // Stub implementation
     }
 
+    public void onStopped() {
+        // Stub implementation
+    }
+
     public static abstract class Result {
         public static Result success() {
             return new Success();
@@ -2,5 +2,11 @@ package java.nio;
 
 public abstract class ByteBuffer {
     public abstract int remaining();
+    public abstract int position();
+    public abstract int limit();
+    public abstract int capacity();
+    // Declared on Buffer so the call resolves on every Android API level
+    public abstract Buffer clear();
+    public abstract Buffer position(int newPosition);
     public abstract ByteBuffer put(byte[] src, int offset, int length);
 }
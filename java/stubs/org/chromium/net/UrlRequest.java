@@ -8,6 +8,26 @@ import java.nio.ByteBuffer;
  */
 public abstract class UrlRequest {
 
+    /**
+     * Starts the request.
+     */
+    public abstract void start();
+
+    /**
+     * Follows a pending redirect.
+     */
+    public abstract void followRedirect();
+
+    /**
+     * Reads more of the response body into the buffer.
+     */
+    public abstract void read(ByteBuffer buffer);
+
+    /**
+     * Cancels the request.
+     */
+    public abstract void cancel();
+
     /**
      * Stub for UrlRequest.Callback abstract class.
      * Our RustUrlRequestCallback will extend this.
@@ -56,5 +76,14 @@ public abstract class UrlRequest {
             UrlResponseInfo info,
             CronetException error
         );
+
+        /**
+         * Called when the request is cancelled.
+         */
+        public void onCanceled(
+            UrlRequest request,
+            UrlResponseInfo info
+        ) {
+        }
     }
 }
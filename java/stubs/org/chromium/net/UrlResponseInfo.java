@@ -1,9 +1,21 @@
 package org.chromium.net;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * Stub for Cronet's UrlResponseInfo class.
  * Only used at compile time - real implementation provided by Cronet at runtime.
  */
 public abstract class UrlResponseInfo {
-    // Stub - no implementation needed
+
+    /**
+     * Returns the HTTP status code.
+     */
+    public abstract int getHttpStatusCode();
+
+    /**
+     * Returns the response headers in the order they were received.
+     */
+    public abstract List<Map.Entry<String, String>> getAllHeadersAsList();
 }
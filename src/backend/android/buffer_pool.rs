@@ -0,0 +1,178 @@
+//! Pool of direct ByteBuffers used by the Cronet read loop
+
+use crate::{Error, Result};
+use jni::{JNIEnv, objects::GlobalRef};
+use std::ptr::NonNull;
+use std::sync::Mutex;
+
+/// Smallest read buffer handed to Cronet
+pub const MIN_READ_BUFFER_SIZE: usize = 16 * 1024;
+
+/// Largest read buffer handed to Cronet
+pub const MAX_READ_BUFFER_SIZE: usize = 1024 * 1024;
+
+/// Read buffer size used when the response has no Content-Length
+pub const DEFAULT_READ_BUFFER_SIZE: usize = 32 * 1024;
+
+/// Number of size classes between the minimum and maximum (16 KB, 32 KB, ... 1 MB)
+const SIZE_CLASSES: usize =
+    (MAX_READ_BUFFER_SIZE.trailing_zeros() - MIN_READ_BUFFER_SIZE.trailing_zeros()) as usize + 1;
+
+/// Idle buffers kept per size class; anything beyond this is freed immediately
+const MAX_IDLE_PER_CLASS: usize = 4;
+
+/// Round a requested size to the size class that will serve it
+pub fn size_class(size: usize) -> usize {
+    size.clamp(MIN_READ_BUFFER_SIZE, MAX_READ_BUFFER_SIZE).next_power_of_two()
+}
+
+fn class_index(size: usize) -> usize {
+    (size.trailing_zeros() - MIN_READ_BUFFER_SIZE.trailing_zeros()) as usize
+}
+
+/// A direct ByteBuffer backed by memory owned by Rust
+///
+/// Unlike `ByteBuffer.allocateDirect`, the native memory is released as soon as the
+/// buffer is dropped rather than whenever the GC gets around to running its Cleaner.
+/// The Java object must not be used after that point, so a buffer is only ever
+/// dropped or returned to the pool once Cronet has finished with the request.
+pub struct ReadBuffer {
+    byte_buffer: GlobalRef,
+    memory: NonNull<[u8]>,
+}
+
+// The memory is only ever accessed through the ByteBuffer by one request at a time
+unsafe impl Send for ReadBuffer {}
+unsafe impl Sync for ReadBuffer {}
+
+impl ReadBuffer {
+    fn new(env: &mut JNIEnv, size: usize) -> Result<Self> {
+        let memory = NonNull::from(Box::leak(vec![0u8; size].into_boxed_slice()));
+
+        let byte_buffer = unsafe { env.new_direct_byte_buffer(memory.as_ptr() as *mut u8, size) }
+            .and_then(|buffer| env.new_global_ref(&buffer))
+            .map_err(|e| {
+                // Nothing on the Java side can be referencing the memory yet
+                drop(unsafe { Box::from_raw(memory.as_ptr()) });
+                Error::Internal(format!("Failed to create direct ByteBuffer: {}", e))
+            })?;
+
+        Ok(Self {
+            byte_buffer,
+            memory,
+        })
+    }
+
+    /// Capacity of the buffer in bytes
+    pub fn capacity(&self) -> usize {
+        self.memory.len()
+    }
+
+    /// The `java.nio.ByteBuffer` to hand to `UrlRequest.read()`
+    pub fn byte_buffer(&self) -> &GlobalRef {
+        &self.byte_buffer
+    }
+}
+
+impl Drop for ReadBuffer {
+    fn drop(&mut self) {
+        drop(unsafe { Box::from_raw(self.memory.as_ptr()) });
+    }
+}
+
+/// Per-engine pool of read buffers, bucketed by power-of-two size
+pub struct ReadBufferPool {
+    idle: Mutex<Vec<Vec<ReadBuffer>>>,
+}
+
+impl ReadBufferPool {
+    /// Create an empty pool
+    pub fn new() -> Self {
+        Self {
+            idle: Mutex::new((0..SIZE_CLASSES).map(|_| Vec::new()).collect()),
+        }
+    }
+
+    /// Lease a buffer of at least `size` bytes (clamped to 16 KB..1 MB)
+    pub fn lease(&self, env: &mut JNIEnv, size: usize) -> Result<ReadBuffer> {
+        let size = size_class(size);
+
+        if let Ok(mut idle) = self.idle.lock() {
+            if let Some(buffer) = idle[class_index(size)].pop() {
+                return Ok(buffer);
+            }
+        }
+
+        ReadBuffer::new(env, size)
+    }
+
+    /// Return a buffer once its request has finished
+    pub fn release(&self, buffer: ReadBuffer) {
+        if let Ok(mut idle) = self.idle.lock() {
+            let bucket = &mut idle[class_index(buffer.capacity())];
+            if bucket.len() < MAX_IDLE_PER_CLASS {
+                bucket.push(buffer);
+            }
+        }
+    }
+}
+
+impl Default for ReadBufferPool {
+    fn default() -> Self {
+        Self::new()
+    }
+}
+
+/// Pick the first read buffer size for a response
+///
+/// Small responses get a buffer that fits them in one read; large ones start big
+/// so fewer `onReadCompleted` crossings are needed. A single read must still fit
+/// under the request's high-water mark, so the size never exceeds the largest
+/// size class that does, nor drops below the smallest class.
+pub fn initial_read_size(content_length: Option<u64>, high_water_mark: usize) -> usize {
+    let wanted = match content_length {
+        Some(length) => size_class(length.min(MAX_READ_BUFFER_SIZE as u64) as usize),
+        None => DEFAULT_READ_BUFFER_SIZE,
+    };
+    let limit = high_water_mark.clamp(MIN_READ_BUFFER_SIZE, MAX_READ_BUFFER_SIZE);
+    // Round down, so the buffer is a size class no larger than the limit
+    let largest = 1 << (usize::BITS - 1 - limit.leading_zeros());
+    wanted.min(largest)
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+
+    #[test]
+    fn test_size_class_bounds() {
+        assert_eq!(size_class(0), MIN_READ_BUFFER_SIZE);
+        assert_eq!(size_class(20 * 1024), 32 * 1024);
+        assert_eq!(size_class(64 * 1024), 64 * 1024);
+        assert_eq!(size_class(10 * 1024 * 1024), MAX_READ_BUFFER_SIZE);
+        assert_eq!(class_index(MIN_READ_BUFFER_SIZE), 0);
+        assert_eq!(class_index(MAX_READ_BUFFER_SIZE), SIZE_CLASSES - 1);
+    }
+
+    #[test]
+    fn test_initial_read_size() {
+        let unlimited = usize::MAX;
+        assert_eq!(initial_read_size(None, unlimited), DEFAULT_READ_BUFFER_SIZE);
+        assert_eq!(initial_read_size(Some(512), unlimited), MIN_READ_BUFFER_SIZE);
+        assert_eq!(initial_read_size(Some(300 * 1024), unlimited), 512 * 1024);
+        assert_eq!(
+            initial_read_size(Some(500 * 1024 * 1024), unlimited),
+            MAX_READ_BUFFER_SIZE
+        );
+    }
+
+    #[test]
+    fn test_initial_read_size_fits_high_water_mark() {
+        let one_megabyte = Some(1024 * 1024);
+        assert_eq!(initial_read_size(one_megabyte, 64 * 1024), 64 * 1024);
+        // Not a size class, so the next class down
+        assert_eq!(initial_read_size(one_megabyte, 100 * 1024), 64 * 1024);
+        assert_eq!(initial_read_size(one_megabyte, 1024), MIN_READ_BUFFER_SIZE);
+        assert_eq!(initial_read_size(None, 16 * 1024), MIN_READ_BUFFER_SIZE);
+    }
+}
@@ -1,19 +1,58 @@
 //! UrlRequest.Callback implementation for bridging Cronet to Rust async
 
+use super::buffer_pool::{
+    MAX_READ_BUFFER_SIZE, MIN_READ_BUFFER_SIZE, ReadBuffer, ReadBufferPool, initial_read_size,
+};
+use super::jni_cache::jni_cache;
 use crate::{Error, Result};
-use bytes::Bytes;
-use http::{HeaderMap, StatusCode};
-use jni::sys::jlong;
+use bytes::{Bytes, BytesMut};
+use http::{HeaderMap, HeaderName, HeaderValue, StatusCode};
+use jni::sys::{jint, jlong, jobject};
 use jni::{
     JNIEnv,
-    objects::{GlobalRef, JClass, JObject},
+    objects::{GlobalRef, JByteArray, JByteBuffer, JClass, JObject},
 };
-use tokio::sync::mpsc;
+use std::sync::Arc;
+use tokio::sync::{mpsc, oneshot};
+
+/// Initial capacity of the per-request body buffer
+const BODY_BUFFER_CAPACITY: usize = 64 * 1024;
+
+/// Consecutive reads that fill the whole read buffer before it is doubled
+///
+/// A read that fills the buffer means the link delivered more than one buffer's
+/// worth between callbacks, so a larger buffer saves JNI crossings.
+const GROW_AFTER_FULL_READS: u32 = 4;
+
+/// Body bytes that may be queued ahead of the consumer when the request does not say
+pub const DEFAULT_BODY_HIGH_WATER_MARK: usize = 2 * 1024 * 1024;
+
+/// Largest Content-Length gathered in Java when the request does not say
+pub const DEFAULT_SMALL_RESPONSE_THRESHOLD: usize = 64 * 1024;
+
+/// Upper bound on the small-response threshold, so its buffer comes from the pool
+pub const MAX_SMALL_RESPONSE_THRESHOLD: usize = MAX_READ_BUFFER_SIZE / 2;
 
 /// Rust-side callback handler that receives Cronet callbacks
 pub struct CallbackHandler {
     response_sender: Option<mpsc::UnboundedSender<CallbackEvent>>,
-    body_sender: Option<mpsc::UnboundedSender<Result<Bytes>>>,
+    /// Created once the response starts; the receiver becomes the response body
+    body_sender: Option<mpsc::Sender<Result<Bytes>>>,
+    /// Body chunks are split off this buffer, so its allocation is reused once
+    /// the consumer drops earlier chunks
+    body_buffer: BytesMut,
+    read_buffers: Arc<ReadBufferPool>,
+    /// Direct buffer Cronet is currently reading into
+    read_buffer: Option<ReadBuffer>,
+    /// Body bytes still expected according to Content-Length
+    remaining: Option<u64>,
+    full_reads: u32,
+    /// Most body bytes allowed to queue up before reads are paused
+    high_water_mark: usize,
+    /// Error to report when Cronet confirms a cancellation we asked for
+    cancel_reason: Option<Error>,
+    /// Dropped with the handler, which tells watchers the request has finished
+    finished: Option<oneshot::Sender<()>>,
 }
 
 /// Events from Cronet callbacks
@@ -22,6 +61,7 @@ pub enum CallbackEvent {
     ResponseStarted {
         status: StatusCode,
         headers: HeaderMap,
+        body: mpsc::Receiver<Result<Bytes>>,
     },
     Redirect {
         headers: HeaderMap,
@@ -29,282 +69,375 @@ pub enum CallbackEvent {
     ReadCompleted {
         data: Bytes,
     },
-    Succeeded,
     Failed {
         error: Error,
     },
 }
 
+/// What to do after a chunk has been handed to the consumer
+pub enum ReadOutcome {
+    /// The consumer has room, read again straight away
+    Continue,
+    /// The consumer is out of credit; read again once this many slots are free
+    Pause(mpsc::Sender<Result<Bytes>>, usize),
+    /// Nobody is listening any more
+    Cancel,
+}
+
 impl CallbackHandler {
-    /// Create a new callback handler
-    pub fn new() -> (
-        Self,
-        mpsc::UnboundedReceiver<CallbackEvent>,
-        mpsc::UnboundedReceiver<Result<Bytes>>,
-    ) {
+    /// Create a new callback handler that leases read buffers from `read_buffers`
+    ///
+    /// At most `high_water_mark` body bytes are queued ahead of the consumer.
+    pub fn new(
+        read_buffers: Arc<ReadBufferPool>,
+        high_water_mark: usize,
+    ) -> (Self, mpsc::UnboundedReceiver<CallbackEvent>) {
         let (response_tx, response_rx) = mpsc::unbounded_channel();
-        let (body_tx, body_rx) = mpsc::unbounded_channel();
 
         let handler = Self {
             response_sender: Some(response_tx),
-            body_sender: Some(body_tx),
+            body_sender: None,
+            body_buffer: BytesMut::with_capacity(BODY_BUFFER_CAPACITY),
+            read_buffers,
+            read_buffer: None,
+            remaining: None,
+            full_reads: 0,
+            high_water_mark: high_water_mark.max(MIN_READ_BUFFER_SIZE),
+            cancel_reason: None,
+            finished: None,
         };
 
-        (handler, response_rx, body_rx)
+        (handler, response_rx)
     }
 
-    /// Handle onResponseStarted callback
-    pub fn on_response_started(&mut self, env: &mut JNIEnv, response_info: &JObject) -> Result<()> {
-        println!("📡 onResponseStarted called");
+    /// Get a receiver that resolves once the request reaches a terminal callback
+    pub fn on_finished(&mut self) -> oneshot::Receiver<()> {
+        let (finished_tx, finished_rx) = oneshot::channel();
+        self.finished = Some(finished_tx);
+        finished_rx
+    }
 
-        // Extract status code
-        let status_code = env
-            .call_method(response_info, "getHttpStatusCode", "()I", &[])
-            .map_err(|e| Error::Internal(format!("Failed to get status code: {}", e)))?
-            .i()
-            .map_err(|e| Error::Internal(format!("Failed to convert status code: {}", e)))?;
+    /// Record why we are about to cancel, so onCanceled reports the right error
+    pub fn set_cancel_reason(&mut self, error: Error) {
+        self.cancel_reason = Some(error);
+    }
 
+    /// Handle onResponseStarted callback
+    ///
+    /// Hands the body receiver to `execute_request`, which returns the response
+    /// right away while chunks keep streaming in.
+    pub fn on_response_started(&mut self, status_code: jint, headers: HeaderMap) -> Result<()> {
+        println!("📡 onResponseStarted called");
         println!("📡 Status code: {}", status_code);
 
         let status = StatusCode::from_u16(status_code as u16)
             .map_err(|e| Error::Internal(format!("Invalid status code {}: {}", status_code, e)))?;
+        println!("📡 Received {} headers", headers.len());
+
+        self.remaining = headers
+            .get(http::header::CONTENT_LENGTH)
+            .and_then(|v| v.to_str().ok())
+            .and_then(|v| v.parse().ok());
 
-        // Extract headers from getAllHeaders()
-        let headers = self.extract_headers(env, response_info)?;
-        println!("📡 Extracted {} headers", headers.len());
+        // One slot per smallest possible read; credits decide how many are usable
+        let (body_tx, body_rx) = mpsc::channel(self.high_water_mark / MIN_READ_BUFFER_SIZE);
+        self.body_sender = Some(body_tx);
 
-        if let Some(sender) = &self.response_sender {
+        // From here on failures are reported through the body channel
+        if let Some(sender) = self.response_sender.take() {
             println!("📡 Sending ResponseStarted event");
-            let _ = sender.send(CallbackEvent::ResponseStarted { status, headers });
+            let _ = sender.send(CallbackEvent::ResponseStarted {
+                status,
+                headers,
+                body: body_rx,
+            });
         }
 
         Ok(())
     }
 
+    /// Lease the buffer Java gathers small responses in before crossing into Rust
+    ///
+    /// It is held as the read buffer, so it goes back to the pool when the request
+    /// finishes and becomes the streaming buffer if the body turns out larger.
+    pub fn lease_small_response_buffer(
+        &mut self,
+        env: &mut JNIEnv,
+        threshold: usize,
+    ) -> Result<GlobalRef> {
+        // One spare byte, so a body of exactly `threshold` bytes never fills it
+        let buffer = self.read_buffers.lease(env, threshold + 1)?;
+        let byte_buffer = buffer.byte_buffer().clone();
+        self.read_buffer = Some(buffer);
+        Ok(byte_buffer)
+    }
+
+    /// Handle a response Java gathered in full in the small-response buffer
+    ///
+    /// The response starts and finishes in the same call, with the body as a
+    /// single chunk.
+    pub fn on_small_response(&mut self, status_code: jint, headers: HeaderMap, body: &[u8]) {
+        if let Err(e) = self.on_response_started(status_code, headers) {
+            self.on_failed(e);
+            return;
+        }
+
+        // The body channel is still empty, so the chunk always has a slot
+        let _ = self.on_read_completed(body);
+        self.on_succeeded();
+    }
+
     /// Handle onReadCompleted callback
-    pub fn on_read_completed(&mut self, env: &mut JNIEnv, byte_buffer: &JObject) -> Result<()> {
-        println!("📡 onReadCompleted called");
+    ///
+    /// `data` points into Cronet's direct read buffer and is only valid for the
+    /// duration of the call, so it is copied once into the pooled body buffer.
+    /// A read is only ever issued while the consumer has credit, so the chunk
+    /// always has a slot to go into.
+    pub fn on_read_completed(&mut self, data: &[u8]) -> ReadOutcome {
+        println!("📡 onReadCompleted called, read {} bytes", data.len());
+
+        let Some(sender) = &self.body_sender else {
+            return ReadOutcome::Cancel;
+        };
+
+        if data.is_empty() {
+            return ReadOutcome::Continue;
+        }
+
+        if let Some(remaining) = self.remaining.as_mut() {
+            *remaining = remaining.saturating_sub(data.len() as u64);
+        }
+
+        let permit = match sender.try_reserve() {
+            Ok(permit) => permit,
+            Err(mpsc::error::TrySendError::Closed(())) => {
+                println!("📡 Body receiver dropped, cancelling request");
+                return ReadOutcome::Cancel;
+            }
+            Err(mpsc::error::TrySendError::Full(())) => {
+                tracing::error!("Body channel full while a read was outstanding");
+                self.cancel_reason = Some(Error::Internal(
+                    "Response body channel overflowed".to_string(),
+                ));
+                return ReadOutcome::Cancel;
+            }
+        };
+
+        self.body_buffer.extend_from_slice(data);
+        permit.send(Ok(self.body_buffer.split().freeze()));
 
-        // Extract data from ByteBuffer
-        let data = self.extract_byte_buffer_data(env, byte_buffer)?;
-        println!("📡 Read {} bytes", data.len());
+        // Every queued chunk is charged as a full read buffer, so the bytes queued
+        // ahead of the consumer never exceed the high-water mark
+        let queued = sender.max_capacity() - sender.capacity();
+        let credits = self.credits();
 
-        if let Some(sender) = &self.body_sender {
-            println!("📡 Sending {} bytes to body channel", data.len());
-            let _ = sender.send(Ok(data));
-            println!("📡 Sent to body channel");
+        if queued >= credits {
+            println!("📡 {} chunks queued, pausing reads", queued);
+            // Resume once the queue is back under the credit limit
+            let slots_needed = sender.max_capacity() - credits + 1;
+            ReadOutcome::Pause(sender.clone(), slots_needed)
         } else {
-            println!("📡 WARNING: body_sender is None, cannot send data!");
+            ReadOutcome::Continue
         }
+    }
 
-        Ok(())
+    /// Number of read-buffer-sized chunks that fit under the high-water mark
+    fn credits(&self) -> usize {
+        let buffer_size = self
+            .read_buffer
+            .as_ref()
+            .map(ReadBuffer::capacity)
+            .unwrap_or(MIN_READ_BUFFER_SIZE);
+
+        (self.high_water_mark / buffer_size).max(1)
+    }
+
+    /// Lease the first read buffer once the response has started
+    pub fn start_reading<'l>(&mut self, env: &mut JNIEnv<'l>) -> Result<JObject<'l>> {
+        // Java streams responses too large for the small-response buffer without
+        // ever reading into it, so it can go back to the pool
+        self.release_read_buffer();
+
+        let size = initial_read_size(self.remaining, self.high_water_mark);
+        let buffer = self.read_buffers.lease(env, size)?;
+        println!("📡 Leased {} byte read buffer", buffer.capacity());
+
+        let byte_buffer = env
+            .new_local_ref(buffer.byte_buffer())
+            .map_err(|e| Error::Internal(format!("Failed to create ByteBuffer ref: {}", e)))?;
+
+        self.read_buffer = Some(buffer);
+        Ok(byte_buffer)
+    }
+
+    /// Grow the read buffer if reads keep filling it
+    pub fn adapt_read_buffer(&mut self, env: &mut JNIEnv, filled: usize) {
+        let Some(capacity) = self.read_buffer.as_ref().map(ReadBuffer::capacity) else {
+            return;
+        };
+
+        if filled < capacity {
+            self.full_reads = 0;
+        } else {
+            self.full_reads += 1;
+        }
+
+        // No point growing past what is left of the body, and a single read must
+        // still fit under the high-water mark
+        let body_left = self.remaining.is_none_or(|remaining| remaining > capacity as u64);
+        let can_grow =
+            capacity < MAX_READ_BUFFER_SIZE && capacity * 2 <= self.high_water_mark && body_left;
+
+        if self.full_reads >= GROW_AFTER_FULL_READS && can_grow {
+            match self.read_buffers.lease(env, capacity * 2) {
+                Ok(larger) => {
+                    println!("📡 Growing read buffer to {} bytes", larger.capacity());
+                    if let Some(previous) = self.read_buffer.replace(larger) {
+                        self.read_buffers.release(previous);
+                    }
+                }
+                Err(e) => tracing::warn!("Failed to grow read buffer: {}", e),
+            }
+            self.full_reads = 0;
+        }
+    }
+
+    /// The ByteBuffer the next read should go into
+    pub fn read_buffer(&self) -> Option<GlobalRef> {
+        self.read_buffer
+            .as_ref()
+            .map(|buffer| buffer.byte_buffer().clone())
+    }
+
+    /// Give the read buffer back to the pool once Cronet is done with the request
+    fn release_read_buffer(&mut self) {
+        if let Some(buffer) = self.read_buffer.take() {
+            self.read_buffers.release(buffer);
+        }
     }
 
     /// Handle onSucceeded callback
     pub fn on_succeeded(&mut self) {
         println!("📡 onSucceeded called");
-
-        if let Some(sender) = &self.response_sender {
-            let _ = sender.send(CallbackEvent::Succeeded);
-        }
+        self.release_read_buffer();
 
         // Close the body channel
         self.body_sender = None;
     }
 
+    /// Handle onCanceled callback
+    pub fn on_canceled(&mut self) {
+        let error = self.cancel_reason.take().unwrap_or(Error::Cancelled);
+        self.on_failed(error);
+    }
+
     /// Handle onFailed callback
     pub fn on_failed(&mut self, error: Error) {
         println!("📡 onFailed called: {:?}", error);
+        self.release_read_buffer();
         // Send error to response_sender if it still exists (early failure before response started)
         // Otherwise send to body_sender (failure during body streaming)
         // We can only send to one since Error is no longer Clone (due to HttpError containing Response)
         if let Some(sender) = self.response_sender.take() {
             let _ = sender.send(CallbackEvent::Failed { error });
         } else if let Some(sender) = self.body_sender.take() {
-            let _ = sender.send(Err(error));
+            if let Err(mpsc::error::TrySendError::Full(error)) = sender.try_send(Err(error)) {
+                // Deliver the error behind the chunks the consumer has yet to read
+                super::get_runtime().spawn(async move {
+                    let _ = sender.send(error).await;
+                });
+            }
         }
 
         // Close remaining channels
         self.response_sender = None;
         self.body_sender = None;
     }
+}
 
-    /// Extract headers from UrlResponseInfo.getAllHeaders()
-    fn extract_headers(&self, env: &mut JNIEnv, response_info: &JObject) -> Result<HeaderMap> {
-        let mut headers = HeaderMap::new();
-
-        // Call getAllHeaders() which returns Map<String, List<String>>
-        let headers_map = env
-            .call_method(response_info, "getAllHeaders", "()Ljava/util/Map;", &[])
-            .map_err(|e| Error::Internal(format!("Failed to get headers map: {}", e)))?
-            .l()
-            .map_err(|e| Error::Internal(format!("Failed to convert headers map: {}", e)))?;
-
-        // Get entrySet() to iterate over the map
-        let entry_set = env
-            .call_method(&headers_map, "entrySet", "()Ljava/util/Set;", &[])
-            .map_err(|e| Error::Internal(format!("Failed to get entry set: {}", e)))?
-            .l()
-            .map_err(|e| Error::Internal(format!("Failed to convert entry set: {}", e)))?;
-
-        // Get iterator
-        let iterator = env
-            .call_method(&entry_set, "iterator", "()Ljava/util/Iterator;", &[])
-            .map_err(|e| Error::Internal(format!("Failed to get iterator: {}", e)))?
-            .l()
-            .map_err(|e| Error::Internal(format!("Failed to convert iterator: {}", e)))?;
-
-        // Iterate over entries
-        loop {
-            let has_next = env
-                .call_method(&iterator, "hasNext", "()Z", &[])
-                .map_err(|e| Error::Internal(format!("Failed to call hasNext: {}", e)))?
-                .z()
-                .map_err(|e| Error::Internal(format!("Failed to convert hasNext: {}", e)))?;
-
-            if !has_next {
-                break;
-            }
+/// Copy headers packed by `HeaderPacker.pack` out of the Java array and decode them
+fn read_packed_headers(env: &JNIEnv, packed: &JByteArray) -> Result<HeaderMap> {
+    let packed = env
+        .convert_byte_array(packed)
+        .map_err(|e| Error::Internal(format!("Failed to read packed headers: {}", e)))?;
+    decode_packed_headers(&packed)
+}
 
-            let entry = env
-                .call_method(&iterator, "next", "()Ljava/lang/Object;", &[])
-                .map_err(|e| Error::Internal(format!("Failed to get next entry: {}", e)))?
-                .l()
-                .map_err(|e| Error::Internal(format!("Failed to convert entry: {}", e)))?;
-
-            // Get key (header name)
-            let key_obj = env
-                .call_method(&entry, "getKey", "()Ljava/lang/Object;", &[])
-                .map_err(|e| Error::Internal(format!("Failed to get key: {}", e)))?
-                .l()
-                .map_err(|e| Error::Internal(format!("Failed to convert key: {}", e)))?;
-
-            let key_jstring = unsafe { jni::objects::JString::from_raw(key_obj.as_raw()) };
-            let key: String = env
-                .get_string(&key_jstring)
-                .map_err(|e| Error::Internal(format!("Failed to get key string: {}", e)))?
-                .into();
-
-            // Get value (List<String>)
-            let value_list = env
-                .call_method(&entry, "getValue", "()Ljava/lang/Object;", &[])
-                .map_err(|e| Error::Internal(format!("Failed to get value: {}", e)))?
-                .l()
-                .map_err(|e| Error::Internal(format!("Failed to convert value: {}", e)))?;
-
-            // Convert List to array to iterate
-            let value_array = env
-                .call_method(&value_list, "toArray", "()[Ljava/lang/Object;", &[])
-                .map_err(|e| Error::Internal(format!("Failed to convert list to array: {}", e)))?
-                .l()
-                .map_err(|e| Error::Internal(format!("Failed to get array: {}", e)))?;
-
-            let value_jarray =
-                unsafe { jni::objects::JObjectArray::from_raw(value_array.as_raw()) };
-            let array_len = env
-                .get_array_length(&value_jarray)
-                .map_err(|e| Error::Internal(format!("Failed to get array length: {}", e)))?;
-
-            // HTTP allows multiple values for the same header
-            for i in 0..array_len {
-                let value_obj = env
-                    .get_object_array_element(&value_jarray, i)
-                    .map_err(|e| Error::Internal(format!("Failed to get array element: {}", e)))?;
-
-                let value_jstring = unsafe { jni::objects::JString::from_raw(value_obj.as_raw()) };
-                let value: String = env
-                    .get_string(&value_jstring)
-                    .map_err(|e| Error::Internal(format!("Failed to get value string: {}", e)))?
-                    .into();
-
-                // Insert into HeaderMap
-                if let Ok(header_name) = http::header::HeaderName::from_bytes(key.as_bytes()) {
-                    if let Ok(header_value) = http::header::HeaderValue::from_str(&value) {
-                        headers.append(header_name, header_value);
-                    }
-                }
-            }
+/// Decode a header count followed by length-prefixed names and values
+///
+/// Headers that are not valid HTTP header names or values are skipped.
+fn decode_packed_headers(mut packed: &[u8]) -> Result<HeaderMap> {
+    let count = take_u32(&mut packed)? as usize;
+
+    // Every header takes at least 8 bytes, so a corrupt count cannot over-allocate
+    let mut headers = HeaderMap::with_capacity(count.min(packed.len() / 8));
+    for _ in 0..count {
+        let name = take_field(&mut packed)?;
+        let value = take_field(&mut packed)?;
+        if let (Ok(name), Ok(value)) =
+            (HeaderName::from_bytes(name), HeaderValue::from_bytes(value))
+        {
+            headers.append(name, value);
         }
-
-        Ok(headers)
     }
 
-    /// Extract data from a Java ByteBuffer
-    fn extract_byte_buffer_data(&self, env: &mut JNIEnv, byte_buffer: &JObject) -> Result<Bytes> {
-        // IMPORTANT: When Cronet writes to the ByteBuffer, it advances the position.
-        // The data is from position 0 to current position.
-        // We need to flip the buffer to prepare it for reading.
-        env.call_method(byte_buffer, "flip", "()Ljava/nio/Buffer;", &[])
-            .map_err(|e| Error::Internal(format!("Failed to flip ByteBuffer: {}", e)))?;
-
-        // Get the position and limit of the ByteBuffer AFTER flipping
-        let position = env
-            .call_method(byte_buffer, "position", "()I", &[])
-            .map_err(|e| Error::Internal(format!("Failed to get ByteBuffer position: {}", e)))?
-            .i()
-            .map_err(|e| Error::Internal(format!("Failed to convert position: {}", e)))?
-            as usize;
-
-        let limit = env
-            .call_method(byte_buffer, "limit", "()I", &[])
-            .map_err(|e| Error::Internal(format!("Failed to get ByteBuffer limit: {}", e)))?
-            .i()
-            .map_err(|e| Error::Internal(format!("Failed to convert limit: {}", e)))?
-            as usize;
-
-        let length = limit - position;
-
-        if length == 0 {
-            return Ok(Bytes::new());
-        }
+    Ok(headers)
+}
 
-        // Create a byte array to hold the data
-        let byte_array = env
-            .new_byte_array(length as i32)
-            .map_err(|e| Error::Internal(format!("Failed to create byte array: {}", e)))?;
-
-        // Copy data from ByteBuffer to byte array
-        // This is a bit complex in JNI - we need to get the buffer's array or use direct buffer access
-
-        // For now, let's use a simpler approach with array() method if available
-        let has_array = env
-            .call_method(byte_buffer, "hasArray", "()Z", &[])
-            .map_err(|e| {
-                Error::Internal(format!("Failed to check if ByteBuffer has array: {}", e))
-            })?
-            .z()
-            .map_err(|e| Error::Internal(format!("Failed to convert hasArray result: {}", e)))?;
-
-        // Use ByteBuffer.get(byte[]) to read data into our array
-        // This handles both direct and array-backed buffers
-        env.call_method(
-            byte_buffer,
-            "get",
-            "([B)Ljava/nio/ByteBuffer;",
-            &[(&byte_array).into()],
-        )
-        .map_err(|e| Error::Internal(format!("Failed to get bytes from ByteBuffer: {}", e)))?;
+fn take_u32(packed: &mut &[u8]) -> Result<u32> {
+    let Some((length, rest)) = packed.split_first_chunk::<4>() else {
+        return Err(Error::Internal("Truncated packed headers".to_string()));
+    };
+    *packed = rest;
+    Ok(u32::from_be_bytes(*length))
+}
 
-        // Copy data from JNI array into our buffer
-        let mut buffer = vec![0i8; length];
-        env.get_byte_array_region(&byte_array, 0, &mut buffer)
-            .map_err(|e| Error::Internal(format!("Failed to get byte array region: {}", e)))?;
+fn take_field<'a>(packed: &mut &'a [u8]) -> Result<&'a [u8]> {
+    let length = take_u32(packed)? as usize;
+    if packed.len() < length {
+        return Err(Error::Internal("Truncated packed headers".to_string()));
+    }
+    let (field, rest) = packed.split_at(length);
+    *packed = rest;
+    Ok(field)
+}
 
-        // Convert i8 to u8 and return
-        let u8_vec: Vec<u8> = buffer.iter().map(|&b| b as u8).collect();
-        Ok(Bytes::from(u8_vec))
+/// Borrow the bytes Cronet wrote into a direct ByteBuffer
+///
+/// Cronet fills the buffer from index 0 up to `position`. The returned slice
+/// aliases native memory owned by the buffer, which stays alive for as long as
+/// the JNI local reference does.
+fn direct_buffer_slice<'b>(
+    env: &JNIEnv,
+    byte_buffer: &'b JByteBuffer,
+    position: jint,
+    limit: jint,
+) -> Result<&'b [u8]> {
+    let address = env
+        .get_direct_buffer_address(byte_buffer)
+        .map_err(|e| Error::Internal(format!("Failed to get direct buffer address: {}", e)))?;
+
+    let capacity = env
+        .get_direct_buffer_capacity(byte_buffer)
+        .map_err(|e| Error::Internal(format!("Failed to get direct buffer capacity: {}", e)))?;
+
+    if position < 0 || position > limit || limit as usize > capacity {
+        return Err(Error::Internal(format!(
+            "Invalid ByteBuffer range: position {}, limit {}, capacity {}",
+            position, limit, capacity
+        )));
     }
+
+    Ok(unsafe { std::slice::from_raw_parts(address, position as usize) })
 }
 
+use super::registry::HandleRegistry;
 use once_cell::sync::OnceCell;
-use std::sync::LazyLock;
+use std::sync::{LazyLock, Mutex};
 
-/// Global storage for callback handlers
-/// In practice, you'd want a more sophisticated system for managing these
-static CALLBACK_HANDLERS: LazyLock<
-    std::sync::Mutex<std::collections::HashMap<jlong, Box<CallbackHandler>>>,
-> = LazyLock::new(|| std::sync::Mutex::new(std::collections::HashMap::new()));
-static CALLBACK_COUNTER: std::sync::atomic::AtomicI64 = std::sync::atomic::AtomicI64::new(1);
+/// Global storage for callback handlers, addressed by `RustUrlRequestCallback.handlerId`
+static CALLBACK_HANDLERS: LazyLock<HandleRegistry<Mutex<CallbackHandler>>> =
+    LazyLock::new(HandleRegistry::new);
 
 /// Global storage for the loaded callback class
 static CALLBACK_CLASS: OnceCell<GlobalRef> = OnceCell::new();
@@ -314,34 +447,35 @@ static DEX_CLASS_LOADER: OnceCell<GlobalRef> = OnceCell::new();
 
 /// Register a callback handler and return its ID
 pub fn register_callback_handler(handler: CallbackHandler) -> jlong {
-    let id = CALLBACK_COUNTER.fetch_add(1, std::sync::atomic::Ordering::SeqCst);
-    if let Ok(mut handlers) = CALLBACK_HANDLERS.lock() {
-        handlers.insert(id, Box::new(handler));
-    }
-    id
+    CALLBACK_HANDLERS.insert(Mutex::new(handler))
 }
 
-/// Re-insert a callback handler with the same ID
-pub fn reinsert_callback_handler(id: jlong, handler: CallbackHandler) {
-    if let Ok(mut handlers) = CALLBACK_HANDLERS.lock() {
-        handlers.insert(id, Box::new(handler));
-    }
+/// Run `f` against a registered callback handler, leaving it registered
+///
+/// Only the handler's own lock is held while `f` runs, so callbacks for
+/// different requests never wait on each other.
+pub fn with_callback_handler<R>(
+    id: jlong,
+    f: impl FnOnce(&mut CallbackHandler) -> R,
+) -> Option<R> {
+    let handler = CALLBACK_HANDLERS.get(id)?;
+    let mut handler = handler.lock().unwrap_or_else(|e| e.into_inner());
+    Some(f(&mut handler))
 }
 
-/// Get a callback handler by ID
-pub fn get_callback_handler(id: jlong) -> Option<Box<CallbackHandler>> {
-    if let Ok(mut handlers) = CALLBACK_HANDLERS.lock() {
-        handlers.remove(&id)
-    } else {
-        None
-    }
+/// Remove a callback handler and run `f` against it, for terminal callbacks
+pub fn finish_callback_handler<R>(
+    id: jlong,
+    f: impl FnOnce(&mut CallbackHandler) -> R,
+) -> Option<R> {
+    let handler = CALLBACK_HANDLERS.remove(id)?;
+    let mut handler = handler.lock().unwrap_or_else(|e| e.into_inner());
+    Some(f(&mut handler))
 }
 
 /// Remove a callback handler
 pub fn unregister_callback_handler(id: jlong) {
-    if let Ok(mut handlers) = CALLBACK_HANDLERS.lock() {
-        handlers.remove(&id);
-    }
+    CALLBACK_HANDLERS.remove(id);
 }
 
 // JNI callback functions that will be called from Java
@@ -362,55 +496,39 @@ const ERROR_OTHER: i32 = 16;
 
 /// Extract error information from CronetException
 fn extract_cronet_error(env: &mut JNIEnv, error: &JObject) -> Error {
-    // Get error message from getMessage()
-    let message = match env.call_method(error, "getMessage", "()Ljava/lang/String;", &[]) {
-        Ok(result) => match result.l() {
-            Ok(jstring) => {
-                let java_str = unsafe { jni::objects::JString::from_raw(jstring.as_raw()) };
-                match env.get_string(&java_str) {
-                    Ok(s) => s.into(),
-                    Err(_) => "Unknown error".to_string(),
-                }
-            }
-            Err(_) => "Unknown error".to_string(),
-        },
-        Err(_) => "Unknown error".to_string(),
-    };
-
-    // Check if it's a NetworkException to get error code
-    let network_exception_class = match env.find_class("org/chromium/net/NetworkException") {
-        Ok(cls) => cls,
+    let cache = match jni_cache(env) {
+        Ok(cache) => cache,
         Err(e) => {
-            tracing::warn!("Failed to find NetworkException class: {}", e);
-            return Error::Network { code: -1, message };
+            tracing::warn!("Failed to resolve JNI cache: {}", e);
+            return Error::Network {
+                code: -1,
+                message: "Unknown error".to_string(),
+            };
         }
     };
 
-    let is_network_exception = match env.is_instance_of(error, &network_exception_class) {
-        Ok(result) => result,
-        Err(e) => {
-            tracing::warn!("Failed to check instance type: {}", e);
-            return Error::Network { code: -1, message };
+    // Get error message from getMessage()
+    let message = match cache.message(env, error) {
+        Ok(jstring) if !jstring.is_null() => {
+            let java_str = unsafe { jni::objects::JString::from_raw(jstring.as_raw()) };
+            match env.get_string(&java_str) {
+                Ok(s) => s.into(),
+                Err(_) => "Unknown error".to_string(),
+            }
         }
+        _ => "Unknown error".to_string(),
     };
 
-    if !is_network_exception {
-        // Generic CronetException, not a NetworkException
-        return Error::Network { code: -1, message };
-    }
-
-    // Get error code from NetworkException.getErrorCode()
-    let error_code = match env.call_method(error, "getErrorCode", "()I", &[]) {
-        Ok(result) => match result.i() {
-            Ok(code) => code,
-            Err(e) => {
-                tracing::warn!("Failed to convert error code: {}", e);
-                -1
-            }
-        },
+    // Only a NetworkException carries an error code
+    let error_code = match cache.network_error_code(env, error) {
+        Ok(Some(code)) => code,
+        Ok(None) => {
+            // Generic CronetException, not a NetworkException
+            return Error::Network { code: -1, message };
+        }
         Err(e) => {
             tracing::warn!("Failed to get error code: {}", e);
-            -1
+            return Error::Network { code: -1, message };
         }
     };
 
@@ -446,12 +564,34 @@ fn extract_cronet_error(env: &mut JNIEnv, error: &JObject) -> Error {
     }
 }
 
+/// Whether a request that failed with `error` is worth trying again later
+pub fn is_transient_error(error: &Error) -> bool {
+    match error {
+        Error::Timeout => true,
+        Error::Network { code, .. } => matches!(
+            i32::try_from(*code),
+            Ok(ERROR_HOSTNAME_NOT_RESOLVED
+                | ERROR_INTERNET_DISCONNECTED
+                | ERROR_NETWORK_CHANGED
+                | ERROR_TIMED_OUT
+                | ERROR_CONNECTION_CLOSED
+                | ERROR_CONNECTION_TIMED_OUT
+                | ERROR_CONNECTION_REFUSED
+                | ERROR_CONNECTION_RESET
+                | ERROR_ADDRESS_UNREACHABLE
+                | ERROR_QUIC_PROTOCOL_FAILED)
+        ),
+        _ => false,
+    }
+}
+
 #[unsafe(no_mangle)]
 pub extern "C" fn Java_se_brendan_frakt_RustUrlRequestCallback_nativeOnRedirectReceived(
     mut env: JNIEnv,
-    this: JObject,
+    _this: JObject,
+    handler_id: jlong,
     request: JObject,
-    response_info: JObject,
+    headers: JByteArray,
     new_location: JObject,
 ) {
     println!("🔵 JNI nativeOnRedirectReceived called");
@@ -462,29 +602,33 @@ pub extern "C" fn Java_se_brendan_frakt_RustUrlRequestCallback_nativeOnRedirectR
         println!("🔄 Following redirect to: {}", url.to_string_lossy());
     }
 
-    // Get handler ID and send redirect headers (for cookie processing)
-    if let Ok(handler_id_long) = env.get_field(&this, "handlerId", "J") {
-        if let Ok(handler_id) = handler_id_long.j() {
-            if let Some(mut handler) = get_callback_handler(handler_id) {
-                // Extract headers from redirect response (which may contain Set-Cookie)
-                if let Ok(headers) = handler.extract_headers(&mut env, &response_info) {
-                    println!(
-                        "🔄 Extracted {} headers from redirect response",
-                        headers.len()
-                    );
-                    // Send redirect headers so cookies can be processed
-                    if let Some(ref sender) = handler.response_sender {
-                        let _ = sender.send(CallbackEvent::Redirect { headers });
-                    }
+    let cache = match jni_cache(&mut env) {
+        Ok(cache) => cache,
+        Err(e) => {
+            tracing::error!("Failed to resolve JNI cache: {}", e);
+            cancel_request(&mut env, &request);
+            return;
+        }
+    };
+
+    // Send redirect headers (which may contain Set-Cookie) for cookie processing
+    match read_packed_headers(&env, &headers) {
+        Ok(headers) => {
+            println!(
+                "🔄 Extracted {} headers from redirect response",
+                headers.len()
+            );
+            with_callback_handler(handler_id, |handler| {
+                if let Some(ref sender) = handler.response_sender {
+                    let _ = sender.send(CallbackEvent::Redirect { headers });
                 }
-                // Put handler back
-                reinsert_callback_handler(handler_id, *handler);
-            }
+            });
         }
+        Err(e) => tracing::warn!("Failed to read redirect headers: {}", e),
     }
 
     // Auto-follow redirects by calling request.followRedirect()
-    if let Err(e) = env.call_method(&request, "followRedirect", "()V", &[]) {
+    if let Err(e) = cache.follow_redirect(&mut env, &request) {
         println!("❌ Failed to follow redirect: {}", e);
         tracing::error!("Failed to follow redirect: {}", e);
     } else {
@@ -495,111 +639,244 @@ pub extern "C" fn Java_se_brendan_frakt_RustUrlRequestCallback_nativeOnRedirectR
 #[unsafe(no_mangle)]
 pub extern "C" fn Java_se_brendan_frakt_RustUrlRequestCallback_nativeOnResponseStarted(
     mut env: JNIEnv,
-    this: JObject,
+    _this: JObject,
+    handler_id: jlong,
     request: JObject,
-    response_info: JObject,
-) {
+    status_code: jint,
+    headers: JByteArray,
+) -> jobject {
     println!("🔵 JNI nativeOnResponseStarted called");
 
-    let handler_id = match env.call_method(&this, "getHandlerId", "()J", &[]) {
-        Ok(result) => match result.j() {
-            Ok(id) => id,
+    let byte_buffer = with_callback_handler(handler_id, |handler| {
+        // Lease a pooled read buffer sized from Content-Length
+        let result = read_packed_headers(&env, &headers)
+            .and_then(|headers| handler.on_response_started(status_code, headers))
+            .and_then(|()| handler.start_reading(&mut env));
+
+        result.unwrap_or_else(|e| {
+            tracing::error!("Error in onResponseStarted: {}", e);
+            handler.set_cancel_reason(e);
+            JObject::null()
+        })
+    })
+    .unwrap_or_else(JObject::null);
+
+    if byte_buffer.is_null() {
+        cancel_request(&mut env, &request);
+    }
+
+    // Java issues the first read on the returned buffer
+    byte_buffer.into_raw()
+}
+
+/// Cancel a request that can no longer make progress; Cronet follows up with onCanceled
+fn cancel_request(env: &mut JNIEnv, request: &JObject) {
+    let result = jni_cache(env).and_then(|cache| {
+        cache
+            .cancel(env, request)
+            .map_err(|e| Error::Internal(format!("Failed to call cancel: {}", e)))
+    });
+    if let Err(e) = result {
+        tracing::error!("Failed to cancel request: {}", e);
+    }
+}
+
+/// Read `RustUrlRequestCallback.handlerId` through the cached field ID
+fn callback_handler_id(env: &mut JNIEnv, callback: &JObject) -> Result<jlong> {
+    jni_cache(env)?
+        .callback_handler_id(env, callback)
+        .map_err(|e| Error::Internal(format!("Failed to read handlerId: {}", e)))
+}
+
+#[unsafe(no_mangle)]
+pub extern "C" fn Java_se_brendan_frakt_RustUrlRequestCallback_nativeOnReadCompleted(
+    mut env: JNIEnv,
+    _this: JObject,
+    handler_id: jlong,
+    request: JObject,
+    byte_buffer: JByteBuffer,
+    position: jint,
+    limit: jint,
+) -> jobject {
+    println!("🔵 JNI nativeOnReadCompleted called");
+
+    read_completed(&mut env, handler_id, &request, &byte_buffer, position, limit)
+}
+
+#[unsafe(no_mangle)]
+pub extern "C" fn Java_se_brendan_frakt_RustUrlRequestCallback_nativeOnResponseBuffered(
+    mut env: JNIEnv,
+    _this: JObject,
+    handler_id: jlong,
+    request: JObject,
+    status_code: jint,
+    headers: JByteArray,
+    byte_buffer: JByteBuffer,
+    position: jint,
+    limit: jint,
+) -> jobject {
+    println!("🔵 JNI nativeOnResponseBuffered called");
+
+    let started = with_callback_handler(handler_id, |handler| {
+        let result = read_packed_headers(&env, &headers)
+            .and_then(|headers| handler.on_response_started(status_code, headers));
+        match result {
+            Ok(()) => true,
             Err(e) => {
-                println!("❌ Failed to convert handler ID: {}", e);
-                tracing::error!("Failed to convert handler ID: {}", e);
-                return;
+                tracing::error!("Error in onResponseBuffered: {}", e);
+                handler.set_cancel_reason(e);
+                false
             }
-        },
+        }
+    })
+    .unwrap_or(false);
+
+    if !started {
+        cancel_request(&mut env, &request);
+        return std::ptr::null_mut();
+    }
+
+    // The gathered bytes are the first chunk, read from the small-response buffer
+    read_completed(&mut env, handler_id, &request, &byte_buffer, position, limit)
+}
+
+#[unsafe(no_mangle)]
+pub extern "C" fn Java_se_brendan_frakt_RustUrlRequestCallback_nativeOnSmallResponse(
+    env: JNIEnv,
+    _this: JObject,
+    handler_id: jlong,
+    status_code: jint,
+    headers: JByteArray,
+    byte_buffer: JByteBuffer,
+    position: jint,
+    limit: jint,
+) {
+    println!("🔵 JNI nativeOnSmallResponse called");
+
+    let response = read_packed_headers(&env, &headers).and_then(|headers| {
+        let body = direct_buffer_slice(&env, &byte_buffer, position, limit)?;
+        Ok((headers, body))
+    });
+
+    finish_callback_handler(handler_id, |handler| match response {
+        Ok((headers, body)) => handler.on_small_response(status_code, headers, body),
+        Err(e) => handler.on_failed(e),
+    });
+}
+
+/// Hand a chunk Cronet read to the handler and pick the buffer for the next read
+///
+/// Returns null when the request has been paused or cancelled.
+fn read_completed(
+    env: &mut JNIEnv,
+    handler_id: jlong,
+    request: &JObject,
+    byte_buffer: &JByteBuffer,
+    position: jint,
+    limit: jint,
+) -> jobject {
+    let data = match direct_buffer_slice(env, byte_buffer, position, limit) {
+        Ok(data) => data,
         Err(e) => {
-            tracing::error!("Failed to get handler ID: {}", e);
-            return;
+            tracing::error!("Error in onReadCompleted: {}", e);
+            cancel_request(env, request);
+            return std::ptr::null_mut();
         }
     };
 
-    if let Some(mut handler) = get_callback_handler(handler_id) {
-        if let Err(e) = handler.on_response_started(&mut env, &response_info) {
-            tracing::error!("Error in onResponseStarted: {}", e);
-        }
-        // Re-insert the handler with the same ID
-        reinsert_callback_handler(handler_id, *handler);
-    }
-
-    // Allocate ByteBuffer and start reading (32KB buffer)
-    let byte_buffer = match env.call_static_method(
-        "java/nio/ByteBuffer",
-        "allocateDirect",
-        "(I)Ljava/nio/ByteBuffer;",
-        &[32768i32.into()],
-    ) {
-        Ok(result) => match result.l() {
-            Ok(buf) => buf,
+    let next_read = with_callback_handler(handler_id, |handler| {
+        let outcome = handler.on_read_completed(data);
+        handler.adapt_read_buffer(env, data.len());
+        (outcome, handler.read_buffer())
+    });
+
+    let Some((outcome, Some(read_buffer))) = next_read else {
+        tracing::error!("No callback handler or read buffer for request {}", handler_id);
+        cancel_request(env, request);
+        return std::ptr::null_mut();
+    };
+
+    match outcome {
+        // Java clears the buffer and issues the next read
+        ReadOutcome::Continue => match env.new_local_ref(&read_buffer) {
+            Ok(buffer) => buffer.into_raw(),
             Err(e) => {
-                tracing::error!("Failed to convert ByteBuffer: {}", e);
-                return;
+                tracing::error!("Failed to create ByteBuffer ref: {}", e);
+                cancel_request(env, request);
+                std::ptr::null_mut()
             }
         },
-        Err(e) => {
-            tracing::error!("Failed to allocate ByteBuffer: {}", e);
-            return;
+        ReadOutcome::Pause(sender, slots_needed) => {
+            match env.new_global_ref(request) {
+                Ok(request) => {
+                    resume_read_when_drained(handler_id, sender, slots_needed, request, read_buffer)
+                }
+                Err(e) => {
+                    tracing::error!("Failed to create global ref for request: {}", e);
+                    cancel_request(env, request);
+                }
+            }
+            std::ptr::null_mut()
+        }
+        ReadOutcome::Cancel => {
+            cancel_request(env, request);
+            std::ptr::null_mut()
         }
-    };
-
-    if let Err(e) = env.call_method(
-        &request,
-        "read",
-        "(Ljava/nio/ByteBuffer;)V",
-        &[(&byte_buffer).into()],
-    ) {
-        tracing::error!("Failed to start reading response: {}", e);
     }
 }
 
-#[unsafe(no_mangle)]
-pub extern "C" fn Java_se_brendan_frakt_RustUrlRequestCallback_nativeOnReadCompleted(
-    mut env: JNIEnv,
-    this: JObject,
-    request: JObject,
-    _response_info: JObject,
-    byte_buffer: JObject,
+/// Issue the next read of a paused request once `slots_needed` body slots are free
+fn resume_read_when_drained(
+    handler_id: jlong,
+    sender: mpsc::Sender<Result<Bytes>>,
+    slots_needed: usize,
+    request: GlobalRef,
+    read_buffer: GlobalRef,
 ) {
-    println!("🔵 JNI nativeOnReadCompleted called");
+    super::get_runtime().spawn(async move {
+        // Reserving and immediately releasing the slots waits for the consumer to drain
+        let drained = sender.reserve_many(slots_needed).await.is_ok();
+        drop(sender);
 
-    let handler_id = match env.call_method(&this, "getHandlerId", "()J", &[]) {
-        Ok(result) => match result.j() {
-            Ok(id) => id,
+        let jvm = match super::get_global_vm() {
+            Ok(jvm) => jvm,
             Err(e) => {
-                tracing::error!("Failed to convert handler ID: {}", e);
+                tracing::error!("Failed to get JavaVM to resume read: {}", e);
                 return;
             }
-        },
-        Err(e) => {
-            tracing::error!("Failed to get handler ID: {}", e);
+        };
+        let mut env = match jvm.attach_current_thread() {
+            Ok(env) => env,
+            Err(e) => {
+                tracing::error!("Failed to attach thread to resume read: {}", e);
+                return;
+            }
+        };
+
+        // The request may have been cancelled (e.g. timed out) while paused
+        if with_callback_handler(handler_id, |_| ()).is_none() {
             return;
         }
-    };
 
-    if let Some(mut handler) = get_callback_handler(handler_id) {
-        if let Err(e) = handler.on_read_completed(&mut env, &byte_buffer) {
-            tracing::error!("Error in onReadCompleted: {}", e);
+        if !drained {
+            println!("📡 Body receiver dropped while paused, cancelling request");
+            cancel_request(&mut env, request.as_obj());
+            return;
         }
-        // Re-insert the handler with the same ID
-        reinsert_callback_handler(handler_id, *handler);
-    }
 
-    // Continue reading - clear buffer and read again
-    if let Err(e) = env.call_method(&byte_buffer, "clear", "()Ljava/nio/Buffer;", &[]) {
-        tracing::error!("Failed to clear ByteBuffer: {}", e);
-        return;
-    }
-
-    if let Err(e) = env.call_method(
-        &request,
-        "read",
-        "(Ljava/nio/ByteBuffer;)V",
-        &[(&byte_buffer).into()],
-    ) {
-        tracing::error!("Failed to continue reading response: {}", e);
-    }
+        println!("📡 Consumer drained, resuming reads");
+        let result = jni_cache(&mut env).and_then(|cache| {
+            cache
+                .clear_buffer(&mut env, read_buffer.as_obj())
+                .and_then(|()| cache.read(&mut env, request.as_obj(), read_buffer.as_obj()))
+                .map_err(|e| Error::Internal(format!("Failed to issue read: {}", e)))
+        });
+
+        if let Err(e) = result {
+            tracing::error!("Failed to resume reading response: {}", e);
+            let _ = env.exception_clear();
+        }
+    });
 }
 
 #[unsafe(no_mangle)]
@@ -611,24 +888,15 @@ pub extern "C" fn Java_se_brendan_frakt_RustUrlRequestCallback_nativeOnSucceeded
 ) {
     println!("🔵 JNI nativeOnSucceeded called");
 
-    let handler_id = match env.call_method(&this, "getHandlerId", "()J", &[]) {
-        Ok(result) => match result.j() {
-            Ok(id) => id,
-            Err(e) => {
-                tracing::error!("Failed to convert handler ID: {}", e);
-                return;
-            }
-        },
+    let handler_id = match callback_handler_id(&mut env, &this) {
+        Ok(id) => id,
         Err(e) => {
             tracing::error!("Failed to get handler ID: {}", e);
             return;
         }
     };
 
-    if let Some(mut handler) = get_callback_handler(handler_id) {
-        handler.on_succeeded();
-    }
-    // Handler is already removed by get_callback_handler
+    finish_callback_handler(handler_id, |handler| handler.on_succeeded());
 }
 
 #[unsafe(no_mangle)]
@@ -641,14 +909,8 @@ pub extern "C" fn Java_se_brendan_frakt_RustUrlRequestCallback_nativeOnFailed(
 ) {
     println!("🔵 JNI nativeOnFailed called");
 
-    let handler_id = match env.call_method(&this, "getHandlerId", "()J", &[]) {
-        Ok(result) => match result.j() {
-            Ok(id) => id,
-            Err(e) => {
-                tracing::error!("Failed to convert handler ID: {}", e);
-                return;
-            }
-        },
+    let handler_id = match callback_handler_id(&mut env, &this) {
+        Ok(id) => id,
         Err(e) => {
             tracing::error!("Failed to get handler ID: {}", e);
             return;
@@ -658,9 +920,18 @@ pub extern "C" fn Java_se_brendan_frakt_RustUrlRequestCallback_nativeOnFailed(
     // Extract error details from CronetException
     let rust_error = extract_cronet_error(&mut env, &error);
 
-    if let Some(mut handler) = get_callback_handler(handler_id) {
-        handler.on_failed(rust_error);
-    }
+    finish_callback_handler(handler_id, |handler| handler.on_failed(rust_error));
+}
+
+#[unsafe(no_mangle)]
+pub extern "C" fn Java_se_brendan_frakt_RustUrlRequestCallback_nativeOnCanceled(
+    _env: JNIEnv,
+    _this: JObject,
+    handler_id: jlong,
+) {
+    println!("🔵 JNI nativeOnCanceled called");
+
+    finish_callback_handler(handler_id, |handler| handler.on_canceled());
 }
 
 // RustUrlRequestCallback Java class loading
@@ -831,19 +1102,29 @@ fn register_native_methods(env: &mut JNIEnv, class: &JObject) -> Result<()> {
     let native_methods = [
         NativeMethod {
             name: "nativeOnRedirectReceived".into(),
-            sig: "(Lorg/chromium/net/UrlRequest;Lorg/chromium/net/UrlResponseInfo;Ljava/lang/String;)V".into(),
+            sig: "(JLorg/chromium/net/UrlRequest;[BLjava/lang/String;)V".into(),
             fn_ptr: Java_se_brendan_frakt_RustUrlRequestCallback_nativeOnRedirectReceived as *mut std::ffi::c_void,
         },
         NativeMethod {
             name: "nativeOnResponseStarted".into(),
-            sig: "(Lorg/chromium/net/UrlRequest;Lorg/chromium/net/UrlResponseInfo;)V".into(),
+            sig: "(JLorg/chromium/net/UrlRequest;I[B)Ljava/nio/ByteBuffer;".into(),
             fn_ptr: Java_se_brendan_frakt_RustUrlRequestCallback_nativeOnResponseStarted as *mut std::ffi::c_void,
         },
         NativeMethod {
             name: "nativeOnReadCompleted".into(),
-            sig: "(Lorg/chromium/net/UrlRequest;Lorg/chromium/net/UrlResponseInfo;Ljava/nio/ByteBuffer;)V".into(),
+            sig: "(JLorg/chromium/net/UrlRequest;Ljava/nio/ByteBuffer;II)Ljava/nio/ByteBuffer;".into(),
             fn_ptr: Java_se_brendan_frakt_RustUrlRequestCallback_nativeOnReadCompleted as *mut std::ffi::c_void,
         },
+        NativeMethod {
+            name: "nativeOnResponseBuffered".into(),
+            sig: "(JLorg/chromium/net/UrlRequest;I[BLjava/nio/ByteBuffer;II)Ljava/nio/ByteBuffer;".into(),
+            fn_ptr: Java_se_brendan_frakt_RustUrlRequestCallback_nativeOnResponseBuffered as *mut std::ffi::c_void,
+        },
+        NativeMethod {
+            name: "nativeOnSmallResponse".into(),
+            sig: "(JI[BLjava/nio/ByteBuffer;II)V".into(),
+            fn_ptr: Java_se_brendan_frakt_RustUrlRequestCallback_nativeOnSmallResponse as *mut std::ffi::c_void,
+        },
         NativeMethod {
             name: "nativeOnSucceeded".into(),
             sig: "(Lorg/chromium/net/UrlRequest;Lorg/chromium/net/UrlResponseInfo;)V".into(),
@@ -854,6 +1135,11 @@ fn register_native_methods(env: &mut JNIEnv, class: &JObject) -> Result<()> {
             sig: "(Lorg/chromium/net/UrlRequest;Lorg/chromium/net/UrlResponseInfo;Lorg/chromium/net/CronetException;)V".into(),
             fn_ptr: Java_se_brendan_frakt_RustUrlRequestCallback_nativeOnFailed as *mut std::ffi::c_void,
         },
+        NativeMethod {
+            name: "nativeOnCanceled".into(),
+            sig: "(J)V".into(),
+            fn_ptr: Java_se_brendan_frakt_RustUrlRequestCallback_nativeOnCanceled as *mut std::ffi::c_void,
+        },
     ];
 
     env.register_native_methods(jclass, &native_methods)
@@ -863,22 +1149,64 @@ fn register_native_methods(env: &mut JNIEnv, class: &JObject) -> Result<()> {
 }
 
 /// Create a RustUrlRequestCallback instance
-pub fn create_callback_instance(env: &mut JNIEnv, handler_id: jlong) -> Result<GlobalRef> {
-    // Ensure the RustUrlRequestCallback class is loaded
-    ensure_callback_class_loaded(env)?;
-
-    // Get the stored class reference
-    let callback_class = CALLBACK_CLASS
-        .get()
-        .ok_or_else(|| Error::Internal("RustUrlRequestCallback class not loaded".to_string()))?;
+///
+/// `small_response` is the buffer and threshold for the small-response fast path,
+/// or `None` to always stream.
+pub fn create_callback_instance(
+    env: &mut JNIEnv,
+    handler_id: jlong,
+    small_response: Option<(&GlobalRef, usize)>,
+) -> Result<GlobalRef> {
+    let null = JObject::null();
+    let (buffer, threshold) = match small_response {
+        Some((buffer, threshold)) => (buffer.as_obj(), threshold as jint),
+        None => (&null, 0),
+    };
 
-    // Create instance using the stored class
-    // Convert GlobalRef to JClass for new_object
-    let class_obj = unsafe { JClass::from_raw(callback_class.as_obj().as_raw()) };
-    let callback_object = env
-        .new_object(class_obj, "(J)V", &[handler_id.into()])
+    // Loading the cache also loads the class and registers its natives
+    let callback_object = jni_cache(env)?
+        .new_callback(env, handler_id, buffer, threshold)
         .map_err(|e| Error::Internal(format!("Failed to create RustUrlRequestCallback: {}", e)))?;
 
     env.new_global_ref(&callback_object)
         .map_err(|e| Error::Internal(format!("Failed to create global ref for callback: {}", e)))
 }
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+
+    fn pack(headers: &[(&str, &str)]) -> Vec<u8> {
+        let mut packed = (headers.len() as u32).to_be_bytes().to_vec();
+        for (name, value) in headers {
+            for field in [name, value] {
+                packed.extend_from_slice(&(field.len() as u32).to_be_bytes());
+                packed.extend_from_slice(field.as_bytes());
+            }
+        }
+        packed
+    }
+
+    #[test]
+    fn test_decode_packed_headers_keeps_repeated_names() {
+        let packed = pack(&[
+            ("Content-Type", "application/json"),
+            ("Set-Cookie", "a=1"),
+            ("Set-Cookie", "b=2"),
+            ("Bad Name", "skipped"),
+        ]);
+
+        let headers = decode_packed_headers(&packed).unwrap();
+        assert_eq!(headers.len(), 3);
+        assert_eq!(headers["content-type"], "application/json");
+        let cookies: Vec<_> = headers.get_all("set-cookie").iter().collect();
+        assert_eq!(cookies, ["a=1", "b=2"]);
+    }
+
+    #[test]
+    fn test_decode_packed_headers_rejects_truncated_input() {
+        let packed = pack(&[("Content-Type", "text/plain")]);
+        assert!(decode_packed_headers(&packed[..packed.len() - 1]).is_err());
+        assert!(decode_packed_headers(&[0, 0]).is_err());
+    }
+}
@@ -1,30 +1,132 @@
 //! Cronet engine creation and configuration
 
+use super::buffer_pool::ReadBufferPool;
 use crate::backend::BackendConfig;
-use crate::{Error, Result};
-use jni::{JNIEnv, JavaVM, objects::GlobalRef};
+use crate::{AndroidEngineOptions, Error, Result};
+use jni::{
+    JNIEnv, JavaVM,
+    objects::{GlobalRef, JObject},
+};
+use std::sync::Arc;
+
+/// Number of callback threads; 0 lets the executor size itself from the CPU count
+const DEFAULT_CALLBACK_THREADS: i32 = 0;
+
+/// A Cronet engine together with the resources that share its lifetime
+///
+/// Every request issued on the engine delivers its callbacks through the same
+/// bounded `CallbackExecutor`, instead of creating (and leaking) a thread pool
+/// per request. The executor lets idle threads time out, so an unused engine
+/// does not pin any threads. Response bodies are read into buffers leased from
+/// the engine's `ReadBufferPool`.
+pub struct CronetEngine {
+    engine: GlobalRef,
+    callback_executor: GlobalRef,
+    direct_executor: bool,
+    read_buffers: Arc<ReadBufferPool>,
+    options: AndroidEngineOptions,
+}
+
+impl CronetEngine {
+    /// Get the underlying `org.chromium.net.CronetEngine` object
+    pub fn as_obj(&self) -> &JObject<'static> {
+        self.engine.as_obj()
+    }
+
+    /// Get the shared `se.brendan.frakt.CallbackExecutor` for this engine
+    pub fn callback_executor(&self) -> &GlobalRef {
+        &self.callback_executor
+    }
+
+    /// Whether callbacks run inline on Cronet's network thread
+    ///
+    /// Requests must call `allowDirectExecutor()` on their builder when this is set.
+    pub fn direct_executor(&self) -> bool {
+        self.direct_executor
+    }
+
+    /// Get the pool of direct read buffers shared by this engine's requests
+    pub fn read_buffers(&self) -> &Arc<ReadBufferPool> {
+        &self.read_buffers
+    }
+
+    /// Get the options the engine was created with
+    pub fn options(&self) -> &AndroidEngineOptions {
+        &self.options
+    }
+}
+
+/// Snapshot of the callback executor counters
+#[derive(Debug, Clone, Copy, Default)]
+pub struct CallbackExecutorStats {
+    /// Callbacks currently running
+    pub active: u32,
+    /// Callbacks waiting for a free thread
+    pub queued: u32,
+    /// Callbacks that have finished since the engine was created
+    pub completed: u64,
+}
+
+/// Read the counters from an engine's callback executor
+pub fn callback_executor_stats(
+    env: &mut JNIEnv,
+    engine: &CronetEngine,
+) -> Result<CallbackExecutorStats> {
+    let executor = engine.callback_executor().as_obj();
+
+    let active = env
+        .call_method(executor, "getActiveCount", "()I", &[])
+        .map_err(|e| Error::Internal(format!("Failed to get active callback count: {}", e)))?
+        .i()
+        .map_err(|e| Error::Internal(format!("Failed to convert active count: {}", e)))?;
+
+    let queued = env
+        .call_method(executor, "getQueuedCount", "()I", &[])
+        .map_err(|e| Error::Internal(format!("Failed to get queued callback count: {}", e)))?
+        .i()
+        .map_err(|e| Error::Internal(format!("Failed to convert queued count: {}", e)))?;
+
+    let completed = env
+        .call_method(executor, "getCompletedCount", "()J", &[])
+        .map_err(|e| Error::Internal(format!("Failed to get completed callback count: {}", e)))?
+        .j()
+        .map_err(|e| Error::Internal(format!("Failed to convert completed count: {}", e)))?;
+
+    Ok(CallbackExecutorStats {
+        active: active.max(0) as u32,
+        queued: queued.max(0) as u32,
+        completed: completed.max(0) as u64,
+    })
+}
 
 /// Create a Cronet engine with default configuration
-pub fn create_cronet_engine(jvm: &JavaVM) -> Result<GlobalRef> {
+pub fn create_cronet_engine(jvm: &JavaVM) -> Result<CronetEngine> {
     let config = BackendConfig::default();
     create_cronet_engine_with_config(jvm, &config)
 }
 
 /// Create a Cronet engine with custom configuration
-pub fn create_cronet_engine_with_config(jvm: &JavaVM, config: &BackendConfig) -> Result<GlobalRef> {
+pub fn create_cronet_engine_with_config(
+    jvm: &JavaVM,
+    config: &BackendConfig,
+) -> Result<CronetEngine> {
     let mut env = jvm
         .attach_current_thread()
         .map_err(|e| Error::Internal(format!("Failed to attach to JVM thread: {}", e)))?;
 
     // Get Android application context
     let context = get_application_context()?;
-
-    // Create CronetEngine.Builder
-    let builder_class = env
-        .find_class("org/chromium/net/CronetEngine$Builder")
-        .map_err(|e| {
-            Error::Internal(format!("Failed to find CronetEngine.Builder class: {}", e))
-        })?;
+    let options = config.android_engine.clone().unwrap_or_default();
+
+    // Create CronetEngine.Builder; only the experimental one can set thread priority
+    let builder_class_name = if options.network_thread_priority.is_some() {
+        "org/chromium/net/ExperimentalCronetEngine$Builder"
+    } else {
+        "org/chromium/net/CronetEngine$Builder"
+    };
+    let builder_class = env.find_class(builder_class_name).map_err(|e| {
+        Error::Internal(format!("Failed to find CronetEngine.Builder class: {}", e))
+    })?;
 
     let builder = env
         .new_object(
@@ -35,7 +137,7 @@ pub fn create_cronet_engine_with_config(jvm: &JavaVM, config: &BackendConfig) ->
         .map_err(|e| Error::Internal(format!("Failed to create CronetEngine.Builder: {}", e)))?;
 
     // Configure the builder
-    configure_cronet_builder(&mut env, &builder, &context, config)?;
+    configure_cronet_builder(&mut env, &builder, &context, config, &options)?;
 
     // Build the engine
     let engine = env
@@ -72,47 +174,46 @@ pub fn create_cronet_engine_with_config(jvm: &JavaVM, config: &BackendConfig) ->
         .l()
         .map_err(|e| Error::Internal(format!("Failed to convert CronetEngine: {}", e)))?;
 
-    env.new_global_ref(&engine)
-        .map_err(|e| Error::Internal(format!("Failed to create global reference: {}", e)))
+    let engine = env
+        .new_global_ref(&engine)
+        .map_err(|e| Error::Internal(format!("Failed to create global reference: {}", e)))?;
+
+    let direct_executor = options.direct_callback_executor;
+    let callback_executor =
+        create_callback_executor(&mut env, DEFAULT_CALLBACK_THREADS, direct_executor)?;
+
+    Ok(CronetEngine {
+        engine,
+        callback_executor,
+        direct_executor,
+        read_buffers: Arc::new(ReadBufferPool::new()),
+        options,
+    })
+}
+
+/// Create the engine-wide callback executor
+fn create_callback_executor(env: &mut JNIEnv, threads: i32, direct: bool) -> Result<GlobalRef> {
+    let executor_class =
+        super::callback::load_class_from_dex(env, "se.brendan.frakt.CallbackExecutor")?;
+
+    let executor = env
+        .new_object(executor_class, "(IZ)V", &[threads.into(), direct.into()])
+        .map_err(|e| Error::Internal(format!("Failed to create CallbackExecutor: {}", e)))?;
+
+    env.new_global_ref(&executor)
+        .map_err(|e| Error::Internal(format!("Failed to create global ref for executor: {}", e)))
 }
 
 /// Configure the Cronet engine builder with our settings
-/// Configuration matches the official Google Cronet sample app
+/// Defaults match the official Google Cronet sample app
 fn configure_cronet_builder(
     env: &mut JNIEnv,
     builder: &jni::objects::JObject,
     context: &GlobalRef,
     config: &BackendConfig,
+    options: &AndroidEngineOptions,
 ) -> Result<()> {
-    // Configure DNS to use system resolver
-    let dns_options_builder_class = env
-        .find_class("org/chromium/net/DnsOptions$Builder")
-        .map_err(|e| Error::Internal(format!("Failed to find DnsOptions.Builder: {}", e)))?;
-
-    let dns_options_builder = env
-        .new_object(dns_options_builder_class, "()V", &[])
-        .map_err(|e| Error::Internal(format!("Failed to create DnsOptions.Builder: {}", e)))?;
-
-    // Use system resolver (NOT built-in resolver)
-    env.call_method(
-        &dns_options_builder,
-        "useBuiltInDnsResolver",
-        "(Z)Lorg/chromium/net/DnsOptions$Builder;",
-        &[false.into()],
-    )
-    .map_err(|e| Error::Internal(format!("Failed to disable built-in DNS resolver: {}", e)))?;
-
-    let dns_options = env
-        .call_method(
-            &dns_options_builder,
-            "build",
-            "()Lorg/chromium/net/DnsOptions;",
-            &[],
-        )
-        .map_err(|e| Error::Internal(format!("Failed to build DnsOptions: {}", e)))?
-        .l()
-        .map_err(|e| Error::Internal(format!("Failed to convert DnsOptions: {}", e)))?;
-
+    let dns_options = build_dns_options(env, options)?;
     env.call_method(
         builder,
         "setDnsOptions",
@@ -121,32 +222,48 @@ fn configure_cronet_builder(
     )
     .map_err(|e| Error::Internal(format!("Failed to set DNS options: {}", e)))?;
 
-    // Enable HTTP/2
-    env.call_method(
-        builder,
-        "enableHttp2",
-        "(Z)Lorg/chromium/net/CronetEngine$Builder;",
-        &[true.into()],
-    )
-    .map_err(|e| Error::Internal(format!("Failed to enable HTTP/2: {}", e)))?;
+    for (method, enabled) in [
+        ("enableHttp2", options.http2),
+        ("enableQuic", options.quic),
+        ("enableBrotli", options.brotli),
+    ] {
+        env.call_method(
+            builder,
+            method,
+            "(Z)Lorg/chromium/net/CronetEngine$Builder;",
+            &[enabled.into()],
+        )
+        .map_err(|e| Error::Internal(format!("Failed to call {}: {}", method, e)))?;
+    }
 
-    // Enable QUIC
-    env.call_method(
-        builder,
-        "enableQuic",
-        "(Z)Lorg/chromium/net/CronetEngine$Builder;",
-        &[true.into()],
-    )
-    .map_err(|e| Error::Internal(format!("Failed to enable QUIC: {}", e)))?;
+    for hint in &options.quic_hints {
+        let host = env
+            .new_string(&hint.host)
+            .map_err(|e| Error::Internal(format!("Failed to create QUIC hint host: {}", e)))?;
+        env.call_method(
+            builder,
+            "addQuicHint",
+            "(Ljava/lang/String;II)Lorg/chromium/net/CronetEngine$Builder;",
+            &[
+                (&host).into(),
+                i32::from(hint.port).into(),
+                i32::from(hint.alternate_port).into(),
+            ],
+        )
+        .map_err(|e| Error::Internal(format!("Failed to add QUIC hint: {}", e)))?;
+    }
 
-    // Enable Brotli compression
-    env.call_method(
-        builder,
-        "enableBrotli",
-        "(Z)Lorg/chromium/net/CronetEngine$Builder;",
-        &[true.into()],
-    )
-    .map_err(|e| Error::Internal(format!("Failed to enable Brotli: {}", e)))?;
+    add_public_key_pins(env, builder, options)?;
+
+    if let Some(priority) = options.network_thread_priority {
+        env.call_method(
+            builder,
+            "setThreadPriority",
+            "(I)Lorg/chromium/net/ExperimentalCronetEngine$Builder;",
+            &[priority.into()],
+        )
+        .map_err(|e| Error::Internal(format!("Failed to set network thread priority: {}", e)))?;
+    }
 
     // Set user agent if provided
     if let Some(user_agent) = &config.user_agent {
@@ -251,8 +368,8 @@ fn configure_cronet_builder(
         "enableHttpCache",
         "(IJ)Lorg/chromium/net/CronetEngine$Builder;",
         &[
-            2i32.into(),                  // HTTP_CACHE_DISK
-            (50 * 1024 * 1024i64).into(), // 50MB cache size
+            options.http_cache_mode.as_cronet().into(),
+            (options.http_cache_size.min(i64::MAX as u64) as i64).into(),
         ],
     )
     .map_err(|e| Error::Internal(format!("Failed to enable HTTP cache: {}", e)))?;
@@ -260,6 +377,173 @@ fn configure_cronet_builder(
     Ok(())
 }
 
+/// Build `DnsOptions` for the engine
+fn build_dns_options<'a>(
+    env: &mut JNIEnv<'a>,
+    options: &AndroidEngineOptions,
+) -> Result<JObject<'a>> {
+    const DNS_BUILDER: &str = "Lorg/chromium/net/DnsOptions$Builder;";
+
+    let dns_options_builder = env
+        .new_object("org/chromium/net/DnsOptions$Builder", "()V", &[])
+        .map_err(|e| Error::Internal(format!("Failed to create DnsOptions.Builder: {}", e)))?;
+
+    let flags = [
+        ("useBuiltInDnsResolver", options.builtin_dns_resolver),
+        ("enableStaleDns", options.stale_dns.is_some()),
+        (
+            "setPreestablishConnectionsToStaleDnsResults",
+            options.preestablish_stale_dns_connections,
+        ),
+        ("persistHostCache", options.persist_host_cache.is_some()),
+    ];
+    for (method, enabled) in flags {
+        env.call_method(
+            &dns_options_builder,
+            method,
+            format!("(Z){}", DNS_BUILDER),
+            &[enabled.into()],
+        )
+        .map_err(|e| Error::Internal(format!("Failed to call DnsOptions.{}: {}", method, e)))?;
+    }
+
+    if let Some(period) = options.persist_host_cache {
+        env.call_method(
+            &dns_options_builder,
+            "setPersistHostCachePeriod",
+            format!("(J){}", DNS_BUILDER),
+            &[duration_millis(period).into()],
+        )
+        .map_err(|e| Error::Internal(format!("Failed to set host cache period: {}", e)))?;
+    }
+
+    if let Some(stale) = &options.stale_dns {
+        let stale_builder = env
+            .new_object("org/chromium/net/DnsOptions$StaleDnsOptions$Builder", "()V", &[])
+            .map_err(|e| {
+                Error::Internal(format!("Failed to create StaleDnsOptions.Builder: {}", e))
+            })?;
+        let stale_builder_sig = "Lorg/chromium/net/DnsOptions$StaleDnsOptions$Builder;";
+
+        for (method, millis) in [
+            ("setFreshLookupTimeout", stale.fresh_lookup_timeout),
+            ("setMaxExpiredDelay", stale.max_expired_delay),
+        ] {
+            env.call_method(
+                &stale_builder,
+                method,
+                format!("(J){}", stale_builder_sig),
+                &[duration_millis(millis).into()],
+            )
+            .map_err(|e| Error::Internal(format!("Failed to call {}: {}", method, e)))?;
+        }
+        for (method, enabled) in [
+            ("allowCrossNetworkUsage", stale.allow_cross_network_usage),
+            ("useStaleOnNameNotResolved", stale.use_stale_on_name_not_resolved),
+        ] {
+            env.call_method(
+                &stale_builder,
+                method,
+                format!("(Z){}", stale_builder_sig),
+                &[enabled.into()],
+            )
+            .map_err(|e| Error::Internal(format!("Failed to call {}: {}", method, e)))?;
+        }
+
+        let stale_options = env
+            .call_method(
+                &stale_builder,
+                "build",
+                "()Lorg/chromium/net/DnsOptions$StaleDnsOptions;",
+                &[],
+            )
+            .map_err(|e| Error::Internal(format!("Failed to build StaleDnsOptions: {}", e)))?
+            .l()
+            .map_err(|e| Error::Internal(format!("Failed to convert StaleDnsOptions: {}", e)))?;
+        env.call_method(
+            &dns_options_builder,
+            "setStaleDnsOptions",
+            format!("(Lorg/chromium/net/DnsOptions$StaleDnsOptions;){}", DNS_BUILDER),
+            &[(&stale_options).into()],
+        )
+        .map_err(|e| Error::Internal(format!("Failed to set stale DNS options: {}", e)))?;
+    }
+
+    env.call_method(
+        &dns_options_builder,
+        "build",
+        "()Lorg/chromium/net/DnsOptions;",
+        &[],
+    )
+    .map_err(|e| Error::Internal(format!("Failed to build DnsOptions: {}", e)))?
+    .l()
+    .map_err(|e| Error::Internal(format!("Failed to convert DnsOptions: {}", e)))
+}
+
+/// Add the configured public key pins to the engine builder
+fn add_public_key_pins(
+    env: &mut JNIEnv,
+    builder: &JObject,
+    options: &AndroidEngineOptions,
+) -> Result<()> {
+    if options.public_key_pins.is_empty() {
+        return Ok(());
+    }
+
+    for pins in &options.public_key_pins {
+        let host = env
+            .new_string(&pins.host)
+            .map_err(|e| Error::Internal(format!("Failed to create pinned host: {}", e)))?;
+        let hashes = env
+            .new_object("java/util/HashSet", "()V", &[])
+            .map_err(|e| Error::Internal(format!("Failed to create pin set: {}", e)))?;
+        for hash in &pins.sha256 {
+            let bytes = env
+                .byte_array_from_slice(hash)
+                .map_err(|e| Error::Internal(format!("Failed to create pin hash: {}", e)))?;
+            env.call_method(&hashes, "add", "(Ljava/lang/Object;)Z", &[(&bytes).into()])
+                .map_err(|e| Error::Internal(format!("Failed to add pin hash: {}", e)))?;
+        }
+
+        let expires_millis = pins
+            .expires
+            .duration_since(std::time::UNIX_EPOCH)
+            .map(duration_millis)
+            .unwrap_or(0);
+        let expires = env
+            .new_object("java/util/Date", "(J)V", &[expires_millis.into()])
+            .map_err(|e| Error::Internal(format!("Failed to create pin expiry: {}", e)))?;
+
+        env.call_method(
+            builder,
+            "addPublicKeyPins",
+            "(Ljava/lang/String;Ljava/util/Set;ZLjava/util/Date;)Lorg/chromium/net/CronetEngine$Builder;",
+            &[
+                (&host).into(),
+                (&hashes).into(),
+                pins.include_subdomains.into(),
+                (&expires).into(),
+            ],
+        )
+        .map_err(|e| Error::Internal(format!("Failed to add public key pins: {}", e)))?;
+    }
+
+    env.call_method(
+        builder,
+        "enablePublicKeyPinningBypassForLocalTrustAnchors",
+        "(Z)Lorg/chromium/net/CronetEngine$Builder;",
+        &[options.bypass_pins_for_local_trust_anchors.into()],
+    )
+    .map_err(|e| Error::Internal(format!("Failed to set pinning bypass: {}", e)))?;
+
+    Ok(())
+}
+
+/// Milliseconds in `duration`, saturating at `i64::MAX`
+fn duration_millis(duration: std::time::Duration) -> i64 {
+    i64::try_from(duration.as_millis()).unwrap_or(i64::MAX)
+}
+
 /// Get the Android application context using ActivityThread
 pub(crate) fn get_application_context() -> Result<GlobalRef> {
     // We need to get the JavaVM to attach and get the context
@@ -0,0 +1,215 @@
+//! Dedicated thread that writes download bodies to disk
+//!
+//! Cronet hands over body chunks of at most a few hundred kilobytes. Writing each
+//! one from the async task blocks a runtime worker on slow flash storage, so chunks
+//! are queued to a writer thread instead. It gathers adjacent chunks into writes of
+//! up to [`COALESCE_SIZE`] bytes, and the bounded queue pushes back on the network
+//! side when storage cannot keep up. Reads and writes overlap as a result.
+
+use crate::{Error, Result};
+use bytes::{Bytes, BytesMut};
+use std::fs::File;
+use std::os::unix::fs::FileExt;
+use tokio::sync::{mpsc, oneshot};
+
+/// Largest single write the writer thread issues
+pub const COALESCE_SIZE: usize = 1024 * 1024;
+
+/// Chunks that may be queued ahead of the writer thread
+const QUEUE_DEPTH: usize = 32;
+
+/// Separate runs gathered at once; segmented downloads write one run per stream
+const MAX_RUNS: usize = 8;
+
+enum Command {
+    Write { position: u64, data: Bytes },
+    /// Reply once every write queued before it has reached the file
+    Flush(oneshot::Sender<Result<()>>),
+}
+
+/// Handle to a writer thread; clones share the same thread and file
+#[derive(Clone)]
+pub struct DiskWriter {
+    commands: mpsc::Sender<Command>,
+}
+
+impl DiskWriter {
+    /// Start a writer thread for `file`
+    ///
+    /// The thread exits once every handle has been dropped, after writing out
+    /// anything still queued.
+    pub fn spawn(file: File) -> Result<Self> {
+        let (commands, receiver) = mpsc::channel(QUEUE_DEPTH);
+        std::thread::Builder::new()
+            .name("frakt-disk-writer".to_string())
+            .spawn(move || run(file, receiver))
+            .map_err(|e| Error::Internal(format!("Failed to spawn disk writer: {}", e)))?;
+        Ok(Self { commands })
+    }
+
+    /// Queue `data` to be written at `position`, waiting if the queue is full
+    ///
+    /// Write errors are reported by the next [`flush`](Self::flush).
+    pub async fn write(&self, position: u64, data: Bytes) -> Result<()> {
+        self.commands
+            .send(Command::Write { position, data })
+            .await
+            .map_err(|_| Error::Internal("Disk writer stopped".to_string()))
+    }
+
+    /// Wait until everything queued so far has been written, without syncing it
+    pub async fn flush(&self) -> Result<()> {
+        let (reply, done) = oneshot::channel();
+        self.commands
+            .send(Command::Flush(reply))
+            .await
+            .map_err(|_| Error::Internal("Disk writer stopped".to_string()))?;
+        done.await
+            .map_err(|_| Error::Internal("Disk writer stopped".to_string()))?
+    }
+}
+
+/// Reserve disk blocks for `length` bytes without changing the file's size
+///
+/// Best effort: file systems that cannot preallocate just allocate as they go.
+pub fn reserve(file: &File, length: u64) {
+    use std::os::fd::AsRawFd;
+
+    let Ok(length) = libc::off_t::try_from(length) else {
+        return;
+    };
+    let result =
+        unsafe { libc::fallocate(file.as_raw_fd(), libc::FALLOC_FL_KEEP_SIZE, 0, length) };
+    if result != 0 {
+        tracing::warn!(
+            "Failed to preallocate {} bytes: {}",
+            length,
+            std::io::Error::last_os_error()
+        );
+    }
+}
+
+fn run(file: File, mut commands: mpsc::Receiver<Command>) {
+    let mut runs = Runs::new(file);
+
+    while let Some(command) = commands.blocking_recv() {
+        match command {
+            Command::Write { position, data } => runs.push(position, data),
+            Command::Flush(reply) => {
+                runs.flush_all();
+                let _ = reply.send(runs.result());
+            }
+        }
+    }
+
+    runs.flush_all();
+    if let Err(e) = runs.result() {
+        tracing::error!("Disk writer stopped with unreported error: {}", e);
+    }
+}
+
+/// Adjacent chunks gathered in memory before they are written
+struct Runs {
+    file: File,
+    runs: Vec<(u64, BytesMut)>,
+    /// First write error; later writes are dropped once one has failed
+    error: Option<String>,
+}
+
+impl Runs {
+    fn new(file: File) -> Self {
+        Self {
+            file,
+            runs: Vec::with_capacity(MAX_RUNS),
+            error: None,
+        }
+    }
+
+    fn push(&mut self, position: u64, data: Bytes) {
+        if self.error.is_some() {
+            return;
+        }
+
+        let adjacent = self
+            .runs
+            .iter()
+            .position(|(start, run)| start + run.len() as u64 == position);
+        let index = match adjacent {
+            Some(index) if self.runs[index].1.len() + data.len() <= COALESCE_SIZE => index,
+            Some(index) => {
+                // Full; write it out and start over from this chunk
+                let (start, run) = self.runs.swap_remove(index);
+                self.write(start, &run);
+                self.start_run(position, data);
+                return;
+            }
+            None => {
+                if self.runs.len() == MAX_RUNS {
+                    let (start, run) = self.runs.swap_remove(0);
+                    self.write(start, &run);
+                }
+                self.start_run(position, data);
+                return;
+            }
+        };
+        self.runs[index].1.extend_from_slice(&data);
+    }
+
+    fn start_run(&mut self, position: u64, data: Bytes) {
+        if data.len() >= COALESCE_SIZE {
+            self.write(position, &data);
+            return;
+        }
+        let mut run = BytesMut::with_capacity(COALESCE_SIZE);
+        run.extend_from_slice(&data);
+        self.runs.push((position, run));
+    }
+
+    fn flush_all(&mut self) {
+        for (start, run) in std::mem::take(&mut self.runs) {
+            self.write(start, &run);
+        }
+    }
+
+    fn write(&mut self, position: u64, data: &[u8]) {
+        if self.error.is_some() {
+            return;
+        }
+        if let Err(e) = self.file.write_all_at(data, position) {
+            self.error = Some(e.to_string());
+        }
+    }
+
+    fn result(&self) -> Result<()> {
+        match &self.error {
+            Some(e) => Err(Error::Io(format!("Failed to write to file: {}", e))),
+            None => Ok(()),
+        }
+    }
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+
+    #[test]
+    fn test_coalesces_interleaved_runs() {
+        let file = tempfile::tempfile().unwrap();
+        let mut runs = Runs::new(file.try_clone().unwrap());
+
+        runs.push(0, Bytes::from_static(b"abc"));
+        runs.push(6, Bytes::from_static(b"ghi"));
+        runs.push(3, Bytes::from_static(b"def"));
+        runs.push(9, Bytes::from_static(b"jkl"));
+        assert_eq!(runs.runs.len(), 2);
+
+        // Nothing reaches the file until the runs are flushed
+        assert_eq!(file.metadata().unwrap().len(), 0);
+        runs.flush_all();
+        runs.result().unwrap();
+
+        let mut contents = vec![0; 12];
+        file.read_exact_at(&mut contents, 0).unwrap();
+        assert_eq!(contents, b"abcdefghijkl");
+    }
+}
@@ -1,368 +1,617 @@
 // Android background downloads using WorkManager
 
-use crate::{Error, Result};
+use super::cronet::CronetEngine;
+use super::disk_writer::DiskWriter;
+use super::download_index::{DownloadIndex, IndexedDownload};
+use super::download_queue::DownloadScheduler;
+use super::partial::{CHECKPOINT_INTERVAL, PartialDownload, content_range_start, is_encoded};
+use super::segments::SegmentPlan;
+use crate::backend::types::BackgroundDownloadOptions;
+use crate::cancel::cancelled;
+use crate::{CancellationToken, DownloadQueueConfig, Error, Result};
+use bytes::Bytes;
 use jni::{
     JNIEnv, JavaVM,
-    objects::{GlobalRef, JClass, JObject, JString},
-    sys::jint,
+    objects::{GlobalRef, JClass, JObject, JObjectArray, JString},
+    sys::{jint, jlong},
 };
-use std::collections::HashMap;
+use std::collections::{HashMap, HashSet};
+use std::ops::Range;
 use std::path::PathBuf;
-use std::sync::{Arc, Mutex};
+use std::sync::{Arc, LazyLock};
+use tokio::sync::{Mutex, mpsc, oneshot};
 use url::Url;
 
-// Global storage for progress callbacks
-static PROGRESS_CALLBACKS: once_cell::sync::Lazy<
-    Mutex<HashMap<i64, Box<dyn Fn(u64, Option<u64>) + Send + Sync + 'static>>>,
-> = once_cell::sync::Lazy::new(|| Mutex::new(HashMap::new()));
+/// Result DownloadWorker reports for a successful download
+const WORK_RESULT_SUCCESS: jint = 0;
 
-static NEXT_PROGRESS_ID: std::sync::atomic::AtomicI64 = std::sync::atomic::AtomicI64::new(1);
+/// Result that asks WorkManager to run the download again later
+const WORK_RESULT_RETRY: jint = 1;
 
-fn register_progress_callback(
-    callback: Box<dyn Fn(u64, Option<u64>) + Send + Sync + 'static>,
-) -> i64 {
-    let id = NEXT_PROGRESS_ID.fetch_add(1, std::sync::atomic::Ordering::SeqCst);
-    PROGRESS_CALLBACKS.lock().unwrap().insert(id, callback);
-    id
+/// Result for a download that could not be handed to WorkManager
+const WORK_RESULT_NOT_ENQUEUED: jint = -5;
+
+/// Result for a download stopped through a `CancellationToken`
+const WORK_RESULT_CANCELLED: jint = -6;
+
+type ProgressFn = Box<dyn Fn(u64, Option<u64>) + Send + Sync + 'static>;
+
+/// Work request contents for a download waiting in the queue
+struct QueuedWork {
+    unique_name: String,
+    session_identifier: Option<String>,
+    host: String,
+    url: Url,
+    file_path: PathBuf,
+    headers: http::HeaderMap,
+    options: BackgroundDownloadOptions,
 }
 
-fn unregister_progress_callback(id: i64) {
-    PROGRESS_CALLBACKS.lock().unwrap().remove(&id);
+/// Callers waiting on one download, however many times it was sent
+struct DownloadEntry {
+    unique_name: String,
+    waiters: Vec<oneshot::Sender<jint>>,
+    listeners: Arc<std::sync::Mutex<HashMap<u64, ProgressFn>>>,
 }
 
-/// Initialize WorkManager if not already initialized
-fn ensure_workmanager_initialized(jvm: &JavaVM) -> Result<()> {
-    let mut env = jvm
-        .attach_current_thread()
-        .map_err(|e| Error::Internal(format!("Failed to attach to JVM thread: {}", e)))?;
+/// Background downloads known to this process, by key
+///
+/// The key is derived from the WorkManager unique work name and doubles as the
+/// worker's progress and completion handler id, so a worker left over from an
+/// earlier process reports to whoever asks for the same download now.
+struct Downloads {
+    scheduler: DownloadScheduler<QueuedWork>,
+    entries: HashMap<i64, DownloadEntry>,
+    next_listener: u64,
+    /// Downloads WorkManager holds, loaded from disk on first use
+    index: Option<DownloadIndex>,
+    /// Stops the attempt a worker in this process is running, by key
+    attempts: HashMap<i64, CancellationToken>,
+    /// Downloads cancelled by the app, whose partial files are not kept for a retry
+    cancelled: HashSet<i64>,
+}
 
-    let context = get_application_context(&jvm)?;
+static DOWNLOADS: LazyLock<std::sync::Mutex<Downloads>> = LazyLock::new(|| {
+    std::sync::Mutex::new(Downloads {
+        scheduler: DownloadScheduler::new(DownloadQueueConfig::default()),
+        entries: HashMap::new(),
+        next_listener: 0,
+        index: None,
+        attempts: HashMap::new(),
+        cancelled: HashSet::new(),
+    })
+});
 
-    // Try to get WorkManager instance to see if it's initialized
-    let work_manager_class = env
-        .find_class("androidx/work/WorkManager")
-        .map_err(|e| Error::Internal(format!("Failed to find WorkManager class: {}", e)))?;
+fn lock_downloads() -> std::sync::MutexGuard<'static, Downloads> {
+    DOWNLOADS.lock().unwrap_or_else(|e| e.into_inner())
+}
 
-    // Try getInstance - if it throws, we need to initialize
-    let get_instance_result = env.call_static_method(
-        &work_manager_class,
-        "getInstance",
-        "(Landroid/content/Context;)Landroidx/work/WorkManager;",
-        &[(&context).into()],
-    );
+/// Stable key for a unique work name; FNV-1a, so it survives app updates
+fn work_key(unique_name: &str) -> i64 {
+    let hash = unique_name.bytes().fold(0xcbf2_9ce4_8422_2325u64, |hash, byte| {
+        (hash ^ byte as u64).wrapping_mul(0x0000_0100_0000_01b3)
+    });
+    // Positive, so it never collides with the -1 "no id" sentinel
+    (hash >> 1) as i64
+}
 
-    // Check if there was an exception (WorkManager not initialized)
-    if env.exception_check().unwrap_or(false) {
-        env.exception_clear().ok();
+/// Stops delivering progress to a caller once its future finishes or is dropped
+struct ProgressSubscription {
+    key: i64,
+    listener: Option<u64>,
+}
 
-        println!("🔧 Initializing WorkManager with custom DexWorkerFactory...");
+impl Drop for ProgressSubscription {
+    fn drop(&mut self) {
+        let Some(listener) = self.listener else {
+            return;
+        };
+        if let Some(entry) = lock_downloads().entries.get(&self.key) {
+            entry
+                .listeners
+                .lock()
+                .unwrap_or_else(|e| e.into_inner())
+                .remove(&listener);
+        }
+    }
+}
 
-        // Get DEX classloader from callback module
-        let dex_classloader_ref = crate::backend::android::callback::get_dex_classloader(&mut env)?;
+/// Resolve every caller waiting on `key` and free its slot in the queue
+fn finish_download(key: i64, result: jint) {
+    let entry = {
+        let mut downloads = lock_downloads();
+        downloads.scheduler.finish(key);
+        if let Some(Err(e)) = downloads.index.as_mut().map(|index| index.remove(key)) {
+            tracing::warn!("Failed to update background download index: {}", e);
+        }
+        downloads.entries.remove(&key)
+    };
 
-        // Load DexWorkerFactory class from DEX
-        let worker_factory_class = crate::backend::android::callback::load_class_from_dex(
+    if let Some(entry) = entry {
+        for waiter in entry.waiters {
+            let _ = waiter.send(result);
+        }
+    }
+}
+
+/// Progress handler for the download with `key`, fanning out to every caller
+fn download_progress(key: i64) -> Option<Arc<ProgressFn>> {
+    let listeners = lock_downloads().entries.get(&key)?.listeners.clone();
+    let forward: ProgressFn = Box::new(move |done, total| {
+        let listeners = listeners.lock().unwrap_or_else(|e| e.into_inner());
+        for listener in listeners.values() {
+            listener(done, total);
+        }
+    });
+    Some(Arc::new(forward))
+}
+
+/// Hand every download the queue admits to WorkManager
+fn dispatch_queued_downloads(jvm: &JavaVM) -> Result<()> {
+    loop {
+        let admitted = lock_downloads().scheduler.admit();
+        if admitted.is_empty() {
+            return Ok(());
+        }
+        enqueue_admitted(jvm, admitted)?;
+    }
+}
+
+/// Enqueue downloads that hold a slot in the queue and record them in the index
+///
+/// Downloads that cannot be enqueued are finished, so they never keep their slot.
+fn enqueue_admitted(jvm: &JavaVM, admitted: Vec<(i64, QueuedWork)>) -> Result<()> {
+    let mut env = jvm
+        .attach_current_thread()
+        .map_err(|e| Error::Internal(format!("Failed to attach to JVM thread: {}", e)))?;
+    let target = get_work_manager(&mut env, jvm).and_then(|work_manager| {
+        let worker_class = crate::backend::android::callback::load_class_from_dex(
             &mut env,
-            "se.brendan.frakt.DexWorkerFactory",
+            "se.brendan.frakt.DownloadWorker",
         )?;
+        Ok((work_manager, worker_class))
+    });
+    let (work_manager, worker_class) = match target {
+        Ok(target) => target,
+        Err(e) => {
+            // Nothing admitted can run; fail it rather than leave it holding a slot
+            for (key, _) in admitted {
+                finish_download(key, WORK_RESULT_NOT_ENQUEUED);
+            }
+            return Err(e);
+        }
+    };
 
-        // Create DexWorkerFactory instance with DEX classloader
-        let worker_factory = env
-            .new_object(
-                worker_factory_class,
-                "(Ljava/lang/ClassLoader;)V",
-                &[(dex_classloader_ref.as_obj()).into()],
-            )
-            .map_err(|e| Error::Internal(format!("Failed to create DexWorkerFactory: {}", e)))?;
+    for (key, work) in admitted {
+        // Each request makes a handful of local references; free them as we go
+        let result = env
+            .push_local_frame(16)
+            .map_err(|e| Error::Internal(format!("Failed to push local frame: {}", e)))
+            .and_then(|()| {
+                let result =
+                    enqueue_unique_work(&mut env, &work_manager, &worker_class, key, &work);
+                // SAFETY: no local reference created inside the frame outlives it
+                let _ = unsafe { env.pop_local_frame(&JObject::null()) };
+                result
+            });
+
+        match result {
+            Ok(()) => record_enqueued(key, work),
+            Err(e) => {
+                tracing::error!("Failed to enqueue background download: {}", e);
+                finish_download(key, WORK_RESULT_NOT_ENQUEUED);
+            }
+        }
+    }
+    Ok(())
+}
 
-        // Create WorkManager Configuration with custom worker factory
-        let config_class = env
-            .find_class("androidx/work/Configuration$Builder")
-            .map_err(|e| Error::Internal(format!("Failed to find Configuration.Builder: {}", e)))?;
+/// Remember an enqueued download until its worker reports a final result
+fn record_enqueued(key: i64, work: QueuedWork) {
+    let mut downloads = lock_downloads();
+    // A worker that finished very quickly has already removed its entry
+    if !downloads.entries.contains_key(&key) {
+        return;
+    }
+    let Some(index) = downloads.index.as_mut() else {
+        return;
+    };
+    let download = IndexedDownload {
+        key,
+        unique_name: work.unique_name,
+        url: work.url.into(),
+        file_path: work.file_path,
+        session_identifier: work.session_identifier,
+        host: work.host,
+    };
+    if let Err(e) = index.insert(download) {
+        tracing::warn!("Failed to update background download index: {}", e);
+    }
+}
 
-        let config_builder = env.new_object(config_class, "()V", &[]).map_err(|e| {
-            Error::Internal(format!("Failed to create Configuration.Builder: {}", e))
-        })?;
+/// Load the download index the first time it is needed
+///
+/// Downloads whose unique work WorkManager no longer has, or has finished, are
+/// dropped. The rest are counted as running, since WorkManager carried them over
+/// from an earlier process.
+fn load_download_index(jvm: &JavaVM) -> Result<()> {
+    if lock_downloads().index.is_some() {
+        return Ok(());
+    }
 
-        // Set custom worker factory
-        env.call_method(
-            &config_builder,
-            "setWorkerFactory",
-            "(Landroidx/work/WorkerFactory;)Landroidx/work/Configuration$Builder;",
-            &[(&worker_factory).into()],
-        )
-        .map_err(|e| Error::Internal(format!("Failed to set worker factory: {}", e)))?;
+    let mut index = DownloadIndex::load(download_index_path(jvm)?);
 
-        // Set minimum logging level to DEBUG
-        let log_class = env
-            .find_class("android/util/Log")
-            .map_err(|e| Error::Internal(format!("Failed to find Log class: {}", e)))?;
+    let mut env = jvm
+        .attach_current_thread()
+        .map_err(|e| Error::Internal(format!("Failed to attach to JVM thread: {}", e)))?;
+    let work_manager = get_work_manager(&mut env, jvm)?;
+    let mut pending = Vec::new();
+    for download in index.iter() {
+        match is_unique_work_pending(&mut env, &work_manager, &download.unique_name) {
+            Ok(true) => pending.push(download.key),
+            Ok(false) => {}
+            Err(e) => {
+                // Keep it; the next launch checks again
+                tracing::warn!("Failed to look up {}: {}", download.unique_name, e);
+                pending.push(download.key);
+            }
+        }
+    }
+    if let Err(e) = index.retain(|download| pending.contains(&download.key)) {
+        tracing::warn!("Failed to update background download index: {}", e);
+    }
 
-        let debug_level = env
-            .get_static_field(&log_class, "DEBUG", "I")
-            .map_err(|e| Error::Internal(format!("Failed to get DEBUG constant: {}", e)))?
-            .i()
-            .map_err(|e| Error::Internal(format!("Failed to convert DEBUG to int: {}", e)))?;
+    let mut downloads = lock_downloads();
+    if downloads.index.is_some() {
+        return Ok(());
+    }
+    for download in index.iter() {
+        println!("🔁 Background download {} is still in flight", download.unique_name);
+        downloads.scheduler.mark_running(download.key, download.host.clone());
+    }
+    downloads.index = Some(index);
+    Ok(())
+}
 
-        env.call_method(
-            &config_builder,
-            "setMinimumLoggingLevel",
-            "(I)Landroidx/work/Configuration$Builder;",
-            &[(debug_level).into()],
+/// Where the download index is kept, in the app's files directory
+fn download_index_path(jvm: &JavaVM) -> Result<PathBuf> {
+    let context = get_application_context(jvm)?;
+    let mut env = jvm
+        .attach_current_thread()
+        .map_err(|e| Error::Internal(format!("Failed to attach to JVM thread: {}", e)))?;
+
+    let files_dir = env
+        .call_method(&context, "getFilesDir", "()Ljava/io/File;", &[])
+        .map_err(|e| Error::Internal(format!("Failed to get files directory: {}", e)))?
+        .l()
+        .map_err(|e| Error::Internal(format!("Failed to convert files directory: {}", e)))?;
+    let files_dir_path = env
+        .call_method(&files_dir, "getAbsolutePath", "()Ljava/lang/String;", &[])
+        .map_err(|e| Error::Internal(format!("Failed to get files directory path: {}", e)))?
+        .l()
+        .map_err(|e| Error::Internal(format!("Failed to convert files directory path: {}", e)))?;
+    let files_dir_path: String = env
+        .get_string(&JString::from(files_dir_path))
+        .map_err(|e| Error::Internal(format!("Failed to read files directory path: {}", e)))?
+        .into();
+
+    Ok(PathBuf::from(files_dir_path)
+        .join("frakt")
+        .join("background_downloads.json"))
+}
+
+/// Whether WorkManager has unfinished unique work named `unique_name`
+fn is_unique_work_pending(
+    env: &mut JNIEnv,
+    work_manager: &JObject,
+    unique_name: &str,
+) -> Result<bool> {
+    let name = env
+        .new_string(unique_name)
+        .map_err(|e| Error::Internal(format!("Failed to create unique work name: {}", e)))?;
+    let future = env
+        .call_method(
+            work_manager,
+            "getWorkInfosForUniqueWork",
+            "(Ljava/lang/String;)Lcom/google/common/util/concurrent/ListenableFuture;",
+            &[(&name).into()],
         )
-        .map_err(|e| Error::Internal(format!("Failed to set minimum logging level: {}", e)))?;
+        .map_err(|e| Error::Internal(format!("Failed to get WorkInfo future: {}", e)))?
+        .l()
+        .map_err(|e| Error::Internal(format!("Failed to get future object: {}", e)))?;
+    let work_infos = env
+        .call_method(&future, "get", "()Ljava/lang/Object;", &[])
+        .map_err(|e| Error::Internal(format!("Failed to get WorkInfo list: {}", e)))?
+        .l()
+        .map_err(|e| Error::Internal(format!("Failed to get WorkInfo list object: {}", e)))?;
+    let count = env
+        .call_method(&work_infos, "size", "()I", &[])
+        .and_then(|size| size.i())
+        .map_err(|e| Error::Internal(format!("Failed to get WorkInfo count: {}", e)))?;
 
-        let config = env
+    for i in 0..count {
+        let work_info = env
+            .call_method(&work_infos, "get", "(I)Ljava/lang/Object;", &[i.into()])
+            .and_then(|info| info.l())
+            .map_err(|e| Error::Internal(format!("Failed to get WorkInfo: {}", e)))?;
+        let state = env
             .call_method(
-                &config_builder,
-                "build",
-                "()Landroidx/work/Configuration;",
+                &work_info,
+                "getState",
+                "()Landroidx/work/WorkInfo$State;",
                 &[],
             )
-            .map_err(|e| Error::Internal(format!("Failed to build Configuration: {}", e)))?
-            .l()
-            .map_err(|e| Error::Internal(format!("Failed to get Configuration object: {}", e)))?;
-
-        // Initialize WorkManager
-        env.call_static_method(
-            work_manager_class,
-            "initialize",
-            "(Landroid/content/Context;Landroidx/work/Configuration;)V",
-            &[(&context).into(), (&config).into()],
-        )
-        .map_err(|e| Error::Internal(format!("Failed to initialize WorkManager: {}", e)))?;
-
-        println!("✅ WorkManager initialized successfully with DexWorkerFactory");
+            .and_then(|state| state.l())
+            .map_err(|e| Error::Internal(format!("Failed to get work state: {}", e)))?;
+        let finished = env
+            .call_method(&state, "isFinished", "()Z", &[])
+            .and_then(|finished| finished.z())
+            .map_err(|e| Error::Internal(format!("Failed to check work state: {}", e)))?;
+        if !finished {
+            return Ok(true);
+        }
     }
-
-    // Pre-register DownloadProgressCallback native methods
-    let progress_class = crate::backend::android::callback::load_class_from_dex(
-        &mut env,
-        "se.brendan.frakt.DownloadProgressCallback",
-    )?;
-    register_progress_callback_methods(&mut env, &progress_class)?;
-
-    Ok(())
+    Ok(false)
 }
 
-/// Execute a background download using Android's WorkManager
-pub async fn execute_background_download(
+/// Background downloads still in flight, including those from earlier processes
+pub fn pending_background_downloads(
     jvm: &JavaVM,
-    url: Url,
-    file_path: PathBuf,
-    session_identifier: Option<String>,
-    headers: http::HeaderMap,
-    _error_for_status: bool,
-    progress_callback: Option<Box<dyn Fn(u64, Option<u64>) + Send + Sync + 'static>>,
-) -> Result<crate::client::download::DownloadResponse> {
-    // Ensure WorkManager is initialized
+) -> Result<Vec<crate::client::PendingBackgroundDownload>> {
     ensure_workmanager_initialized(jvm)?;
+    load_download_index(jvm)?;
 
-    let mut env = jvm
-        .attach_current_thread()
-        .map_err(|e| Error::Internal(format!("Failed to attach to JVM thread: {}", e)))?;
+    let indexed: Vec<IndexedDownload> = lock_downloads()
+        .index
+        .iter()
+        .flat_map(|index| index.iter().cloned())
+        .collect();
+
+    Ok(indexed
+        .into_iter()
+        .filter_map(|download| {
+            let url = Url::parse(&download.url).ok()?;
+            // Progress is whatever the last checkpoint recorded
+            let partial = PartialDownload::load(&download.file_path, &download.url);
+            Some(crate::client::PendingBackgroundDownload {
+                url,
+                bytes_downloaded: partial.offset(),
+                total_bytes: partial.total(),
+                validator: partial.validator().map(str::to_string),
+                file_path: download.file_path,
+                session_identifier: download.session_identifier,
+            })
+        })
+        .collect())
+}
 
-    // Get application context
-    let context = get_application_context(&jvm)?;
+/// Get the WorkManager instance for the application
+fn get_work_manager<'a>(env: &mut JNIEnv<'a>, jvm: &JavaVM) -> Result<JObject<'a>> {
+    let context = get_application_context(jvm)?;
 
-    // Get WorkManager instance
     let work_manager_class = env
         .find_class("androidx/work/WorkManager")
         .map_err(|e| Error::Internal(format!("Failed to find WorkManager class: {}", e)))?;
 
-    let work_manager = env
-        .call_static_method(
-            work_manager_class,
-            "getInstance",
-            "(Landroid/content/Context;)Landroidx/work/WorkManager;",
-            &[(&context).into()],
-        )
-        .map_err(|e| Error::Internal(format!("Failed to get WorkManager instance: {}", e)))?
-        .l()
-        .map_err(|e| Error::Internal(format!("Failed to get WorkManager object: {}", e)))?;
-
-    // Build input data
-    let data_builder_class = env
-        .find_class("androidx/work/Data$Builder")
-        .map_err(|e| Error::Internal(format!("Failed to find Data.Builder class: {}", e)))?;
-
-    let data_builder = env
-        .new_object(data_builder_class, "()V", &[])
-        .map_err(|e| Error::Internal(format!("Failed to create Data.Builder: {}", e)))?;
-
-    // Add URL
-    let url_key = env
-        .new_string("url")
-        .map_err(|e| Error::Internal(format!("Failed to create URL key string: {}", e)))?;
-    let url_value = env
-        .new_string(url.as_str())
-        .map_err(|e| Error::Internal(format!("Failed to create URL value string: {}", e)))?;
-    env.call_method(
-        &data_builder,
-        "putString",
-        "(Ljava/lang/String;Ljava/lang/String;)Landroidx/work/Data$Builder;",
-        &[(&url_key).into(), (&url_value).into()],
-    )
-    .map_err(|e| Error::Internal(format!("Failed to put URL in data: {}", e)))?;
-
-    // Add file path
-    let path_key = env
-        .new_string("file_path")
-        .map_err(|e| Error::Internal(format!("Failed to create path key string: {}", e)))?;
-    let path_value = env
-        .new_string(file_path.to_string_lossy().as_ref())
-        .map_err(|e| Error::Internal(format!("Failed to create path value string: {}", e)))?;
-    env.call_method(
-        &data_builder,
-        "putString",
-        "(Ljava/lang/String;Ljava/lang/String;)Landroidx/work/Data$Builder;",
-        &[(&path_key).into(), (&path_value).into()],
+    env.call_static_method(
+        work_manager_class,
+        "getInstance",
+        "(Landroid/content/Context;)Landroidx/work/WorkManager;",
+        &[(&context).into()],
     )
-    .map_err(|e| Error::Internal(format!("Failed to put file path in data: {}", e)))?;
-
-    // Serialize headers to JSON
-    let headers_json =
-        serde_json::to_string(&headers_to_map(&headers)).unwrap_or_else(|_| "{}".to_string());
-    let headers_key = env
-        .new_string("headers")
-        .map_err(|e| Error::Internal(format!("Failed to create headers key string: {}", e)))?;
-    let headers_value = env
-        .new_string(&headers_json)
-        .map_err(|e| Error::Internal(format!("Failed to create headers value string: {}", e)))?;
+    .map_err(|e| Error::Internal(format!("Failed to get WorkManager instance: {}", e)))?
+    .l()
+    .map_err(|e| Error::Internal(format!("Failed to get WorkManager object: {}", e)))
+}
+
+/// Put a string into a `Data.Builder`
+fn put_data_string(env: &mut JNIEnv, builder: &JObject, key: &str, value: &str) -> Result<()> {
+    let key_string = env
+        .new_string(key)
+        .map_err(|e| Error::Internal(format!("Failed to create {} key string: {}", key, e)))?;
+    let value_string = env
+        .new_string(value)
+        .map_err(|e| Error::Internal(format!("Failed to create {} value string: {}", key, e)))?;
     env.call_method(
-        &data_builder,
+        builder,
         "putString",
         "(Ljava/lang/String;Ljava/lang/String;)Landroidx/work/Data$Builder;",
-        &[(&headers_key).into(), (&headers_value).into()],
+        &[(&key_string).into(), (&value_string).into()],
     )
-    .map_err(|e| Error::Internal(format!("Failed to put headers in data: {}", e)))?;
-
-    // Build data
-    let input_data = env
-        .call_method(&data_builder, "build", "()Landroidx/work/Data;", &[])
-        .map_err(|e| Error::Internal(format!("Failed to build input data: {}", e)))?
-        .l()
-        .map_err(|e| Error::Internal(format!("Failed to get Data object: {}", e)))?;
-
-    // Load DownloadWorker class from our DEX file
-    let worker_class = crate::backend::android::callback::load_class_from_dex(
-        &mut env,
-        "se.brendan.frakt.DownloadWorker",
-    )?;
-
-    // Create OneTimeWorkRequest.Builder
-    let request_builder_class = env
-        .find_class("androidx/work/OneTimeWorkRequest$Builder")
-        .map_err(|e| {
-            Error::Internal(format!(
-                "Failed to find OneTimeWorkRequest.Builder class: {}",
-                e
-            ))
-        })?;
-
-    let request_builder = env
-        .new_object(
-            request_builder_class,
-            "(Ljava/lang/Class;)V",
-            &[(&worker_class).into()],
-        )
-        .map_err(|e| {
-            Error::Internal(format!(
-                "Failed to create OneTimeWorkRequest.Builder: {}",
-                e
-            ))
-        })?;
+    .map_err(|e| Error::Internal(format!("Failed to put {} in data: {}", key, e)))?;
+    Ok(())
+}
 
-    // Set input data
+/// Put a long into a `Data.Builder`
+fn put_data_long(env: &mut JNIEnv, builder: &JObject, key: &str, value: i64) -> Result<()> {
+    let key_string = env
+        .new_string(key)
+        .map_err(|e| Error::Internal(format!("Failed to create {} key string: {}", key, e)))?;
     env.call_method(
-        &request_builder,
-        "setInputData",
-        "(Landroidx/work/Data;)Landroidx/work/WorkRequest$Builder;",
-        &[(&input_data).into()],
+        builder,
+        "putLong",
+        "(Ljava/lang/String;J)Landroidx/work/Data$Builder;",
+        &[(&key_string).into(), value.into()],
     )
-    .map_err(|e| Error::Internal(format!("Failed to set input data: {}", e)))?;
+    .map_err(|e| Error::Internal(format!("Failed to put {} in data: {}", key, e)))?;
+    Ok(())
+}
 
-    // Build work request
-    let work_request = env
-        .call_method(
-            &request_builder,
-            "build",
-            "()Landroidx/work/WorkRequest;",
-            &[],
-        )
-        .map_err(|e| Error::Internal(format!("Failed to build work request: {}", e)))?
-        .l()
-        .map_err(|e| Error::Internal(format!("Failed to get WorkRequest object: {}", e)))?;
+/// Put headers into a `Data.Builder` as parallel `header_names` and `header_values`
+///
+/// A header sent several times gets one entry per value, in order.
+fn put_data_headers(
+    env: &mut JNIEnv,
+    builder: &JObject,
+    headers: &http::HeaderMap,
+) -> Result<()> {
+    let len = headers.len() as i32;
+    let names = env
+        .new_object_array(len, "java/lang/String", JObject::null())
+        .map_err(|e| Error::Internal(format!("Failed to create header names array: {}", e)))?;
+    let values = env
+        .new_object_array(len, "java/lang/String", JObject::null())
+        .map_err(|e| Error::Internal(format!("Failed to create header values array: {}", e)))?;
+
+    for (index, (name, value)) in headers.iter().enumerate() {
+        let name = env
+            .new_string(name.as_str())
+            .map_err(|e| Error::Internal(format!("Failed to create header name: {}", e)))?;
+        let value = env
+            .new_string(String::from_utf8_lossy(value.as_bytes()))
+            .map_err(|e| Error::Internal(format!("Failed to create header value: {}", e)))?;
+        env.set_object_array_element(&names, index as i32, &name)
+            .and_then(|()| env.set_object_array_element(&values, index as i32, &value))
+            .map_err(|e| Error::Internal(format!("Failed to store header: {}", e)))?;
+        let _ = env.delete_local_ref(name);
+        let _ = env.delete_local_ref(value);
+    }
 
-    // Get work ID before enqueueing
-    let work_id = env
-        .call_method(&work_request, "getId", "()Ljava/util/UUID;", &[])
-        .map_err(|e| Error::Internal(format!("Failed to get work ID: {}", e)))?
-        .l()
-        .map_err(|e| Error::Internal(format!("Failed to get UUID object: {}", e)))?;
+    for (key, array) in [("header_names", &names), ("header_values", &values)] {
+        let key_string = env
+            .new_string(key)
+            .map_err(|e| Error::Internal(format!("Failed to create {} key string: {}", key, e)))?;
+        env.call_method(
+            builder,
+            "putStringArray",
+            "(Ljava/lang/String;[Ljava/lang/String;)Landroidx/work/Data$Builder;",
+            &[(&key_string).into(), array.into()],
+        )
+        .map_err(|e| Error::Internal(format!("Failed to put {} in data: {}", key, e)))?;
+    }
+    Ok(())
+}
 
-    let work_id_string = env
-        .call_method(&work_id, "toString", "()Ljava/lang/String;", &[])
-        .map_err(|e| Error::Internal(format!("Failed to convert UUID to string: {}", e)))?
-        .l()
-        .map_err(|e| Error::Internal(format!("Failed to get string object: {}", e)))?;
+/// Read the header arrays written by [`put_data_headers`]
+///
+/// Null arrays mean no headers. Entries that are not valid headers are skipped.
+fn headers_from_arrays(
+    env: &mut JNIEnv,
+    names: &JObjectArray,
+    values: &JObjectArray,
+) -> Result<http::HeaderMap> {
+    let mut headers = http::HeaderMap::new();
+    if names.is_null() || values.is_null() {
+        return Ok(headers);
+    }
 
-    let work_id_str: String = env
-        .get_string(&JString::from(work_id_string))
-        .map_err(|e| Error::Internal(format!("Failed to get work ID string: {}", e)))?
-        .into();
+    let len = env
+        .get_array_length(names)
+        .and_then(|names_len| Ok(names_len.min(env.get_array_length(values)?)))
+        .map_err(|e| Error::Internal(format!("Failed to get header array length: {}", e)))?;
+
+    for index in 0..len {
+        let name = env
+            .get_object_array_element(names, index)
+            .map(JString::from)
+            .map_err(|e| Error::Internal(format!("Failed to get header name: {}", e)))?;
+        let value = env
+            .get_object_array_element(values, index)
+            .map(JString::from)
+            .map_err(|e| Error::Internal(format!("Failed to get header value: {}", e)))?;
+
+        if !name.is_null() && !value.is_null() {
+            let name_str: String = env
+                .get_string(&name)
+                .map_err(|e| Error::Internal(format!("Failed to read header name: {}", e)))?
+                .into();
+            let value_str: String = env
+                .get_string(&value)
+                .map_err(|e| Error::Internal(format!("Failed to read header value: {}", e)))?
+                .into();
+            if let (Ok(n), Ok(v)) = (
+                http::header::HeaderName::from_bytes(name_str.as_bytes()),
+                http::header::HeaderValue::from_str(&value_str),
+            ) {
+                headers.append(n, v);
+            }
+        }
 
-    // In a test/stub environment, we don't have a real WorkManager executor.
-    // Instead, call our BackgroundDownloader.performDownload() directly.
+        let _ = env.delete_local_ref(name);
+        let _ = env.delete_local_ref(value);
+    }
+    Ok(headers)
+}
 
-    // Add progress callback ID if we have one
-    let progress_id = if let Some(callback) = progress_callback {
-        let id = register_progress_callback(callback);
+/// Build WorkManager constraints for a download's options
+fn build_constraints<'a>(
+    env: &mut JNIEnv<'a>,
+    options: &BackgroundDownloadOptions,
+) -> Result<JObject<'a>> {
+    let builder = env
+        .new_object("androidx/work/Constraints$Builder", "()V", &[])
+        .map_err(|e| Error::Internal(format!("Failed to create Constraints.Builder: {}", e)))?;
+
+    if options.requires_unmetered_network {
+        let unmetered = env
+            .get_static_field(
+                "androidx/work/NetworkType",
+                "UNMETERED",
+                "Landroidx/work/NetworkType;",
+            )
+            .and_then(|value| value.l())
+            .map_err(|e| Error::Internal(format!("Failed to get NetworkType.UNMETERED: {}", e)))?;
+        env.call_method(
+            &builder,
+            "setRequiredNetworkType",
+            "(Landroidx/work/NetworkType;)Landroidx/work/Constraints$Builder;",
+            &[(&unmetered).into()],
+        )
+        .map_err(|e| Error::Internal(format!("Failed to set required network type: {}", e)))?;
+    }
 
-        let progress_key = env
-            .new_string("progress_handler_id")
-            .map_err(|e| Error::Internal(format!("Failed to create progress key string: {}", e)))?;
+    if options.requires_charging {
         env.call_method(
-            &data_builder,
-            "putLong",
-            "(Ljava/lang/String;J)Landroidx/work/Data$Builder;",
-            &[(&progress_key).into(), (id as i64).into()],
+            &builder,
+            "setRequiresCharging",
+            "(Z)Landroidx/work/Constraints$Builder;",
+            &[true.into()],
         )
-        .map_err(|e| Error::Internal(format!("Failed to put progress ID in data: {}", e)))?;
+        .map_err(|e| Error::Internal(format!("Failed to set requires charging: {}", e)))?;
+    }
 
-        Some(id)
-    } else {
-        None
-    };
+    env.call_method(&builder, "build", "()Landroidx/work/Constraints;", &[])
+        .and_then(|value| value.l())
+        .map_err(|e| Error::Internal(format!("Failed to build Constraints: {}", e)))
+}
 
-    // Build the Data object
-    let input_data = env
-        .call_method(&data_builder, "build", "()Landroidx/work/Data;", &[])
-        .map_err(|e| Error::Internal(format!("Failed to build Data: {}", e)))?
-        .l()
-        .map_err(|e| Error::Internal(format!("Failed to get Data object: {}", e)))?;
+/// Enqueue one download as unique work
+///
+/// An unfinished worker with the same unique name is kept rather than replaced,
+/// so sending a download that is already running does not start it over.
+fn enqueue_unique_work(
+    env: &mut JNIEnv,
+    work_manager: &JObject,
+    worker_class: &JClass,
+    key: i64,
+    work: &QueuedWork,
+) -> Result<()> {
+    let data_builder = env
+        .new_object("androidx/work/Data$Builder", "()V", &[])
+        .map_err(|e| Error::Internal(format!("Failed to create Data.Builder: {}", e)))?;
 
-    // Load DownloadWorker class from DEX
-    let worker_class = crate::backend::android::callback::load_class_from_dex(
-        &mut env,
-        "se.brendan.frakt.DownloadWorker",
+    put_data_string(env, &data_builder, "url", work.url.as_str())?;
+    put_data_string(
+        env,
+        &data_builder,
+        "file_path",
+        work.file_path.to_string_lossy().as_ref(),
     )?;
+    put_data_headers(env, &data_builder, &work.headers)?;
+    // DownloadWorker reports progress and its final result back with the key
+    put_data_long(env, &data_builder, "progress_handler_id", key)?;
+    put_data_long(env, &data_builder, "completion_handler_id", key)?;
 
-    // Create OneTimeWorkRequest.Builder
-    let request_builder_class = env
-        .find_class("androidx/work/OneTimeWorkRequest$Builder")
-        .map_err(|e| {
-            Error::Internal(format!(
-                "Failed to find OneTimeWorkRequest.Builder class: {}",
-                e
-            ))
-        })?;
+    let input_data = env
+        .call_method(&data_builder, "build", "()Landroidx/work/Data;", &[])
+        .and_then(|value| value.l())
+        .map_err(|e| Error::Internal(format!("Failed to build Data: {}", e)))?;
 
     let request_builder = env
         .new_object(
-            request_builder_class,
+            "androidx/work/OneTimeWorkRequest$Builder",
             "(Ljava/lang/Class;)V",
-            &[(&worker_class).into()],
+            &[worker_class.into()],
         )
         .map_err(|e| {
             Error::Internal(format!(
@@ -371,7 +620,6 @@ pub async fn execute_background_download(
             ))
         })?;
 
-    // Set input data
     env.call_method(
         &request_builder,
         "setInputData",
@@ -380,7 +628,15 @@ pub async fn execute_background_download(
     )
     .map_err(|e| Error::Internal(format!("Failed to set input data: {}", e)))?;
 
-    // Build work request
+    let constraints = build_constraints(env, &work.options)?;
+    env.call_method(
+        &request_builder,
+        "setConstraints",
+        "(Landroidx/work/Constraints;)Landroidx/work/WorkRequest$Builder;",
+        &[(&constraints).into()],
+    )
+    .map_err(|e| Error::Internal(format!("Failed to set constraints: {}", e)))?;
+
     let work_request = env
         .call_method(
             &request_builder,
@@ -388,131 +644,349 @@ pub async fn execute_background_download(
             "()Landroidx/work/WorkRequest;",
             &[],
         )
-        .map_err(|e| Error::Internal(format!("Failed to build work request: {}", e)))?
-        .l()
-        .map_err(|e| Error::Internal(format!("Failed to get WorkRequest object: {}", e)))?;
+        .and_then(|value| value.l())
+        .map_err(|e| Error::Internal(format!("Failed to build work request: {}", e)))?;
+
+    let keep = env
+        .get_static_field(
+            "androidx/work/ExistingWorkPolicy",
+            "KEEP",
+            "Landroidx/work/ExistingWorkPolicy;",
+        )
+        .and_then(|value| value.l())
+        .map_err(|e| Error::Internal(format!("Failed to get ExistingWorkPolicy.KEEP: {}", e)))?;
+    let unique_name = env
+        .new_string(&work.unique_name)
+        .map_err(|e| Error::Internal(format!("Failed to create unique work name: {}", e)))?;
 
-    // Get work ID
-    let work_id = env
-        .call_method(&work_request, "getId", "()Ljava/util/UUID;", &[])
-        .map_err(|e| Error::Internal(format!("Failed to get work ID: {}", e)))?
-        .l()
-        .map_err(|e| Error::Internal(format!("Failed to get UUID object: {}", e)))?;
+    env.call_method(
+        work_manager,
+        "enqueueUniqueWork",
+        "(Ljava/lang/String;Landroidx/work/ExistingWorkPolicy;Landroidx/work/OneTimeWorkRequest;)Landroidx/work/Operation;",
+        &[(&unique_name).into(), (&keep).into(), (&work_request).into()],
+    )
+    .map_err(|e| Error::Internal(format!("Failed to enqueue work: {}", e)))?;
 
-    let work_id_string = env
-        .call_method(&work_id, "toString", "()Ljava/lang/String;", &[])
-        .map_err(|e| Error::Internal(format!("Failed to convert UUID to string: {}", e)))?
-        .l()
-        .map_err(|e| Error::Internal(format!("Failed to get string object: {}", e)))?;
+    println!("📥 Enqueued background download as {}", work.unique_name);
+    Ok(())
+}
 
-    let work_id_str: String = env
-        .get_string(&JString::from(work_id_string))
-        .map_err(|e| Error::Internal(format!("Failed to get work ID string: {}", e)))?
-        .into();
+/// Stop a background download for every caller waiting on it
+///
+/// A download still in the queue is just taken out. One already handed to
+/// WorkManager has its unique work cancelled, which stops the worker.
+fn cancel_background_download(jvm: &JavaVM, key: i64) {
+    let (unique_name, partial, running) = {
+        let mut downloads = lock_downloads();
+        // Marked first, so an attempt starting from now on discards its partial file
+        downloads.cancelled.insert(key);
+        let (unique_name, partial) = match downloads.scheduler.remove(key) {
+            Some(work) => (None, Some((work.file_path, work.url.to_string()))),
+            None => {
+                let unique_name = downloads
+                    .entries
+                    .get(&key)
+                    .map(|entry| entry.unique_name.clone());
+                let partial = downloads
+                    .index
+                    .as_ref()
+                    .and_then(|index| index.get(key))
+                    .map(|download| (download.file_path.clone(), download.url.clone()));
+                (unique_name, partial)
+            }
+        };
+        (unique_name, partial, downloads.attempts.get(&key).cloned())
+    };
+
+    if let Some(unique_name) = unique_name {
+        println!("🛑 Cancelling background download {}", unique_name);
+        if let Err(e) = cancel_unique_work(jvm, &unique_name) {
+            tracing::error!("Failed to cancel background download: {}", e);
+        }
+    }
+
+    // Cancelled work never runs again, so nothing would resume from the partial file
+    match running {
+        // The attempt discards it once it has stopped writing
+        Some(attempt) => attempt.cancel(),
+        None => {
+            if let Some((file_path, url)) = partial {
+                PartialDownload::load(&file_path, &url).discard();
+            }
+        }
+    }
+
+    finish_download(key, WORK_RESULT_CANCELLED);
+    if let Err(e) = dispatch_queued_downloads(jvm) {
+        tracing::error!("Failed to start queued background downloads: {}", e);
+    }
+}
+
+/// `WorkManager.cancelUniqueWork(uniqueName)`
+fn cancel_unique_work(jvm: &JavaVM, unique_name: &str) -> Result<()> {
+    let mut env = jvm
+        .attach_current_thread()
+        .map_err(|e| Error::Internal(format!("Failed to attach to JVM thread: {}", e)))?;
+    let work_manager = get_work_manager(&mut env, jvm)?;
+    let unique_name = env
+        .new_string(unique_name)
+        .map_err(|e| Error::Internal(format!("Failed to create unique work name: {}", e)))?;
 
-    // Enqueue work
     env.call_method(
         &work_manager,
-        "enqueue",
-        "(Landroidx/work/WorkRequest;)Landroidx/work/Operation;",
-        &[(&work_request).into()],
+        "cancelUniqueWork",
+        "(Ljava/lang/String;)Landroidx/work/Operation;",
+        &[(&unique_name).into()],
     )
-    .map_err(|e| Error::Internal(format!("Failed to enqueue work: {}", e)))?;
+    .map_err(|e| Error::Internal(format!("Failed to cancel unique work: {}", e)))?;
+    Ok(())
+}
 
-    println!(
-        "📥 Enqueued background download with work ID: {}",
-        work_id_str
+/// Initialize WorkManager if not already initialized
+fn ensure_workmanager_initialized(jvm: &JavaVM) -> Result<()> {
+    let mut env = jvm
+        .attach_current_thread()
+        .map_err(|e| Error::Internal(format!("Failed to attach to JVM thread: {}", e)))?;
+
+    let context = get_application_context(&jvm)?;
+
+    // Try to get WorkManager instance to see if it's initialized
+    let work_manager_class = env
+        .find_class("androidx/work/WorkManager")
+        .map_err(|e| Error::Internal(format!("Failed to find WorkManager class: {}", e)))?;
+
+    // Try getInstance - if it throws, we need to initialize
+    let get_instance_result = env.call_static_method(
+        &work_manager_class,
+        "getInstance",
+        "(Landroid/content/Context;)Landroidx/work/WorkManager;",
+        &[(&context).into()],
     );
 
-    // Poll for completion
-    let start_time = std::time::Instant::now();
-    let timeout = std::time::Duration::from_secs(30);
-    let mut iteration = 0;
+    // Check if there was an exception (WorkManager not initialized)
+    if env.exception_check().unwrap_or(false) {
+        env.exception_clear().ok();
+
+        println!("🔧 Initializing WorkManager with custom DexWorkerFactory...");
+
+        // Get DEX classloader from callback module
+        let dex_classloader_ref = crate::backend::android::callback::get_dex_classloader(&mut env)?;
+
+        // Load DexWorkerFactory class from DEX
+        let worker_factory_class = crate::backend::android::callback::load_class_from_dex(
+            &mut env,
+            "se.brendan.frakt.DexWorkerFactory",
+        )?;
+
+        // Create DexWorkerFactory instance with DEX classloader
+        let worker_factory = env
+            .new_object(
+                worker_factory_class,
+                "(Ljava/lang/ClassLoader;)V",
+                &[(dex_classloader_ref.as_obj()).into()],
+            )
+            .map_err(|e| Error::Internal(format!("Failed to create DexWorkerFactory: {}", e)))?;
+
+        // Create WorkManager Configuration with custom worker factory
+        let config_class = env
+            .find_class("androidx/work/Configuration$Builder")
+            .map_err(|e| Error::Internal(format!("Failed to find Configuration.Builder: {}", e)))?;
+
+        let config_builder = env.new_object(config_class, "()V", &[]).map_err(|e| {
+            Error::Internal(format!("Failed to create Configuration.Builder: {}", e))
+        })?;
+
+        // Set custom worker factory
+        env.call_method(
+            &config_builder,
+            "setWorkerFactory",
+            "(Landroidx/work/WorkerFactory;)Landroidx/work/Configuration$Builder;",
+            &[(&worker_factory).into()],
+        )
+        .map_err(|e| Error::Internal(format!("Failed to set worker factory: {}", e)))?;
+
+        // Set minimum logging level to DEBUG
+        let log_class = env
+            .find_class("android/util/Log")
+            .map_err(|e| Error::Internal(format!("Failed to find Log class: {}", e)))?;
 
-    loop {
-        iteration += 1;
-        tokio::time::sleep(std::time::Duration::from_millis(100)).await;
+        let debug_level = env
+            .get_static_field(&log_class, "DEBUG", "I")
+            .map_err(|e| Error::Internal(format!("Failed to get DEBUG constant: {}", e)))?
+            .i()
+            .map_err(|e| Error::Internal(format!("Failed to convert DEBUG to int: {}", e)))?;
 
-        if start_time.elapsed() > timeout {
-            if let Some(id) = progress_id {
-                unregister_progress_callback(id);
-            }
-            return Err(Error::Internal(format!(
-                "Download timed out after {} seconds",
-                timeout.as_secs()
-            )));
-        }
+        env.call_method(
+            &config_builder,
+            "setMinimumLoggingLevel",
+            "(I)Landroidx/work/Configuration$Builder;",
+            &[(debug_level).into()],
+        )
+        .map_err(|e| Error::Internal(format!("Failed to set minimum logging level: {}", e)))?;
 
-        // Get WorkInfo
-        let work_info_future = env
+        let config = env
             .call_method(
-                &work_manager,
-                "getWorkInfoById",
-                "(Ljava/util/UUID;)Lcom/google/common/util/concurrent/ListenableFuture;",
-                &[(&work_id).into()],
+                &config_builder,
+                "build",
+                "()Landroidx/work/Configuration;",
+                &[],
             )
-            .map_err(|e| Error::Internal(format!("Failed to get WorkInfo future: {}", e)))?
+            .map_err(|e| Error::Internal(format!("Failed to build Configuration: {}", e)))?
             .l()
-            .map_err(|e| Error::Internal(format!("Failed to get future object: {}", e)))?;
+            .map_err(|e| Error::Internal(format!("Failed to get Configuration object: {}", e)))?;
 
-        let work_info = env
-            .call_method(&work_info_future, "get", "()Ljava/lang/Object;", &[])
-            .map_err(|e| Error::Internal(format!("Failed to get WorkInfo: {}", e)))?
-            .l()
-            .map_err(|e| Error::Internal(format!("Failed to get WorkInfo object: {}", e)))?;
+        // Initialize WorkManager
+        env.call_static_method(
+            work_manager_class,
+            "initialize",
+            "(Landroid/content/Context;Landroidx/work/Configuration;)V",
+            &[(&context).into(), (&config).into()],
+        )
+        .map_err(|e| Error::Internal(format!("Failed to initialize WorkManager: {}", e)))?;
 
-        let state = env
-            .call_method(
-                &work_info,
-                "getState",
-                "()Landroidx/work/WorkInfo$State;",
-                &[],
-            )
-            .map_err(|e| Error::Internal(format!("Failed to get work state: {}", e)))?
-            .l()
-            .map_err(|e| Error::Internal(format!("Failed to get State object: {}", e)))?;
+        println!("✅ WorkManager initialized successfully with DexWorkerFactory");
+    }
 
-        let state_name = env
-            .call_method(&state, "name", "()Ljava/lang/String;", &[])
-            .map_err(|e| Error::Internal(format!("Failed to get state name: {}", e)))?
-            .l()
-            .map_err(|e| Error::Internal(format!("Failed to get state name string: {}", e)))?;
+    // Pre-register DownloadProgressCallback native methods
+    let progress_class = crate::backend::android::callback::load_class_from_dex(
+        &mut env,
+        "se.brendan.frakt.DownloadProgressCallback",
+    )?;
+    register_progress_callback_methods(&mut env, &progress_class)?;
+
+    // Classes from the DEX loader do not get their natives resolved automatically
+    let worker_class = crate::backend::android::callback::load_class_from_dex(
+        &mut env,
+        "se.brendan.frakt.DownloadWorker",
+    )?;
+    register_download_worker_methods(&mut env, &worker_class)?;
 
-        let state_str: String = env
-            .get_string(&JString::from(state_name))
-            .map_err(|e| Error::Internal(format!("Failed to convert state name: {}", e)))?
-            .into();
+    Ok(())
+}
 
-        if iteration % 10 == 0 {
-            println!(
-                "📊 Download status: {} (iteration {})",
-                state_str, iteration
-            );
-        }
+/// Execute a background download using Android's WorkManager
+///
+/// The download waits in a process-wide queue until `limits` allow it to run,
+/// and is then enqueued as unique work named after `session_identifier`, or after
+/// the URL and destination if there is none. Sending a download that is already
+/// queued or running waits for that one instead of starting another.
+#[allow(clippy::too_many_arguments)]
+pub async fn execute_background_download(
+    jvm: &JavaVM,
+    url: Url,
+    file_path: PathBuf,
+    session_identifier: Option<String>,
+    headers: http::HeaderMap,
+    _error_for_status: bool,
+    progress_callback: Option<Box<dyn Fn(u64, Option<u64>) + Send + Sync + 'static>>,
+    options: BackgroundDownloadOptions,
+    limits: DownloadQueueConfig,
+) -> Result<crate::client::download::DownloadResponse> {
+    // Ensure WorkManager is initialized
+    ensure_workmanager_initialized(jvm)?;
+
+    // Not fatal: without the index, downloads from earlier processes are just not tracked
+    if let Err(e) = load_download_index(jvm) {
+        tracing::warn!("Failed to load background download index: {}", e);
+    }
 
-        match state_str.as_str() {
-            "SUCCEEDED" => {
-                println!("✅ Background download completed successfully");
-                break;
+    let unique_name = session_identifier.clone().unwrap_or_else(|| {
+        format!(
+            "frakt-download-{:016x}",
+            work_key(&format!("{}\n{}", url, file_path.display()))
+        )
+    });
+    let key = work_key(&unique_name);
+    let (result_tx, result_rx) = oneshot::channel();
+    let cancel = options.cancel.clone();
+
+    let mut reattach = None;
+    let listener = {
+        let mut downloads = lock_downloads();
+        downloads.scheduler.set_limits(limits);
+
+        let listener = progress_callback.map(|callback| {
+            let id = downloads.next_listener;
+            downloads.next_listener += 1;
+            (id, callback)
+        });
+        let listener_id = listener.as_ref().map(|(id, _)| *id);
+
+        match downloads.entries.get_mut(&key) {
+            Some(entry) => {
+                println!("📎 Joining background download {}", unique_name);
+                entry.waiters.push(result_tx);
+                entry
+                    .listeners
+                    .lock()
+                    .unwrap_or_else(|e| e.into_inner())
+                    .extend(listener);
             }
-            "FAILED" | "CANCELLED" => {
-                if let Some(id) = progress_id {
-                    unregister_progress_callback(id);
+            None => {
+                downloads.cancelled.remove(&key);
+                let listeners = Arc::new(std::sync::Mutex::new(HashMap::from_iter(listener)));
+                downloads.entries.insert(
+                    key,
+                    DownloadEntry {
+                        unique_name: unique_name.clone(),
+                        waiters: vec![result_tx],
+                        listeners,
+                    },
+                );
+                let host = url.host_str().unwrap_or_default().to_string();
+                let priority = options.priority;
+                let work = QueuedWork {
+                    unique_name: unique_name.clone(),
+                    session_identifier,
+                    host: host.clone(),
+                    url,
+                    file_path: file_path.clone(),
+                    headers,
+                    options,
+                };
+                if downloads.scheduler.is_running(key) {
+                    // Still in flight from an earlier process; it already holds a slot
+                    println!("📎 Attaching to background download {}", unique_name);
+                    reattach = Some(work);
+                } else {
+                    downloads.scheduler.push(key, host, priority, work);
                 }
-                return Err(Error::Internal(format!(
-                    "Download failed with state: {}",
-                    state_str
-                )));
-            }
-            _ => {
-                // Still ENQUEUED, RUNNING, or BLOCKED - continue polling
             }
         }
-    }
+        listener_id
+    };
+    let _subscription = ProgressSubscription { key, listener };
 
-    // Unregister progress callback
-    if let Some(id) = progress_id {
-        unregister_progress_callback(id);
+    // KEEP leaves a live worker alone, and sends the download again if it is gone
+    if let Some(work) = reattach {
+        enqueue_admitted(jvm, vec![(key, work)])?;
+    }
+    dispatch_queued_downloads(jvm)?;
+
+    // Downloads may take arbitrarily long, so there is no timeout here
+    let result = tokio::select! {
+        result = result_rx => result,
+        _ = cancelled(cancel.as_ref()) => {
+            cancel_background_download(jvm, key);
+            return Err(Error::Cancelled);
+        }
+    };
+    match result {
+        Ok(WORK_RESULT_SUCCESS) => {
+            println!("✅ Background download completed successfully");
+        }
+        Ok(WORK_RESULT_CANCELLED) => return Err(Error::Cancelled),
+        Ok(code) => {
+            return Err(Error::Internal(format!(
+                "Background download failed with code {}",
+                code
+            )));
+        }
+        Err(_) => {
+            return Err(Error::Internal(
+                "Background download finished without reporting a result".to_string(),
+            ));
+        }
     }
 
     // Get the actual bytes downloaded by checking the file size
@@ -558,19 +1032,6 @@ fn get_application_context<'a>(jvm: &'a JavaVM) -> Result<JObject<'a>> {
     Ok(context.l().unwrap())
 }
 
-/// Convert HeaderMap to a simple map for JSON serialization
-fn headers_to_map(headers: &http::HeaderMap) -> std::collections::HashMap<String, String> {
-    headers
-        .iter()
-        .map(|(name, value)| {
-            (
-                name.as_str().to_string(),
-                value.to_str().unwrap_or("").to_string(),
-            )
-        })
-        .collect()
-}
-
 /// Native JNI function called by BackgroundDownloader to perform the actual download
 #[unsafe(no_mangle)]
 pub extern "C" fn Java_se_brendan_frakt_BackgroundDownloader_nativeDownload(
@@ -578,10 +1039,18 @@ pub extern "C" fn Java_se_brendan_frakt_BackgroundDownloader_nativeDownload(
     _class: JClass,
     url: JString,
     file_path: JString,
-    headers_json: JString,
+    header_names: JObjectArray,
+    header_values: JObjectArray,
     progress_callback: JObject,
 ) -> jint {
-    perform_download_impl(env, url, file_path, headers_json, progress_callback)
+    perform_download_impl(
+        env,
+        url,
+        file_path,
+        header_names,
+        header_values,
+        progress_callback,
+    )
 }
 
 /// Native JNI function called by DownloadWorker to perform the actual download
@@ -591,10 +1060,69 @@ pub extern "C" fn Java_se_brendan_frakt_DownloadWorker_nativeDownload(
     _class: JClass,
     url: JString,
     file_path: JString,
-    headers_json: JString,
+    header_names: JObjectArray,
+    header_values: JObjectArray,
     progress_callback: JObject,
 ) -> jint {
-    perform_download_impl(env, url, file_path, headers_json, progress_callback)
+    perform_download_impl(
+        env,
+        url,
+        file_path,
+        header_names,
+        header_values,
+        progress_callback,
+    )
+}
+
+/// Stop the attempt a DownloadWorker is running, called from its `onStopped()`
+///
+/// The attempt ends as if interrupted, so `doWork()` returns `Result.retry()`. If
+/// WorkManager only stopped the work, for example because its constraints are no
+/// longer met, it runs it again later and the download resumes. Work the app
+/// cancelled never runs again, so its attempt discards the partial file instead.
+#[unsafe(no_mangle)]
+pub extern "C" fn Java_se_brendan_frakt_DownloadWorker_nativeStopDownload(
+    _env: JNIEnv,
+    _class: JClass,
+    handler_id: jlong,
+) {
+    println!("🛑 JNI nativeStopDownload called");
+    if let Some(token) = lock_downloads().attempts.get(&handler_id) {
+        token.cancel();
+    }
+}
+
+/// Wake the Rust futures waiting on an enqueued download and start the next ones
+///
+/// Called by DownloadWorker once doWork() has a final result; attempts that end in
+/// `Result.retry()` are not reported. Only the first report for an id is delivered.
+#[unsafe(no_mangle)]
+pub extern "C" fn Java_se_brendan_frakt_DownloadWorker_nativeOnWorkFinished(
+    env: JNIEnv,
+    _class: JClass,
+    completion_id: jlong,
+    result: jint,
+) {
+    println!("🔵 JNI nativeOnWorkFinished called: {}", result);
+
+    let jvm = match env.get_java_vm() {
+        Ok(jvm) => jvm,
+        Err(e) => {
+            tracing::error!("Failed to get JVM: {}", e);
+            finish_download(completion_id, result);
+            return;
+        }
+    };
+
+    // The worker may have been enqueued by an earlier process; its record is in the index
+    if let Err(e) = load_download_index(&jvm) {
+        tracing::warn!("Failed to load background download index: {}", e);
+    }
+    finish_download(completion_id, result);
+
+    if let Err(e) = dispatch_queued_downloads(&jvm) {
+        tracing::error!("Failed to start queued background downloads: {}", e);
+    }
 }
 
 /// Shared implementation for both BackgroundDownloader and DownloadWorker
@@ -602,7 +1130,8 @@ fn perform_download_impl(
     mut env: JNIEnv,
     url: JString,
     file_path: JString,
-    headers_json: JString,
+    header_names: JObjectArray,
+    header_values: JObjectArray,
     progress_callback: JObject,
 ) -> jint {
     println!("🚀 NATIVE nativeDownload() called!");
@@ -645,27 +1174,14 @@ fn perform_download_impl(
     let file_path = PathBuf::from(file_path_str);
 
     // Parse headers
-    let headers_str: String = match env.get_string(&headers_json) {
-        Ok(s) => s.into(),
+    let headers = match headers_from_arrays(&mut env, &header_names, &header_values) {
+        Ok(headers) => headers,
         Err(e) => {
-            tracing::error!("Failed to get headers JSON string: {}", e);
+            tracing::error!("Failed to read headers: {}", e);
             return -1;
         }
     };
 
-    let headers_map: std::collections::HashMap<String, String> =
-        serde_json::from_str(&headers_str).unwrap_or_default();
-
-    let mut headers = http::HeaderMap::new();
-    for (name, value) in headers_map {
-        if let (Ok(n), Ok(v)) = (
-            http::header::HeaderName::from_bytes(name.as_bytes()),
-            http::header::HeaderValue::from_str(&value),
-        ) {
-            headers.insert(n, v);
-        }
-    }
-
     // Create global ref for progress callback
     let callback_global = match env.new_global_ref(&progress_callback) {
         Ok(g) => g,
@@ -675,22 +1191,53 @@ fn perform_download_impl(
         }
     };
 
+    // The worker stops this attempt through its handler id when WorkManager stops it
+    let attempt = attempt_key(&mut env, &progress_callback).map(|key| {
+        let token = CancellationToken::new();
+        let mut downloads = lock_downloads();
+        if downloads.cancelled.contains(&key) {
+            token.cancel();
+        }
+        downloads.attempts.insert(key, token.clone());
+        (key, token)
+    });
+    let stop = attempt.as_ref().map(|(_, token)| token.clone());
+    let partial = (file_path.clone(), url.to_string());
+
     println!("🔧 Starting download with Cronet...");
 
     // Spawn on the global runtime and wait for completion in a separate thread
     let runtime = crate::backend::android::get_runtime();
     let handle = runtime.spawn(async move {
-        download_file_with_cronet(&jvm, url, file_path, headers, callback_global).await
+        let download = download_file_with_cronet(&jvm, url, file_path, headers, callback_global);
+        tokio::select! {
+            biased;
+            // If the work was only stopped, WorkManager runs it again and it resumes
+            _ = cancelled(stop.as_ref()) => Err(AttemptError::retry(Error::Cancelled)),
+            result = download => result,
+        }
     });
 
     // Wait for the task to complete in a blocking thread
     let thread_result =
         std::thread::spawn(move || match runtime.block_on(async { handle.await }) {
             Ok(result) => result,
-            Err(e) => Err(Error::Internal(format!("Task join error: {}", e))),
+            Err(e) => Err(Error::Internal(format!("Task join error: {}", e)).into()),
         })
         .join();
 
+    if let Some((key, _)) = attempt {
+        let discard = {
+            let mut downloads = lock_downloads();
+            downloads.attempts.remove(&key);
+            downloads.cancelled.contains(&key)
+        };
+        if discard {
+            let (file_path, url) = partial;
+            PartialDownload::load(&file_path, &url).discard();
+        }
+    }
+
     // Handle thread join errors
     let result = match thread_result {
         Ok(task_result) => task_result,
@@ -708,28 +1255,83 @@ fn perform_download_impl(
                 "✅ Download completed successfully: {} bytes",
                 bytes_downloaded
             );
-            0
+            WORK_RESULT_SUCCESS
         }
-        Err(e) => {
-            eprintln!("❌ Download failed: {}", e);
-            tracing::error!("Download failed: {}", e);
+        Err(AttemptError { error, retry: true }) => {
+            eprintln!("🔁 Download interrupted, will resume: {}", error);
+            tracing::warn!("Download interrupted, will resume: {}", error);
+            WORK_RESULT_RETRY
+        }
+        Err(AttemptError { error, .. }) => {
+            eprintln!("❌ Download failed: {}", error);
+            tracing::error!("Download failed: {}", error);
             -1
         }
     }
 }
 
+/// Why a download attempt stopped, and whether a later attempt could finish it
+struct AttemptError {
+    error: Error,
+    retry: bool,
+}
+
+impl AttemptError {
+    fn retry(error: Error) -> Self {
+        Self { error, retry: true }
+    }
+}
+
+impl From<Error> for AttemptError {
+    fn from(error: Error) -> Self {
+        let retry = super::callback::is_transient_error(&error);
+        Self { error, retry }
+    }
+}
+
+impl AttemptError {
+    /// A response that did not carry the body, retried if the server may recover
+    fn status(status: http::StatusCode) -> Self {
+        use http::StatusCode;
+
+        let error = Error::Internal(format!("Download failed with status {}", status));
+        let retry = status.is_server_error()
+            || status == StatusCode::REQUEST_TIMEOUT
+            || status == StatusCode::TOO_MANY_REQUESTS;
+        Self { error, retry }
+    }
+}
+
 /// Download file using Cronet and write to disk
-/// Returns the number of bytes downloaded
+///
+/// The body goes to a partial file next to `file_path`, which is checkpointed as
+/// it grows. If an earlier attempt left one behind, only the rest of the file is
+/// requested. Returns the size of the finished file.
 async fn download_file_with_cronet(
     jvm: &JavaVM,
     url: Url,
     file_path: PathBuf,
-    headers: http::HeaderMap,
+    mut headers: http::HeaderMap,
     progress_callback: GlobalRef,
-) -> Result<u64> {
+) -> std::result::Result<u64, AttemptError> {
     use crate::backend::android::request;
     use crate::backend::types::BackendRequest;
-    use http::Method;
+    use http::{Method, StatusCode, header};
+
+    // Offsets into the file only mean something if Cronet has nothing to decode
+    headers.insert(
+        header::ACCEPT_ENCODING,
+        http::HeaderValue::from_static("identity"),
+    );
+
+    let mut partial = PartialDownload::load(&file_path, url.as_str());
+    if let Some((range, validator)) = partial.range_headers() {
+        println!("🔁 Resuming download with Range: {}", range);
+        if let (Ok(range), Ok(validator)) = (range.parse(), validator.parse()) {
+            headers.insert(header::RANGE, range);
+            headers.insert(header::IF_RANGE, validator);
+        }
+    }
 
     // Get Cronet engine
     let cronet_engine = super::get_global_cronet_engine();
@@ -737,63 +1339,130 @@ async fn download_file_with_cronet(
     // Create request
     let request = BackendRequest {
         method: Method::GET,
-        url,
-        headers,
+        url: url.clone(),
+        headers: headers.clone(),
         body: None,
         progress_callback: None,
         timeout: None,
+        body_high_water_mark: None,
+        // Downloads are large; no point gathering them in Java
+        small_response_threshold: Some(0),
+        // Background work should not hold up requests the user is waiting on
+        priority: crate::Priority::Low,
+        disable_cache: false,
+        traffic_stats_tag: None,
+        cancel: None,
     };
 
     // Execute request
     let response = request::execute_request(jvm, &cronet_engine, request).await?;
 
-    // Create file
-    if let Some(parent) = file_path.parent() {
-        std::fs::create_dir_all(parent)
-            .map_err(|e| Error::Internal(format!("Failed to create parent directory: {}", e)))?;
+    match response.status {
+        status if status.is_success() => {}
+        StatusCode::RANGE_NOT_SATISFIABLE => {
+            // The partial file no longer fits the resource; start over next time
+            partial.discard();
+            return Err(AttemptError::retry(Error::Internal(
+                "Server rejected the resume range".to_string(),
+            )));
+        }
+        status => return Err(AttemptError::status(status)),
     }
 
-    let mut file = std::fs::File::create(&file_path)
-        .map_err(|e| Error::Internal(format!("Failed to create file: {}", e)))?;
+    partial
+        .start(response.status, &response.headers)
+        .map_err(AttemptError::retry)?;
 
-    // Stream response to file
+    // The Rust callback behind the Java one can be called directly, which saves
+    // a JNI round trip per chunk. Java still hears about progress for the worker's
+    // notification, but only as often as the notification can change.
+    let rust_progress = resolve_rust_progress_callback(jvm, &progress_callback);
+    let (java_method, java_throttle) = if rust_progress.is_some() {
+        ("onListenerProgress", NOTIFICATION_PROGRESS_THROTTLE)
+    } else {
+        ("onProgress", Default::default())
+    };
+    let java_progress = crate::progress::ProgressCoalescer::new(java_throttle);
+    let report_progress = |bytes_downloaded: u64, total_bytes: Option<u64>| {
+        if let Some(callback) = &rust_progress {
+            callback(bytes_downloaded, total_bytes);
+        }
+        if progress_callback.as_obj().is_null()
+            || !java_progress.should_emit(bytes_downloaded, total_bytes)
+        {
+            return;
+        }
+        if let Ok(mut env) = jvm.attach_current_thread() {
+            let _ = env.call_method(
+                progress_callback.as_obj(),
+                java_method,
+                "(JJ)V",
+                &[
+                    (bytes_downloaded as i64).into(),
+                    (total_bytes.unwrap_or(0) as i64).into(),
+                ],
+            );
+        }
+    };
+
+    // Stream response to file; progress counts bytes from earlier attempts too
     let mut body_receiver = response.body_receiver;
-    let mut bytes_downloaded = 0u64;
-    let total_bytes = response
-        .headers
-        .get(http::header::CONTENT_LENGTH)
-        .and_then(|v| v.to_str().ok())
-        .and_then(|s| s.parse::<u64>().ok());
-
-    while let Some(chunk_result) = body_receiver.recv().await {
-        match chunk_result {
-            Ok(chunk) => {
-                use std::io::Write;
-                file.write_all(&chunk)
-                    .map_err(|e| Error::Internal(format!("Failed to write to file: {}", e)))?;
-
-                bytes_downloaded += chunk.len() as u64;
-
-                // Call progress callback
-                if let Ok(mut env) = jvm.attach_current_thread() {
-                    let _ = env.call_method(
-                        progress_callback.as_obj(),
-                        "onProgress",
-                        "(JJ)V",
-                        &[
-                            (bytes_downloaded as i64).into(),
-                            (total_bytes.unwrap_or(0) as i64).into(),
-                        ],
-                    );
-                }
-            }
-            Err(e) => {
+    let total_bytes = partial.total();
+
+    // Large files are fetched over several streams once the server shows it can
+    // serve ranges; the validator keeps every range on the same version of the file.
+    // Ranges count encoded bytes, so an encoded body is always fetched in one piece.
+    let ranges_supported = response.status == StatusCode::PARTIAL_CONTENT
+        || response
+            .headers
+            .get(header::ACCEPT_RANGES)
+            .is_some_and(|value| value.as_bytes() == b"bytes");
+    let segmented_total = total_bytes.filter(|total| {
+        ranges_supported
+            && !is_encoded(&response.headers)
+            && partial.validator().is_some()
+            && total - partial.offset() >= 2 * MIN_SEGMENT_SIZE
+    });
+
+    if let Some(total) = segmented_total {
+        println!("🧩 Downloading {} bytes over {} streams", total, SEGMENT_STREAMS);
+        SegmentedDownload::new(
+            jvm,
+            &cronet_engine,
+            &url,
+            headers,
+            &mut partial,
+            total,
+            &report_progress,
+        )?
+        .run(body_receiver)
+        .await?;
+    } else {
+        while let Some(chunk_result) = body_receiver.recv().await {
+            let written = match chunk_result {
+                Ok(chunk) => partial.write(chunk).await,
+                Err(e) => Err(e),
+            };
+            if let Err(e) = written {
                 tracing::error!("Error receiving chunk: {}", e);
-                return Err(e);
+                // Keep what made it to disk so the next attempt can resume from it
+                if let Err(e) = partial.checkpoint().await {
+                    tracing::warn!("Failed to checkpoint partial download: {}", e);
+                }
+                return Err(e.into());
             }
+
+            report_progress(partial.written(), total_bytes);
         }
     }
 
+    let bytes_downloaded = partial.finish(&file_path).await?;
+
+    // Always report completion, even when the total was never known
+    if total_bytes != Some(bytes_downloaded) {
+        report_progress(bytes_downloaded, Some(bytes_downloaded));
+    }
+
     println!(
         "✅ Download complete: {} bytes to {}",
         bytes_downloaded,
@@ -802,6 +1471,250 @@ async fn download_file_with_cronet(
     Ok(bytes_downloaded)
 }
 
+/// How often Java hears about progress that was already delivered to Rust directly
+const NOTIFICATION_PROGRESS_THROTTLE: crate::ProgressThrottle =
+    crate::ProgressThrottle::new(std::time::Duration::from_secs(1), 0);
+
+/// Streams a segmented download fetches at once
+const SEGMENT_STREAMS: usize = 4;
+
+/// Smallest piece a segment is split into
+const MIN_SEGMENT_SIZE: u64 = 2 * 1024 * 1024;
+
+/// State shared by the streams of a segmented download
+struct SegmentedDownload<'a> {
+    jvm: &'a JavaVM,
+    cronet_engine: &'a CronetEngine,
+    url: &'a Url,
+    headers: http::HeaderMap,
+    /// Writer for the partial file; every write says where it goes
+    writer: DiskWriter,
+    plan: Mutex<SegmentPlan>,
+    partial: Mutex<&'a mut PartialDownload>,
+    total: u64,
+    report_progress: &'a (dyn Fn(u64, Option<u64>) + Sync),
+}
+
+impl<'a> SegmentedDownload<'a> {
+    fn new(
+        jvm: &'a JavaVM,
+        cronet_engine: &'a CronetEngine,
+        url: &'a Url,
+        mut headers: http::HeaderMap,
+        partial: &'a mut PartialDownload,
+        total: u64,
+        report_progress: &'a (dyn Fn(u64, Option<u64>) + Sync),
+    ) -> Result<Self> {
+        // Range offsets only line up with the file if Cronet has nothing to decode
+        headers.insert(
+            http::header::ACCEPT_ENCODING,
+            http::HeaderValue::from_static("identity"),
+        );
+        // Every range must come from the same version of the file as the first response
+        if let Some(validator) = partial.validator().and_then(|v| v.parse().ok()) {
+            headers.insert(http::header::IF_RANGE, validator);
+        }
+
+        let plan = SegmentPlan::new(partial.offset()..total, SEGMENT_STREAMS, MIN_SEGMENT_SIZE);
+        Ok(Self {
+            jvm,
+            cronet_engine,
+            url,
+            headers,
+            writer: partial.segment_writer(total)?,
+            plan: Mutex::new(plan),
+            partial: Mutex::new(partial),
+            total,
+            report_progress,
+        })
+    }
+
+    /// Fetch the rest of the file over several range requests at once
+    ///
+    /// `first_body` is the response that revealed the file's size; it keeps
+    /// streaming the first segment while the other streams request theirs. Each
+    /// stream writes straight to its place in the preallocated partial file.
+    async fn run(
+        &self,
+        first_body: mpsc::Receiver<Result<Bytes>>,
+    ) -> std::result::Result<(), AttemptError> {
+        let mut first_body = Some((0, first_body));
+        let streams = (0..SEGMENT_STREAMS).map(|_| self.run_stream(first_body.take()));
+        let result = futures_util::future::try_join_all(streams).await;
+
+        if let Err(AttemptError { retry: true, .. }) = &result {
+            // Keep the gapless prefix so the next attempt can resume from it
+            let contiguous = self.plan.lock().await.contiguous();
+            if let Err(e) = self.partial.lock().await.checkpoint_at(contiguous).await {
+                tracing::warn!("Failed to checkpoint partial download: {}", e);
+            }
+        }
+        result.map(|_| ())
+    }
+
+    /// Fetch segments until there is nothing left worth claiming
+    async fn run_stream(
+        &self,
+        mut assigned: Option<(usize, mpsc::Receiver<Result<Bytes>>)>,
+    ) -> std::result::Result<(), AttemptError> {
+        loop {
+            let (id, body) = match assigned.take() {
+                Some(assigned) => assigned,
+                None => {
+                    let claimed = self.plan.lock().await.claim();
+                    let Some((id, range)) = claimed else {
+                        return Ok(());
+                    };
+                    (id, self.request_range(range).await?)
+                }
+            };
+            self.fetch_segment(id, body).await?;
+        }
+    }
+
+    /// Ask for one byte range of the file
+    async fn request_range(
+        &self,
+        range: Range<u64>,
+    ) -> std::result::Result<mpsc::Receiver<Result<Bytes>>, AttemptError> {
+        use crate::backend::android::request;
+        use crate::backend::types::BackendRequest;
+        use http::{Method, StatusCode, header};
+
+        let mut headers = self.headers.clone();
+        let value = format!("bytes={}-{}", range.start, range.end - 1);
+        if let Ok(value) = value.parse() {
+            headers.insert(header::RANGE, value);
+        }
+
+        let request = BackendRequest {
+            method: Method::GET,
+            url: self.url.clone(),
+            headers,
+            body: None,
+            progress_callback: None,
+            timeout: None,
+            body_high_water_mark: None,
+            small_response_threshold: Some(0),
+            priority: crate::Priority::Low,
+            disable_cache: false,
+            traffic_stats_tag: None,
+            cancel: None,
+        };
+        let response = request::execute_request(self.jvm, self.cronet_engine, request).await?;
+
+        let start = response
+            .headers
+            .get(header::CONTENT_RANGE)
+            .and_then(|value| value.to_str().ok())
+            .and_then(content_range_start);
+        match response.status {
+            StatusCode::PARTIAL_CONTENT if is_encoded(&response.headers) => {
+                // Cronet would hand over decoded bytes that fit nowhere in the file
+                self.partial.lock().await.discard();
+                Err(AttemptError::retry(Error::Internal(
+                    "Server encoded a segment of the download".to_string(),
+                )))
+            }
+            StatusCode::PARTIAL_CONTENT if start == Some(range.start) => {
+                Ok(response.body_receiver)
+            }
+            StatusCode::PARTIAL_CONTENT | StatusCode::OK => {
+                // If-Range failed, so the file changed since the first response
+                self.partial.lock().await.discard();
+                Err(AttemptError::retry(Error::Internal(
+                    "File changed during segmented download".to_string(),
+                )))
+            }
+            status => Err(AttemptError::status(status)),
+        }
+    }
+
+    /// Write one segment's body into place, stopping once the segment is complete
+    ///
+    /// The segment may shrink while it downloads if an idle stream takes over its
+    /// second half. Dropping `body` early cancels the rest of the request.
+    async fn fetch_segment(
+        &self,
+        id: usize,
+        mut body: mpsc::Receiver<Result<Bytes>>,
+    ) -> std::result::Result<(), AttemptError> {
+        while let Some(chunk) = body.recv().await {
+            let chunk = chunk?;
+
+            // The write is queued before the plan is released, so a checkpoint
+            // never covers bytes that have not been handed to the writer
+            let (complete, downloaded, contiguous) = {
+                let mut plan = self.plan.lock().await;
+                let range = plan.advance(id, chunk.len());
+                let len = (range.end - range.start) as usize;
+                self.writer.write(range.start, chunk.slice(..len)).await?;
+                (plan.is_complete(id), plan.downloaded(), plan.contiguous())
+            };
+
+            (self.report_progress)(downloaded, Some(self.total));
+
+            let mut partial = self.partial.lock().await;
+            if contiguous - partial.checkpointed() >= CHECKPOINT_INTERVAL {
+                partial.checkpoint_at(contiguous).await?;
+            }
+            drop(partial);
+
+            if complete {
+                return Ok(());
+            }
+        }
+
+        if self.plan.lock().await.is_complete(id) {
+            Ok(())
+        } else {
+            Err(AttemptError::retry(Error::Internal(
+                "Segment ended before all of its bytes arrived".to_string(),
+            )))
+        }
+    }
+}
+
+/// Handler id of a `DownloadProgressCallback`, which is the worker's download key
+fn attempt_key(env: &mut JNIEnv, progress_callback: &JObject) -> Option<i64> {
+    if progress_callback.is_null() {
+        return None;
+    }
+    match env
+        .call_method(progress_callback, "getHandlerId", "()J", &[])
+        .and_then(|id| id.j())
+    {
+        Ok(-1) => None,
+        Ok(key) => Some(key),
+        Err(_) => {
+            let _ = env.exception_clear();
+            None
+        }
+    }
+}
+
+/// Look up the Rust callback a `DownloadProgressCallback` forwards to, if any
+fn resolve_rust_progress_callback(
+    jvm: &JavaVM,
+    progress_callback: &GlobalRef,
+) -> Option<Arc<ProgressFn>> {
+    if progress_callback.as_obj().is_null() {
+        return None;
+    }
+
+    let mut env = jvm.attach_current_thread().ok()?;
+    let handler_id = env
+        .call_method(progress_callback.as_obj(), "getHandlerId", "()J", &[])
+        .and_then(|id| id.j());
+    match handler_id {
+        Ok(handler_id) => download_progress(handler_id),
+        Err(_) => {
+            let _ = env.exception_clear();
+            None
+        }
+    }
+}
+
 /// JNI function called by DownloadProgressCallback to invoke Rust callback
 #[unsafe(no_mangle)]
 pub extern "C" fn Java_se_brendan_frakt_DownloadProgressCallback_nativeOnProgress(
@@ -812,7 +1725,7 @@ pub extern "C" fn Java_se_brendan_frakt_DownloadProgressCallback_nativeOnProgres
     total_bytes: i64,
 ) {
     // Look up the callback
-    if let Some(callback) = PROGRESS_CALLBACKS.lock().unwrap().get(&handler_id) {
+    if let Some(callback) = download_progress(handler_id) {
         let total = if total_bytes > 0 {
             Some(total_bytes as u64)
         } else {
@@ -833,7 +1746,7 @@ fn register_background_downloader_methods(env: &mut JNIEnv, class: &JClass) -> R
     let native_methods = [
         NativeMethod {
             name: "nativeDownload".into(),
-            sig: "(Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;Lse/brendan/frakt/DownloadProgressCallback;)I".into(),
+            sig: "(Ljava/lang/String;Ljava/lang/String;[Ljava/lang/String;[Ljava/lang/String;Lse/brendan/frakt/DownloadProgressCallback;)I".into(),
             fn_ptr: Java_se_brendan_frakt_BackgroundDownloader_nativeDownload as *mut std::ffi::c_void,
         },
     ];
@@ -849,6 +1762,42 @@ fn register_background_downloader_methods(env: &mut JNIEnv, class: &JClass) -> R
     Ok(())
 }
 
+/// Register native methods for DownloadWorker class
+fn register_download_worker_methods(env: &mut JNIEnv, class: &JClass) -> Result<()> {
+    use jni::NativeMethod;
+    use jni::objects::JClass as JClassType;
+
+    let jclass = unsafe { JClassType::from_raw(class.as_raw()) };
+
+    let native_methods = [
+        NativeMethod {
+            name: "nativeDownload".into(),
+            sig: "(Ljava/lang/String;Ljava/lang/String;[Ljava/lang/String;[Ljava/lang/String;Lse/brendan/frakt/DownloadProgressCallback;)I".into(),
+            fn_ptr: Java_se_brendan_frakt_DownloadWorker_nativeDownload as *mut std::ffi::c_void,
+        },
+        NativeMethod {
+            name: "nativeOnWorkFinished".into(),
+            sig: "(JI)V".into(),
+            fn_ptr: Java_se_brendan_frakt_DownloadWorker_nativeOnWorkFinished as *mut std::ffi::c_void,
+        },
+        NativeMethod {
+            name: "nativeStopDownload".into(),
+            sig: "(J)V".into(),
+            fn_ptr: Java_se_brendan_frakt_DownloadWorker_nativeStopDownload as *mut std::ffi::c_void,
+        },
+    ];
+
+    env.register_native_methods(jclass, &native_methods)
+        .map_err(|e| {
+            Error::Internal(format!(
+                "Failed to register DownloadWorker native methods: {}",
+                e
+            ))
+        })?;
+
+    Ok(())
+}
+
 /// Register native methods for DownloadProgressCallback class
 fn register_progress_callback_methods(env: &mut JNIEnv, class: &JClass) -> Result<()> {
     use jni::NativeMethod;
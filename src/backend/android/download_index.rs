@@ -0,0 +1,132 @@
+//! On-device index of background downloads handed to WorkManager
+//!
+//! WorkManager keeps a download running after the process that enqueued it dies,
+//! but a new process would not know it exists. Each enqueued download is recorded
+//! here until its worker reports a final result, so after a restart the app can
+//! list what is still in flight and attach to it again. Byte counts and validators
+//! are not stored here; they are read from the download's partial file sidecar,
+//! which is already kept up to date at every checkpoint.
+
+use crate::{Error, Result};
+use serde::{Deserialize, Serialize};
+use std::collections::HashMap;
+use std::path::{Path, PathBuf};
+
+/// A download WorkManager was asked to run
+#[derive(Debug, Clone, PartialEq, Eq, Serialize, Deserialize)]
+pub struct IndexedDownload {
+    pub key: i64,
+    pub unique_name: String,
+    pub url: String,
+    pub file_path: PathBuf,
+    pub session_identifier: Option<String>,
+    pub host: String,
+}
+
+/// Index of enqueued downloads, written through to a file on every change
+pub struct DownloadIndex {
+    path: PathBuf,
+    downloads: HashMap<i64, IndexedDownload>,
+}
+
+impl DownloadIndex {
+    /// Read the index at `path`; a missing or unreadable file is an empty index
+    pub fn load(path: PathBuf) -> Self {
+        let downloads = std::fs::read(&path)
+            .ok()
+            .and_then(|bytes| serde_json::from_slice::<Vec<IndexedDownload>>(&bytes).ok())
+            .unwrap_or_default()
+            .into_iter()
+            .map(|download| (download.key, download))
+            .collect();
+        Self { path, downloads }
+    }
+
+    /// Record a download, replacing any earlier record with the same key
+    pub fn insert(&mut self, download: IndexedDownload) -> Result<()> {
+        if self.downloads.get(&download.key) == Some(&download) {
+            return Ok(());
+        }
+        self.downloads.insert(download.key, download);
+        self.save()
+    }
+
+    /// Forget a download once it has a final result
+    pub fn remove(&mut self, key: i64) -> Result<()> {
+        if self.downloads.remove(&key).is_none() {
+            return Ok(());
+        }
+        self.save()
+    }
+
+    /// The record for `key`, if there is one
+    pub fn get(&self, key: i64) -> Option<&IndexedDownload> {
+        self.downloads.get(&key)
+    }
+
+    /// Keep only the downloads for which `keep` returns true
+    pub fn retain(&mut self, mut keep: impl FnMut(&IndexedDownload) -> bool) -> Result<()> {
+        let before = self.downloads.len();
+        self.downloads.retain(|_, download| keep(download));
+        if self.downloads.len() == before {
+            return Ok(());
+        }
+        self.save()
+    }
+
+    /// Every recorded download, in no particular order
+    pub fn iter(&self) -> impl Iterator<Item = &IndexedDownload> {
+        self.downloads.values()
+    }
+
+    fn save(&self) -> Result<()> {
+        let mut downloads: Vec<_> = self.downloads.values().collect();
+        downloads.sort_by_key(|download| download.key);
+        let json = serde_json::to_vec(&downloads).map_err(|e| Error::Json(e.to_string()))?;
+
+        if let Some(parent) = self.path.parent() {
+            std::fs::create_dir_all(parent)?;
+        }
+        // Replace the file atomically so a crash never leaves it half-written
+        let tmp_path = tmp_path(&self.path);
+        std::fs::write(&tmp_path, json)?;
+        std::fs::rename(&tmp_path, &self.path)?;
+        Ok(())
+    }
+}
+
+fn tmp_path(path: &Path) -> PathBuf {
+    let mut name = path.as_os_str().to_owned();
+    name.push(".tmp");
+    PathBuf::from(name)
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+
+    fn download(key: i64) -> IndexedDownload {
+        IndexedDownload {
+            key,
+            unique_name: format!("frakt-download-{:016x}", key),
+            url: format!("https://example.com/{}.bin", key),
+            file_path: PathBuf::from(format!("/data/{}.bin", key)),
+            session_identifier: None,
+            host: "example.com".to_string(),
+        }
+    }
+
+    #[test]
+    fn test_survives_reload() {
+        let dir = tempfile::tempdir().unwrap();
+        let path = dir.path().join("frakt").join("background_downloads.json");
+
+        let mut index = DownloadIndex::load(path.clone());
+        index.insert(download(1)).unwrap();
+        index.insert(download(2)).unwrap();
+        index.remove(1).unwrap();
+
+        let reloaded = DownloadIndex::load(path);
+        assert_eq!(reloaded.iter().collect::<Vec<_>>(), vec![&download(2)]);
+    }
+}
@@ -0,0 +1,189 @@
+//! Admission control for background downloads
+//!
+//! Downloads wait here until the queue's limits allow another one to run, and are
+//! then handed to WorkManager. Higher priorities are admitted first and equal
+//! priorities in the order they arrived. A download whose host is already at its
+//! limit keeps its place while others behind it are admitted.
+
+use crate::{DownloadQueueConfig, Priority};
+use std::cmp::Ordering;
+use std::collections::{BinaryHeap, HashMap};
+
+struct Queued<T> {
+    key: i64,
+    host: String,
+    priority: Priority,
+    sequence: u64,
+    work: T,
+}
+
+impl<T> PartialEq for Queued<T> {
+    fn eq(&self, other: &Self) -> bool {
+        self.cmp(other) == Ordering::Equal
+    }
+}
+
+impl<T> Eq for Queued<T> {}
+
+impl<T> PartialOrd for Queued<T> {
+    fn partial_cmp(&self, other: &Self) -> Option<Ordering> {
+        Some(self.cmp(other))
+    }
+}
+
+impl<T> Ord for Queued<T> {
+    /// Higher priority first, then earlier arrivals
+    fn cmp(&self, other: &Self) -> Ordering {
+        self.priority
+            .cmp(&other.priority)
+            .then_with(|| other.sequence.cmp(&self.sequence))
+    }
+}
+
+/// Downloads waiting to run and the hosts of those running
+pub struct DownloadScheduler<T> {
+    limits: DownloadQueueConfig,
+    pending: BinaryHeap<Queued<T>>,
+    /// Host of each running download, by key
+    running: HashMap<i64, String>,
+    per_host: HashMap<String, usize>,
+    next_sequence: u64,
+}
+
+impl<T> DownloadScheduler<T> {
+    pub fn new(limits: DownloadQueueConfig) -> Self {
+        Self {
+            limits,
+            pending: BinaryHeap::new(),
+            running: HashMap::new(),
+            per_host: HashMap::new(),
+            next_sequence: 0,
+        }
+    }
+
+    /// Change the limits; downloads already running are not affected
+    pub fn set_limits(&mut self, limits: DownloadQueueConfig) {
+        self.limits = limits;
+    }
+
+    /// Queue a download until it can be admitted
+    pub fn push(&mut self, key: i64, host: String, priority: Priority, work: T) {
+        self.pending.push(Queued {
+            key,
+            host,
+            priority,
+            sequence: self.next_sequence,
+            work,
+        });
+        self.next_sequence += 1;
+    }
+
+    /// Take a download out of the queue before it is admitted
+    pub fn remove(&mut self, key: i64) -> Option<T> {
+        let mut removed = None;
+        let pending = std::mem::take(&mut self.pending).into_vec();
+        self.pending = pending
+            .into_iter()
+            .filter_map(|queued| {
+                if queued.key == key && removed.is_none() {
+                    removed = Some(queued.work);
+                    None
+                } else {
+                    Some(queued)
+                }
+            })
+            .collect();
+        removed
+    }
+
+    /// Take every queued download the limits allow to start now
+    pub fn admit(&mut self) -> Vec<(i64, T)> {
+        let mut admitted = Vec::new();
+        let mut host_full = Vec::new();
+
+        while self.running.len() < self.limits.max_concurrent() {
+            let Some(queued) = self.pending.pop() else {
+                break;
+            };
+
+            let running_on_host = self.per_host.entry(queued.host.clone()).or_default();
+            if *running_on_host >= self.limits.max_per_host() {
+                host_full.push(queued);
+                continue;
+            }
+
+            *running_on_host += 1;
+            self.running.insert(queued.key, queued.host);
+            admitted.push((queued.key, queued.work));
+        }
+
+        self.pending.extend(host_full);
+        admitted
+    }
+
+    /// Count a download that is already running as holding a slot
+    ///
+    /// Used for downloads WorkManager kept running from an earlier process.
+    pub fn mark_running(&mut self, key: i64, host: String) {
+        if self.running.contains_key(&key) {
+            return;
+        }
+        *self.per_host.entry(host.clone()).or_default() += 1;
+        self.running.insert(key, host);
+    }
+
+    /// Whether a download holds a slot
+    pub fn is_running(&self, key: i64) -> bool {
+        self.running.contains_key(&key)
+    }
+
+    /// Free the slot held by a running download
+    pub fn finish(&mut self, key: i64) {
+        let Some(host) = self.running.remove(&key) else {
+            return;
+        };
+        if let Some(count) = self.per_host.get_mut(&host) {
+            *count -= 1;
+            if *count == 0 {
+                self.per_host.remove(&host);
+            }
+        }
+    }
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+
+    fn keys(admitted: Vec<(i64, ())>) -> Vec<i64> {
+        admitted.into_iter().map(|(key, _)| key).collect()
+    }
+
+    #[test]
+    fn test_admits_by_priority_within_limits() {
+        let mut scheduler = DownloadScheduler::new(DownloadQueueConfig::new(2, 2));
+        scheduler.push(1, "a".into(), Priority::Low, ());
+        scheduler.push(2, "a".into(), Priority::Highest, ());
+        scheduler.push(3, "b".into(), Priority::Low, ());
+
+        assert_eq!(keys(scheduler.admit()), vec![2, 1]);
+        assert!(scheduler.admit().is_empty());
+
+        scheduler.finish(2);
+        assert_eq!(keys(scheduler.admit()), vec![3]);
+    }
+
+    #[test]
+    fn test_host_limit_keeps_place_in_queue() {
+        let mut scheduler = DownloadScheduler::new(DownloadQueueConfig::new(4, 1));
+        scheduler.push(1, "cdn".into(), Priority::Medium, ());
+        scheduler.push(2, "cdn".into(), Priority::Medium, ());
+        scheduler.push(3, "api".into(), Priority::Medium, ());
+
+        assert_eq!(keys(scheduler.admit()), vec![1, 3]);
+
+        scheduler.push(4, "api".into(), Priority::Highest, ());
+        scheduler.finish(1);
+        assert_eq!(keys(scheduler.admit()), vec![2]);
+    }
+}
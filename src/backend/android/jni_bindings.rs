@@ -1,5 +1,6 @@
 //! Low-level JNI bindings for Cronet classes
 
+use super::jni_cache::JniCache;
 use jni::{AttachGuard, JNIEnv, objects::JObject, objects::JString};
 
 /// JNI class names for Cronet
@@ -49,47 +50,55 @@ pub enum RequestPriority {
     Highest = 4,
 }
 
+impl From<crate::Priority> for RequestPriority {
+    fn from(priority: crate::Priority) -> Self {
+        match priority {
+            crate::Priority::Idle => RequestPriority::Idle,
+            crate::Priority::Lowest => RequestPriority::Lowest,
+            crate::Priority::Low => RequestPriority::Low,
+            crate::Priority::Medium => RequestPriority::Medium,
+            crate::Priority::Highest => RequestPriority::Highest,
+        }
+    }
+}
+
 /// Safe wrapper for creating URL requests
+///
+/// Calls go through the method IDs in the [`JniCache`] rather than being looked up
+/// by name for every request.
 pub struct UrlRequestBuilder<'a> {
     env: AttachGuard<'a>,
+    cache: &'static JniCache,
     builder: JObject<'a>,
 }
 
 impl<'a> UrlRequestBuilder<'a> {
     /// Create a new UrlRequest.Builder
+    ///
+    /// Callbacks are delivered on the engine's shared `executor`. When `direct` is set
+    /// the executor runs callbacks inline, so the request must allow a direct executor.
     pub fn new(
         mut env: AttachGuard<'a>,
+        cache: &'static JniCache,
         engine: &JObject,
         url: &str,
         callback: &JObject,
+        executor: &JObject,
+        direct: bool,
     ) -> Result<Self, jni::errors::Error> {
         let url_jstring = env.new_string(url)?;
 
-        // Create an executor using Java's Executors.newCachedThreadPool()
-        let executors_class = env.find_class("java/util/concurrent/Executors")?;
-        let executor = env
-            .call_static_method(
-                executors_class,
-                "newCachedThreadPool",
-                "()Ljava/util/concurrent/ExecutorService;",
-                &[],
-            )?
-            .l()?;
-
-        let builder = env.call_method(
-            engine,
-            "newUrlRequestBuilder",
-            "(Ljava/lang/String;Lorg/chromium/net/UrlRequest$Callback;Ljava/util/concurrent/Executor;)Lorg/chromium/net/UrlRequest$Builder;",
-            &[
-                (&url_jstring).into(),
-                callback.into(),
-                (&executor).into(),
-            ],
-        )?;
+        let builder =
+            cache.new_url_request_builder(&mut env, engine, &url_jstring, callback, executor)?;
+
+        if direct {
+            cache.allow_direct_executor(&mut env, &builder)?;
+        }
 
         Ok(Self {
             env,
-            builder: builder.l()?,
+            cache,
+            builder,
         })
     }
 
@@ -97,12 +106,8 @@ impl<'a> UrlRequestBuilder<'a> {
     pub fn set_http_method(&mut self, method: HttpMethod) -> Result<&mut Self, jni::errors::Error> {
         let method_str = self.env.new_string(method.as_str())?;
 
-        self.env.call_method(
-            &self.builder,
-            "setHttpMethod",
-            "(Ljava/lang/String;)Lorg/chromium/net/UrlRequest$Builder;",
-            &[(&method_str).into()],
-        )?;
+        self.cache.set_http_method(&mut self.env, &self.builder, &method_str)?;
+        self.env.delete_local_ref(method_str)?;
 
         Ok(self)
     }
@@ -112,12 +117,11 @@ impl<'a> UrlRequestBuilder<'a> {
         let name_str = self.env.new_string(name)?;
         let value_str = self.env.new_string(value)?;
 
-        self.env.call_method(
-            &self.builder,
-            "addHeader",
-            "(Ljava/lang/String;Ljava/lang/String;)Lorg/chromium/net/UrlRequest$Builder;",
-            &[(&name_str).into(), (&value_str).into()],
-        )?;
+        self.cache.add_header(&mut self.env, &self.builder, &name_str, &value_str)?;
+
+        // Requests with many headers would otherwise pile up local references
+        self.env.delete_local_ref(name_str)?;
+        self.env.delete_local_ref(value_str)?;
 
         Ok(self)
     }
@@ -127,12 +131,21 @@ impl<'a> UrlRequestBuilder<'a> {
         &mut self,
         priority: RequestPriority,
     ) -> Result<&mut Self, jni::errors::Error> {
-        self.env.call_method(
-            &self.builder,
-            "setPriority",
-            "(I)Lorg/chromium/net/UrlRequest$Builder;",
-            &[(priority as i32).into()],
-        )?;
+        self.cache.set_priority(&mut self.env, &self.builder, priority as i32)?;
+
+        Ok(self)
+    }
+
+    /// Bypass the HTTP cache for this request
+    pub fn disable_cache(&mut self) -> Result<&mut Self, jni::errors::Error> {
+        self.cache.disable_cache(&mut self.env, &self.builder)?;
+
+        Ok(self)
+    }
+
+    /// Tag the request's sockets for `TrafficStats`
+    pub fn set_traffic_stats_tag(&mut self, tag: i32) -> Result<&mut Self, jni::errors::Error> {
+        self.cache.set_traffic_stats_tag(&mut self.env, &self.builder, tag)?;
 
         Ok(self)
     }
@@ -141,42 +154,16 @@ impl<'a> UrlRequestBuilder<'a> {
     pub fn set_upload_data_provider(
         &mut self,
         provider: &JObject,
+        executor: &JObject,
     ) -> Result<&mut Self, jni::errors::Error> {
-        // Create the executor first to avoid multiple mutable borrows
-        let executor = self
-            .env
-            .call_static_method(
-                "java/util/concurrent/Executors",
-                "newSingleThreadExecutor",
-                "()Ljava/util/concurrent/ExecutorService;",
-                &[],
-            )?
-            .l()?;
-
-        self.env.call_method(
-            &self.builder,
-            "setUploadDataProvider",
-            "(Lorg/chromium/net/UploadDataProvider;Ljava/util/concurrent/Executor;)Lorg/chromium/net/UrlRequest$Builder;",
-            &[
-                provider.into(),
-                // Use the same executor - in practice might want different executor for uploads
-                (&executor).into(),
-            ],
-        )?;
+        self.cache.set_upload_data_provider(&mut self.env, &self.builder, provider, executor)?;
 
         Ok(self)
     }
 
     /// Build the URL request
     pub fn build(mut self) -> Result<JObject<'a>, jni::errors::Error> {
-        let request = self.env.call_method(
-            &self.builder,
-            "build",
-            "()Lorg/chromium/net/UrlRequest;",
-            &[],
-        )?;
-
-        Ok(request.l()?)
+        self.cache.build_request(&mut self.env, &self.builder)
     }
 }
 
@@ -0,0 +1,438 @@
+//! Process-wide cache of JNI classes, method IDs and field IDs
+//!
+//! Resolving a method by name and signature is a string lookup inside the VM, and
+//! the request path used to do dozens of them per request. Everything the hot path
+//! touches is resolved once here and then called through the `*_unchecked` JNI
+//! entry points.
+//!
+//! The typed wrappers below are only sound when handed an object of the class the
+//! method was resolved against; each one names that class in its doc comment.
+
+use crate::{Error, Result};
+use jni::{
+    JNIEnv,
+    objects::{GlobalRef, JClass, JFieldID, JMethodID, JObject, JString, JValueOwned},
+    signature::{Primitive, ReturnType},
+    sys::{jint, jlong, jvalue},
+};
+use once_cell::sync::OnceCell;
+
+static JNI_CACHE: OnceCell<JniCache> = OnceCell::new();
+
+/// Cached classes and member IDs used on the request path
+pub struct JniCache {
+    network_exception_class: GlobalRef,
+    callback_class: GlobalRef,
+    upload_provider_class: GlobalRef,
+
+    callback_new: JMethodID,
+    callback_handler_id: JFieldID,
+    upload_provider_new: JMethodID,
+
+    engine_new_url_request_builder: JMethodID,
+    builder_set_http_method: JMethodID,
+    builder_add_header: JMethodID,
+    builder_set_priority: JMethodID,
+    builder_set_upload_data_provider: JMethodID,
+    builder_allow_direct_executor: JMethodID,
+    builder_disable_cache: JMethodID,
+    builder_set_traffic_stats_tag: JMethodID,
+    builder_build: JMethodID,
+
+    request_start: JMethodID,
+    request_read: JMethodID,
+    request_follow_redirect: JMethodID,
+    request_cancel: JMethodID,
+
+    throwable_get_message: JMethodID,
+    network_exception_error_code: JMethodID,
+
+    buffer_clear: JMethodID,
+}
+
+/// Get the cache, resolving everything on first use
+///
+/// Cronet and our own classes are loaded through the DEX class loader, whose
+/// parent is the app's class loader, so this works from any attached thread.
+pub fn jni_cache(env: &mut JNIEnv) -> Result<&'static JniCache> {
+    JNI_CACHE.get_or_try_init(|| JniCache::new(env))
+}
+
+impl JniCache {
+    fn new(env: &mut JNIEnv) -> Result<Self> {
+        let load = |env: &mut JNIEnv, name: &str| -> Result<GlobalRef> {
+            let class = super::callback::load_class_from_dex(env, name)?;
+            env.new_global_ref(&class).map_err(|e| {
+                Error::Internal(format!("Failed to create global ref for {}: {}", name, e))
+            })
+        };
+        let find = |env: &mut JNIEnv, name: &str| -> Result<GlobalRef> {
+            let class = env
+                .find_class(name)
+                .map_err(|e| Error::Internal(format!("Failed to find class {}: {}", name, e)))?;
+            env.new_global_ref(&class).map_err(|e| {
+                Error::Internal(format!("Failed to create global ref for {}: {}", name, e))
+            })
+        };
+
+        let engine = load(env, "org.chromium.net.CronetEngine")?;
+        let builder = load(env, "org.chromium.net.UrlRequest$Builder")?;
+        let request = load(env, "org.chromium.net.UrlRequest")?;
+        let network_exception_class = load(env, "org.chromium.net.NetworkException")?;
+        let callback_class = load(env, "se.brendan.frakt.RustUrlRequestCallback")?;
+        let upload_provider_class = super::upload::load_provider_class(env)?;
+
+        let throwable = find(env, "java/lang/Throwable")?;
+        let buffer = find(env, "java/nio/Buffer")?;
+
+        let method = |env: &mut JNIEnv, class: &GlobalRef, name: &str, sig: &str| {
+            let class = unsafe { JClass::from_raw(class.as_obj().as_raw()) };
+            env.get_method_id(&class, name, sig)
+                .map_err(|e| Error::Internal(format!("Failed to look up method {}: {}", name, e)))
+        };
+        let builder_sig = |args: &str| format!("({})Lorg/chromium/net/UrlRequest$Builder;", args);
+
+        Ok(Self {
+            callback_new: method(
+                env,
+                &callback_class,
+                "<init>",
+                "(JLjava/nio/ByteBuffer;I)V",
+            )?,
+            callback_handler_id: {
+                let class = unsafe { JClass::from_raw(callback_class.as_obj().as_raw()) };
+                env.get_field_id(&class, "handlerId", "J").map_err(|e| {
+                    Error::Internal(format!("Failed to look up field handlerId: {}", e))
+                })?
+            },
+            upload_provider_new: method(env, &upload_provider_class, "<init>", "(JJ)V")?,
+
+            engine_new_url_request_builder: method(
+                env,
+                &engine,
+                "newUrlRequestBuilder",
+                &builder_sig(
+                    "Ljava/lang/String;Lorg/chromium/net/UrlRequest$Callback;Ljava/util/concurrent/Executor;",
+                ),
+            )?,
+            builder_set_http_method: method(
+                env,
+                &builder,
+                "setHttpMethod",
+                &builder_sig("Ljava/lang/String;"),
+            )?,
+            builder_add_header: method(
+                env,
+                &builder,
+                "addHeader",
+                &builder_sig("Ljava/lang/String;Ljava/lang/String;"),
+            )?,
+            builder_set_priority: method(env, &builder, "setPriority", &builder_sig("I"))?,
+            builder_set_upload_data_provider: method(
+                env,
+                &builder,
+                "setUploadDataProvider",
+                &builder_sig(
+                    "Lorg/chromium/net/UploadDataProvider;Ljava/util/concurrent/Executor;",
+                ),
+            )?,
+            builder_allow_direct_executor: method(
+                env,
+                &builder,
+                "allowDirectExecutor",
+                &builder_sig(""),
+            )?,
+            builder_disable_cache: method(env, &builder, "disableCache", &builder_sig(""))?,
+            builder_set_traffic_stats_tag: method(
+                env,
+                &builder,
+                "setTrafficStatsTag",
+                &builder_sig("I"),
+            )?,
+            builder_build: method(env, &builder, "build", "()Lorg/chromium/net/UrlRequest;")?,
+
+            request_start: method(env, &request, "start", "()V")?,
+            request_read: method(env, &request, "read", "(Ljava/nio/ByteBuffer;)V")?,
+            request_follow_redirect: method(env, &request, "followRedirect", "()V")?,
+            request_cancel: method(env, &request, "cancel", "()V")?,
+
+            throwable_get_message: method(
+                env,
+                &throwable,
+                "getMessage",
+                "()Ljava/lang/String;",
+            )?,
+            network_exception_error_code: method(
+                env,
+                &network_exception_class,
+                "getErrorCode",
+                "()I",
+            )?,
+
+            buffer_clear: method(env, &buffer, "clear", "()Ljava/nio/Buffer;")?,
+
+            network_exception_class,
+            callback_class,
+            upload_provider_class,
+        })
+    }
+
+    /// `new RustUrlRequestCallback(handlerId, smallResponseBuffer, smallResponseThreshold)`
+    pub fn new_callback<'l>(
+        &self,
+        env: &mut JNIEnv<'l>,
+        handler_id: jlong,
+        small_response_buffer: &JObject,
+        small_response_threshold: jint,
+    ) -> jni::errors::Result<JObject<'l>> {
+        let class = unsafe { JClass::from_raw(self.callback_class.as_obj().as_raw()) };
+        unsafe {
+            env.new_object_unchecked(
+                &class,
+                self.callback_new,
+                &[
+                    jvalue { j: handler_id },
+                    jvalue {
+                        l: small_response_buffer.as_raw(),
+                    },
+                    jvalue {
+                        i: small_response_threshold,
+                    },
+                ],
+            )
+        }
+    }
+
+    /// `RustUrlRequestCallback.handlerId`
+    pub fn callback_handler_id(
+        &self,
+        env: &mut JNIEnv,
+        callback: &JObject,
+    ) -> jni::errors::Result<jlong> {
+        unsafe {
+            env.get_field_unchecked(
+                callback,
+                self.callback_handler_id,
+                ReturnType::Primitive(Primitive::Long),
+            )
+        }?
+        .j()
+    }
+
+    /// `new NativeUploadDataProvider(sourceId, length)`
+    pub fn new_upload_provider<'l>(
+        &self,
+        env: &mut JNIEnv<'l>,
+        source_id: jlong,
+        length: jlong,
+    ) -> jni::errors::Result<JObject<'l>> {
+        let class = unsafe { JClass::from_raw(self.upload_provider_class.as_obj().as_raw()) };
+        unsafe {
+            env.new_object_unchecked(
+                &class,
+                self.upload_provider_new,
+                &[jvalue { j: source_id }, jvalue { j: length }],
+            )
+        }
+    }
+
+    /// `CronetEngine.newUrlRequestBuilder(url, callback, executor)`
+    pub fn new_url_request_builder<'l>(
+        &self,
+        env: &mut JNIEnv<'l>,
+        engine: &JObject,
+        url: &JString,
+        callback: &JObject,
+        executor: &JObject,
+    ) -> jni::errors::Result<JObject<'l>> {
+        call_object(
+            env,
+            engine,
+            self.engine_new_url_request_builder,
+            &[
+                jvalue { l: url.as_raw() },
+                jvalue { l: callback.as_raw() },
+                jvalue { l: executor.as_raw() },
+            ],
+        )
+    }
+
+    /// `UrlRequest.Builder.setHttpMethod(method)`
+    pub fn set_http_method(
+        &self,
+        env: &mut JNIEnv,
+        builder: &JObject,
+        method: &JString,
+    ) -> jni::errors::Result<()> {
+        call_object(env, builder, self.builder_set_http_method, &[jvalue { l: method.as_raw() }])
+            .map(drop)
+    }
+
+    /// `UrlRequest.Builder.addHeader(name, value)`
+    pub fn add_header(
+        &self,
+        env: &mut JNIEnv,
+        builder: &JObject,
+        name: &JString,
+        value: &JString,
+    ) -> jni::errors::Result<()> {
+        call_object(
+            env,
+            builder,
+            self.builder_add_header,
+            &[jvalue { l: name.as_raw() }, jvalue { l: value.as_raw() }],
+        )
+        .map(drop)
+    }
+
+    /// `UrlRequest.Builder.setPriority(priority)`
+    pub fn set_priority(
+        &self,
+        env: &mut JNIEnv,
+        builder: &JObject,
+        priority: jint,
+    ) -> jni::errors::Result<()> {
+        call_object(env, builder, self.builder_set_priority, &[jvalue { i: priority }]).map(drop)
+    }
+
+    /// `UrlRequest.Builder.setUploadDataProvider(provider, executor)`
+    pub fn set_upload_data_provider(
+        &self,
+        env: &mut JNIEnv,
+        builder: &JObject,
+        provider: &JObject,
+        executor: &JObject,
+    ) -> jni::errors::Result<()> {
+        call_object(
+            env,
+            builder,
+            self.builder_set_upload_data_provider,
+            &[jvalue { l: provider.as_raw() }, jvalue { l: executor.as_raw() }],
+        )
+        .map(drop)
+    }
+
+    /// `UrlRequest.Builder.allowDirectExecutor()`
+    pub fn allow_direct_executor(
+        &self,
+        env: &mut JNIEnv,
+        builder: &JObject,
+    ) -> jni::errors::Result<()> {
+        call_object(env, builder, self.builder_allow_direct_executor, &[]).map(drop)
+    }
+
+    /// `UrlRequest.Builder.disableCache()`
+    pub fn disable_cache(&self, env: &mut JNIEnv, builder: &JObject) -> jni::errors::Result<()> {
+        call_object(env, builder, self.builder_disable_cache, &[]).map(drop)
+    }
+
+    /// `UrlRequest.Builder.setTrafficStatsTag(tag)`
+    pub fn set_traffic_stats_tag(
+        &self,
+        env: &mut JNIEnv,
+        builder: &JObject,
+        tag: jint,
+    ) -> jni::errors::Result<()> {
+        call_object(env, builder, self.builder_set_traffic_stats_tag, &[jvalue { i: tag }])
+            .map(drop)
+    }
+
+    /// `UrlRequest.Builder.build()`
+    pub fn build_request<'l>(
+        &self,
+        env: &mut JNIEnv<'l>,
+        builder: &JObject,
+    ) -> jni::errors::Result<JObject<'l>> {
+        call_object(env, builder, self.builder_build, &[])
+    }
+
+    /// `UrlRequest.start()`
+    pub fn start(&self, env: &mut JNIEnv, request: &JObject) -> jni::errors::Result<()> {
+        call_void(env, request, self.request_start, &[])
+    }
+
+    /// `UrlRequest.read(buffer)`
+    pub fn read(
+        &self,
+        env: &mut JNIEnv,
+        request: &JObject,
+        buffer: &JObject,
+    ) -> jni::errors::Result<()> {
+        call_void(env, request, self.request_read, &[jvalue { l: buffer.as_raw() }])
+    }
+
+    /// `UrlRequest.followRedirect()`
+    pub fn follow_redirect(&self, env: &mut JNIEnv, request: &JObject) -> jni::errors::Result<()> {
+        call_void(env, request, self.request_follow_redirect, &[])
+    }
+
+    /// `UrlRequest.cancel()`
+    pub fn cancel(&self, env: &mut JNIEnv, request: &JObject) -> jni::errors::Result<()> {
+        call_void(env, request, self.request_cancel, &[])
+    }
+
+    /// `Throwable.getMessage()`
+    pub fn message<'l>(
+        &self,
+        env: &mut JNIEnv<'l>,
+        throwable: &JObject,
+    ) -> jni::errors::Result<JObject<'l>> {
+        call_object(env, throwable, self.throwable_get_message, &[])
+    }
+
+    /// `NetworkException.getErrorCode()`, or `None` for any other exception
+    pub fn network_error_code(
+        &self,
+        env: &mut JNIEnv,
+        error: &JObject,
+    ) -> jni::errors::Result<Option<jint>> {
+        let class = unsafe { JClass::from_raw(self.network_exception_class.as_obj().as_raw()) };
+        if !env.is_instance_of(error, &class)? {
+            return Ok(None);
+        }
+        call(
+            env,
+            error,
+            self.network_exception_error_code,
+            ReturnType::Primitive(Primitive::Int),
+            &[],
+        )?
+        .i()
+        .map(Some)
+    }
+
+    /// `Buffer.clear()` on a ByteBuffer
+    pub fn clear_buffer(&self, env: &mut JNIEnv, buffer: &JObject) -> jni::errors::Result<()> {
+        call_object(env, buffer, self.buffer_clear, &[]).map(drop)
+    }
+}
+
+fn call<'l>(
+    env: &mut JNIEnv<'l>,
+    obj: &JObject,
+    method: JMethodID,
+    ret: ReturnType,
+    args: &[jvalue],
+) -> jni::errors::Result<JValueOwned<'l>> {
+    // Every caller passes an ID resolved against the receiver's class with a matching
+    // return type and argument list
+    unsafe { env.call_method_unchecked(obj, method, ret, args) }
+}
+
+fn call_object<'l>(
+    env: &mut JNIEnv<'l>,
+    obj: &JObject,
+    method: JMethodID,
+    args: &[jvalue],
+) -> jni::errors::Result<JObject<'l>> {
+    call(env, obj, method, ReturnType::Object, args)?.l()
+}
+
+fn call_void(
+    env: &mut JNIEnv,
+    obj: &JObject,
+    method: JMethodID,
+    args: &[jvalue],
+) -> jni::errors::Result<()> {
+    call(env, obj, method, ReturnType::Primitive(Primitive::Void), args)?.v()
+}
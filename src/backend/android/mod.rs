@@ -1,11 +1,21 @@
 //! Android backend using Cronet (Chromium Network Stack)
 
+mod buffer_pool;
 mod callback;
 mod cronet;
+mod disk_writer;
 mod download;
+mod download_index;
+mod download_queue;
 mod jni_bindings;
+mod jni_cache;
+mod multipart;
+mod partial;
+mod registry;
 mod request;
 mod response;
+mod segments;
+mod upload;
 
 #[cfg(test)]
 mod tests;
@@ -13,11 +23,13 @@ mod tests;
 use crate::backend::BackendConfig;
 use crate::backend::types::{BackendRequest, BackendResponse};
 use crate::{Error, Result};
-use jni::{JavaVM, objects::GlobalRef};
-use once_cell::sync::Lazy;
+use jni::JavaVM;
+use once_cell::sync::{Lazy, OnceCell};
 use std::sync::Arc;
 use url::Url;
 
+pub use cronet::CallbackExecutorStats;
+
 // Global JavaVM instance for Android - lives forever
 static ANDROID_JVM: Lazy<&'static JavaVM> = Lazy::new(|| {
     Box::leak(Box::new(unsafe {
@@ -26,11 +38,7 @@ static ANDROID_JVM: Lazy<&'static JavaVM> = Lazy::new(|| {
 });
 
 // Global Cronet engine instance - created once and shared across all requests
-static CRONET_ENGINE: Lazy<Arc<GlobalRef>> = Lazy::new(|| {
-    let jvm = *ANDROID_JVM;
-    let engine = cronet::create_cronet_engine(jvm).expect("Failed to create global Cronet engine");
-    Arc::new(engine)
-});
+static CRONET_ENGINE: OnceCell<Arc<cronet::CronetEngine>> = OnceCell::new();
 
 // Global Tokio runtime instance - created once for all async operations
 static TOKIO_RUNTIME: Lazy<tokio::runtime::Runtime> = Lazy::new(|| {
@@ -45,9 +53,30 @@ pub(crate) fn get_global_vm() -> Result<&'static JavaVM> {
     Ok(*ANDROID_JVM)
 }
 
-/// Get the global Cronet engine instance
-fn get_global_cronet_engine() -> Arc<GlobalRef> {
-    CRONET_ENGINE.clone()
+/// Get the global Cronet engine instance, creating it with default options if needed
+fn get_global_cronet_engine() -> Arc<cronet::CronetEngine> {
+    init_global_cronet_engine(None).expect("Failed to create global Cronet engine")
+}
+
+/// Get the global Cronet engine, creating it with `options` if it does not exist yet
+///
+/// Cronet engines cannot share a storage directory, so there is only one. Options
+/// that differ from those it was created with are ignored.
+fn init_global_cronet_engine(
+    options: Option<&crate::AndroidEngineOptions>,
+) -> Result<Arc<cronet::CronetEngine>> {
+    let engine = CRONET_ENGINE.get_or_try_init(|| {
+        let config = BackendConfig {
+            android_engine: options.cloned(),
+            ..Default::default()
+        };
+        cronet::create_cronet_engine_with_config(*ANDROID_JVM, &config).map(Arc::new)
+    })?;
+
+    if options.is_some_and(|options| options != engine.options()) {
+        tracing::warn!("Cronet engine already exists; ignoring different engine options");
+    }
+    Ok(engine.clone())
 }
 
 /// Get the global tokio runtime instance
@@ -152,6 +181,20 @@ pub fn stop_netlog() -> Result<()> {
     Ok(())
 }
 
+/// Get a snapshot of the shared Cronet callback executor counters
+///
+/// Useful for spotting callback threads being saturated under load.
+pub fn callback_executor_stats() -> Result<CallbackExecutorStats> {
+    let jvm = get_global_vm()?;
+    let mut env = jvm
+        .attach_current_thread()
+        .map_err(|e| Error::Internal(format!("Failed to attach to JVM thread: {}", e)))?;
+
+    let engine = get_global_cronet_engine();
+
+    cronet::callback_executor_stats(&mut env, &engine)
+}
+
 /// Check if a specific permission is granted
 pub fn check_permission(permission: &str) -> Result<bool> {
     let jvm = get_global_vm()?;
@@ -408,7 +451,7 @@ pub fn test_dns(hostname: &str) -> Result<String> {
 #[derive(Clone)]
 pub struct AndroidBackend {
     pub(crate) jvm: &'static JavaVM,
-    cronet_engine: Arc<GlobalRef>,
+    cronet_engine: Arc<cronet::CronetEngine>,
     cookie_storage: Option<Arc<crate::backend::CookieStoreImpl>>,
     config: BackendConfig,
 }
@@ -430,7 +473,7 @@ impl AndroidBackend {
     /// Create a new Android backend with configuration
     pub fn with_config(config: BackendConfig) -> Result<Self> {
         let jvm = get_global_vm()?;
-        let cronet_engine = get_global_cronet_engine();
+        let cronet_engine = init_global_cronet_engine(config.android_engine.as_ref())?;
 
         // Create cookie storage if cookies are enabled
         let cookie_storage = if config.use_cookies.unwrap_or(false) {
@@ -501,6 +544,7 @@ impl AndroidBackend {
         headers: http::HeaderMap,
         progress_callback: Option<Box<dyn Fn(u64, Option<u64>) + Send + Sync + 'static>>,
         error_for_status: bool,
+        options: crate::backend::types::BackgroundDownloadOptions,
     ) -> Result<crate::client::download::DownloadResponse> {
         download::execute_background_download(
             self.jvm,
@@ -510,10 +554,19 @@ impl AndroidBackend {
             headers,
             error_for_status,
             progress_callback,
+            options,
+            self.config.download_queue.unwrap_or_default(),
         )
         .await
     }
 
+    /// Background downloads WorkManager is still running, including those from earlier runs
+    pub fn pending_background_downloads(
+        &self,
+    ) -> Result<Vec<crate::client::PendingBackgroundDownload>> {
+        download::pending_background_downloads(self.jvm)
+    }
+
     /// Get the cookie jar if configured (not implemented for Android)
     pub fn cookie_jar(&self) -> Option<&crate::CookieJar> {
         None
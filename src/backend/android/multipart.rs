@@ -0,0 +1,230 @@
+//! Streaming multipart/form-data encoder for Android uploads
+//!
+//! The payload is described up front as a list of segments: boundary and header
+//! blocks, in-memory part contents, and files. Bytes are produced on demand as
+//! Cronet asks for them, so file parts are read from disk in buffer-sized pieces
+//! and the encoded body is never assembled in memory.
+
+use crate::body::MultipartPart;
+use crate::{Error, Result};
+use bytes::Bytes;
+use std::fs::File;
+use std::io::Read;
+use std::path::PathBuf;
+
+enum Segment {
+    Memory(Bytes),
+    File { path: PathBuf, length: u64 },
+}
+
+impl Segment {
+    fn len(&self) -> u64 {
+        match self {
+            Segment::Memory(bytes) => bytes.len() as u64,
+            Segment::File { length, .. } => *length,
+        }
+    }
+}
+
+/// Encodes multipart parts into a body while it is being read
+pub struct MultipartEncoder {
+    boundary: String,
+    segments: Vec<Segment>,
+    length: u64,
+    segment: usize,
+    offset: u64,
+    file: Option<File>,
+}
+
+impl MultipartEncoder {
+    /// Lay out the body for `parts`
+    ///
+    /// File parts are only stat'ed here so the total length is known in advance;
+    /// they are opened one at a time as the body is read.
+    pub fn new(parts: Vec<MultipartPart>) -> Result<Self> {
+        let boundary = generate_boundary();
+        let mut segments = Vec::with_capacity(parts.len() * 3 + 1);
+
+        for part in parts {
+            let mut header = format!(
+                "--{}\r\nContent-Disposition: form-data; name=\"{}\"",
+                boundary,
+                escape_quoted(&part.name)
+            );
+            if let Some(filename) = &part.filename {
+                header.push_str(&format!("; filename=\"{}\"", escape_quoted(filename)));
+            }
+            header.push_str("\r\n");
+            if let Some(content_type) = &part.content_type {
+                header.push_str(&format!("Content-Type: {}\r\n", content_type));
+            }
+            header.push_str("\r\n");
+            segments.push(Segment::Memory(header.into()));
+
+            match part.path {
+                Some(path) => {
+                    let metadata = std::fs::metadata(&path)?;
+                    if !metadata.is_file() {
+                        return Err(Error::Internal(format!(
+                            "Multipart file part is not a regular file: {}",
+                            path.display()
+                        )));
+                    }
+                    segments.push(Segment::File {
+                        path,
+                        length: metadata.len(),
+                    });
+                }
+                None => segments.push(Segment::Memory(part.content)),
+            }
+            segments.push(Segment::Memory(Bytes::from_static(b"\r\n")));
+        }
+        segments.push(Segment::Memory(format!("--{}--\r\n", boundary).into()));
+
+        let length = segments.iter().map(Segment::len).sum();
+
+        Ok(Self {
+            boundary,
+            segments,
+            length,
+            segment: 0,
+            offset: 0,
+            file: None,
+        })
+    }
+
+    /// Content-Type header value, including the boundary
+    pub fn content_type(&self) -> String {
+        format!("multipart/form-data; boundary={}", self.boundary)
+    }
+
+    /// Total encoded length in bytes
+    pub fn length(&self) -> u64 {
+        self.length
+    }
+
+    /// Fill `buf` with the next encoded bytes, returning 0 at the end of the body
+    pub fn read(&mut self, buf: &mut [u8]) -> Result<usize> {
+        let mut filled = 0;
+
+        while filled < buf.len() {
+            let Some(segment) = self.segments.get(self.segment) else {
+                break;
+            };
+
+            let remaining = segment.len() - self.offset;
+            if remaining == 0 {
+                self.segment += 1;
+                self.offset = 0;
+                self.file = None;
+                continue;
+            }
+
+            let wanted = (buf.len() - filled).min(remaining as usize);
+            let dest = &mut buf[filled..filled + wanted];
+            let read = match segment {
+                Segment::Memory(bytes) => {
+                    let start = self.offset as usize;
+                    dest.copy_from_slice(&bytes[start..start + wanted]);
+                    wanted
+                }
+                Segment::File { path, .. } => {
+                    let file = match &mut self.file {
+                        Some(file) => file,
+                        None => self.file.insert(File::open(path)?),
+                    };
+                    match file.read(dest) {
+                        Ok(0) => {
+                            return Err(Error::Internal(format!(
+                                "Multipart file part changed size while uploading: {}",
+                                path.display()
+                            )));
+                        }
+                        Ok(n) => n,
+                        Err(e) if e.kind() == std::io::ErrorKind::Interrupted => 0,
+                        Err(e) => return Err(e.into()),
+                    }
+                }
+            };
+
+            self.offset += read as u64;
+            filled += read;
+        }
+
+        Ok(filled)
+    }
+
+    /// Start the body over, e.g. when Cronet retries after a redirect
+    pub fn rewind(&mut self) {
+        self.segment = 0;
+        self.offset = 0;
+        self.file = None;
+    }
+}
+
+fn generate_boundary() -> String {
+    use std::time::{SystemTime, UNIX_EPOCH};
+    let timestamp = SystemTime::now()
+        .duration_since(UNIX_EPOCH)
+        .unwrap()
+        .as_nanos();
+    format!("----formdata-frakt-{}", timestamp)
+}
+
+/// Escape a value for a quoted Content-Disposition parameter
+fn escape_quoted(value: &str) -> String {
+    value
+        .replace('\\', "\\\\")
+        .replace('"', "\\\"")
+        .replace(['\r', '\n'], " ")
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+
+    fn read_all(encoder: &mut MultipartEncoder, chunk: usize) -> Vec<u8> {
+        let mut out = Vec::new();
+        let mut buf = vec![0u8; chunk];
+        loop {
+            let read = encoder.read(&mut buf).unwrap();
+            if read == 0 {
+                return out;
+            }
+            out.extend_from_slice(&buf[..read]);
+        }
+    }
+
+    #[test]
+    fn test_encodes_parts_with_precomputed_length() {
+        let mut file = tempfile::NamedTempFile::new().unwrap();
+        std::io::Write::write_all(&mut file, b"file contents").unwrap();
+
+        let mut encoder = MultipartEncoder::new(vec![
+            MultipartPart::text("title", "hello"),
+            MultipartPart::file_path("photo", file.path(), Some("image/jpeg".to_string())),
+        ])
+        .unwrap();
+
+        // Small reads cross every segment boundary
+        let body = read_all(&mut encoder, 7);
+        assert_eq!(body.len() as u64, encoder.length());
+
+        let text = String::from_utf8(body).unwrap();
+        let boundary = &encoder.boundary;
+        assert!(text.starts_with(&format!("--{}\r\n", boundary)));
+        assert!(text.contains(
+            "name=\"title\"\r\nContent-Type: text/plain; charset=utf-8\r\n\r\nhello\r\n"
+        ));
+        assert!(text.contains("Content-Type: image/jpeg\r\n\r\nfile contents\r\n"));
+        assert!(text.ends_with(&format!("--{}--\r\n", boundary)));
+    }
+
+    #[test]
+    fn test_rewind_replays_body() {
+        let mut encoder = MultipartEncoder::new(vec![MultipartPart::text("a", "b")]).unwrap();
+        let first = read_all(&mut encoder, 5);
+        encoder.rewind();
+        assert_eq!(read_all(&mut encoder, 64), first);
+    }
+}
@@ -0,0 +1,421 @@
+//! Partial files that let background downloads pick up where they stopped
+//!
+//! A download is written to `<file>.part`. Next to it, `<file>.part.json` records
+//! the validator the server sent (a strong ETag or Last-Modified) and how many bytes
+//! of the partial file are known to be on disk. A retried download asks for the
+//! rest with `Range` and `If-Range`; if the resource changed in the meantime, the
+//! server sends the whole body and the partial file starts over.
+//!
+//! Offsets only line up when the body is sent as is. Cronet decodes `gzip` and `br`
+//! before the bytes reach us, so a response with a `Content-Encoding` is written
+//! out but never resumed.
+
+use super::disk_writer::{self, DiskWriter};
+use crate::{Error, Result};
+use bytes::Bytes;
+use http::{HeaderMap, StatusCode, header};
+use serde::{Deserialize, Serialize};
+use std::fs::{File, OpenOptions};
+use std::path::{Path, PathBuf};
+
+/// Bytes written between checkpoints of the sidecar
+pub const CHECKPOINT_INTERVAL: u64 = 4 * 1024 * 1024;
+
+/// What the sidecar remembers about a partial file
+#[derive(Debug, Serialize, Deserialize)]
+struct Sidecar {
+    url: String,
+    validator: String,
+    /// Bytes at the start of the partial file that have been synced to disk
+    validated: u64,
+    /// Full size of the file, if the server said
+    #[serde(default)]
+    total: Option<u64>,
+}
+
+/// A download in progress, written to a partial file next to its destination
+pub struct PartialDownload {
+    part_path: PathBuf,
+    sidecar_path: PathBuf,
+    url: String,
+    /// Validator for `If-Range`, from the sidecar or the latest response
+    validator: Option<String>,
+    /// Bytes already on disk that the current response continues from
+    offset: u64,
+    /// Bytes handed to the writer in total, including `offset`
+    written: u64,
+    /// Bytes on disk when the sidecar was last written
+    checkpointed: u64,
+    total: Option<u64>,
+    file: Option<File>,
+    writer: Option<DiskWriter>,
+}
+
+impl PartialDownload {
+    /// Look for an earlier attempt at downloading `url` to `file_path`
+    ///
+    /// Only the validated prefix of a partial file is reused; anything written after
+    /// the last checkpoint may not have reached the disk.
+    pub fn load(file_path: &Path, url: &str) -> Self {
+        let part_path = suffixed(file_path, ".part");
+        let sidecar_path = suffixed(file_path, ".part.json");
+
+        let previous = std::fs::read(&sidecar_path)
+            .ok()
+            .and_then(|bytes| serde_json::from_slice::<Sidecar>(&bytes).ok())
+            .filter(|sidecar| sidecar.url == url && sidecar.validated > 0)
+            .filter(|sidecar| {
+                std::fs::metadata(&part_path).is_ok_and(|m| m.len() >= sidecar.validated)
+            });
+
+        let (validator, offset, total) = match previous {
+            Some(sidecar) => (Some(sidecar.validator), sidecar.validated, sidecar.total),
+            None => (None, 0, None),
+        };
+
+        Self {
+            part_path,
+            sidecar_path,
+            url: url.to_string(),
+            validator,
+            offset,
+            written: offset,
+            checkpointed: offset,
+            total,
+            file: None,
+            writer: None,
+        }
+    }
+
+    /// `Range` and `If-Range` values to continue the earlier attempt, if there was one
+    pub fn range_headers(&self) -> Option<(String, String)> {
+        let validator = self.validator.as_ref().filter(|_| self.offset > 0)?;
+        Some((format!("bytes={}-", self.offset), validator.clone()))
+    }
+
+    /// Open the partial file for the response the server sent
+    ///
+    /// A 206 whose range starts at the resume offset appends to the partial file.
+    /// Anything else successful means the server sent the whole body, so the
+    /// partial file is truncated.
+    pub fn start(&mut self, status: StatusCode, headers: &HeaderMap) -> Result<()> {
+        let encoded = is_encoded(headers);
+        // The length of an encoded body says nothing about the decoded size
+        let content_length = header_str(headers, header::CONTENT_LENGTH)
+            .filter(|_| !encoded)
+            .and_then(|value| value.parse::<u64>().ok());
+
+        if status == StatusCode::PARTIAL_CONTENT && encoded {
+            // The range counted encoded bytes, which cannot follow decoded ones
+            self.discard();
+            return Err(Error::Internal("Server resumed with an encoded body".to_string()));
+        } else if status == StatusCode::PARTIAL_CONTENT {
+            let start = header_str(headers, header::CONTENT_RANGE).and_then(content_range_start);
+            if start != Some(self.offset) {
+                self.discard();
+                return Err(Error::Internal(format!(
+                    "Server resumed at {:?} instead of byte {}",
+                    start, self.offset
+                )));
+            }
+        } else {
+            self.offset = 0;
+        }
+
+        self.written = self.offset;
+        self.checkpointed = self.offset;
+        self.total = content_length.map(|length| self.offset + length);
+
+        // Weak ETags cannot be used with If-Range
+        self.validator = header_str(headers, header::ETAG)
+            .filter(|etag| !etag.starts_with("W/"))
+            .or_else(|| header_str(headers, header::LAST_MODIFIED))
+            .filter(|_| !encoded)
+            .map(str::to_string);
+
+        if let Some(parent) = self.part_path.parent() {
+            std::fs::create_dir_all(parent)?;
+        }
+
+        let file = OpenOptions::new()
+            .create(true)
+            .write(true)
+            .truncate(false)
+            .open(&self.part_path)?;
+        // Drop whatever was written after the last checkpoint
+        file.set_len(self.offset)?;
+        if let Some(total) = self.total {
+            disk_writer::reserve(&file, total);
+        }
+        self.writer = Some(DiskWriter::spawn(file.try_clone()?)?);
+        self.file = Some(file);
+
+        if self.validator.is_none() {
+            // Without a validator a later attempt could not resume safely
+            let _ = std::fs::remove_file(&self.sidecar_path);
+        }
+        Ok(())
+    }
+
+    /// Bytes already on disk that the current response continues from
+    pub fn offset(&self) -> u64 {
+        self.offset
+    }
+
+    /// Bytes downloaded, including those from earlier attempts
+    pub fn written(&self) -> u64 {
+        self.written
+    }
+
+    /// Full size of the file, if the server said
+    pub fn total(&self) -> Option<u64> {
+        self.total
+    }
+
+    /// Queue a chunk of the body to be appended, checkpointing every few megabytes
+    pub async fn write(&mut self, chunk: Bytes) -> Result<()> {
+        let len = chunk.len() as u64;
+        self.writer()?.write(self.written, chunk).await?;
+        self.written += len;
+
+        if self.written - self.checkpointed >= CHECKPOINT_INTERVAL {
+            self.checkpoint().await?;
+        }
+        Ok(())
+    }
+
+    /// Sync the partial file and record how much of it is now safe to resume from
+    pub async fn checkpoint(&mut self) -> Result<()> {
+        self.checkpoint_at(self.written).await
+    }
+
+    /// Sync the partial file and record that its first `validated` bytes are complete
+    ///
+    /// Every write queued before the call is flushed first.
+    pub async fn checkpoint_at(&mut self, validated: u64) -> Result<()> {
+        let (Some(file), Some(writer), Some(validator)) =
+            (&self.file, &self.writer, &self.validator)
+        else {
+            return Ok(());
+        };
+        writer.flush().await?;
+        file.sync_data()?;
+
+        let sidecar = Sidecar {
+            url: self.url.clone(),
+            validator: validator.clone(),
+            validated,
+            total: self.total,
+        };
+        let json = serde_json::to_vec(&sidecar).map_err(|e| Error::Json(e.to_string()))?;
+
+        // Replace the sidecar atomically so a crash never leaves it half-written
+        let tmp_path = suffixed(&self.sidecar_path, ".tmp");
+        std::fs::write(&tmp_path, json)?;
+        std::fs::rename(&tmp_path, &self.sidecar_path)?;
+
+        self.checkpointed = validated;
+        Ok(())
+    }
+
+    /// Bytes covered by the last checkpoint
+    pub fn checkpointed(&self) -> u64 {
+        self.checkpointed
+    }
+
+    /// Validator for the current response, if the server sent a usable one
+    pub fn validator(&self) -> Option<&str> {
+        self.validator.as_deref()
+    }
+
+    /// Grow the partial file to `total` bytes and hand out its writer, so segments
+    /// can be written anywhere in it in any order
+    pub fn segment_writer(&mut self, total: u64) -> Result<DiskWriter> {
+        let file = self
+            .file
+            .as_ref()
+            .ok_or_else(|| Error::Internal("Partial download was not started".to_string()))?;
+        file.set_len(total)?;
+        self.total = Some(total);
+        self.writer().cloned()
+    }
+
+    fn writer(&self) -> Result<&DiskWriter> {
+        self.writer
+            .as_ref()
+            .ok_or_else(|| Error::Internal("Partial download was not started".to_string()))
+    }
+
+    /// Move the complete file into place and remove the sidecar
+    ///
+    /// This is the only place the data is synced outside of checkpoints.
+    pub async fn finish(mut self, file_path: &Path) -> Result<u64> {
+        let mut length = self.written;
+        if let Some(writer) = self.writer.take() {
+            writer.flush().await?;
+        }
+        if let Some(file) = self.file.take() {
+            file.sync_all()?;
+            length = file.metadata()?.len();
+        }
+        std::fs::rename(&self.part_path, file_path)?;
+        let _ = std::fs::remove_file(&self.sidecar_path);
+        Ok(length)
+    }
+
+    /// Forget the partial file so the next attempt starts from scratch
+    pub fn discard(&mut self) {
+        self.writer = None;
+        self.file = None;
+        let _ = std::fs::remove_file(&self.sidecar_path);
+        let _ = std::fs::remove_file(&self.part_path);
+    }
+}
+
+fn suffixed(path: &Path, suffix: &str) -> PathBuf {
+    let mut name = path.as_os_str().to_owned();
+    name.push(suffix);
+    PathBuf::from(name)
+}
+
+fn header_str(headers: &HeaderMap, name: header::HeaderName) -> Option<&str> {
+    headers.get(name).and_then(|value| value.to_str().ok())
+}
+
+/// Whether the body was sent with a `Content-Encoding` other than `identity`
+pub fn is_encoded(headers: &HeaderMap) -> bool {
+    headers
+        .get_all(header::CONTENT_ENCODING)
+        .iter()
+        .filter_map(|value| value.to_str().ok())
+        .flat_map(|value| value.split(','))
+        .any(|coding| !coding.trim().eq_ignore_ascii_case("identity"))
+}
+
+/// First byte of a `Content-Range: bytes <start>-<end>/<size>` value
+pub fn content_range_start(value: &str) -> Option<u64> {
+    let range = value.trim().strip_prefix("bytes ")?;
+    let (start, _) = range.split_once('-')?;
+    start.trim().parse().ok()
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+    use http::HeaderValue;
+
+    fn headers(pairs: &[(header::HeaderName, &str)]) -> HeaderMap {
+        pairs
+            .iter()
+            .map(|(name, value)| (name.clone(), HeaderValue::from_str(value).unwrap()))
+            .collect()
+    }
+
+    #[tokio::test]
+    async fn test_resumes_from_checkpoint_and_finishes() {
+        let dir = tempfile::tempdir().unwrap();
+        let file_path = dir.path().join("asset.bin");
+        let url = "https://example.com/asset.bin";
+
+        let mut first = PartialDownload::load(&file_path, url);
+        assert!(first.range_headers().is_none());
+        first
+            .start(
+                StatusCode::OK,
+                &headers(&[(header::ETAG, "\"v1\""), (header::CONTENT_LENGTH, "10")]),
+            )
+            .unwrap();
+        first.write(Bytes::from_static(b"hello")).await.unwrap();
+        first.checkpoint().await.unwrap();
+        drop(first);
+
+        let mut second = PartialDownload::load(&file_path, url);
+        assert_eq!(
+            second.range_headers(),
+            Some(("bytes=5-".to_string(), "\"v1\"".to_string()))
+        );
+        second
+            .start(
+                StatusCode::PARTIAL_CONTENT,
+                &headers(&[
+                    (header::ETAG, "\"v1\""),
+                    (header::CONTENT_RANGE, "bytes 5-9/10"),
+                    (header::CONTENT_LENGTH, "5"),
+                ]),
+            )
+            .unwrap();
+        assert_eq!(second.total(), Some(10));
+        second.write(Bytes::from_static(b"world")).await.unwrap();
+        assert_eq!(second.finish(&file_path).await.unwrap(), 10);
+
+        assert_eq!(std::fs::read(&file_path).unwrap(), b"helloworld");
+        assert!(!suffixed(&file_path, ".part.json").exists());
+    }
+
+    #[tokio::test]
+    async fn test_full_response_restarts_partial_file() {
+        let dir = tempfile::tempdir().unwrap();
+        let file_path = dir.path().join("asset.bin");
+        let url = "https://example.com/asset.bin";
+
+        let mut first = PartialDownload::load(&file_path, url);
+        first
+            .start(StatusCode::OK, &headers(&[(header::ETAG, "\"v1\"")]))
+            .unwrap();
+        first.write(Bytes::from_static(b"stale")).await.unwrap();
+        first.checkpoint().await.unwrap();
+        drop(first);
+
+        // The resource changed, so the server ignores If-Range and sends it all
+        let mut second = PartialDownload::load(&file_path, url);
+        second
+            .start(StatusCode::OK, &headers(&[(header::ETAG, "\"v2\"")]))
+            .unwrap();
+        assert_eq!(second.offset(), 0);
+        second.write(Bytes::from_static(b"fresh")).await.unwrap();
+        second.finish(&file_path).await.unwrap();
+
+        assert_eq!(std::fs::read(&file_path).unwrap(), b"fresh");
+    }
+
+    #[tokio::test]
+    async fn test_encoded_response_is_not_resumable() {
+        let dir = tempfile::tempdir().unwrap();
+        let file_path = dir.path().join("asset.bin");
+        let url = "https://example.com/asset.bin";
+
+        let mut first = PartialDownload::load(&file_path, url);
+        first
+            .start(
+                StatusCode::OK,
+                &headers(&[
+                    (header::ETAG, "\"v1\""),
+                    (header::CONTENT_ENCODING, "gzip"),
+                    (header::CONTENT_LENGTH, "4"),
+                ]),
+            )
+            .unwrap();
+        assert_eq!(first.total(), None);
+        assert_eq!(first.validator(), None);
+        first.write(Bytes::from_static(b"hello")).await.unwrap();
+        first.checkpoint().await.unwrap();
+        drop(first);
+
+        assert!(!suffixed(&file_path, ".part.json").exists());
+        assert!(PartialDownload::load(&file_path, url).range_headers().is_none());
+    }
+
+    #[test]
+    fn test_is_encoded() {
+        assert!(!is_encoded(&headers(&[])));
+        assert!(!is_encoded(&headers(&[(header::CONTENT_ENCODING, "identity")])));
+        assert!(is_encoded(&headers(&[(header::CONTENT_ENCODING, "gzip")])));
+        assert!(is_encoded(&headers(&[(header::CONTENT_ENCODING, "identity, br")])));
+    }
+
+    #[test]
+    fn test_content_range_start() {
+        assert_eq!(content_range_start("bytes 100-199/200"), Some(100));
+        assert_eq!(content_range_start("bytes */200"), None);
+    }
+}
@@ -0,0 +1,171 @@
+//! Sharded slab registry mapping JNI handler ids to Rust state
+//!
+//! Java objects such as `RustUrlRequestCallback` only hold a `long` id. Looking an id
+//! up locks a single shard just long enough to clone an `Arc`, so parallel requests
+//! do not serialize on one global lock. Ids carry a generation tag, so an id that
+//! outlives its entry can never resolve to whatever later reuses the slot.
+
+use std::sync::atomic::{AtomicUsize, Ordering};
+use std::sync::{Arc, Mutex};
+
+const SHARD_BITS: u32 = 4;
+const SHARDS: usize = 1 << SHARD_BITS;
+const INDEX_BITS: u32 = 27;
+const GENERATION_MASK: u32 = 0x7fff_ffff;
+
+struct Slot<T> {
+    generation: u32,
+    value: Option<Arc<T>>,
+}
+
+struct Shard<T> {
+    slots: Vec<Slot<T>>,
+    free: Vec<u32>,
+}
+
+/// Registry of values addressed by generation-tagged `i64` ids
+///
+/// Ids are always positive, so `-1` and `0` remain free for "no handler" sentinels.
+pub struct HandleRegistry<T> {
+    shards: Vec<Mutex<Shard<T>>>,
+    next_shard: AtomicUsize,
+}
+
+impl<T> HandleRegistry<T> {
+    /// Create an empty registry
+    pub fn new() -> Self {
+        Self {
+            shards: (0..SHARDS)
+                .map(|_| {
+                    Mutex::new(Shard {
+                        slots: Vec::new(),
+                        free: Vec::new(),
+                    })
+                })
+                .collect(),
+            next_shard: AtomicUsize::new(0),
+        }
+    }
+
+    /// Store a value and return its id
+    pub fn insert(&self, value: T) -> i64 {
+        let shard_index = self.next_shard.fetch_add(1, Ordering::Relaxed) % SHARDS;
+        let mut shard = self.shards[shard_index]
+            .lock()
+            .unwrap_or_else(|e| e.into_inner());
+
+        let index = match shard.free.pop() {
+            Some(index) => index,
+            None => {
+                let index = shard.slots.len() as u32;
+                assert!(index < 1 << INDEX_BITS, "handle registry shard is full");
+                shard.slots.push(Slot {
+                    generation: 1,
+                    value: None,
+                });
+                index
+            }
+        };
+
+        let slot = &mut shard.slots[index as usize];
+        slot.value = Some(Arc::new(value));
+
+        encode_id(slot.generation, index, shard_index)
+    }
+
+    /// Look up a value by id
+    pub fn get(&self, id: i64) -> Option<Arc<T>> {
+        let (generation, index, shard_index) = decode_id(id)?;
+        let shard = self.shards[shard_index]
+            .lock()
+            .unwrap_or_else(|e| e.into_inner());
+
+        let slot = shard.slots.get(index as usize)?;
+        if slot.generation != generation {
+            return None;
+        }
+        slot.value.clone()
+    }
+
+    /// Remove a value by id, returning it if the id was still live
+    pub fn remove(&self, id: i64) -> Option<Arc<T>> {
+        let (generation, index, shard_index) = decode_id(id)?;
+        let mut shard = self.shards[shard_index]
+            .lock()
+            .unwrap_or_else(|e| e.into_inner());
+
+        let slot = shard.slots.get_mut(index as usize)?;
+        if slot.generation != generation {
+            return None;
+        }
+
+        let value = slot.value.take()?;
+        // Bump the generation so the old id goes stale; skip 0 so ids stay positive
+        slot.generation = match (slot.generation + 1) & GENERATION_MASK {
+            0 => 1,
+            generation => generation,
+        };
+        shard.free.push(index);
+
+        Some(value)
+    }
+}
+
+impl<T> Default for HandleRegistry<T> {
+    fn default() -> Self {
+        Self::new()
+    }
+}
+
+fn encode_id(generation: u32, index: u32, shard: usize) -> i64 {
+    ((generation as i64) << (INDEX_BITS + SHARD_BITS))
+        | ((index as i64) << SHARD_BITS)
+        | shard as i64
+}
+
+fn decode_id(id: i64) -> Option<(u32, u32, usize)> {
+    if id <= 0 {
+        return None;
+    }
+
+    let shard = (id & (SHARDS as i64 - 1)) as usize;
+    let index = ((id >> SHARD_BITS) & ((1 << INDEX_BITS) - 1)) as u32;
+    let generation = (id >> (INDEX_BITS + SHARD_BITS)) as u32;
+
+    Some((generation, index, shard))
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+
+    #[test]
+    fn test_insert_get_remove() {
+        let registry = HandleRegistry::new();
+        let id = registry.insert("value");
+
+        assert!(id > 0);
+        assert_eq!(registry.get(id).as_deref(), Some(&"value"));
+        assert_eq!(registry.remove(id).as_deref(), Some(&"value"));
+        assert!(registry.get(id).is_none());
+        assert!(registry.remove(id).is_none());
+    }
+
+    #[test]
+    fn test_stale_id_does_not_hit_reused_slot() {
+        let registry = HandleRegistry::new();
+
+        // Fill every shard once so the next insert lands in a reused slot
+        let ids: Vec<i64> = (0..SHARDS).map(|i| registry.insert(i)).collect();
+        let stale = ids[0];
+        registry.remove(stale);
+
+        for i in 0..SHARDS {
+            registry.insert(100 + i);
+        }
+
+        assert!(registry.get(stale).is_none());
+        assert!(registry.get(-1).is_none());
+        assert!(registry.get(0).is_none());
+    }
+}
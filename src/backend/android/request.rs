@@ -1,198 +1,122 @@
 //! Request execution using Cronet UrlRequest
 
 use super::callback::{
-    CallbackEvent, CallbackHandler, create_callback_instance, register_callback_handler,
+    CallbackEvent, CallbackHandler, DEFAULT_BODY_HIGH_WATER_MARK,
+    DEFAULT_SMALL_RESPONSE_THRESHOLD, MAX_SMALL_RESPONSE_THRESHOLD, create_callback_instance,
+    register_callback_handler, unregister_callback_handler, with_callback_handler,
 };
-use super::jni_bindings::{HttpMethod, UrlRequestBuilder};
-use crate::backend::types::{BackendRequest, BackendResponse, ProgressCallback};
-use crate::{Error, Result};
-use bytes::Bytes;
+use super::cronet::CronetEngine;
+use super::jni_bindings::{HttpMethod, RequestPriority, UrlRequestBuilder};
+use super::jni_cache::jni_cache;
+use super::upload::{UploadBody, create_upload_data_provider, release_upload_body};
+use crate::backend::types::{BackendRequest, BackendResponse};
+use crate::cancel::cancelled;
+use crate::{CancellationToken, Error, Result};
 use http::Method;
 use jni::{JavaVM, objects::GlobalRef};
-use std::collections::HashMap;
-use std::sync::Mutex;
-use tokio::sync::mpsc;
-
-// Global storage for upload progress callbacks
-static UPLOAD_PROGRESS_CALLBACKS: once_cell::sync::Lazy<Mutex<HashMap<i64, ProgressCallback>>> =
-    once_cell::sync::Lazy::new(|| Mutex::new(HashMap::new()));
-
-static NEXT_UPLOAD_PROGRESS_ID: std::sync::atomic::AtomicI64 = std::sync::atomic::AtomicI64::new(1);
-
-fn register_upload_progress_callback(callback: ProgressCallback) -> i64 {
-    let id = NEXT_UPLOAD_PROGRESS_ID.fetch_add(1, std::sync::atomic::Ordering::SeqCst);
-    UPLOAD_PROGRESS_CALLBACKS
-        .lock()
-        .unwrap()
-        .insert(id, callback);
-    id
-}
-
-fn unregister_upload_progress_callback(id: i64) {
-    UPLOAD_PROGRESS_CALLBACKS.lock().unwrap().remove(&id);
-}
+use std::time::Duration;
+use tokio::sync::oneshot;
 
 /// Execute an HTTP request using Cronet
+///
+/// Returns as soon as the response headers arrive. The body keeps streaming into
+/// `BackendResponse::body_receiver`, and Cronet is only asked for the next chunk
+/// while that channel has room.
 pub async fn execute_request(
     jvm: &JavaVM,
-    cronet_engine: &GlobalRef,
+    cronet_engine: &CronetEngine,
     request: BackendRequest,
 ) -> Result<BackendResponse> {
     // Create callback handler first
-    let (callback_handler, mut response_rx, mut body_rx) = CallbackHandler::new();
+    let high_water_mark = request
+        .body_high_water_mark
+        .unwrap_or(DEFAULT_BODY_HIGH_WATER_MARK);
+    let (mut callback_handler, mut response_rx) =
+        CallbackHandler::new(cronet_engine.read_buffers().clone(), high_water_mark);
+    let finished = callback_handler.on_finished();
     let handler_id = register_callback_handler(callback_handler);
 
-    // Save the URL and timeout before moving request
+    // Small bodies are gathered in Java and must fit under the high-water mark
+    let small_response_threshold = request
+        .small_response_threshold
+        .unwrap_or(DEFAULT_SMALL_RESPONSE_THRESHOLD)
+        .min(high_water_mark)
+        .min(MAX_SMALL_RESPONSE_THRESHOLD);
+
+    // Save the URL, timeout and token before moving request
     let url = request.url.clone();
     let timeout = request.timeout;
+    let cancel = request.cancel.clone();
 
     // Build and start request - each function creates its own env
     println!("🚀 Building and starting request to: {}", url);
-    let (url_request_global, upload_progress_id) =
-        build_and_start_request(jvm, cronet_engine, request, handler_id)?;
-    println!("🚀 Request started, waiting for response...");
-
-    // Wait for response to start and collect all events until completion
-    println!("🚀 Waiting for response events...");
-
-    let mut status = None;
-    let mut headers = None;
-    let mut body_chunks = Vec::new();
-    let mut redirect_headers = Vec::new();
-
-    // Create timeout future if timeout is specified
-    let timeout_future = async {
-        if let Some(duration) = timeout {
-            tokio::time::sleep(duration).await;
-            true
-        } else {
-            // Never complete if no timeout
-            std::future::pending::<bool>().await
+    let started = build_and_start_request(
+        jvm,
+        cronet_engine,
+        request,
+        handler_id,
+        small_response_threshold,
+    );
+    let url_request = match started {
+        Ok(started) => started,
+        Err(e) => {
+            unregister_callback_handler(handler_id);
+            return Err(e);
         }
     };
+    println!("🚀 Request started, waiting for response...");
 
-    tokio::pin!(timeout_future);
+    // The timeout and token cover the whole exchange, including the streamed body
+    if timeout.is_some() || cancel.is_some() {
+        spawn_watchdog(handler_id, url_request.clone(), timeout, cancel, finished);
+    }
 
-    // Process all events until we get Succeeded, Failed, or timeout
-    let mut succeeded = false;
-    let mut body_channel_closed = false;
+    // Until the headers are handed over, dropping this future must stop the request;
+    // after that, dropping the body receiver does
+    let mut cancel_on_drop = CancelOnDrop {
+        handler_id,
+        url_request: Some(url_request),
+    };
 
-    loop {
-        // Exit when we've received Succeeded AND drained all body chunks
-        if succeeded && body_channel_closed {
-            break;
-        }
+    let mut redirect_headers = Vec::new();
 
-        tokio::select! {
-            // Handle timeout
-            _ = &mut timeout_future => {
-                println!("🚀 Request timed out, cancelling...");
-                // Cancel the request
-                if let Ok(mut env) = jvm.attach_current_thread() {
-                    let _ = env.call_method(url_request_global.as_obj(), "cancel", "()V", &[]);
-                }
-                // Clean up upload progress callback if we registered one
-                if let Some(id) = upload_progress_id {
-                    unregister_upload_progress_callback(id);
-                }
-                return Err(Error::Timeout);
+    let result = loop {
+        match response_rx.recv().await {
+            Some(CallbackEvent::ResponseStarted {
+                status,
+                headers,
+                body,
+            }) => {
+                println!("🚀 Received ResponseStarted: {}", status);
+                break Ok((status, headers, body));
             }
-            // Handle response events (status, success, failure, redirects)
-            event = response_rx.recv(), if !succeeded => {
-                match event {
-                    Some(CallbackEvent::ResponseStarted { status: s, headers: h }) => {
-                        println!("🚀 Received ResponseStarted: {}", s);
-                        status = Some(s);
-                        headers = Some(h);
-                    }
-                    Some(CallbackEvent::Redirect { headers: h }) => {
-                        println!("🚀 Received Redirect with headers");
-                        redirect_headers.push(h);
-                    }
-                    Some(CallbackEvent::Succeeded) => {
-                        println!("🚀 Received Succeeded, draining body channel...");
-                        succeeded = true;
-                    }
-                    Some(CallbackEvent::Failed { error }) => {
-                        println!("🚀 Received Failed: {:?}", error);
-                        // Clean up upload progress callback if we registered one
-                        if let Some(id) = upload_progress_id {
-                            unregister_upload_progress_callback(id);
-                        }
-                        return Err(error);
-                    }
-                    Some(_) => {
-                        // Clean up upload progress callback if we registered one
-                        if let Some(id) = upload_progress_id {
-                            unregister_upload_progress_callback(id);
-                        }
-                        return Err(Error::Internal("Unexpected callback event".to_string()));
-                    }
-                    None => {
-                        // Clean up upload progress callback if we registered one
-                        if let Some(id) = upload_progress_id {
-                            unregister_upload_progress_callback(id);
-                        }
-                        return Err(Error::Internal("Response channel closed unexpectedly".to_string()));
-                    }
-                }
+            Some(CallbackEvent::Redirect { headers }) => {
+                println!("🚀 Received Redirect with headers");
+                redirect_headers.push(headers);
             }
-            // Handle body chunks
-            chunk = body_rx.recv(), if !body_channel_closed => {
-                match chunk {
-                    Some(Ok(data)) => {
-                        println!("🚀 Received body chunk: {} bytes", data.len());
-                        body_chunks.push(data);
-                    }
-                    Some(Err(e)) => {
-                        println!("🚀 Received body error: {:?}", e);
-                        // Clean up upload progress callback if we registered one
-                        if let Some(id) = upload_progress_id {
-                            unregister_upload_progress_callback(id);
-                        }
-                        return Err(e);
-                    }
-                    None => {
-                        println!("🚀 Body channel closed");
-                        body_channel_closed = true;
-                    }
-                }
+            Some(CallbackEvent::Failed { error }) => {
+                println!("🚀 Received Failed: {:?}", error);
+                break Err(error);
+            }
+            Some(_) => {
+                break Err(Error::Internal("Unexpected callback event".to_string()));
+            }
+            None => {
+                break Err(Error::Internal(
+                    "Response channel closed unexpectedly".to_string(),
+                ));
             }
         }
-    }
-
-    let status = status.ok_or_else(|| Error::Internal("No status received".to_string()))?;
-    let headers = headers.ok_or_else(|| Error::Internal("No headers received".to_string()))?;
-
-    // Combine all body chunks into a single Bytes
-    let total_size: usize = body_chunks.iter().map(|b| b.len()).sum();
-    println!(
-        "🚀 Combining {} chunks ({} total bytes)",
-        body_chunks.len(),
-        total_size
-    );
-
-    let mut body_buffer = Vec::with_capacity(total_size);
-    for chunk in body_chunks {
-        body_buffer.extend_from_slice(&chunk);
-    }
-    let complete_body = Bytes::from(body_buffer);
+    };
 
-    // Create a channel with the complete body
-    let (body_sender, body_receiver) = mpsc::channel(1);
-    let _ = body_sender.send(Ok(complete_body)).await;
-    drop(body_sender); // Close the channel after sending the complete body
+    let (status, headers, body_receiver) = result?;
+    cancel_on_drop.url_request = None;
 
     println!(
-        "🚀 Request complete, returning response with {} redirect header sets",
+        "🚀 Response started, returning response with {} redirect header sets",
         redirect_headers.len()
     );
 
-    // Clean up upload progress callback if we registered one
-    if let Some(id) = upload_progress_id {
-        unregister_upload_progress_callback(id);
-    }
-
     Ok(BackendResponse {
         status,
         headers,
@@ -202,122 +126,118 @@ pub async fn execute_request(
     })
 }
 
-/// Create a Java callback object that delegates to our Rust handler
-fn create_rust_callback(jvm: &JavaVM, handler_id: i64) -> Result<GlobalRef> {
-    let mut env = jvm
-        .attach_current_thread()
-        .map_err(|e| Error::Internal(format!("Failed to attach to JVM thread: {}", e)))?;
+/// Cancels the request if `execute_request` is dropped before it returns
+struct CancelOnDrop {
+    handler_id: i64,
+    url_request: Option<GlobalRef>,
+}
+
+impl Drop for CancelOnDrop {
+    fn drop(&mut self) {
+        if let Some(url_request) = self.url_request.take() {
+            cancel_running_request(self.handler_id, &url_request, Error::Cancelled);
+        }
+    }
+}
+
+/// Cancel the request if it is still running once `timeout` elapses or `cancel` fires
+fn spawn_watchdog(
+    handler_id: i64,
+    url_request: GlobalRef,
+    timeout: Option<Duration>,
+    cancel: Option<CancellationToken>,
+    finished: oneshot::Receiver<()>,
+) {
+    super::get_runtime().spawn(async move {
+        let timed_out = async {
+            match timeout {
+                Some(timeout) => tokio::time::sleep(timeout).await,
+                None => std::future::pending().await,
+            }
+        };
+        let reason = tokio::select! {
+            _ = timed_out => Error::Timeout,
+            _ = cancelled(cancel.as_ref()) => Error::Cancelled,
+            // Resolves (with an error) when the handler is dropped on completion
+            _ = finished => return,
+        };
+        cancel_running_request(handler_id, &url_request, reason);
+    });
+}
+
+/// Cancel a request that has not finished yet, reporting `reason` to its consumer
+fn cancel_running_request(handler_id: i64, url_request: &GlobalRef, reason: Error) {
+    let message = reason.to_string();
+    let still_running =
+        with_callback_handler(handler_id, |handler| handler.set_cancel_reason(reason));
+    if still_running.is_none() {
+        return;
+    }
+
+    println!("🚀 Cancelling request: {}", message);
 
-    create_callback_instance(&mut env, handler_id)
+    let Ok(jvm) = super::get_global_vm() else {
+        return;
+    };
+    match jvm.attach_current_thread() {
+        // Cronet follows up with onCanceled, which reports the reason
+        Ok(mut env) => {
+            let cancelled = jni_cache(&mut env).and_then(|cache| {
+                cache
+                    .cancel(&mut env, url_request.as_obj())
+                    .map_err(|e| Error::Internal(format!("Failed to cancel request: {}", e)))
+            });
+            if let Err(e) = cancelled {
+                tracing::error!("Failed to cancel request: {}", e);
+                let _ = env.exception_clear();
+            }
+        }
+        Err(e) => tracing::error!("Failed to attach thread to cancel request: {}", e),
+    }
 }
 
-/// Create an UploadDataProvider for request body
-fn create_upload_data_provider(
+/// Create a Java callback object that delegates to our Rust handler
+///
+/// A non-zero `small_response_threshold` turns on the small-response fast path.
+fn create_rust_callback(
     jvm: &JavaVM,
-    body: crate::body::Body,
-    progress_callback: Option<ProgressCallback>,
-) -> Result<(GlobalRef, Option<i64>)> {
+    handler_id: i64,
+    small_response_threshold: usize,
+) -> Result<GlobalRef> {
     let mut env = jvm
         .attach_current_thread()
         .map_err(|e| Error::Internal(format!("Failed to attach to JVM thread: {}", e)))?;
 
-    let body_bytes = match body {
-        crate::body::Body::Empty => {
-            return Err(Error::Internal(
-                "Empty body should not need upload provider".to_string(),
-            ));
-        }
-        crate::body::Body::Bytes { content, .. } => content.to_vec(),
-        crate::body::Body::Form { fields } => {
-            // URL-encode form fields
-            let encoded = fields
-                .iter()
-                .map(|(k, v)| format!("{}={}", urlencoding::encode(k), urlencoding::encode(v)))
-                .collect::<Vec<_>>()
-                .join("&");
-            encoded.into_bytes()
-        }
-        crate::body::Body::Json { value } => {
-            serde_json::to_vec(&value).map_err(|e| Error::Json(e.to_string()))?
-        }
-        crate::body::Body::Multipart { .. } => {
-            return Err(Error::Internal(
-                "Multipart data not yet implemented for Android backend".to_string(),
-            ));
-        }
-    };
-
-    // Create a byte array from the body data
-    let byte_array = env
-        .byte_array_from_slice(&body_bytes)
-        .map_err(|e| Error::Internal(format!("Failed to create byte array: {}", e)))?;
-
-    let (provider, progress_id) = if let Some(callback) = progress_callback {
-        let handler_id = register_upload_progress_callback(callback);
-
-        let provider_class = super::callback::load_class_from_dex(
-            &mut env,
-            "se.brendan.frakt.ProgressTrackingUploadDataProvider",
-        )?;
-
-        register_upload_progress_methods(&mut env, &provider_class)?;
-
-        let provider = env
-            .new_object(
-                provider_class,
-                "([BJ)V",
-                &[(&byte_array).into(), (handler_id as i64).into()],
-            )
-            .map_err(|e| {
-                Error::Internal(format!(
-                    "Failed to create ProgressTrackingUploadDataProvider: {}",
-                    e
-                ))
-            })?;
-
-        (provider, Some(handler_id))
+    let small_response_buffer = if small_response_threshold > 0 {
+        with_callback_handler(handler_id, |handler| {
+            handler.lease_small_response_buffer(&mut env, small_response_threshold)
+        })
+        .transpose()?
     } else {
-        // Use UploadDataProviders.create(byte[]) for simple uploads without progress tracking
-        let providers_class = env
-            .find_class("org/chromium/net/UploadDataProviders")
-            .map_err(|e| {
-                Error::Internal(format!("Failed to find UploadDataProviders class: {}", e))
-            })?;
-
-        let provider = env
-            .call_static_method(
-                providers_class,
-                "create",
-                "([B)Lorg/chromium/net/UploadDataProvider;",
-                &[(&byte_array).into()],
-            )
-            .map_err(|e| Error::Internal(format!("Failed to create UploadDataProvider: {}", e)))?
-            .l()
-            .map_err(|e| Error::Internal(format!("Failed to convert UploadDataProvider: {}", e)))?;
-
-        (provider, None)
+        None
     };
 
-    let global_ref = env.new_global_ref(&provider).map_err(|e| {
-        Error::Internal(format!(
-            "Failed to create global ref for upload provider: {}",
-            e
-        ))
-    })?;
-
-    Ok((global_ref, progress_id))
+    create_callback_instance(
+        &mut env,
+        handler_id,
+        small_response_buffer
+            .as_ref()
+            .map(|buffer| (buffer, small_response_threshold)),
+    )
 }
 
 /// Build and start a Cronet request
 fn build_and_start_request(
     jvm: &JavaVM,
-    cronet_engine: &GlobalRef,
+    cronet_engine: &CronetEngine,
     request: BackendRequest,
     handler_id: i64,
-) -> Result<(GlobalRef, Option<i64>)> {
+    small_response_threshold: usize,
+) -> Result<GlobalRef> {
     let mut env = jvm
         .attach_current_thread()
         .map_err(|e| Error::Internal(format!("Failed to attach to JVM thread: {}", e)))?;
+    let cache = jni_cache(&mut env)?;
 
     // Convert HTTP method
     let method = match request.method {
@@ -336,10 +256,10 @@ fn build_and_start_request(
     };
 
     // Create callback as GlobalRef
-    let callback_global = create_rust_callback(jvm, handler_id)?;
+    let callback_global = create_rust_callback(jvm, handler_id, small_response_threshold)?;
 
     // Build the request (scope the builder to ensure it's dropped before using env again)
-    let (url_request, upload_progress_id) = {
+    let (url_request, upload_source_id) = {
         let mut env = jvm
             .attach_current_thread()
             .map_err(|e| Error::Internal(format!("Failed to attach to JVM thread: {}", e)))?;
@@ -347,9 +267,12 @@ fn build_and_start_request(
         // Create UrlRequest.Builder
         let mut builder = UrlRequestBuilder::new(
             env,
-            cronet_engine,
+            cache,
+            cronet_engine.as_obj(),
             request.url.as_str(),
             callback_global.as_obj(),
+            cronet_engine.callback_executor().as_obj(),
+            cronet_engine.direct_executor(),
         )
         .map_err(|e| Error::Internal(format!("Failed to create UrlRequest.Builder: {}", e)))?;
 
@@ -358,23 +281,14 @@ fn build_and_start_request(
             .set_http_method(method)
             .map_err(|e| Error::Internal(format!("Failed to set HTTP method: {}", e)))?;
 
-        // Determine Content-Type from body if present
-        let content_type = if let Some(ref body) = request.body {
-            match body {
-                crate::body::Body::Bytes { content_type, .. } => Some(content_type.clone()),
-                crate::body::Body::Form { .. } => {
-                    Some("application/x-www-form-urlencoded".to_string())
-                }
-                crate::body::Body::Json { .. } => Some("application/json".to_string()),
-                crate::body::Body::Multipart { .. } => {
-                    // Multipart needs a boundary, but since it's not implemented yet, use a placeholder
-                    Some("multipart/form-data".to_string())
-                }
-                crate::body::Body::Empty => None,
-            }
-        } else {
-            None
-        };
+        // Prepare the body up front; multipart needs it to pick a boundary
+        let upload_body = request
+            .body
+            .map(|body| UploadBody::new(body, request.progress_callback.clone()))
+            .transpose()?;
+        let content_type = upload_body
+            .as_ref()
+            .and_then(|body| body.content_type().map(str::to_string));
 
         // Add Content-Type header if we have a body and it's not already set
         if let Some(ct) = content_type {
@@ -396,86 +310,70 @@ fn build_and_start_request(
             })?;
         }
 
+        builder
+            .set_priority(RequestPriority::from(request.priority))
+            .map_err(|e| Error::Internal(format!("Failed to set request priority: {}", e)))?;
+
+        if request.disable_cache {
+            builder
+                .disable_cache()
+                .map_err(|e| Error::Internal(format!("Failed to disable cache: {}", e)))?;
+        }
+
+        if let Some(tag) = request.traffic_stats_tag {
+            builder
+                .set_traffic_stats_tag(tag)
+                .map_err(|e| Error::Internal(format!("Failed to set traffic stats tag: {}", e)))?;
+        }
+
         // Note: Timeout is handled in execute_request() by cancelling the request
         // Cronet doesn't have a built-in setTimeout method
 
         // Handle request body if present
-        let upload_progress_id = if let Some(body) = request.body {
-            let progress_callback = request.progress_callback.clone();
-            let (upload_global, progress_id) =
-                create_upload_data_provider(jvm, body, progress_callback)?;
-            builder
-                .set_upload_data_provider(upload_global.as_obj())
-                .map_err(|e| {
-                    Error::Internal(format!("Failed to set upload data provider: {}", e))
+        let upload_source_id = if let Some(upload_body) = upload_body {
+            let (provider, source_id) = {
+                let mut env = jvm.attach_current_thread().map_err(|e| {
+                    Error::Internal(format!("Failed to attach to JVM thread: {}", e))
                 })?;
-            progress_id
+                create_upload_data_provider(&mut env, upload_body)?
+            };
+            if let Err(e) = builder.set_upload_data_provider(
+                provider.as_obj(),
+                cronet_engine.callback_executor().as_obj(),
+            ) {
+                release_upload_body(source_id);
+                return Err(Error::Internal(format!(
+                    "Failed to set upload data provider: {}",
+                    e
+                )));
+            }
+            Some(source_id)
         } else {
             None
         };
 
         // Build the request
-        let request = builder
-            .build()
-            .map_err(|e| Error::Internal(format!("Failed to build UrlRequest: {}", e)))?;
+        let request = builder.build().map_err(|e| {
+            // Cronet only closes the provider of a request that was started
+            if let Some(source_id) = upload_source_id {
+                release_upload_body(source_id);
+            }
+            Error::Internal(format!("Failed to build UrlRequest: {}", e))
+        })?;
 
-        (request, upload_progress_id)
+        (request, upload_source_id)
     };
 
     // Start the request
     println!("🚀 Calling request.start()...");
-    env.call_method(&url_request, "start", "()V", &[])
-        .map_err(|e| Error::Internal(format!("Failed to start request: {}", e)))?;
+    cache.start(&mut env, &url_request).map_err(|e| {
+        if let Some(source_id) = upload_source_id {
+            release_upload_body(source_id);
+        }
+        Error::Internal(format!("Failed to start request: {}", e))
+    })?;
     println!("🚀 request.start() returned successfully");
 
-    // Return global reference and upload progress ID
-    let global_ref = env
-        .new_global_ref(&url_request)
-        .map_err(|e| Error::Internal(format!("Failed to create global ref for request: {}", e)))?;
-
-    Ok((global_ref, upload_progress_id))
-}
-
-/// JNI function called from ProgressTrackingUploadDataProvider when upload progress updates
-#[unsafe(no_mangle)]
-pub extern "C" fn Java_se_brendan_frakt_ProgressTrackingUploadDataProvider_nativeOnUploadProgress(
-    _env: jni::JNIEnv,
-    _class: jni::objects::JClass,
-    handler_id: i64,
-    bytes_uploaded: i64,
-    total_bytes: i64,
-) {
-    if let Some(callback) = UPLOAD_PROGRESS_CALLBACKS.lock().unwrap().get(&handler_id) {
-        let total = if total_bytes > 0 {
-            Some(total_bytes as u64)
-        } else {
-            None
-        };
-        callback(bytes_uploaded as u64, total);
-    }
-}
-
-/// Register native methods for ProgressTrackingUploadDataProvider
-fn register_upload_progress_methods(
-    env: &mut jni::JNIEnv,
-    class: &jni::objects::JClass,
-) -> Result<()> {
-    use jni::NativeMethod;
-    use jni::objects::JClass as JClassType;
-
-    let jclass = unsafe { JClassType::from_raw(class.as_raw()) };
-    let native_methods = [NativeMethod {
-        name: "nativeOnUploadProgress".into(),
-        sig: "(JJJ)V".into(),
-        fn_ptr: Java_se_brendan_frakt_ProgressTrackingUploadDataProvider_nativeOnUploadProgress
-            as *mut std::ffi::c_void,
-    }];
-    env.register_native_methods(jclass, &native_methods)
-        .map_err(|e| {
-            Error::Internal(format!(
-                "Failed to register upload progress native methods: {}",
-                e
-            ))
-        })?;
-    Ok(())
+    env.new_global_ref(&url_request)
+        .map_err(|e| Error::Internal(format!("Failed to create global ref for request: {}", e)))
 }
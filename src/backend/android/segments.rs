@@ -0,0 +1,185 @@
+//! Splitting a download into byte ranges fetched by several streams at once
+//!
+//! The file starts out divided into equal segments, one per stream. When a stream
+//! runs out of work it takes the second half of whichever segment has the most
+//! left, so slow streams shed work to fast ones and every stream stays busy until
+//! the end. Segments are never split below a minimum size.
+
+use std::ops::Range;
+
+struct Segment {
+    start: u64,
+    /// Next byte to write; everything in `start..next` is on disk
+    next: u64,
+    end: u64,
+    /// Whether a stream is currently fetching this segment
+    active: bool,
+}
+
+impl Segment {
+    fn remaining(&self) -> u64 {
+        self.end - self.next
+    }
+}
+
+/// Which byte ranges of a segmented download are done and who fetches the rest
+pub struct SegmentPlan {
+    segments: Vec<Segment>,
+    /// Bytes that were already on disk before the plan was made
+    offset: u64,
+    min_split: u64,
+}
+
+impl SegmentPlan {
+    /// Divide `range` into `count` segments, the first of which is already active
+    ///
+    /// The first segment belongs to the response that was used to discover the
+    /// file's size, which already streams from the start of `range`.
+    pub fn new(range: Range<u64>, count: usize, min_split: u64) -> Self {
+        let length = range.end - range.start;
+        let count = (count as u64).clamp(1, (length / min_split.max(1)).max(1));
+        let size = length.div_ceil(count);
+
+        let segments = (0..count)
+            .map(|i| {
+                let start = range.start + i * size;
+                Segment {
+                    start,
+                    next: start,
+                    end: (start + size).min(range.end),
+                    active: i == 0,
+                }
+            })
+            .collect();
+
+        Self {
+            segments,
+            offset: range.start,
+            min_split,
+        }
+    }
+
+    /// Find work for an idle stream
+    ///
+    /// Untouched segments are handed out first. After that the active segment
+    /// with the most left is split in two and its second half returned.
+    pub fn claim(&mut self) -> Option<(usize, Range<u64>)> {
+        if let Some(id) = self
+            .segments
+            .iter()
+            .position(|s| !s.active && s.remaining() > 0)
+        {
+            let segment = &mut self.segments[id];
+            segment.active = true;
+            return Some((id, segment.next..segment.end));
+        }
+
+        let (id, segment) = self
+            .segments
+            .iter_mut()
+            .enumerate()
+            .filter(|(_, s)| s.active)
+            .max_by_key(|(_, s)| s.remaining())?;
+        if segment.remaining() < 2 * self.min_split {
+            return None;
+        }
+
+        let middle = segment.next + segment.remaining() / 2;
+        let end = segment.end;
+        segment.end = middle;
+        println!("✂️ Splitting segment {} at byte {}", id, middle);
+
+        self.segments.push(Segment {
+            start: middle,
+            next: middle,
+            end,
+            active: true,
+        });
+        Some((self.segments.len() - 1, middle..end))
+    }
+
+    /// Record that `len` more bytes arrived for segment `id`
+    ///
+    /// Returns where in the file they go. The range may be shorter than `len` if
+    /// the segment was split while the bytes were in flight; the rest belongs to
+    /// another stream and should be dropped.
+    pub fn advance(&mut self, id: usize, len: usize) -> Range<u64> {
+        let segment = &mut self.segments[id];
+        let start = segment.next;
+        segment.next = (start + len as u64).min(segment.end);
+        if segment.next == segment.end {
+            segment.active = false;
+        }
+        start..segment.next
+    }
+
+    /// Whether segment `id` has everything it needs
+    pub fn is_complete(&self, id: usize) -> bool {
+        self.segments[id].remaining() == 0
+    }
+
+    /// Bytes on disk, including those from before the plan was made
+    pub fn downloaded(&self) -> u64 {
+        self.offset + self.segments.iter().map(|s| s.next - s.start).sum::<u64>()
+    }
+
+    /// End of the prefix of the file that has been written without gaps
+    pub fn contiguous(&self) -> u64 {
+        self.segments
+            .iter()
+            .filter(|s| s.remaining() > 0)
+            .map(|s| s.next)
+            .min()
+            .unwrap_or_else(|| self.segments.iter().map(|s| s.end).max().unwrap_or(0))
+    }
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+
+    #[test]
+    fn test_hands_out_untouched_segments_first() {
+        let mut plan = SegmentPlan::new(0..400, 4, 10);
+
+        assert_eq!(plan.claim(), Some((1, 100..200)));
+        assert_eq!(plan.claim(), Some((2, 200..300)));
+        assert_eq!(plan.claim(), Some((3, 300..400)));
+
+        // Everything is taken, so the active segment with the most left is split
+        assert_eq!(plan.advance(0, 60), 0..60);
+        assert_eq!(plan.advance(1, 50), 100..150);
+        assert_eq!(plan.advance(3, 50), 300..350);
+        assert_eq!(plan.claim(), Some((4, 250..300)));
+        assert_eq!(plan.advance(2, 80), 200..250);
+        assert!(plan.is_complete(2));
+    }
+
+    #[test]
+    fn test_does_not_split_below_minimum() {
+        let mut plan = SegmentPlan::new(0..100, 2, 30);
+
+        assert_eq!(plan.claim(), Some((1, 50..100)));
+        assert_eq!(plan.claim(), None);
+    }
+
+    #[test]
+    fn test_contiguous_prefix() {
+        let mut plan = SegmentPlan::new(1000..1400, 4, 10);
+        assert_eq!(plan.contiguous(), 1000);
+
+        plan.claim();
+        plan.advance(1, 100);
+        assert_eq!(plan.contiguous(), 1000);
+        assert_eq!(plan.downloaded(), 1100);
+
+        plan.advance(0, 100);
+        assert_eq!(plan.contiguous(), 1200);
+
+        plan.claim();
+        plan.claim();
+        plan.advance(2, 100);
+        plan.advance(3, 100);
+        assert_eq!(plan.contiguous(), 1400);
+    }
+}
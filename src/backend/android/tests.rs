@@ -84,6 +84,13 @@ mod tests {
                 headers: HeaderMap::new(),
                 body: None,
                 progress_callback: None,
+                timeout: None,
+                body_high_water_mark: None,
+                small_response_threshold: None,
+                priority: crate::Priority::default(),
+                disable_cache: false,
+                traffic_stats_tag: None,
+                cancel: None,
             };
 
             let response = backend.mock_execute(request).await.unwrap();
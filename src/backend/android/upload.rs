@@ -0,0 +1,422 @@
+//! Request bodies pulled by Cronet through `NativeUploadDataProvider`
+//!
+//! The body stays on the Rust side. Each `UploadDataProvider.read()` hands over a
+//! direct ByteBuffer which is filled straight from the body's bytes or from the
+//! file, so an upload is never copied onto the Java heap and a file upload is never
+//! loaded into memory at all.
+
+use super::jni_cache::jni_cache;
+use super::multipart::MultipartEncoder;
+use super::registry::HandleRegistry;
+use crate::backend::types::ProgressCallback;
+use crate::body::Body;
+use crate::{Error, Result};
+use bytes::Bytes;
+use jni::{
+    JNIEnv,
+    objects::{GlobalRef, JByteBuffer, JClass},
+    sys::{jint, jlong},
+};
+use std::fs::File;
+use std::io::{Read, Seek, SeekFrom};
+use std::sync::{LazyLock, Mutex};
+
+/// Global storage for upload bodies, addressed by `NativeUploadDataProvider.sourceId`
+static UPLOAD_BODIES: LazyLock<HandleRegistry<Mutex<UploadBody>>> =
+    LazyLock::new(HandleRegistry::new);
+
+/// Returned from `nativeRead` once a chunked body has nothing left
+const END_OF_BODY: jint = -1;
+
+enum UploadSource {
+    Memory(Bytes),
+    File(File),
+    Multipart(MultipartEncoder),
+}
+
+/// Upload body with its read position and progress callback
+pub struct UploadBody {
+    source: UploadSource,
+    content_type: Option<String>,
+    length: Option<u64>,
+    position: u64,
+    progress_callback: Option<ProgressCallback>,
+}
+
+impl UploadBody {
+    /// Prepare a request body for upload
+    ///
+    /// Files are opened here but not read. A file that is not a regular file (a pipe,
+    /// for instance) has no known length and is uploaded with chunked encoding.
+    pub fn new(body: Body, progress_callback: Option<ProgressCallback>) -> Result<Self> {
+        let (source, content_type) = match body {
+            Body::Empty => {
+                return Err(Error::Internal(
+                    "Empty body should not need upload provider".to_string(),
+                ));
+            }
+            Body::Bytes {
+                content,
+                content_type,
+            } => (UploadSource::Memory(content), Some(content_type)),
+            Body::Form { fields } => {
+                // URL-encode form fields
+                let encoded = fields
+                    .iter()
+                    .map(|(k, v)| format!("{}={}", urlencoding::encode(k), urlencoding::encode(v)))
+                    .collect::<Vec<_>>()
+                    .join("&");
+                (
+                    UploadSource::Memory(encoded.into()),
+                    Some("application/x-www-form-urlencoded".to_string()),
+                )
+            }
+            Body::Json { value } => (
+                UploadSource::Memory(
+                    serde_json::to_vec(&value)
+                        .map_err(|e| Error::Json(e.to_string()))?
+                        .into(),
+                ),
+                Some("application/json".to_string()),
+            ),
+            Body::File { path, content_type } => {
+                (UploadSource::File(File::open(&path)?), Some(content_type))
+            }
+            Body::Multipart { parts } => {
+                let encoder = MultipartEncoder::new(parts)?;
+                let content_type = encoder.content_type();
+                (UploadSource::Multipart(encoder), Some(content_type))
+            }
+        };
+
+        let length = match &source {
+            UploadSource::Memory(content) => Some(content.len() as u64),
+            UploadSource::File(file) => {
+                let metadata = file.metadata()?;
+                metadata.is_file().then(|| metadata.len())
+            }
+            UploadSource::Multipart(encoder) => Some(encoder.length()),
+        };
+
+        Ok(Self {
+            source,
+            content_type,
+            length,
+            position: 0,
+            progress_callback,
+        })
+    }
+
+    /// Content-Type to send unless the request sets its own
+    pub fn content_type(&self) -> Option<&str> {
+        self.content_type.as_deref()
+    }
+
+    /// Total length in bytes, or `None` for a chunked upload
+    pub fn length(&self) -> Option<u64> {
+        self.length
+    }
+
+    /// Fill `buf` with the next bytes of the body, returning 0 once it is exhausted
+    pub fn read(&mut self, buf: &mut [u8]) -> Result<usize> {
+        // Never hand Cronet more than the length it was promised
+        let wanted = match self.length {
+            Some(length) => buf.len().min((length - self.position) as usize),
+            None => buf.len(),
+        };
+
+        let read = match &mut self.source {
+            UploadSource::Memory(content) => {
+                let start = self.position as usize;
+                let read = wanted.min(content.len() - start);
+                buf[..read].copy_from_slice(&content[start..start + read]);
+                read
+            }
+            UploadSource::File(file) => {
+                // Fill as much of the buffer as possible to save JNI crossings
+                let mut read = 0;
+                while read < wanted {
+                    match file.read(&mut buf[read..wanted]) {
+                        Ok(0) => break,
+                        Ok(n) => read += n,
+                        Err(e) if e.kind() == std::io::ErrorKind::Interrupted => {}
+                        Err(e) => return Err(e.into()),
+                    }
+                }
+                read
+            }
+            UploadSource::Multipart(encoder) => encoder.read(&mut buf[..wanted])?,
+        };
+
+        if read < wanted {
+            if let Some(length) = self.length {
+                return Err(Error::Internal(format!(
+                    "Upload body ended after {} of {} bytes",
+                    self.position + read as u64,
+                    length
+                )));
+            }
+        }
+
+        self.position += read as u64;
+        if let Some(callback) = &self.progress_callback {
+            if read > 0 {
+                callback(self.position, self.length);
+            } else if self.length.is_none() {
+                // The end of a chunked body is the first point its total is known
+                callback(self.position, Some(self.position));
+            }
+        }
+
+        Ok(read)
+    }
+
+    /// Start the body over, e.g. when Cronet retries after a redirect
+    pub fn rewind(&mut self) -> Result<()> {
+        match &mut self.source {
+            UploadSource::Memory(_) => {}
+            UploadSource::File(file) => {
+                file.seek(SeekFrom::Start(0))?;
+            }
+            UploadSource::Multipart(encoder) => encoder.rewind(),
+        }
+        self.position = 0;
+
+        if let Some(callback) = &self.progress_callback {
+            callback(0, self.length);
+        }
+        Ok(())
+    }
+}
+
+/// Create a `NativeUploadDataProvider` for a request body
+///
+/// Returns the provider and the id of its body. Cronet calls `close()` on the
+/// provider once the request is done, which drops the body; if the request never
+/// starts, the caller must drop it with [`release_upload_body`].
+pub fn create_upload_data_provider(
+    env: &mut JNIEnv,
+    upload_body: UploadBody,
+) -> Result<(GlobalRef, i64)> {
+    let length = upload_body.length().map(|length| length as i64).unwrap_or(-1);
+    let source_id = UPLOAD_BODIES.insert(Mutex::new(upload_body));
+
+    let provider = jni_cache(env).and_then(|cache| {
+        let provider = cache
+            .new_upload_provider(env, source_id, length)
+            .map_err(|e| {
+                Error::Internal(format!("Failed to create NativeUploadDataProvider: {}", e))
+            })?;
+
+        env.new_global_ref(&provider).map_err(|e| {
+            Error::Internal(format!(
+                "Failed to create global ref for upload provider: {}",
+                e
+            ))
+        })
+    });
+
+    match provider {
+        Ok(provider) => Ok((provider, source_id)),
+        Err(e) => {
+            release_upload_body(source_id);
+            Err(e)
+        }
+    }
+}
+
+/// Drop an upload body whose provider was never handed to a started request
+pub fn release_upload_body(source_id: i64) {
+    UPLOAD_BODIES.remove(source_id);
+}
+
+/// Load `NativeUploadDataProvider` and register its natives
+///
+/// Called once, when the JNI cache is built.
+pub(super) fn load_provider_class(env: &mut JNIEnv) -> Result<GlobalRef> {
+    let class =
+        super::callback::load_class_from_dex(env, "se.brendan.frakt.NativeUploadDataProvider")?;
+    register_provider_methods(env, &class)?;
+
+    env.new_global_ref(&class).map_err(|e| {
+        Error::Internal(format!(
+            "Failed to create global ref for upload provider class: {}",
+            e
+        ))
+    })
+}
+
+/// Fill a direct ByteBuffer between `position` and `limit` from the upload body
+///
+/// Returns the number of bytes written, or -1 once a chunked body is exhausted.
+/// Failures are thrown as `IOException` so the provider can report `onReadError`.
+#[unsafe(no_mangle)]
+pub extern "C" fn Java_se_brendan_frakt_NativeUploadDataProvider_nativeRead(
+    mut env: JNIEnv,
+    _class: JClass,
+    source_id: jlong,
+    byte_buffer: JByteBuffer,
+    position: jint,
+    limit: jint,
+) -> jint {
+    let result = UPLOAD_BODIES
+        .get(source_id)
+        .ok_or_else(|| Error::Internal(format!("Unknown upload body {}", source_id)))
+        .and_then(|upload_body| {
+            let buf = direct_buffer_slice_mut(&env, &byte_buffer, position, limit)?;
+            let mut upload_body = upload_body.lock().unwrap_or_else(|e| e.into_inner());
+
+            let read = upload_body.read(buf)?;
+            if read == 0 && upload_body.length().is_none() {
+                return Ok(END_OF_BODY);
+            }
+            Ok(read as jint)
+        });
+
+    match result {
+        Ok(read) => read,
+        Err(e) => {
+            tracing::error!("Upload read failed: {}", e);
+            let _ = env.throw_new("java/io/IOException", e.to_string());
+            0
+        }
+    }
+}
+
+/// Rewind the upload body to its start
+#[unsafe(no_mangle)]
+pub extern "C" fn Java_se_brendan_frakt_NativeUploadDataProvider_nativeRewind(
+    mut env: JNIEnv,
+    _class: JClass,
+    source_id: jlong,
+) {
+    let result = UPLOAD_BODIES
+        .get(source_id)
+        .ok_or_else(|| Error::Internal(format!("Unknown upload body {}", source_id)))
+        .and_then(|upload_body| {
+            upload_body
+                .lock()
+                .unwrap_or_else(|e| e.into_inner())
+                .rewind()
+        });
+
+    if let Err(e) = result {
+        tracing::error!("Upload rewind failed: {}", e);
+        let _ = env.throw_new("java/io/IOException", e.to_string());
+    }
+}
+
+/// Drop the upload body once Cronet is done with the provider
+#[unsafe(no_mangle)]
+pub extern "C" fn Java_se_brendan_frakt_NativeUploadDataProvider_nativeClose(
+    _env: JNIEnv,
+    _class: JClass,
+    source_id: jlong,
+) {
+    release_upload_body(source_id);
+}
+
+/// Borrow the writable part of a direct ByteBuffer, from `position` up to `limit`
+fn direct_buffer_slice_mut<'b>(
+    env: &JNIEnv,
+    byte_buffer: &'b JByteBuffer,
+    position: jint,
+    limit: jint,
+) -> Result<&'b mut [u8]> {
+    let address = env
+        .get_direct_buffer_address(byte_buffer)
+        .map_err(|e| Error::Internal(format!("Failed to get direct buffer address: {}", e)))?;
+
+    let capacity = env
+        .get_direct_buffer_capacity(byte_buffer)
+        .map_err(|e| Error::Internal(format!("Failed to get direct buffer capacity: {}", e)))?;
+
+    if position < 0 || position > limit || limit as usize > capacity {
+        return Err(Error::Internal(format!(
+            "Invalid ByteBuffer range: position {}, limit {}, capacity {}",
+            position, limit, capacity
+        )));
+    }
+
+    Ok(unsafe {
+        std::slice::from_raw_parts_mut(address.add(position as usize), (limit - position) as usize)
+    })
+}
+
+/// Register native methods for NativeUploadDataProvider
+fn register_provider_methods(env: &mut JNIEnv, class: &JClass) -> Result<()> {
+    use jni::NativeMethod;
+
+    let jclass = unsafe { JClass::from_raw(class.as_raw()) };
+    let native_methods = [
+        NativeMethod {
+            name: "nativeRead".into(),
+            sig: "(JLjava/nio/ByteBuffer;II)I".into(),
+            fn_ptr: Java_se_brendan_frakt_NativeUploadDataProvider_nativeRead
+                as *mut std::ffi::c_void,
+        },
+        NativeMethod {
+            name: "nativeRewind".into(),
+            sig: "(J)V".into(),
+            fn_ptr: Java_se_brendan_frakt_NativeUploadDataProvider_nativeRewind
+                as *mut std::ffi::c_void,
+        },
+        NativeMethod {
+            name: "nativeClose".into(),
+            sig: "(J)V".into(),
+            fn_ptr: Java_se_brendan_frakt_NativeUploadDataProvider_nativeClose
+                as *mut std::ffi::c_void,
+        },
+    ];
+    env.register_native_methods(jclass, &native_methods)
+        .map_err(|e| {
+            Error::Internal(format!(
+                "Failed to register upload provider native methods: {}",
+                e
+            ))
+        })?;
+    Ok(())
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+
+    #[test]
+    fn test_memory_body_reads_and_rewinds() {
+        let mut body = UploadBody::new(Body::text("hello world"), None).unwrap();
+        assert_eq!(body.length(), Some(11));
+
+        let mut buf = [0u8; 8];
+        assert_eq!(body.read(&mut buf).unwrap(), 8);
+        assert_eq!(&buf, b"hello wo");
+        assert_eq!(body.read(&mut buf).unwrap(), 3);
+        assert_eq!(&buf[..3], b"rld");
+        assert_eq!(body.read(&mut buf).unwrap(), 0);
+
+        body.rewind().unwrap();
+        assert_eq!(body.read(&mut buf).unwrap(), 8);
+        assert_eq!(&buf, b"hello wo");
+    }
+
+    #[test]
+    fn test_file_body_streams_without_loading() {
+        let mut file = tempfile::NamedTempFile::new().unwrap();
+        std::io::Write::write_all(&mut file, &[7u8; 40_000]).unwrap();
+
+        let mut body = UploadBody::new(Body::file(file.path(), None), None).unwrap();
+        assert_eq!(body.length(), Some(40_000));
+
+        let mut buf = vec![0u8; 16 * 1024];
+        let mut total = 0;
+        loop {
+            let read = body.read(&mut buf).unwrap();
+            if read == 0 {
+                break;
+            }
+            assert!(buf[..read].iter().all(|&b| b == 7));
+            total += read;
+        }
+        assert_eq!(total, 40_000);
+    }
+}
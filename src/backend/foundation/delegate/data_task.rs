@@ -171,6 +171,11 @@ define_class!(
 
             if let Ok(contexts) = ivars.task_contexts.lock() {
                 if let Some(shared_context) = contexts.get(&task_id) {
+                    if shared_context.is_cancelled() {
+                        data_task.cancel();
+                        return;
+                    }
+
                     // Convert NSData to bytes and append to buffer
                     // NSData implements Deref<Target=[u8]>
                     let bytes = data.to_vec();
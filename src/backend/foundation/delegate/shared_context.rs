@@ -66,6 +66,8 @@ pub struct TaskSharedContext {
     pub progress_callback: Option<Arc<ProgressCallback>>,
     /// Download-specific context (for download tasks)
     pub download_context: Option<Arc<DownloadContext>>,
+    /// Whether the caller gave up on the task, which the delegate then stops
+    pub cancelled: AtomicBool,
 }
 
 impl TaskSharedContext {
@@ -82,6 +84,7 @@ impl TaskSharedContext {
             total_bytes_expected: AtomicU64::new(0),
             progress_callback: None,
             download_context: None,
+            cancelled: AtomicBool::new(false),
         }
     }
 
@@ -98,6 +101,7 @@ impl TaskSharedContext {
             total_bytes_expected: AtomicU64::new(0),
             progress_callback: Some(callback),
             download_context: None,
+            cancelled: AtomicBool::new(false),
         }
     }
 
@@ -117,6 +121,7 @@ impl TaskSharedContext {
             total_bytes_expected: AtomicU64::new(0),
             progress_callback,
             download_context: Some(Arc::new(DownloadContext::new(destination_path))),
+            cancelled: AtomicBool::new(false),
         }
     }
 
@@ -131,6 +136,16 @@ impl TaskSharedContext {
         self.waker.wake();
     }
 
+    /// Ask the delegate to stop the task when it next hears from it
+    pub fn cancel(&self) {
+        self.cancelled.store(true, Ordering::Release);
+    }
+
+    /// Whether [`cancel`](Self::cancel) has been called
+    pub fn is_cancelled(&self) -> bool {
+        self.cancelled.load(Ordering::Acquire)
+    }
+
     /// Set an error
     pub fn set_error(&self, error: Retained<NSError>) {
         self.error.store(Some(Arc::new(error)));
@@ -187,6 +187,15 @@ impl FoundationBackend {
                         let nsdata = objc2_foundation::NSData::from_vec(json_bytes);
                         req.setHTTPBody(Some(&nsdata));
                     }
+                    crate::body::Body::File { path, content_type } => {
+                        req.setValue_forHTTPHeaderField(
+                            Some(&NSString::from_str(content_type)),
+                            &NSString::from_str("Content-Type"),
+                        );
+                        let content = std::fs::read(path)?;
+                        let nsdata = objc2_foundation::NSData::from_vec(content);
+                        req.setHTTPBody(Some(&nsdata));
+                    }
                     crate::body::Body::Multipart { parts } => {
                         let boundary = generate_boundary();
                         let content_type = format!("multipart/form-data; boundary={}", boundary);
@@ -229,7 +238,13 @@ impl FoundationBackend {
         data_task.resume();
 
         // Wait for response headers
+        let cancel = request.cancel;
+        let is_cancelled = move || cancel.as_ref().is_some_and(|token| token.is_cancelled());
         while !task_context.is_completed() && task_context.response.load_full().is_none() {
+            if is_cancelled() {
+                data_task.cancel();
+                return Err(Error::Cancelled);
+            }
             tokio::task::yield_now().await;
         }
 
@@ -313,6 +328,12 @@ impl FoundationBackend {
         let body_context = task_context.clone();
         tokio::spawn(async move {
             while !body_context.is_completed() {
+                if is_cancelled() {
+                    // The delegate stops the task when the next data arrives
+                    body_context.cancel();
+                    let _ = tx.send(Err(Error::Cancelled)).await;
+                    return;
+                }
                 let data = body_context.response_buffer.lock().await.clone();
                 if !data.is_empty() {
                     let bytes = bytes::Bytes::from(data);
@@ -351,6 +372,7 @@ impl FoundationBackend {
         headers: http::HeaderMap,
         progress_callback: Option<Box<dyn Fn(u64, Option<u64>) + Send + Sync + 'static>>,
         _error_for_status: bool,
+        _options: crate::backend::types::BackgroundDownloadOptions,
     ) -> Result<crate::client::download::DownloadResponse> {
         use delegate::background_session::BackgroundSessionDelegate;
         use delegate::shared_context::TaskSharedContext;
@@ -500,7 +522,10 @@ fn encode_multipart_data(boundary: &str, parts: &[crate::body::MultipartPart]) -
         }
 
         data.extend_from_slice(b"\r\n");
-        data.extend_from_slice(&part.content);
+        match &part.path {
+            Some(path) => data.extend_from_slice(&std::fs::read(path)?),
+            None => data.extend_from_slice(&part.content),
+        }
     }
 
     data.extend_from_slice(format!("\r\n--{}--\r\n", boundary).as_bytes());
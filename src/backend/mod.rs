@@ -13,7 +13,10 @@ pub mod windows;
 pub mod android;
 
 #[cfg(all(feature = "backend-android", target_os = "android"))]
-pub use android::{check_permission, list_permissions, start_netlog, stop_netlog, test_dns};
+pub use android::{
+    CallbackExecutorStats, callback_executor_stats, check_permission, list_permissions,
+    start_netlog, stop_netlog, test_dns,
+};
 
 #[cfg(feature = "backend-reqwest")]
 pub mod reqwest;
@@ -49,6 +52,12 @@ pub struct BackendConfig {
     pub https_proxy: Option<crate::client::ProxyConfig>,
     /// SOCKS proxy configuration
     pub socks_proxy: Option<crate::client::ProxyConfig>,
+    /// Limits for background downloads waiting to run
+    pub download_queue: Option<crate::DownloadQueueConfig>,
+    /// Cronet engine tuning for the Android backend
+    pub android_engine: Option<crate::AndroidEngineOptions>,
+    /// Most requests the reqwest backend lets wait for headers at once; `None` is no cap
+    pub max_concurrent_requests: Option<usize>,
 }
 
 /// HTTP client backend implementations
@@ -180,6 +189,40 @@ impl Backend {
         }
     }
 
+    /// Open connections to the origins of `urls` ahead of the first real request
+    ///
+    /// Sends one HEAD request per origin, all at once, and drops the responses. The
+    /// TLS or QUIC handshake is left in the backend's connection pool for requests
+    /// that follow. Failures are logged and otherwise ignored.
+    pub async fn preconnect(&self, urls: Vec<Url>) {
+        let mut origins = std::collections::HashSet::new();
+        let requests = urls
+            .into_iter()
+            .filter(|url| origins.insert(url.origin().ascii_serialization()))
+            .map(|url| {
+                let request = BackendRequest {
+                    method: http::Method::HEAD,
+                    url: url.clone(),
+                    headers: http::HeaderMap::new(),
+                    body: None,
+                    progress_callback: None,
+                    timeout: None,
+                    body_high_water_mark: None,
+                    small_response_threshold: None,
+                    priority: crate::Priority::default(),
+                    disable_cache: false,
+                    traffic_stats_tag: None,
+                    cancel: None,
+                };
+                async move {
+                    if let Err(e) = self.execute(request).await {
+                        tracing::warn!("Failed to preconnect to {}: {}", url, e);
+                    }
+                }
+            });
+        futures_util::future::join_all(requests).await;
+    }
+
     /// Execute a background download that survives app termination
     pub async fn execute_background_download(
         &self,
@@ -189,6 +232,7 @@ impl Backend {
         headers: http::HeaderMap,
         progress_callback: Option<Box<dyn Fn(u64, Option<u64>) + Send + Sync + 'static>>,
         error_for_status: bool,
+        options: types::BackgroundDownloadOptions,
     ) -> Result<crate::client::download::DownloadResponse> {
         match self {
             #[cfg(all(feature = "backend-foundation", target_vendor = "apple"))]
@@ -200,6 +244,7 @@ impl Backend {
                     headers,
                     progress_callback,
                     error_for_status,
+                    options,
                 )
                 .await
             }
@@ -213,6 +258,7 @@ impl Backend {
                     headers,
                     progress_callback,
                     error_for_status,
+                    options,
                 )
                 .await
             }
@@ -226,6 +272,7 @@ impl Backend {
                     headers,
                     progress_callback,
                     error_for_status,
+                    options,
                 )
                 .await
             }
@@ -239,6 +286,7 @@ impl Backend {
                     headers,
                     progress_callback,
                     error_for_status,
+                    options,
                 )
                 .await
             }
@@ -247,6 +295,21 @@ impl Backend {
         }
     }
 
+    /// Background downloads still in flight, including those from earlier runs
+    ///
+    /// Only backends that track downloads across restarts report any.
+    pub fn pending_background_downloads(
+        &self,
+    ) -> Result<Vec<crate::client::PendingBackgroundDownload>> {
+        match self {
+            #[cfg(all(feature = "backend-android", target_os = "android"))]
+            Backend::Android(a) => a.pending_background_downloads(),
+
+            #[allow(unreachable_patterns)]
+            _ => Ok(Vec::new()),
+        }
+    }
+
     /// Get the cookie jar if configured
     pub fn cookie_jar(&self) -> Option<&crate::CookieJar> {
         match self {
@@ -0,0 +1,192 @@
+//! Priority ordering for requests sent through reqwest
+//!
+//! reqwest sends every request as soon as it is asked to, so a burst of prefetches
+//! competes for connections with the request the user is waiting on. When the client
+//! sets `max_concurrent_requests`, requests here wait for one of that many slots,
+//! and free slots go to the highest priority waiting, then to the earliest.
+//! `Priority::Highest` takes a slot without waiting. A slot is held until the
+//! response headers arrive.
+
+use crate::Priority;
+use std::cmp::Ordering;
+use std::collections::BinaryHeap;
+use std::sync::{Arc, Mutex};
+use tokio::sync::oneshot;
+
+struct Waiter {
+    priority: Priority,
+    sequence: u64,
+    wake: oneshot::Sender<()>,
+}
+
+impl PartialEq for Waiter {
+    fn eq(&self, other: &Self) -> bool {
+        self.cmp(other) == Ordering::Equal
+    }
+}
+
+impl Eq for Waiter {}
+
+impl PartialOrd for Waiter {
+    fn partial_cmp(&self, other: &Self) -> Option<Ordering> {
+        Some(self.cmp(other))
+    }
+}
+
+impl Ord for Waiter {
+    /// Higher priority first, then earlier arrivals
+    fn cmp(&self, other: &Self) -> Ordering {
+        self.priority
+            .cmp(&other.priority)
+            .then_with(|| other.sequence.cmp(&self.sequence))
+    }
+}
+
+struct State {
+    limit: usize,
+    running: usize,
+    waiting: BinaryHeap<Waiter>,
+    next_sequence: u64,
+}
+
+impl State {
+    /// Hand free slots to waiters, skipping any that gave up
+    fn admit(&mut self) {
+        while self.running < self.limit {
+            let Some(waiter) = self.waiting.pop() else {
+                break;
+            };
+            if waiter.wake.send(()).is_ok() {
+                self.running += 1;
+            }
+        }
+    }
+}
+
+/// Slots shared by every request of one backend
+#[derive(Clone)]
+pub struct Dispatcher {
+    state: Arc<Mutex<State>>,
+}
+
+/// A slot held by a request; dropping it lets the next request in
+pub struct Permit {
+    state: Arc<Mutex<State>>,
+}
+
+impl Dispatcher {
+    pub fn new(limit: usize) -> Self {
+        Self {
+            state: Arc::new(Mutex::new(State {
+                limit: limit.max(1),
+                running: 0,
+                waiting: BinaryHeap::new(),
+                next_sequence: 0,
+            })),
+        }
+    }
+
+    /// Wait for a slot
+    pub async fn acquire(&self, priority: Priority) -> Permit {
+        let wait = {
+            let mut state = self.state.lock().unwrap();
+            if priority == Priority::Highest
+                || (state.running < state.limit && state.waiting.is_empty())
+            {
+                state.running += 1;
+                None
+            } else {
+                let (wake, woken) = oneshot::channel();
+                let sequence = state.next_sequence;
+                state.next_sequence += 1;
+                state.waiting.push(Waiter {
+                    priority,
+                    sequence,
+                    wake,
+                });
+                Some(woken)
+            }
+        };
+
+        if let Some(woken) = wait {
+            let mut waiting = Waiting {
+                state: self.state.clone(),
+                woken: Some(woken),
+            };
+            if let Some(woken) = waiting.woken.as_mut() {
+                let _ = woken.await;
+            }
+            // Admitted; the permit takes over the slot
+            waiting.woken = None;
+        }
+
+        Permit {
+            state: self.state.clone(),
+        }
+    }
+}
+
+/// Gives back a slot handed to a request that stopped waiting for it
+struct Waiting {
+    state: Arc<Mutex<State>>,
+    woken: Option<oneshot::Receiver<()>>,
+}
+
+impl Drop for Waiting {
+    fn drop(&mut self) {
+        let Some(mut woken) = self.woken.take() else {
+            return;
+        };
+        woken.close();
+        if woken.try_recv().is_ok() {
+            release(&self.state);
+        }
+    }
+}
+
+impl Drop for Permit {
+    fn drop(&mut self) {
+        release(&self.state);
+    }
+}
+
+fn release(state: &Mutex<State>) {
+    let mut state = state.lock().unwrap();
+    state.running = state.running.saturating_sub(1);
+    state.admit();
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+
+    #[tokio::test]
+    async fn test_admits_waiters_by_priority() {
+        let dispatcher = Dispatcher::new(1);
+        let first = dispatcher.acquire(Priority::Medium).await;
+
+        let (order_tx, mut order_rx) = tokio::sync::mpsc::unbounded_channel();
+        let mut tasks = Vec::new();
+        for priority in [Priority::Idle, Priority::Low] {
+            let dispatcher = dispatcher.clone();
+            let order_tx = order_tx.clone();
+            tasks.push(tokio::spawn(async move {
+                let _permit = dispatcher.acquire(priority).await;
+                order_tx.send(priority).unwrap();
+            }));
+            tokio::task::yield_now().await;
+        }
+
+        // Highest does not wait even though the only slot is taken
+        let urgent = dispatcher.acquire(Priority::Highest).await;
+        drop(urgent);
+        assert!(order_rx.try_recv().is_err());
+
+        drop(first);
+        for task in tasks {
+            task.await.unwrap();
+        }
+        assert_eq!(order_rx.recv().await, Some(Priority::Low));
+        assert_eq!(order_rx.recv().await, Some(Priority::Idle));
+    }
+}
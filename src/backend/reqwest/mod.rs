@@ -1,19 +1,23 @@
 //! Reqwest backend for cross-platform HTTP support
 
 mod background;
+mod dispatcher;
 
 pub mod websocket;
 pub use websocket::{ReqwestWebSocket, ReqwestWebSocketBuilder};
 
 use crate::backend::types::{BackendRequest, BackendResponse, ProgressCallback};
+use crate::cancel::cancelled;
 use crate::{Error, Result};
 use bytes::Bytes;
+use dispatcher::Dispatcher;
 use futures_util::Stream;
 use futures_util::StreamExt;
 use std::pin::Pin;
 use std::sync::Arc;
 use std::sync::atomic::{AtomicU64, Ordering};
 use std::task::{Context, Poll};
+use tokio::io::AsyncReadExt;
 use tokio::sync::mpsc;
 use url::Url;
 
@@ -70,11 +74,49 @@ impl Stream for ProgressTrackingStream {
     }
 }
 
+/// Chunk size used when streaming a file body
+const FILE_CHUNK_SIZE: usize = 64 * 1024;
+
+/// Stream a file in fixed-size chunks, reporting upload progress as it goes
+fn file_stream(
+    file: tokio::fs::File,
+    total: Option<u64>,
+    callback: Option<ProgressCallback>,
+) -> impl Stream<Item = std::io::Result<Bytes>> + Send + 'static {
+    if let Some(callback) = &callback {
+        callback(0, total);
+    }
+
+    futures_util::stream::try_unfold((file, 0u64), move |(mut file, uploaded)| {
+        let callback = callback.clone();
+        async move {
+            let mut chunk = vec![0u8; FILE_CHUNK_SIZE];
+            let read = file.read(&mut chunk).await?;
+            if read == 0 {
+                // The end of a chunked body is the first point its total is known
+                if let (Some(callback), None) = (&callback, total) {
+                    callback(uploaded, Some(uploaded));
+                }
+                return Ok(None);
+            }
+            chunk.truncate(read);
+
+            let uploaded = uploaded + read as u64;
+            if let Some(callback) = &callback {
+                callback(uploaded, total);
+            }
+            Ok(Some((Bytes::from(chunk), (file, uploaded))))
+        }
+    })
+}
+
 /// Reqwest backend for cross-platform HTTP
 #[derive(Clone)]
 pub struct ReqwestBackend {
     client: reqwest::Client,
     cookie_jar: Option<crate::CookieJar>,
+    /// Orders requests by priority when the client caps how many run at once
+    dispatcher: Option<Dispatcher>,
 }
 
 impl ReqwestBackend {
@@ -87,6 +129,7 @@ impl ReqwestBackend {
         Ok(Self {
             client,
             cookie_jar: None,
+            dispatcher: None,
         })
     }
 
@@ -181,6 +224,7 @@ impl ReqwestBackend {
         Ok(Self {
             client,
             cookie_jar: config.cookie_jar,
+            dispatcher: config.max_concurrent_requests.map(Dispatcher::new),
         })
     }
 
@@ -224,8 +268,18 @@ impl ReqwestBackend {
                 crate::body::Body::Multipart { parts } => {
                     let mut form = reqwest::multipart::Form::new();
                     for part in parts {
-                        let mut part_builder =
-                            reqwest::multipart::Part::bytes(part.content.to_vec());
+                        let mut part_builder = match &part.path {
+                            Some(path) => {
+                                let file = tokio::fs::File::open(path).await?;
+                                let length = file.metadata().await?.len();
+                                let stream = file_stream(file, Some(length), None);
+                                reqwest::multipart::Part::stream_with_length(
+                                    reqwest::Body::wrap_stream(stream),
+                                    length,
+                                )
+                            }
+                            None => reqwest::multipart::Part::bytes(part.content.to_vec()),
+                        };
 
                         if let Some(filename) = &part.filename {
                             part_builder = part_builder.file_name(filename.clone());
@@ -241,6 +295,22 @@ impl ReqwestBackend {
                     }
                     req_builder = req_builder.multipart(form);
                 }
+                crate::body::Body::File { path, content_type } => {
+                    let file = tokio::fs::File::open(path).await?;
+                    let metadata = file.metadata().await?;
+                    // Only regular files have a trustworthy length; anything else is chunked
+                    let total = metadata.is_file().then(|| metadata.len());
+
+                    if !request.headers.contains_key("content-type") {
+                        req_builder = req_builder.header("Content-Type", content_type.as_str());
+                    }
+                    if let Some(total) = total {
+                        req_builder = req_builder.header("Content-Length", total);
+                    }
+
+                    let stream = file_stream(file, total, request.progress_callback.clone());
+                    req_builder = req_builder.body(reqwest::Body::wrap_stream(stream));
+                }
                 crate::body::Body::Form { .. } => {
                     if let Some(callback) = request.progress_callback.as_ref() {
                         // For form data with progress tracking, we need to convert to bytes first
@@ -268,8 +338,20 @@ impl ReqwestBackend {
             }
         }
 
-        // Send request
-        let response = req_builder.send().await.map_err(|e| {
+        // Send request once a slot is free, holding it until the headers arrive
+        let send = async {
+            let _permit = match &self.dispatcher {
+                Some(dispatcher) => Some(dispatcher.acquire(request.priority).await),
+                None => None,
+            };
+            req_builder.send().await
+        };
+        let cancel = request.cancel.clone();
+        let sent = tokio::select! {
+            sent = send => sent,
+            _ = cancelled(cancel.as_ref()) => return Err(Error::Cancelled),
+        };
+        let response = sent.map_err(|e| {
             if e.is_timeout() {
                 Error::Timeout
             } else {
@@ -300,7 +382,17 @@ impl ReqwestBackend {
         // Stream response body
         tokio::spawn(async move {
             let mut stream = response.bytes_stream();
-            while let Some(chunk) = stream.next().await {
+            loop {
+                let chunk = tokio::select! {
+                    chunk = stream.next() => chunk,
+                    _ = cancelled(cancel.as_ref()) => {
+                        let _ = tx.send(Err(Error::Cancelled)).await;
+                        break;
+                    }
+                };
+                let Some(chunk) = chunk else {
+                    break;
+                };
                 match chunk {
                     Ok(bytes) => {
                         if tx.send(Ok(bytes::Bytes::from(bytes))).await.is_err() {
@@ -346,8 +438,8 @@ impl ReqwestBackend {
                     serde_json::to_vec(&value).map_err(|e| Error::Json(e.to_string()))?;
                 Ok(reqwest::Body::from(json_bytes))
             }
-            crate::body::Body::Multipart { .. } => {
-                // Multipart is handled separately in the execute function
+            crate::body::Body::Multipart { .. } | crate::body::Body::File { .. } => {
+                // Multipart and file bodies are handled separately in the execute function
                 Ok(reqwest::Body::from(""))
             }
         }
@@ -370,8 +462,8 @@ impl ReqwestBackend {
                     serde_json::to_vec(&value).map_err(|e| Error::Json(e.to_string()))?;
                 Ok(Bytes::from(json_bytes))
             }
-            crate::body::Body::Multipart { .. } => {
-                // Multipart is handled separately in the execute function
+            crate::body::Body::Multipart { .. } | crate::body::Body::File { .. } => {
+                // Multipart and file bodies are handled separately in the execute function
                 Ok(Bytes::from(""))
             }
         }
@@ -391,6 +483,7 @@ impl ReqwestBackend {
         headers: http::HeaderMap,
         progress_callback: Option<Box<dyn Fn(u64, Option<u64>) + Send + Sync + 'static>>,
         error_for_status: bool,
+        _options: crate::backend::types::BackgroundDownloadOptions,
     ) -> Result<crate::client::download::DownloadResponse> {
         #[cfg(unix)]
         {
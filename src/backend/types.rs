@@ -20,6 +20,41 @@ pub struct BackendRequest {
     pub progress_callback: Option<ProgressCallback>,
     /// Optional timeout for the request
     pub timeout: Option<Duration>,
+    /// Most response body bytes to buffer ahead of the consumer
+    ///
+    /// Reads from the network pause once this much is queued. Backends that do not
+    /// support it fall back to their own fixed-size body channel.
+    pub body_high_water_mark: Option<usize>,
+    /// Largest response body to gather in full before handing the response over
+    ///
+    /// Lets a backend deliver a small response in one step instead of streaming it.
+    /// `Some(0)` turns this off; backends without such a fast path ignore it.
+    pub small_response_threshold: Option<usize>,
+    /// How urgently the request should be served relative to others
+    pub priority: crate::Priority,
+    /// Neither read the response from nor write it to the HTTP cache
+    ///
+    /// Backends without an HTTP cache ignore it.
+    pub disable_cache: bool,
+    /// Tag for Android's per-socket traffic statistics; other backends ignore it
+    pub traffic_stats_tag: Option<i32>,
+    /// Stops the request, including a body that is still streaming, when cancelled
+    pub cancel: Option<crate::CancellationToken>,
+}
+
+/// How a background download is scheduled
+///
+/// Backends that hand downloads straight to the system ignore these.
+#[derive(Debug, Clone, Default)]
+pub struct BackgroundDownloadOptions {
+    /// Order among downloads waiting in the queue
+    pub priority: crate::Priority,
+    /// Only run while the device is on an unmetered network
+    pub requires_unmetered_network: bool,
+    /// Only run while the device is charging
+    pub requires_charging: bool,
+    /// Stops the download, and the system's work for it, when cancelled
+    pub cancel: Option<crate::CancellationToken>,
 }
 
 /// Platform-agnostic HTTP response
@@ -460,6 +460,8 @@ pub async fn execute_winhttp_request(
                     .into_bytes();
                 (json_bytes, Some("application/json"))
             }
+            // WinHTTP is handed the whole body at once, so the file is read up front
+            crate::body::Body::File { path, .. } => (tokio::fs::read(path).await?, None),
             crate::body::Body::Multipart { .. } => {
                 return Err(Error::Internal(
                     "Multipart not yet supported with WinHTTP".to_string(),
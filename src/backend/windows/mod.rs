@@ -10,6 +10,7 @@ pub use error::*;
 pub use websocket::{WindowsWebSocket, WindowsWebSocketBuilder};
 
 use crate::backend::types::{BackendRequest, BackendResponse};
+use crate::cancel::cancelled;
 use crate::{Error, Result};
 use std::time::Duration;
 use url::Url;
@@ -72,16 +73,23 @@ impl WindowsBackend {
     }
 
     /// Execute an HTTP request using WinHTTP
+    ///
+    /// The body is read in full before the response is returned, so a cancelled
+    /// token stops the whole exchange.
     pub async fn execute(&self, request: BackendRequest) -> Result<BackendResponse> {
+        let cancel = request.cancel.clone();
         // For now, use the http_client module's new WinHTTP implementation
-        http_client::execute_winhttp_request(
+        let execute = http_client::execute_winhttp_request(
             request,
             &self.user_agent,
             &self.default_headers,
             &self.timeout,
             &self.cookie_storage,
-        )
-        .await
+        );
+        tokio::select! {
+            response = execute => response,
+            _ = cancelled(cancel.as_ref()) => Err(Error::Cancelled),
+        }
     }
 
     /// Execute a background download
@@ -93,6 +101,7 @@ impl WindowsBackend {
         headers: http::HeaderMap,
         progress_callback: Option<Box<dyn Fn(u64, Option<u64>) + Send + Sync + 'static>>,
         _error_for_status: bool,
+        _options: crate::backend::types::BackgroundDownloadOptions,
     ) -> Result<crate::client::download::DownloadResponse> {
         // Try BITS first if available, fall back to regular download
         if let Some(ref bits_manager) = self.bits_manager {
@@ -122,6 +131,12 @@ impl WindowsBackend {
                     as std::sync::Arc<dyn Fn(u64, Option<u64>) + Send + Sync + 'static>
             }),
             timeout: self.timeout,
+            body_high_water_mark: None,
+            small_response_threshold: None,
+            priority: crate::Priority::default(),
+            disable_cache: false,
+            traffic_stats_tag: None,
+            cancel: None,
         };
 
         let response = self.execute(request).await?;
@@ -2,6 +2,7 @@
 
 use bytes::Bytes;
 use std::borrow::Cow;
+use std::path::PathBuf;
 
 /// Request body content for HTTP requests.
 ///
@@ -75,6 +76,18 @@ pub enum Body {
         /// JSON value
         value: serde_json::Value,
     },
+
+    /// File streamed from disk as it is sent
+    ///
+    /// The file is opened when the request is sent, not when the body is created.
+    /// Anything that is not a regular file (a pipe, for instance) has no known
+    /// length and is sent with chunked transfer encoding.
+    File {
+        /// Path to the file
+        path: PathBuf,
+        /// Content type
+        content_type: String,
+    },
 }
 
 /// A single part of multipart form data.
@@ -109,6 +122,11 @@ pub struct MultipartPart {
     pub content_type: Option<String>,
     /// Filename
     pub filename: Option<String>,
+    /// File to stream the content from instead of `content`
+    ///
+    /// Set by [`MultipartPart::file_path`]; backends that support it read the file
+    /// while the request is being sent.
+    pub path: Option<PathBuf>,
 }
 
 impl Body {
@@ -250,9 +268,31 @@ impl Body {
         Self::Multipart { parts }
     }
 
+    /// Create a body that streams a file from disk.
+    ///
+    /// Unlike [`Body::from_file`], nothing is read up front; backends that support it
+    /// read the file in chunks while the request is being sent, so large files are
+    /// never held in memory. If no content type is provided, it defaults to
+    /// `application/octet-stream`.
+    ///
+    /// # Examples
+    ///
+    /// ```rust,no_run
+    /// use frakt::Body;
+    ///
+    /// let body = Body::file("video.mp4", Some("video/mp4".to_string()));
+    /// ```
+    pub fn file(path: impl Into<PathBuf>, content_type: Option<String>) -> Self {
+        Self::File {
+            path: path.into(),
+            content_type: content_type.unwrap_or_else(|| "application/octet-stream".to_string()),
+        }
+    }
+
     /// Create a body by reading from a file.
     ///
     /// This method reads the entire file into memory and creates a bytes body.
+    /// Use [`Body::file`] to stream large files instead.
     /// If no content type is provided, it defaults to `application/octet-stream`.
     ///
     /// # Arguments
@@ -334,6 +374,7 @@ impl MultipartPart {
             content: content.into().into(),
             content_type: Some("text/plain; charset=utf-8".to_string()),
             filename: None,
+            path: None,
         }
     }
 
@@ -349,10 +390,36 @@ impl MultipartPart {
             content: content.into(),
             content_type,
             filename: Some(filename.into()),
+            path: None,
+        }
+    }
+
+    /// Create a file part that is streamed from disk when the request is sent
+    ///
+    /// Unlike [`MultipartPart::from_file`], the file is not read up front. The
+    /// filename sent to the server is taken from the path.
+    pub fn file_path(
+        name: impl Into<String>,
+        path: impl Into<PathBuf>,
+        content_type: Option<String>,
+    ) -> Self {
+        let path = path.into();
+        let filename = path
+            .file_name()
+            .and_then(|name| name.to_str())
+            .unwrap_or("file")
+            .to_string();
+
+        Self {
+            name: name.into(),
+            content: Bytes::new(),
+            content_type,
+            filename: Some(filename),
+            path: Some(path),
         }
     }
 
-    /// Create a file part from a file path
+    /// Create a file part by reading a file into memory
     pub async fn from_file<P: AsRef<std::path::Path>>(
         name: impl Into<String>,
         path: P,
@@ -371,6 +438,7 @@ impl MultipartPart {
             content: content.into(),
             content_type,
             filename: Some(filename),
+            path: None,
         })
     }
 }
@@ -0,0 +1,793 @@
+//! In-memory cache for GET responses, kept in front of every backend
+//!
+//! Whole responses are held in memory, so the cache suits many small resources such
+//! as API responses and thumbnails; bodies over the entry limit stream past it.
+//! Freshness follows `Cache-Control`, `Expires` and `Date`, falling back to a tenth
+//! of the time since `Last-Modified`. A stale entry with an `ETag` or
+//! `Last-Modified` is revalidated with a conditional request, and a 304 answer is
+//! served from the entry. When the cache is full, the least recently used entries
+//! are evicted.
+//!
+//! One cache may serve several clients, so it stores only what a shared cache may
+//! (RFC 9111 §3 and §3.5): never `private` responses, and answers to requests with
+//! `Authorization` only when the response is `public`, has `s-maxage` or
+//! `must-revalidate`.
+
+use crate::Result;
+use crate::backend::{
+    Backend,
+    types::{BackendRequest, BackendResponse},
+};
+use bytes::{Bytes, BytesMut};
+use http::{HeaderMap, HeaderName, HeaderValue, Method, StatusCode, header};
+use std::collections::{BTreeMap, HashMap};
+use std::sync::{Arc, Mutex};
+use std::time::{Duration, SystemTime, UNIX_EPOCH};
+use tokio::sync::mpsc;
+use url::Url;
+
+/// Largest body a single entry holds unless set otherwise
+const DEFAULT_MAX_ENTRY_SIZE: usize = 1024 * 1024;
+
+const MONTHS: [&str; 12] = [
+    "Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec",
+];
+
+/// An in-memory HTTP cache for the GET requests of a client
+///
+/// Works the same on every backend. Clones share their entries, so one cache can
+/// sit in front of several clients. Requests made with
+/// [`disable_cache`](crate::RequestBuilder::disable_cache) skip it, and a
+/// successful POST, PUT, PATCH or DELETE drops the entry for its URL. Responses
+/// marked `private` are never stored. Neither are answers to requests sending
+/// `Authorization`, unless they are `public` or carry `s-maxage` or `must-revalidate`.
+///
+/// # Examples
+///
+/// ```no_run
+/// # use frakt::{Client, ResponseCache};
+/// # async fn example() -> Result<(), Box<dyn std::error::Error>> {
+/// let client = Client::builder()
+///     .response_cache(ResponseCache::new(16 * 1024 * 1024))
+///     .build()?;
+///
+/// // A second request within the response's max-age never reaches the network
+/// let first = client.get("https://httpbin.org/cache/60")?.send().await?;
+/// let again = client.get("https://httpbin.org/cache/60")?.send().await?;
+/// # Ok(())
+/// # }
+/// ```
+#[derive(Clone)]
+pub struct ResponseCache {
+    store: Arc<Mutex<Store>>,
+    /// The client adds an `Authorization` header to every request
+    authorized: bool,
+}
+
+impl std::fmt::Debug for ResponseCache {
+    fn fmt(&self, f: &mut std::fmt::Formatter<'_>) -> std::fmt::Result {
+        let store = self.store.lock().unwrap();
+        f.debug_struct("ResponseCache")
+            .field("entries", &store.entries.len())
+            .field("size", &store.size)
+            .field("max_size", &store.max_size)
+            .finish()
+    }
+}
+
+struct Store {
+    max_size: usize,
+    max_entry_size: usize,
+    size: usize,
+    entries: HashMap<String, Entry>,
+    /// Keys by last use, oldest first
+    recency: BTreeMap<u64, String>,
+    next_use: u64,
+}
+
+struct Entry {
+    status: StatusCode,
+    headers: HeaderMap,
+    body: Bytes,
+    /// Request headers named by `Vary`, as sent with the stored response
+    vary: Vec<(HeaderName, Option<HeaderValue>)>,
+    /// When the server generated the response, allowing for `Age`
+    generated_at: SystemTime,
+    freshness: Duration,
+    /// `no-cache`: revalidate before every use
+    no_cache: bool,
+    last_used: u64,
+}
+
+/// A response ready to be served from the cache
+struct Cached {
+    status: StatusCode,
+    headers: HeaderMap,
+    body: Bytes,
+}
+
+enum Lookup {
+    Miss,
+    Fresh(Cached),
+    /// Stale, with a copy to answer a 304 from
+    Stale(Cached),
+}
+
+impl ResponseCache {
+    /// Create a cache holding at most `max_size` bytes of responses
+    pub fn new(max_size: usize) -> Self {
+        Self {
+            store: Arc::new(Mutex::new(Store {
+                max_size,
+                max_entry_size: DEFAULT_MAX_ENTRY_SIZE.min(max_size),
+                size: 0,
+                entries: HashMap::new(),
+                recency: BTreeMap::new(),
+                next_use: 0,
+            })),
+            authorized: false,
+        }
+    }
+
+    /// Set the largest body a single entry may hold; defaults to 1 MB
+    ///
+    /// Larger responses are streamed to the caller without being cached.
+    pub fn max_entry_size(self, max_entry_size: usize) -> Self {
+        {
+            let mut store = self.store.lock().unwrap();
+            store.max_entry_size = max_entry_size.min(store.max_size);
+        }
+        self
+    }
+
+    /// Bytes currently held, counting bodies and headers
+    pub fn size(&self) -> usize {
+        self.store.lock().unwrap().size
+    }
+
+    /// Remove every entry
+    pub fn clear(&self) {
+        let mut store = self.store.lock().unwrap();
+        store.entries.clear();
+        store.recency.clear();
+        store.size = 0;
+    }
+
+    /// This cache as used by a client sending `default_headers` with every request
+    pub(crate) fn for_default_headers(mut self, default_headers: Option<&HeaderMap>) -> Self {
+        self.authorized =
+            default_headers.is_some_and(|headers| headers.contains_key(header::AUTHORIZATION));
+        self
+    }
+
+    /// Execute `request` through the cache
+    pub(crate) async fn execute(
+        &self,
+        backend: &Backend,
+        mut request: BackendRequest,
+    ) -> Result<crate::Response> {
+        if request.method != Method::GET {
+            let invalidates =
+                !matches!(request.method, Method::HEAD | Method::OPTIONS | Method::TRACE);
+            let url = request.url.clone();
+            let response = backend.execute(request).await?;
+            let failed = response.status.is_client_error() || response.status.is_server_error();
+            if invalidates && !failed {
+                self.invalidate(&url);
+            }
+            return Ok(crate::Response::from_backend(response));
+        }
+        if request.disable_cache || !cacheable_request(&request.headers) {
+            return Ok(crate::Response::from_backend(backend.execute(request).await?));
+        }
+
+        let url = request.url.clone();
+        let request_headers = request.headers.clone();
+        let authorized = self.authorized || request_headers.contains_key(header::AUTHORIZATION);
+        let stale = match self.lookup(&url, &request_headers, authorized, SystemTime::now()) {
+            Lookup::Fresh(cached) => return Ok(cached.into_response(url)),
+            Lookup::Stale(stale) => {
+                request.headers.extend(stale.validators());
+                Some(stale)
+            }
+            Lookup::Miss => None,
+        };
+
+        let response = backend.execute(request).await?;
+        let received_at = SystemTime::now();
+        if let Some(stale) = stale.filter(|_| response.status == StatusCode::NOT_MODIFIED) {
+            let cached = self.revalidate(
+                &url,
+                &request_headers,
+                authorized,
+                stale,
+                &response.headers,
+                received_at,
+            );
+            return Ok(cached.into_response(url));
+        }
+        Ok(self.fill(url, request_headers, authorized, response, received_at))
+    }
+
+    /// Hand `response` to the caller, storing a copy of its body as it streams past
+    ///
+    /// The copy is made by a task on the current tokio runtime; without one, the
+    /// response is passed through uncached.
+    fn fill(
+        &self,
+        url: Url,
+        request_headers: HeaderMap,
+        authorized: bool,
+        mut response: BackendResponse,
+        received_at: SystemTime,
+    ) -> crate::Response {
+        if !storable(response.status, &response.headers, authorized) {
+            if response.status.is_success() {
+                // The stored representation is out of date
+                self.invalidate(&url);
+            }
+            return crate::Response::from_backend(response);
+        }
+
+        let max_entry_size = self.store.lock().unwrap().max_entry_size;
+        let too_large = header_str(&response.headers, header::CONTENT_LENGTH)
+            .and_then(|length| length.parse::<u64>().ok())
+            .is_some_and(|length| length > max_entry_size as u64);
+        let runtime = match tokio::runtime::Handle::try_current() {
+            Ok(runtime) if !too_large => runtime,
+            _ => return crate::Response::from_backend(response),
+        };
+
+        let (sender, receiver) = mpsc::channel(response.body_receiver.max_capacity());
+        let mut upstream = std::mem::replace(&mut response.body_receiver, receiver);
+        let cache = self.clone();
+        let status = response.status;
+        let headers = response.headers.clone();
+        runtime.spawn(async move {
+            let mut body = BytesMut::new();
+            let mut complete = true;
+            while let Some(chunk) = upstream.recv().await {
+                match &chunk {
+                    Ok(bytes) if complete && body.len() + bytes.len() <= max_entry_size => {
+                        body.extend_from_slice(bytes)
+                    }
+                    Ok(_) if !complete => {}
+                    _ => {
+                        complete = false;
+                        body = BytesMut::new();
+                    }
+                }
+                // Dropping `upstream` when the caller goes away cancels the request
+                if sender.send(chunk).await.is_err() {
+                    return;
+                }
+            }
+            if complete {
+                let body = body.freeze();
+                cache.insert(&url, &request_headers, status, headers, body, received_at);
+            }
+        });
+
+        crate::Response::from_backend(response)
+    }
+
+    fn lookup(
+        &self,
+        url: &Url,
+        request_headers: &HeaderMap,
+        authorized: bool,
+        now: SystemTime,
+    ) -> Lookup {
+        let key = cache_key(url);
+        let mut store = self.store.lock().unwrap();
+        let Some(entry) = store.entries.get(&key) else {
+            return Lookup::Miss;
+        };
+        if !entry.matches(request_headers)
+            || (authorized && !CacheControl::parse(&entry.headers).shareable())
+        {
+            return Lookup::Miss;
+        }
+
+        let requested = CacheControl::parse(request_headers);
+        let age = now.duration_since(entry.generated_at).unwrap_or_default();
+        let fresh = !entry.no_cache
+            && !requested.no_cache
+            && age < entry.freshness
+            && requested
+                .max_age
+                .is_none_or(|max_age| age < Duration::from_secs(max_age));
+        let cached = entry.cached(age);
+        if fresh {
+            store.touch(&key);
+            return Lookup::Fresh(cached);
+        }
+        if cached.validators().is_empty() {
+            store.remove(&key);
+            return Lookup::Miss;
+        }
+        Lookup::Stale(cached)
+    }
+
+    /// Answer a revalidation that came back 304 from the stale copy, and store it again
+    ///
+    /// The copy taken at lookup is used even if the entry was evicted or replaced in
+    /// the meantime, so the caller always gets the full response it asked for.
+    fn revalidate(
+        &self,
+        url: &Url,
+        request_headers: &HeaderMap,
+        authorized: bool,
+        stale: Cached,
+        not_modified: &HeaderMap,
+        received_at: SystemTime,
+    ) -> Cached {
+        let Cached {
+            status,
+            mut headers,
+            body,
+        } = stale;
+        headers.remove(header::AGE);
+        for name in not_modified.keys() {
+            if *name == header::CONTENT_LENGTH {
+                continue;
+            }
+            headers.remove(name);
+            for value in not_modified.get_all(name) {
+                headers.append(name.clone(), value.clone());
+            }
+        }
+
+        if storable(status, &headers, authorized) {
+            let (headers, body) = (headers.clone(), body.clone());
+            self.insert(url, request_headers, status, headers, body, received_at);
+        } else {
+            self.invalidate(url);
+        }
+
+        let (generated_at, _) = freshness(&headers, received_at);
+        let age = received_at.duration_since(generated_at).unwrap_or_default();
+        headers.insert(header::AGE, HeaderValue::from(age.as_secs()));
+        Cached {
+            status,
+            headers,
+            body,
+        }
+    }
+
+    fn insert(
+        &self,
+        url: &Url,
+        request_headers: &HeaderMap,
+        status: StatusCode,
+        headers: HeaderMap,
+        body: Bytes,
+        received_at: SystemTime,
+    ) {
+        let Some(names) = vary_names(&headers) else {
+            return;
+        };
+        let vary = names
+            .into_iter()
+            .map(|name| {
+                let value = request_headers.get(&name).cloned();
+                (name, value)
+            })
+            .collect();
+        let (generated_at, freshness) = freshness(&headers, received_at);
+        let entry = Entry {
+            status,
+            no_cache: CacheControl::parse(&headers).no_cache,
+            headers,
+            body,
+            vary,
+            generated_at,
+            freshness,
+            last_used: 0,
+        };
+        self.store.lock().unwrap().insert(cache_key(url), entry);
+    }
+
+    fn invalidate(&self, url: &Url) {
+        self.store.lock().unwrap().remove(&cache_key(url));
+    }
+}
+
+impl Store {
+    fn insert(&mut self, key: String, mut entry: Entry) {
+        self.remove(&key);
+        let size = entry.size();
+        if size > self.max_size {
+            return;
+        }
+        while self.size + size > self.max_size {
+            let Some((_, oldest)) = self.recency.pop_first() else {
+                break;
+            };
+            if let Some(evicted) = self.entries.remove(&oldest) {
+                self.size -= evicted.size();
+            }
+        }
+
+        entry.last_used = self.next_use;
+        self.next_use += 1;
+        self.recency.insert(entry.last_used, key.clone());
+        self.size += size;
+        self.entries.insert(key, entry);
+    }
+
+    fn remove(&mut self, key: &str) -> Option<Entry> {
+        let entry = self.entries.remove(key)?;
+        self.recency.remove(&entry.last_used);
+        self.size -= entry.size();
+        Some(entry)
+    }
+
+    fn touch(&mut self, key: &str) {
+        let Some(entry) = self.entries.get_mut(key) else {
+            return;
+        };
+        self.recency.remove(&entry.last_used);
+        entry.last_used = self.next_use;
+        self.next_use += 1;
+        self.recency.insert(entry.last_used, key.to_string());
+    }
+}
+
+impl Entry {
+    fn size(&self) -> usize {
+        let headers: usize = self
+            .headers
+            .iter()
+            .map(|(name, value)| name.as_str().len() + value.len())
+            .sum();
+        self.body.len() + headers
+    }
+
+    /// Whether the request sends the same `Vary` headers the entry was stored with
+    fn matches(&self, request_headers: &HeaderMap) -> bool {
+        self.vary
+            .iter()
+            .all(|(name, value)| request_headers.get(name) == value.as_ref())
+    }
+
+    fn cached(&self, age: Duration) -> Cached {
+        let mut headers = self.headers.clone();
+        headers.insert(header::AGE, HeaderValue::from(age.as_secs()));
+        Cached {
+            status: self.status,
+            headers,
+            body: self.body.clone(),
+        }
+    }
+}
+
+impl Cached {
+    /// Conditional headers that revalidate this response
+    fn validators(&self) -> HeaderMap {
+        let mut validators = HeaderMap::new();
+        if let Some(etag) = self.headers.get(header::ETAG) {
+            validators.insert(header::IF_NONE_MATCH, etag.clone());
+        }
+        if let Some(last_modified) = self.headers.get(header::LAST_MODIFIED) {
+            validators.insert(header::IF_MODIFIED_SINCE, last_modified.clone());
+        }
+        validators
+    }
+
+    fn into_response(self, url: Url) -> crate::Response {
+        crate::Response::from_bytes(self.status, self.headers, url, self.body)
+    }
+}
+
+/// The `Cache-Control` directives the cache acts on
+#[derive(Debug, Default)]
+struct CacheControl {
+    no_store: bool,
+    no_cache: bool,
+    max_age: Option<u64>,
+    s_maxage: Option<u64>,
+    public: bool,
+    private: bool,
+    must_revalidate: bool,
+}
+
+impl CacheControl {
+    fn parse(headers: &HeaderMap) -> Self {
+        let mut directives = Self::default();
+        for value in headers.get_all(header::CACHE_CONTROL) {
+            for directive in value.to_str().unwrap_or_default().split(',') {
+                let (name, argument) = match directive.split_once('=') {
+                    Some((name, argument)) => (name, Some(argument.trim().trim_matches('"'))),
+                    None => (directive, None),
+                };
+                match name.trim().to_ascii_lowercase().as_str() {
+                    "no-store" => directives.no_store = true,
+                    "no-cache" => directives.no_cache = true,
+                    "max-age" => directives.max_age = argument.and_then(|a| a.parse().ok()),
+                    "s-maxage" => directives.s_maxage = argument.and_then(|a| a.parse().ok()),
+                    "public" => directives.public = true,
+                    "private" => directives.private = true,
+                    "must-revalidate" => directives.must_revalidate = true,
+                    _ => {}
+                }
+            }
+        }
+        directives
+    }
+
+    /// Whether the response may answer requests carrying `Authorization`
+    fn shareable(&self) -> bool {
+        self.public || self.must_revalidate || self.s_maxage.is_some()
+    }
+
+    /// Freshness lifetime in seconds set by the response; `s-maxage` wins, as the
+    /// cache may be shared
+    fn lifetime(&self) -> Option<u64> {
+        self.s_maxage.or(self.max_age)
+    }
+}
+
+/// Whether a GET with these headers may be answered from, or stored in, the cache
+fn cacheable_request(headers: &HeaderMap) -> bool {
+    // Conditional and range requests ask for answers only the server can give
+    let conditional = [
+        header::IF_NONE_MATCH,
+        header::IF_MODIFIED_SINCE,
+        header::IF_MATCH,
+        header::IF_UNMODIFIED_SINCE,
+        header::IF_RANGE,
+        header::RANGE,
+    ];
+    !CacheControl::parse(headers).no_store
+        && !conditional.iter().any(|name| headers.contains_key(name))
+}
+
+/// Whether a response may be stored, judging by its status and headers
+///
+/// `authorized` is whether the request carried `Authorization`.
+fn storable(status: StatusCode, headers: &HeaderMap, authorized: bool) -> bool {
+    if !matches!(status.as_u16(), 200 | 203) || vary_names(headers).is_none() {
+        return false;
+    }
+    let directives = CacheControl::parse(headers);
+    let revalidatable = headers.contains_key(header::ETAG)
+        || headers.contains_key(header::LAST_MODIFIED);
+    !directives.no_store
+        && !directives.private
+        && (!authorized || directives.shareable())
+        && (revalidatable
+            || directives.lifetime().is_some_and(|lifetime| lifetime > 0)
+            || headers.contains_key(header::EXPIRES))
+}
+
+/// Request header names a response varies on, or `None` for `Vary: *`
+fn vary_names(headers: &HeaderMap) -> Option<Vec<HeaderName>> {
+    let mut names = Vec::new();
+    for value in headers.get_all(header::VARY) {
+        for name in value.to_str().unwrap_or_default().split(',') {
+            let name = name.trim();
+            if name == "*" {
+                return None;
+            }
+            if let Ok(name) = HeaderName::from_bytes(name.as_bytes()) {
+                names.push(name);
+            }
+        }
+    }
+    Some(names)
+}
+
+/// When a response was generated, and how long after that it stays fresh
+fn freshness(headers: &HeaderMap, received_at: SystemTime) -> (SystemTime, Duration) {
+    let date = header_date(headers, header::DATE).unwrap_or(received_at);
+    let age = header_str(headers, header::AGE)
+        .and_then(|age| age.trim().parse().ok())
+        .map(Duration::from_secs)
+        .unwrap_or_default();
+    let apparent_age = received_at.duration_since(date).unwrap_or_default();
+    let generated_at = received_at
+        .checked_sub(age.max(apparent_age))
+        .unwrap_or(received_at);
+
+    let lifetime = if let Some(max_age) = CacheControl::parse(headers).lifetime() {
+        Duration::from_secs(max_age)
+    } else if headers.contains_key(header::EXPIRES) {
+        // An Expires that cannot be parsed means already expired
+        header_date(headers, header::EXPIRES)
+            .and_then(|expires| expires.duration_since(date).ok())
+            .unwrap_or_default()
+    } else if let Some(last_modified) = header_date(headers, header::LAST_MODIFIED) {
+        date.duration_since(last_modified).unwrap_or_default() / 10
+    } else {
+        Duration::ZERO
+    };
+    (generated_at, lifetime)
+}
+
+fn cache_key(url: &Url) -> String {
+    let mut url = url.clone();
+    url.set_fragment(None);
+    url.into()
+}
+
+fn header_str(headers: &HeaderMap, name: HeaderName) -> Option<&str> {
+    headers.get(name).and_then(|value| value.to_str().ok())
+}
+
+fn header_date(headers: &HeaderMap, name: HeaderName) -> Option<SystemTime> {
+    header_str(headers, name).and_then(parse_http_date)
+}
+
+/// Parse an IMF-fixdate such as `Sun, 06 Nov 1994 08:49:37 GMT`
+///
+/// The obsolete RFC 850 and asctime forms are not accepted, so a header using them
+/// counts as missing.
+fn parse_http_date(value: &str) -> Option<SystemTime> {
+    let (_, date) = value.trim().split_once(", ")?;
+    let mut parts = date.split(' ');
+    let (day, month, year, time) = (parts.next()?, parts.next()?, parts.next()?, parts.next()?);
+    if parts.next() != Some("GMT") || parts.next().is_some() {
+        return None;
+    }
+
+    let day: i64 = day.parse().ok()?;
+    let month = MONTHS.iter().position(|name| *name == month)? as i64 + 1;
+    let year: i64 = year.parse().ok()?;
+    let mut time = time.split(':').map(|part| part.parse::<u64>().ok());
+    let (hour, minute, second) = (time.next()??, time.next()??, time.next()??);
+    if !(1..=31).contains(&day) || hour > 23 || minute > 59 || second > 60 {
+        return None;
+    }
+
+    let days = u64::try_from(days_from_civil(year, month, day)).ok()?;
+    let seconds = days * 86_400 + hour * 3_600 + minute * 60 + second;
+    Some(UNIX_EPOCH + Duration::from_secs(seconds))
+}
+
+/// Days from 1970-01-01 to a date in the proleptic Gregorian calendar
+fn days_from_civil(year: i64, month: i64, day: i64) -> i64 {
+    let year = if month <= 2 { year - 1 } else { year };
+    let era = year.div_euclid(400);
+    let year_of_era = year - era * 400;
+    let day_of_year = (153 * (month + if month > 2 { -3 } else { 9 }) + 2) / 5 + day - 1;
+    let day_of_era = year_of_era * 365 + year_of_era / 4 - year_of_era / 100 + day_of_year;
+    era * 146_097 + day_of_era - 719_468
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+
+    fn headers(pairs: &[(HeaderName, &str)]) -> HeaderMap {
+        pairs
+            .iter()
+            .map(|(name, value)| (name.clone(), HeaderValue::from_str(value).unwrap()))
+            .collect()
+    }
+
+    #[test]
+    fn test_parse_http_date() {
+        assert_eq!(
+            parse_http_date("Sun, 06 Nov 1994 08:49:37 GMT"),
+            Some(UNIX_EPOCH + Duration::from_secs(784_111_777))
+        );
+        assert_eq!(parse_http_date("Sunday, 06-Nov-94 08:49:37 GMT"), None);
+    }
+
+    #[test]
+    fn test_serves_fresh_then_revalidates() {
+        let cache = ResponseCache::new(1024);
+        let url = Url::parse("https://example.com/item").unwrap();
+        let request = HeaderMap::new();
+        let stored_at = UNIX_EPOCH + Duration::from_secs(1_000_000);
+        let response = headers(&[
+            (header::CACHE_CONTROL, "max-age=60"),
+            (header::ETAG, "\"v1\""),
+        ]);
+        assert!(storable(StatusCode::OK, &response, false));
+        let body = Bytes::from_static(b"hello");
+        cache.insert(&url, &request, StatusCode::OK, response, body, stored_at);
+
+        let soon = stored_at + Duration::from_secs(30);
+        let Lookup::Fresh(cached) = cache.lookup(&url, &request, false, soon) else {
+            panic!("expected a fresh entry");
+        };
+        assert_eq!(cached.body, "hello");
+        assert_eq!(cached.headers[header::AGE], "30");
+
+        let later = stored_at + Duration::from_secs(90);
+        let Lookup::Stale(stale) = cache.lookup(&url, &request, false, later) else {
+            panic!("expected a stale entry");
+        };
+        assert_eq!(stale.validators()[header::IF_NONE_MATCH], "\"v1\"");
+
+        let not_modified = headers(&[(header::CACHE_CONTROL, "max-age=60")]);
+        let cached = cache.revalidate(&url, &request, false, stale, &not_modified, later);
+        assert_eq!(cached.status, StatusCode::OK);
+        assert!(matches!(
+            cache.lookup(&url, &request, false, later + Duration::from_secs(30)),
+            Lookup::Fresh(_)
+        ));
+    }
+
+    #[test]
+    fn test_answers_not_modified_after_eviction() {
+        let cache = ResponseCache::new(1024);
+        let url = Url::parse("https://example.com/item").unwrap();
+        let request = HeaderMap::new();
+        let stored_at = UNIX_EPOCH + Duration::from_secs(1_000_000);
+        let response = headers(&[
+            (header::CACHE_CONTROL, "no-cache"),
+            (header::ETAG, "\"v1\""),
+        ]);
+        let body = Bytes::from_static(b"hello");
+        cache.insert(&url, &request, StatusCode::OK, response, body, stored_at);
+
+        let Lookup::Stale(stale) = cache.lookup(&url, &request, false, stored_at) else {
+            panic!("expected a stale entry");
+        };
+        // Evicted while the conditional request was in flight
+        cache.clear();
+
+        let not_modified = headers(&[(header::ETAG, "\"v1\"")]);
+        let cached = cache.revalidate(&url, &request, false, stale, &not_modified, stored_at);
+        assert_eq!(cached.status, StatusCode::OK);
+        assert_eq!(cached.body, "hello");
+        assert!(matches!(
+            cache.lookup(&url, &request, false, stored_at),
+            Lookup::Stale(_)
+        ));
+    }
+
+    #[test]
+    fn test_authorized_requests_need_shareable_responses() {
+        let private = headers(&[(header::CACHE_CONTROL, "max-age=60")]);
+        let public = headers(&[(header::CACHE_CONTROL, "public, max-age=60")]);
+        assert!(!storable(StatusCode::OK, &private, true));
+        assert!(storable(StatusCode::OK, &public, true));
+        let marked = headers(&[(header::CACHE_CONTROL, "private, max-age=60")]);
+        assert!(!storable(StatusCode::OK, &marked, false));
+
+        // Stored for an anonymous request, but not handed to another user
+        let cache = ResponseCache::new(1024);
+        let url = Url::parse("https://example.com/me").unwrap();
+        let request = HeaderMap::new();
+        let now = SystemTime::now();
+        cache.insert(&url, &request, StatusCode::OK, private, Bytes::new(), now);
+        assert!(matches!(cache.lookup(&url, &request, true, now), Lookup::Miss));
+        assert!(matches!(cache.lookup(&url, &request, false, now), Lookup::Fresh(_)));
+    }
+
+    #[test]
+    fn test_evicts_least_recently_used() {
+        let cache = ResponseCache::new(300);
+        let now = SystemTime::now();
+        let request = HeaderMap::new();
+        let url = |path: &str| Url::parse(&format!("https://example.com/{}", path)).unwrap();
+        let store = |path: &str| {
+            let response = headers(&[(header::CACHE_CONTROL, "max-age=60")]);
+            let body = Bytes::from(vec![0; 100]);
+            cache.insert(&url(path), &request, StatusCode::OK, response, body, now);
+        };
+
+        store("a");
+        store("b");
+        assert!(matches!(
+            cache.lookup(&url("a"), &request, false, now),
+            Lookup::Fresh(_)
+        ));
+        store("c");
+
+        assert!(matches!(
+            cache.lookup(&url("a"), &request, false, now),
+            Lookup::Fresh(_)
+        ));
+        assert!(matches!(cache.lookup(&url("b"), &request, false, now), Lookup::Miss));
+        assert!(matches!(
+            cache.lookup(&url("c"), &request, false, now),
+            Lookup::Fresh(_)
+        ));
+        assert!(cache.size() <= 300);
+    }
+}
@@ -0,0 +1,101 @@
+//! Cancelling requests and downloads from elsewhere in the app
+
+use std::sync::Arc;
+use std::sync::atomic::{AtomicBool, Ordering};
+use tokio::sync::Notify;
+
+/// A handle that stops the requests and downloads it is attached to.
+///
+/// Dropping a request's future already stops it. A token is for stopping work
+/// from somewhere else, such as when a list item scrolls out of view, and for
+/// stopping a response body that is still streaming. Clones share the same state,
+/// so one token can stop many requests at once. Cancelled requests fail with
+/// [`Error::Cancelled`](crate::Error::Cancelled).
+///
+/// # Examples
+///
+/// ```no_run
+/// # use frakt::{CancellationToken, Client};
+/// # async fn example() -> Result<(), Box<dyn std::error::Error>> {
+/// let client = Client::new()?;
+/// let token = CancellationToken::new();
+///
+/// let request = client
+///     .get("https://httpbin.org/delay/10")?
+///     .cancellation_token(token.clone())
+///     .send();
+/// token.cancel();
+/// assert!(matches!(request.await, Err(frakt::Error::Cancelled)));
+/// # Ok(())
+/// # }
+/// ```
+#[derive(Debug, Clone, Default)]
+pub struct CancellationToken {
+    inner: Arc<Inner>,
+}
+
+#[derive(Debug, Default)]
+struct Inner {
+    cancelled: AtomicBool,
+    notify: Notify,
+}
+
+impl CancellationToken {
+    /// Create a token that has not been cancelled
+    pub fn new() -> Self {
+        Self::default()
+    }
+
+    /// Stop everything the token is attached to; later calls do nothing
+    pub fn cancel(&self) {
+        if !self.inner.cancelled.swap(true, Ordering::AcqRel) {
+            self.inner.notify.notify_waiters();
+        }
+    }
+
+    /// Whether [`cancel`](Self::cancel) has been called
+    pub fn is_cancelled(&self) -> bool {
+        self.inner.cancelled.load(Ordering::Acquire)
+    }
+
+    /// Wait until the token is cancelled
+    pub async fn cancelled(&self) {
+        let notified = self.inner.notify.notified();
+        tokio::pin!(notified);
+        // Register before checking, so a cancel in between is not missed
+        notified.as_mut().enable();
+        if self.is_cancelled() {
+            return;
+        }
+        notified.await;
+    }
+}
+
+/// Wait for `token` to be cancelled, or forever if there is none
+pub(crate) async fn cancelled(token: Option<&CancellationToken>) {
+    match token {
+        Some(token) => token.cancelled().await,
+        None => std::future::pending().await,
+    }
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+
+    #[tokio::test]
+    async fn test_wakes_waiters_and_stays_cancelled() {
+        let token = CancellationToken::new();
+        let waiter = tokio::spawn({
+            let token = token.clone();
+            async move { token.cancelled().await }
+        });
+        tokio::task::yield_now().await;
+
+        token.cancel();
+        waiter.await.unwrap();
+        assert!(token.is_cancelled());
+        // Already cancelled, so this returns straight away
+        token.cancelled().await;
+    }
+}
@@ -4,8 +4,82 @@ use http::HeaderMap;
 use url::Url;
 
 use crate::backend::Backend;
+use crate::backend::types::BackgroundDownloadOptions;
 use crate::client::download::DownloadResponse;
 
+/// Limits for background downloads waiting to run
+///
+/// The Android backend holds background downloads in a queue and only hands them
+/// to WorkManager while these limits allow. Other platforms pass downloads straight
+/// to the system and ignore them.
+///
+/// # Examples
+///
+/// ```no_run
+/// # use frakt::{Client, DownloadQueueConfig};
+/// # fn example() -> Result<(), Box<dyn std::error::Error>> {
+/// let client = Client::builder()
+///     .download_queue(DownloadQueueConfig::new(8, 2))
+///     .build()?;
+/// # Ok(())
+/// # }
+/// ```
+#[derive(Debug, Clone, Copy, PartialEq, Eq)]
+pub struct DownloadQueueConfig {
+    max_concurrent: usize,
+    max_per_host: usize,
+}
+
+impl DownloadQueueConfig {
+    /// Run at most `max_concurrent` downloads at once, and at most `max_per_host`
+    /// against any one host
+    ///
+    /// Both limits are at least 1.
+    pub const fn new(max_concurrent: usize, max_per_host: usize) -> Self {
+        Self {
+            max_concurrent: if max_concurrent == 0 { 1 } else { max_concurrent },
+            max_per_host: if max_per_host == 0 { 1 } else { max_per_host },
+        }
+    }
+
+    /// Most downloads running at once
+    pub fn max_concurrent(&self) -> usize {
+        self.max_concurrent
+    }
+
+    /// Most downloads running at once against a single host
+    pub fn max_per_host(&self) -> usize {
+        self.max_per_host
+    }
+}
+
+impl Default for DownloadQueueConfig {
+    fn default() -> Self {
+        Self::new(4, 2)
+    }
+}
+
+/// A background download that is still in flight
+///
+/// Returned by
+/// [`Client::pending_background_downloads`](crate::Client::pending_background_downloads),
+/// possibly for a download sent by an earlier run of the app.
+#[derive(Debug, Clone)]
+pub struct PendingBackgroundDownload {
+    /// URL being downloaded
+    pub url: Url,
+    /// Where the finished file will be written
+    pub file_path: std::path::PathBuf,
+    /// Session identifier the download was sent with, if any
+    pub session_identifier: Option<String>,
+    /// Bytes known to be on disk so far
+    pub bytes_downloaded: u64,
+    /// Full size of the file, if the server said
+    pub total_bytes: Option<u64>,
+    /// Strong ETag or Last-Modified date used to resume the download, if any
+    pub validator: Option<String>,
+}
+
 /// Background download builder for downloads that survive app termination
 ///
 /// Platform-specific behavior:
@@ -24,7 +98,9 @@ pub struct BackgroundDownloadBuilder {
     file_path: Option<std::path::PathBuf>,
     headers: HeaderMap,
     progress_callback: Option<Box<dyn Fn(u64, Option<u64>) + Send + Sync + 'static>>,
+    progress_throttle: crate::ProgressThrottle,
     error_for_status: bool,
+    options: BackgroundDownloadOptions,
 }
 
 impl BackgroundDownloadBuilder {
@@ -37,7 +113,9 @@ impl BackgroundDownloadBuilder {
             file_path: Some(file_path),
             headers: HeaderMap::new(),
             progress_callback: None,
+            progress_throttle: crate::ProgressThrottle::default(),
             error_for_status: true,
+            options: BackgroundDownloadOptions::default(),
         }
     }
 
@@ -122,6 +200,17 @@ impl BackgroundDownloadBuilder {
         self
     }
 
+    /// Limit how often the progress callback is invoked.
+    ///
+    /// Intermediate updates are coalesced according to `throttle`; the first and
+    /// final updates are always delivered. Defaults to [`ProgressThrottle::default`],
+    /// about one update per frame at 60 Hz. Use [`ProgressThrottle::none`] to see
+    /// every update.
+    pub fn progress_throttle(mut self, throttle: crate::ProgressThrottle) -> Self {
+        self.progress_throttle = throttle;
+        self
+    }
+
     /// Add a header to the background download request.
     ///
     /// Headers are added to the HTTP request that will be sent to the server.
@@ -282,6 +371,45 @@ impl BackgroundDownloadBuilder {
         self.error_for_status(false)
     }
 
+    /// Set where this download goes among those waiting to run.
+    ///
+    /// Higher priorities are started first; downloads of equal priority run in the
+    /// order they were sent. Defaults to [`Priority::Medium`](crate::Priority::Medium).
+    /// Only the Android backend queues background downloads.
+    pub fn priority(mut self, priority: crate::Priority) -> Self {
+        self.options.priority = priority;
+        self
+    }
+
+    /// Only run the download while the device is on an unmetered network.
+    ///
+    /// Supported on Android, where the download waits for Wi-Fi or another
+    /// unmetered connection. Ignored on other platforms.
+    pub fn requires_unmetered_network(mut self, required: bool) -> Self {
+        self.options.requires_unmetered_network = required;
+        self
+    }
+
+    /// Only run the download while the device is charging.
+    ///
+    /// Supported on Android. Ignored on other platforms.
+    pub fn requires_charging(mut self, required: bool) -> Self {
+        self.options.requires_charging = required;
+        self
+    }
+
+    /// Stop the download when `token` is cancelled.
+    ///
+    /// Dropping the future returned by `send` only stops waiting; the download
+    /// carries on in the background. Cancelling the token stops it for every caller
+    /// waiting on it, and `send` fails with [`Error::Cancelled`](crate::Error::Cancelled).
+    /// Supported on Android, where the WorkManager work is cancelled as well and the
+    /// partial file is deleted. Ignored on other platforms.
+    pub fn cancellation_token(mut self, token: crate::CancellationToken) -> Self {
+        self.options.cancel = Some(token);
+        self
+    }
+
     /// Start the background download and return immediately.
     ///
     /// This method initiates a background download that will continue even if the
@@ -341,6 +469,11 @@ impl BackgroundDownloadBuilder {
             })?;
         }
 
+        let progress_throttle = self.progress_throttle;
+        let progress_callback = self
+            .progress_callback
+            .map(|callback| progress_throttle.wrap(callback));
+
         // Delegate to backend
         self.backend
             .execute_background_download(
@@ -348,8 +481,9 @@ impl BackgroundDownloadBuilder {
                 file_path,
                 self.session_identifier,
                 self.headers,
-                self.progress_callback,
+                progress_callback,
                 self.error_for_status,
+                self.options,
             )
             .await
     }
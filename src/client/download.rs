@@ -120,6 +120,7 @@ pub struct DownloadBuilder {
     file_path: Option<std::path::PathBuf>,
     headers: HeaderMap,
     progress_callback: Option<Box<dyn Fn(u64, Option<u64>) + Send + Sync + 'static>>,
+    progress_throttle: crate::ProgressThrottle,
     error_for_status: bool,
 }
 
@@ -132,6 +133,7 @@ impl DownloadBuilder {
             file_path: Some(file_path),
             headers: HeaderMap::new(),
             progress_callback: None,
+            progress_throttle: crate::ProgressThrottle::default(),
             error_for_status: true,
         }
     }
@@ -179,6 +181,17 @@ impl DownloadBuilder {
         self
     }
 
+    /// Limit how often the progress callback is invoked.
+    ///
+    /// Intermediate updates are coalesced according to `throttle`; the first and
+    /// final updates are always delivered. Defaults to [`ProgressThrottle::default`],
+    /// about one update per frame at 60 Hz. Use [`ProgressThrottle::none`] to see
+    /// every update.
+    pub fn progress_throttle(mut self, throttle: crate::ProgressThrottle) -> Self {
+        self.progress_throttle = throttle;
+        self
+    }
+
     /// Configure whether to return an error for HTTP error status codes (>= 400).
     ///
     /// When enabled (the default), responses with status codes >= 400 will return
@@ -428,6 +441,7 @@ impl DownloadBuilder {
 
         let mut stream = response.stream();
         let mut bytes_downloaded = 0u64;
+        let progress = crate::progress::ProgressCoalescer::new(self.progress_throttle);
 
         while let Some(chunk_result) = stream.next().await {
             let chunk = chunk_result?;
@@ -440,7 +454,16 @@ impl DownloadBuilder {
 
             // Call progress callback if provided
             if let Some(ref callback) = self.progress_callback {
-                callback(bytes_downloaded, total_bytes);
+                if progress.should_emit(bytes_downloaded, total_bytes) {
+                    callback(bytes_downloaded, total_bytes);
+                }
+            }
+        }
+
+        // Always report completion, even when the total was never known
+        if let Some(ref callback) = self.progress_callback {
+            if progress.should_emit_final(bytes_downloaded) {
+                callback(bytes_downloaded, Some(bytes_downloaded));
             }
         }
 
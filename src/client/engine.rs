@@ -0,0 +1,250 @@
+//! Tuning for the Cronet engine behind the Android backend
+
+use std::time::{Duration, SystemTime};
+
+/// How Cronet caches responses
+///
+/// Mirrors the `CronetEngine.Builder.HTTP_CACHE_*` constants.
+#[derive(Debug, Clone, Copy, PartialEq, Eq, Hash)]
+pub enum HttpCacheMode {
+    /// No cache
+    Disabled,
+    /// Cache responses in memory
+    InMemory,
+    /// Keep Cronet's own state on disk, such as QUIC server info, but not responses
+    DiskNoHttp,
+    /// Cache responses on disk
+    Disk,
+}
+
+impl HttpCacheMode {
+    pub(crate) fn as_cronet(self) -> i32 {
+        match self {
+            HttpCacheMode::Disabled => 0,
+            HttpCacheMode::InMemory => 1,
+            HttpCacheMode::DiskNoHttp => 2,
+            HttpCacheMode::Disk => 3,
+        }
+    }
+}
+
+/// A host known to speak QUIC, so the first request need not discover it
+#[derive(Debug, Clone, PartialEq, Eq, Hash)]
+pub(crate) struct QuicHint {
+    pub(crate) host: String,
+    pub(crate) port: u16,
+    pub(crate) alternate_port: u16,
+}
+
+/// SHA-256 hashes of the public keys a host's certificate chain must contain
+#[derive(Debug, Clone, PartialEq, Eq, Hash)]
+pub(crate) struct PublicKeyPins {
+    pub(crate) host: String,
+    pub(crate) sha256: Vec<[u8; 32]>,
+    pub(crate) include_subdomains: bool,
+    pub(crate) expires: SystemTime,
+}
+
+/// When Cronet may answer DNS lookups from expired cache entries
+#[derive(Debug, Clone, Copy, PartialEq, Eq, Hash)]
+pub struct StaleDnsOptions {
+    pub(crate) fresh_lookup_timeout: Duration,
+    pub(crate) max_expired_delay: Duration,
+    pub(crate) allow_cross_network_usage: bool,
+    pub(crate) use_stale_on_name_not_resolved: bool,
+}
+
+impl StaleDnsOptions {
+    /// Use a stale entry if a fresh lookup takes longer than `fresh_lookup_timeout`,
+    /// as long as it expired less than `max_expired_delay` ago
+    pub fn new(fresh_lookup_timeout: Duration, max_expired_delay: Duration) -> Self {
+        Self {
+            fresh_lookup_timeout,
+            max_expired_delay,
+            allow_cross_network_usage: false,
+            use_stale_on_name_not_resolved: false,
+        }
+    }
+
+    /// Allow entries that were looked up on a different network
+    pub fn allow_cross_network_usage(mut self, allow: bool) -> Self {
+        self.allow_cross_network_usage = allow;
+        self
+    }
+
+    /// Fall back to a stale entry when the fresh lookup fails to resolve the name
+    pub fn use_stale_on_name_not_resolved(mut self, enabled: bool) -> Self {
+        self.use_stale_on_name_not_resolved = enabled;
+        self
+    }
+}
+
+/// Options for the Cronet engine used by the Android backend
+///
+/// The Android backend shares one Cronet engine per process. It is created with
+/// the options of the first client that needs it, so set these on the client built
+/// at startup. Other backends ignore them.
+///
+/// # Examples
+///
+/// ```no_run
+/// # use frakt::{AndroidEngineOptions, Client, HttpCacheMode};
+/// # fn example() -> Result<(), Box<dyn std::error::Error>> {
+/// let client = Client::builder()
+///     .android_engine(
+///         AndroidEngineOptions::new()
+///             .http_cache(HttpCacheMode::Disk, 10 * 1024 * 1024)
+///             .quic_hint("example.com", 443, 443),
+///     )
+///     .build()?;
+/// # Ok(())
+/// # }
+/// ```
+#[derive(Debug, Clone, PartialEq, Eq, Hash)]
+pub struct AndroidEngineOptions {
+    pub(crate) http2: bool,
+    pub(crate) quic: bool,
+    pub(crate) brotli: bool,
+    pub(crate) http_cache_mode: HttpCacheMode,
+    pub(crate) http_cache_size: u64,
+    pub(crate) quic_hints: Vec<QuicHint>,
+    pub(crate) public_key_pins: Vec<PublicKeyPins>,
+    pub(crate) bypass_pins_for_local_trust_anchors: bool,
+    pub(crate) builtin_dns_resolver: bool,
+    pub(crate) stale_dns: Option<StaleDnsOptions>,
+    pub(crate) preestablish_stale_dns_connections: bool,
+    pub(crate) persist_host_cache: Option<Duration>,
+    pub(crate) network_thread_priority: Option<i32>,
+    pub(crate) direct_callback_executor: bool,
+}
+
+impl AndroidEngineOptions {
+    /// HTTP/2, QUIC and Brotli on, and a 50 MB disk cache for Cronet's own state
+    pub fn new() -> Self {
+        Self {
+            http2: true,
+            quic: true,
+            brotli: true,
+            http_cache_mode: HttpCacheMode::DiskNoHttp,
+            http_cache_size: 50 * 1024 * 1024,
+            quic_hints: Vec::new(),
+            public_key_pins: Vec::new(),
+            bypass_pins_for_local_trust_anchors: true,
+            builtin_dns_resolver: false,
+            stale_dns: None,
+            preestablish_stale_dns_connections: false,
+            persist_host_cache: None,
+            network_thread_priority: None,
+            direct_callback_executor: false,
+        }
+    }
+
+    /// Enable or disable HTTP/2
+    pub fn http2(mut self, enabled: bool) -> Self {
+        self.http2 = enabled;
+        self
+    }
+
+    /// Enable or disable QUIC
+    pub fn quic(mut self, enabled: bool) -> Self {
+        self.quic = enabled;
+        self
+    }
+
+    /// Enable or disable Brotli content encoding
+    pub fn brotli(mut self, enabled: bool) -> Self {
+        self.brotli = enabled;
+        self
+    }
+
+    /// Set the cache mode and its maximum size in bytes
+    pub fn http_cache(mut self, mode: HttpCacheMode, max_size: u64) -> Self {
+        self.http_cache_mode = mode;
+        self.http_cache_size = max_size;
+        self
+    }
+
+    /// Tell Cronet that `host:port` serves QUIC on `alternate_port`
+    pub fn quic_hint(mut self, host: impl Into<String>, port: u16, alternate_port: u16) -> Self {
+        self.quic_hints.push(QuicHint {
+            host: host.into(),
+            port,
+            alternate_port,
+        });
+        self
+    }
+
+    /// Pin `host` to certificate chains containing one of the given public keys
+    ///
+    /// Each pin is the SHA-256 hash of a DER-encoded SubjectPublicKeyInfo. The pins
+    /// stop applying at `expires`.
+    pub fn public_key_pins(
+        mut self,
+        host: impl Into<String>,
+        sha256: impl IntoIterator<Item = [u8; 32]>,
+        include_subdomains: bool,
+        expires: SystemTime,
+    ) -> Self {
+        self.public_key_pins.push(PublicKeyPins {
+            host: host.into(),
+            sha256: sha256.into_iter().collect(),
+            include_subdomains,
+            expires,
+        });
+        self
+    }
+
+    /// Skip pin checks for chains ending in a user-installed trust anchor
+    ///
+    /// On by default, as in Cronet, so debugging proxies keep working.
+    pub fn bypass_pins_for_local_trust_anchors(mut self, bypass: bool) -> Self {
+        self.bypass_pins_for_local_trust_anchors = bypass;
+        self
+    }
+
+    /// Use Cronet's own DNS resolver instead of the system one
+    pub fn builtin_dns_resolver(mut self, enabled: bool) -> Self {
+        self.builtin_dns_resolver = enabled;
+        self
+    }
+
+    /// Answer DNS lookups from expired cache entries when a fresh lookup is slow
+    pub fn stale_dns(mut self, options: StaleDnsOptions) -> Self {
+        self.stale_dns = Some(options);
+        self
+    }
+
+    /// Start connecting to a stale DNS result while the fresh lookup is running
+    pub fn preestablish_stale_dns_connections(mut self, enabled: bool) -> Self {
+        self.preestablish_stale_dns_connections = enabled;
+        self
+    }
+
+    /// Save the DNS cache to disk at most once per `period`, so it survives restarts
+    pub fn persist_host_cache(mut self, period: Duration) -> Self {
+        self.persist_host_cache = Some(period);
+        self
+    }
+
+    /// Set the Linux thread priority of Cronet's network thread, from -20 to 19
+    pub fn network_thread_priority(mut self, priority: i32) -> Self {
+        self.network_thread_priority = Some(priority.clamp(-20, 19));
+        self
+    }
+
+    /// Run request callbacks inline on Cronet's network thread
+    ///
+    /// Skips the hop to a callback thread, which is cheapest for many tiny
+    /// responses, but a slow consumer then holds up every request on the engine.
+    /// Off by default.
+    pub fn direct_callback_executor(mut self, enabled: bool) -> Self {
+        self.direct_callback_executor = enabled;
+        self
+    }
+}
+
+impl Default for AndroidEngineOptions {
+    fn default() -> Self {
+        Self::new()
+    }
+}
@@ -2,13 +2,15 @@
 
 pub mod background;
 pub mod download;
+pub mod engine;
 pub mod upload;
 
 use crate::backend::Backend;
 use http::{HeaderMap, HeaderName, HeaderValue};
 
-pub use background::BackgroundDownloadBuilder;
+pub use background::{BackgroundDownloadBuilder, DownloadQueueConfig, PendingBackgroundDownload};
 pub use download::{DownloadBuilder, DownloadResponse};
+pub use engine::{AndroidEngineOptions, HttpCacheMode, StaleDnsOptions};
 pub use upload::UploadBuilder;
 use url::Url;
 
@@ -33,6 +35,7 @@ pub struct ProxyConfig {
 /// to provide optimal performance and native integration.
 pub struct Client {
     backend: Backend,
+    response_cache: Option<crate::ResponseCache>,
 }
 
 impl Client {
@@ -64,6 +67,7 @@ impl Client {
     pub fn new() -> crate::Result<Self> {
         Ok(Self {
             backend: Backend::default_for_platform()?,
+            response_cache: None,
         })
     }
 
@@ -116,12 +120,7 @@ impl Client {
     /// # }
     /// ```
     pub fn get(&self, url: impl TryInto<Url>) -> crate::Result<crate::RequestBuilder> {
-        let url = url.try_into().map_err(|_| crate::Error::InvalidUrl)?;
-        Ok(crate::RequestBuilder::new(
-            http::Method::GET,
-            url,
-            self.backend.clone(),
-        ))
+        self.request(http::Method::GET, url)
     }
 
     /// Create a POST request to the specified URL.
@@ -149,12 +148,7 @@ impl Client {
     /// # }
     /// ```
     pub fn post(&self, url: impl TryInto<Url>) -> crate::Result<crate::RequestBuilder> {
-        let url = url.try_into().map_err(|_| crate::Error::InvalidUrl)?;
-        Ok(crate::RequestBuilder::new(
-            http::Method::POST,
-            url,
-            self.backend.clone(),
-        ))
+        self.request(http::Method::POST, url)
     }
 
     /// Create a PUT request to the specified URL.
@@ -182,12 +176,7 @@ impl Client {
     /// # }
     /// ```
     pub fn put(&self, url: impl TryInto<Url>) -> crate::Result<crate::RequestBuilder> {
-        let url = url.try_into().map_err(|_| crate::Error::InvalidUrl)?;
-        Ok(crate::RequestBuilder::new(
-            http::Method::PUT,
-            url,
-            self.backend.clone(),
-        ))
+        self.request(http::Method::PUT, url)
     }
 
     /// Create a DELETE request to the specified URL.
@@ -213,12 +202,7 @@ impl Client {
     /// # }
     /// ```
     pub fn delete(&self, url: impl TryInto<Url>) -> crate::Result<crate::RequestBuilder> {
-        let url = url.try_into().map_err(|_| crate::Error::InvalidUrl)?;
-        Ok(crate::RequestBuilder::new(
-            http::Method::DELETE,
-            url,
-            self.backend.clone(),
-        ))
+        self.request(http::Method::DELETE, url)
     }
 
     /// Create a HEAD request to the specified URL.
@@ -251,12 +235,7 @@ impl Client {
     /// # }
     /// ```
     pub fn head(&self, url: impl TryInto<Url>) -> crate::Result<crate::RequestBuilder> {
-        let url = url.try_into().map_err(|_| crate::Error::InvalidUrl)?;
-        Ok(crate::RequestBuilder::new(
-            http::Method::HEAD,
-            url,
-            self.backend.clone(),
-        ))
+        self.request(http::Method::HEAD, url)
     }
 
     /// Create a PATCH request to the specified URL.
@@ -286,12 +265,17 @@ impl Client {
     /// # }
     /// ```
     pub fn patch(&self, url: impl TryInto<Url>) -> crate::Result<crate::RequestBuilder> {
+        self.request(http::Method::PATCH, url)
+    }
+
+    fn request(
+        &self,
+        method: http::Method,
+        url: impl TryInto<Url>,
+    ) -> crate::Result<crate::RequestBuilder> {
         let url = url.try_into().map_err(|_| crate::Error::InvalidUrl)?;
-        Ok(crate::RequestBuilder::new(
-            http::Method::PATCH,
-            url,
-            self.backend.clone(),
-        ))
+        let builder = crate::RequestBuilder::new(method, url, self.backend.clone());
+        Ok(builder.response_cache(self.response_cache.clone()))
     }
 
     /// Create a download builder for streaming downloads to disk.
@@ -386,6 +370,98 @@ impl Client {
         )
     }
 
+    /// List background downloads that are still in flight.
+    ///
+    /// This includes downloads sent by an earlier run of the app that the system
+    /// kept going after it exited. Pass one to
+    /// [`resume_background_download`](Self::resume_background_download) to get its
+    /// progress and result again without starting it over.
+    ///
+    /// Only the Android backend tracks downloads across restarts; other backends
+    /// return an empty list. On Android this reads WorkManager's database, so call
+    /// it off the UI thread.
+    ///
+    /// # Examples
+    ///
+    /// ```no_run
+    /// # use frakt::Client;
+    /// # async fn example() -> Result<(), Box<dyn std::error::Error>> {
+    /// let client = Client::new()?;
+    /// for pending in client.pending_background_downloads()? {
+    ///     let response = client
+    ///         .resume_background_download(&pending)
+    ///         .progress(|downloaded, _| println!("Downloaded {} bytes", downloaded))
+    ///         .send()
+    ///         .await?;
+    ///     println!("Finished: {:?}", response.file_path);
+    /// }
+    /// # Ok(())
+    /// # }
+    /// ```
+    pub fn pending_background_downloads(&self) -> crate::Result<Vec<PendingBackgroundDownload>> {
+        self.backend.pending_background_downloads()
+    }
+
+    /// Create a background download builder that attaches to a pending download.
+    ///
+    /// Sending it waits for the download that is already in flight rather than
+    /// starting another. If the system has since dropped it, it is sent again and
+    /// resumes from whatever is already on disk. Headers are not remembered, so add
+    /// any the server needs in case it has to be sent again.
+    pub fn resume_background_download(
+        &self,
+        pending: &PendingBackgroundDownload,
+    ) -> BackgroundDownloadBuilder {
+        let builder = BackgroundDownloadBuilder::new(
+            self.backend.clone(),
+            pending.url.clone(),
+            pending.file_path.clone(),
+        );
+        match &pending.session_identifier {
+            Some(identifier) => builder.session_identifier(identifier.clone()),
+            None => builder,
+        }
+    }
+
+    /// Open connections to the given hosts before they are needed.
+    ///
+    /// Sends a HEAD request to the first URL for each origin and waits for the
+    /// responses, so the TLS and QUIC handshakes are done by the time the first real
+    /// request goes out. Connections that fail are logged and skipped; they will be
+    /// opened again by the request that needs them.
+    ///
+    /// On Android, pair this with
+    /// [`AndroidEngineOptions::quic_hint`](crate::AndroidEngineOptions::quic_hint) so the
+    /// first connection to a QUIC host uses QUIC straight away.
+    ///
+    /// # Errors
+    ///
+    /// Returns an error if any of the URLs is invalid.
+    ///
+    /// # Examples
+    ///
+    /// ```no_run
+    /// # use frakt::Client;
+    /// # async fn example() -> Result<(), Box<dyn std::error::Error>> {
+    /// let client = Client::new()?;
+    /// client
+    ///     .preconnect(["https://api.example.com/", "https://cdn.example.com/"])
+    ///     .await?;
+    /// # Ok(())
+    /// # }
+    /// ```
+    pub async fn preconnect<U: TryInto<Url>>(
+        &self,
+        urls: impl IntoIterator<Item = U>,
+    ) -> crate::Result<()> {
+        let urls = urls
+            .into_iter()
+            .map(|url| url.try_into().map_err(|_| crate::Error::InvalidUrl))
+            .collect::<crate::Result<Vec<Url>>>()?;
+        self.backend.preconnect(urls).await;
+        Ok(())
+    }
+
     /// Create an upload builder for uploading files or data.
     ///
     /// The upload builder provides a fluent interface for configuring uploads,
@@ -565,6 +641,7 @@ impl Client {
 pub struct ClientBuilder {
     config: crate::backend::BackendConfig,
     backend_type: Option<BackendType>,
+    response_cache: Option<crate::ResponseCache>,
 }
 
 /// Backend type
@@ -629,6 +706,7 @@ impl ClientBuilder {
         Self {
             config: crate::backend::BackendConfig::default(),
             backend_type: None,
+            response_cache: None,
         }
     }
 
@@ -735,6 +813,45 @@ impl ClientBuilder {
         self
     }
 
+    /// Set the limits for background downloads waiting to run
+    ///
+    /// Background downloads share one queue per process; it follows the limits of
+    /// the client that most recently sent a download.
+    pub fn download_queue(mut self, config: crate::DownloadQueueConfig) -> Self {
+        self.config.download_queue = Some(config);
+        self
+    }
+
+    /// Limit how many requests wait for response headers at the same time
+    ///
+    /// Requests over the limit queue in [`priority`](crate::RequestBuilder::priority)
+    /// order, and [`Priority::Highest`](crate::Priority::Highest) never waits. A slot
+    /// is held until the response headers arrive, so an upload holds one while its
+    /// body is sent. Without a limit every request starts at once. Only the reqwest
+    /// backend applies it; the native backends schedule requests themselves.
+    pub fn max_concurrent_requests(mut self, limit: usize) -> Self {
+        self.config.max_concurrent_requests = Some(limit);
+        self
+    }
+
+    /// Tune the Cronet engine used by the Android backend
+    ///
+    /// The engine is shared by every client in the process and created once, so only
+    /// the first client to need it applies these options. Other backends ignore them.
+    pub fn android_engine(mut self, options: crate::AndroidEngineOptions) -> Self {
+        self.config.android_engine = Some(options);
+        self
+    }
+
+    /// Answer GET requests from an in-memory cache kept in front of the backend
+    ///
+    /// Clones of one [`ResponseCache`](crate::ResponseCache) share their entries, so
+    /// several clients can use the same cache.
+    pub fn response_cache(mut self, cache: crate::ResponseCache) -> Self {
+        self.response_cache = Some(cache);
+        self
+    }
+
     /// Force use of reqwest backend (available on all platforms)
     pub fn backend(mut self, backend_type: BackendType) -> Self {
         self.backend_type = Some(backend_type);
@@ -743,6 +860,10 @@ impl ClientBuilder {
 
     /// Build the client with the configured settings
     pub fn build(mut self) -> crate::Result<Client> {
+        let response_cache = self
+            .response_cache
+            .take()
+            .map(|cache| cache.for_default_headers(self.config.default_headers.as_ref()));
         let backend = match self.backend_type {
             #[cfg(feature = "backend-reqwest")]
             Some(BackendType::Reqwest) => Backend::reqwest_with_config(self.config)?,
@@ -754,11 +875,15 @@ impl ClientBuilder {
             Some(BackendType::Android) => Backend::android_with_config(self.config)?,
             None => {
                 self.backend_type = Some(BackendType::fallback());
+                self.response_cache = response_cache;
                 return self.build();
             }
         };
 
-        Ok(Client { backend })
+        Ok(Client {
+            backend,
+            response_cache,
+        })
     }
 }
 
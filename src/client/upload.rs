@@ -60,6 +60,7 @@ pub struct UploadBuilder {
     data: Option<Vec<u8>>,
     headers: HeaderMap,
     progress_callback: Option<Box<dyn Fn(u64, Option<u64>) + Send + Sync + 'static>>,
+    progress_throttle: crate::ProgressThrottle,
     error_for_status: bool,
 }
 
@@ -73,13 +74,15 @@ impl UploadBuilder {
             data: None,
             headers: HeaderMap::new(),
             progress_callback: None,
+            progress_throttle: crate::ProgressThrottle::default(),
             error_for_status: true,
         }
     }
 
     /// Upload a file from the local filesystem.
     ///
-    /// The file will be read asynchronously when the upload is sent. The content type
+    /// The file is streamed from disk while the upload is sent rather than being loaded
+    /// into memory first, on backends that support it. The content type
     /// will be automatically detected based on the file extension, or defaults to
     /// `application/octet-stream` if the extension is not recognized.
     ///
@@ -119,7 +122,7 @@ impl UploadBuilder {
         }
         .to_string();
 
-        // Store the file path for later async reading in send()
+        // Store the file path; it is only opened once the upload is sent
         self.file_path = Some((path, content_type));
         self
     }
@@ -242,6 +245,17 @@ impl UploadBuilder {
         self
     }
 
+    /// Limit how often the progress callback is invoked.
+    ///
+    /// Intermediate updates are coalesced according to `throttle`; the first and
+    /// final updates are always delivered. Defaults to [`ProgressThrottle::default`],
+    /// about one update per frame at 60 Hz. Use [`ProgressThrottle::none`] to see
+    /// every update.
+    pub fn progress_throttle(mut self, throttle: crate::ProgressThrottle) -> Self {
+        self.progress_throttle = throttle;
+        self
+    }
+
     /// Set authentication for the upload request.
     ///
     /// Adds an `Authorization` header to the request using the provided authentication
@@ -402,7 +416,7 @@ impl UploadBuilder {
                         .map_err(|_| crate::Error::InvalidHeader)?,
                 );
             }
-            crate::Body::from_file(path, Some(content_type)).await?
+            crate::Body::file(path, Some(content_type))
         } else {
             return Err(crate::Error::Internal(
                 "No file or data specified for upload".to_string(),
@@ -421,7 +435,7 @@ impl UploadBuilder {
 
         // Add progress callback if set
         if let Some(callback) = self.progress_callback {
-            request_builder = request_builder.progress(callback);
+            request_builder = request_builder.progress(self.progress_throttle.wrap(callback));
         }
 
         // Set body and send
@@ -15,6 +15,7 @@
 //! - **Background downloads**: Platform-specific background downloads (NSURLSession on Apple, daemon processes on Unix)
 //! - **WebSocket support**: Native WebSocket connections (NSURLSessionWebSocketTask on Apple, tokio-tungstenite elsewhere)
 //! - **Cookie management**: Automatic cookie handling with custom cookie jar support
+//! - **Response caching**: Optional in-memory LRU cache that honours Cache-Control and revalidates with ETag/Last-Modified
 //! - **Authentication**: Built-in support for Bearer, Basic, and custom authentication
 //! - **Proxy support**: HTTP, HTTPS, and SOCKS proxy configuration
 //! - **TLS configuration**: Certificate validation control and custom TLS settings
@@ -226,11 +227,16 @@
 // Multi-platform support via backend abstraction
 
 pub use auth::Auth;
+pub use cache::ResponseCache;
+pub use cancel::CancellationToken;
 pub use client::{
-    BackendType, BackgroundDownloadBuilder, Client, ClientBuilder, DownloadBuilder,
-    DownloadResponse, UploadBuilder,
+    AndroidEngineOptions, BackendType, BackgroundDownloadBuilder, Client, ClientBuilder,
+    DownloadBuilder, DownloadQueueConfig, DownloadResponse, HttpCacheMode,
+    PendingBackgroundDownload, StaleDnsOptions, UploadBuilder,
 };
 pub use error::{Error, Result};
+pub use priority::Priority;
+pub use progress::ProgressThrottle;
 pub use request::{Request, RequestBuilder};
 pub use response::{Response, ResponseStream};
 
@@ -246,9 +252,13 @@ pub use http;
 mod auth;
 pub mod backend;
 mod body;
+mod cache;
+mod cancel;
 mod client;
 mod cookies;
 mod error;
+mod priority;
+mod progress;
 mod request;
 mod response;
 mod task;
@@ -0,0 +1,20 @@
+//! Scheduling priority for requests and downloads
+
+/// How urgently a request or download should be served relative to others
+///
+/// When several are waiting, higher priorities go first. The levels mirror
+/// Cronet's `REQUEST_PRIORITY_*` constants.
+#[derive(Debug, Clone, Copy, PartialEq, Eq, PartialOrd, Ord, Hash, Default)]
+pub enum Priority {
+    /// Only when nothing else is waiting, e.g. speculative prefetches
+    Idle,
+    /// Work the user will not notice for a while
+    Lowest,
+    /// Below normal
+    Low,
+    /// Normal priority
+    #[default]
+    Medium,
+    /// Work the user is waiting on
+    Highest,
+}
@@ -0,0 +1,188 @@
+//! Progress callback throttling
+
+use std::sync::atomic::{AtomicBool, AtomicU64, Ordering};
+use std::time::{Duration, Instant};
+
+/// Limits how often a progress callback is invoked.
+///
+/// Transfers can produce thousands of progress updates per second, far more than a
+/// UI can show. A throttle drops intermediate updates until both `min_interval` has
+/// passed and at least `min_bytes` more have been transferred since the last update
+/// that was delivered. The first update and the final one (when the transfer is
+/// complete) are always delivered.
+///
+/// The default delivers at most one update per 16 ms, roughly one per frame at 60 Hz.
+///
+/// # Examples
+///
+/// ```no_run
+/// # use frakt::{Client, ProgressThrottle};
+/// # use std::time::Duration;
+/// # async fn example() -> Result<(), Box<dyn std::error::Error>> {
+/// let client = Client::new()?;
+/// let response = client
+///     .download("https://httpbin.org/bytes/1048576", "large_download.bin")?
+///     .progress(|downloaded, total| println!("{} / {:?}", downloaded, total))
+///     .progress_throttle(ProgressThrottle::new(Duration::from_millis(250), 64 * 1024))
+///     .send()
+///     .await?;
+/// # Ok(())
+/// # }
+/// ```
+#[derive(Debug, Clone, Copy, PartialEq, Eq)]
+pub struct ProgressThrottle {
+    min_interval: Duration,
+    min_bytes: u64,
+}
+
+impl ProgressThrottle {
+    /// Create a throttle with a minimum interval and minimum byte delta between updates
+    pub const fn new(min_interval: Duration, min_bytes: u64) -> Self {
+        Self {
+            min_interval,
+            min_bytes,
+        }
+    }
+
+    /// Deliver every update
+    pub const fn none() -> Self {
+        Self::new(Duration::ZERO, 0)
+    }
+
+    /// Minimum time between delivered updates
+    pub fn min_interval(&self) -> Duration {
+        self.min_interval
+    }
+
+    /// Minimum number of bytes transferred between delivered updates
+    pub fn min_bytes(&self) -> u64 {
+        self.min_bytes
+    }
+
+    /// Wrap a callback so it only sees the updates this throttle lets through
+    pub(crate) fn wrap(
+        self,
+        callback: Box<dyn Fn(u64, Option<u64>) + Send + Sync + 'static>,
+    ) -> Box<dyn Fn(u64, Option<u64>) + Send + Sync + 'static> {
+        if self == Self::none() {
+            return callback;
+        }
+
+        let coalescer = ProgressCoalescer::new(self);
+        Box::new(move |transferred, total| {
+            if coalescer.should_emit(transferred, total) {
+                callback(transferred, total);
+            }
+        })
+    }
+}
+
+impl Default for ProgressThrottle {
+    fn default() -> Self {
+        Self::new(Duration::from_millis(16), 0)
+    }
+}
+
+/// Marks a coalescer that has not delivered anything yet
+const NEVER: u64 = u64::MAX;
+
+/// Decides which progress updates a [`ProgressThrottle`] lets through
+///
+/// State is kept in atomics so the hot path never takes a lock.
+pub(crate) struct ProgressCoalescer {
+    throttle: ProgressThrottle,
+    start: Instant,
+    last_emit: AtomicU64,
+    last_bytes: AtomicU64,
+    final_delivered: AtomicBool,
+}
+
+impl ProgressCoalescer {
+    pub(crate) fn new(throttle: ProgressThrottle) -> Self {
+        Self {
+            throttle,
+            start: Instant::now(),
+            last_emit: AtomicU64::new(NEVER),
+            last_bytes: AtomicU64::new(0),
+            final_delivered: AtomicBool::new(false),
+        }
+    }
+
+    /// Whether an update for `transferred` bytes should be delivered
+    pub(crate) fn should_emit(&self, transferred: u64, total: Option<u64>) -> bool {
+        let now = self.start.elapsed().as_nanos() as u64;
+        let last_emit = self.last_emit.load(Ordering::Relaxed);
+        let last_bytes = self.last_bytes.load(Ordering::Relaxed);
+        let is_final = total == Some(transferred);
+
+        if is_final {
+            // Deliver the final update exactly once, even if its byte count was
+            // already delivered without a known total
+            if self.final_delivered.swap(true, Ordering::AcqRel) {
+                return false;
+            }
+        } else if last_emit != NEVER {
+            // A rewound upload starts counting again from zero
+            let delta = transferred.checked_sub(last_bytes).unwrap_or(transferred);
+            let elapsed = Duration::from_nanos(now.saturating_sub(last_emit));
+            if elapsed < self.throttle.min_interval || delta < self.throttle.min_bytes {
+                return false;
+            }
+        }
+
+        // Another thread may have just delivered an update; only the final one must win
+        let claimed = self
+            .last_emit
+            .compare_exchange(last_emit, now, Ordering::AcqRel, Ordering::Relaxed)
+            .is_ok();
+        if !claimed && !is_final {
+            return false;
+        }
+
+        self.last_bytes.store(transferred, Ordering::Relaxed);
+        true
+    }
+
+    /// Whether the final update for a finished transfer still has to be delivered
+    pub(crate) fn should_emit_final(&self, transferred: u64) -> bool {
+        self.should_emit(transferred, Some(transferred))
+    }
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+
+    #[test]
+    fn test_coalesces_and_delivers_final() {
+        let coalescer = ProgressCoalescer::new(ProgressThrottle::new(Duration::from_secs(60), 0));
+
+        assert!(coalescer.should_emit(0, Some(100)));
+        assert!(!coalescer.should_emit(10, Some(100)));
+        assert!(!coalescer.should_emit(99, Some(100)));
+        assert!(coalescer.should_emit(100, Some(100)));
+        assert!(!coalescer.should_emit(100, Some(100)));
+        assert!(!coalescer.should_emit_final(100));
+    }
+
+    #[test]
+    fn test_min_bytes() {
+        let coalescer = ProgressCoalescer::new(ProgressThrottle::new(Duration::ZERO, 50));
+
+        assert!(coalescer.should_emit(0, None));
+        assert!(!coalescer.should_emit(49, None));
+        assert!(coalescer.should_emit(50, None));
+        assert!(!coalescer.should_emit(60, None));
+        assert!(coalescer.should_emit_final(60));
+    }
+
+    #[test]
+    fn test_delivers_final_after_same_bytes_without_total() {
+        let coalescer = ProgressCoalescer::new(ProgressThrottle::new(Duration::ZERO, 0));
+
+        assert!(coalescer.should_emit(0, None));
+        assert!(coalescer.should_emit(100, None));
+        assert!(coalescer.should_emit(100, Some(100)));
+        assert!(!coalescer.should_emit_final(100));
+    }
+}
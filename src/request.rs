@@ -16,6 +16,13 @@ pub struct Request {
     pub(crate) backend: Backend,
     pub(crate) progress_callback: Option<Arc<dyn Fn(u64, Option<u64>) + Send + Sync + 'static>>,
     pub(crate) error_for_status: bool,
+    pub(crate) body_high_water_mark: Option<usize>,
+    pub(crate) small_response_threshold: Option<usize>,
+    pub(crate) priority: crate::Priority,
+    pub(crate) disable_cache: bool,
+    pub(crate) traffic_stats_tag: Option<i32>,
+    pub(crate) cancel: Option<crate::CancellationToken>,
+    pub(crate) cache: Option<crate::ResponseCache>,
 }
 
 impl Request {
@@ -29,10 +36,20 @@ impl Request {
             body: self.body,
             progress_callback: self.progress_callback,
             timeout: None, // Timeout is applied from backend config
+            body_high_water_mark: self.body_high_water_mark,
+            small_response_threshold: self.small_response_threshold,
+            priority: self.priority,
+            disable_cache: self.disable_cache,
+            traffic_stats_tag: self.traffic_stats_tag,
+            cancel: self.cancel,
         };
 
-        let backend_response = self.backend.execute(backend_request).await?;
-        let response = crate::Response::from_backend(backend_response);
+        let response = match self.cache {
+            Some(cache) => cache.execute(&self.backend, backend_request).await?,
+            None => {
+                crate::Response::from_backend(self.backend.execute(backend_request).await?)
+            }
+        };
 
         // Check for HTTP error status if enabled (default is true)
         if error_for_status && response.status().as_u16() >= 400 {
@@ -52,6 +69,13 @@ pub struct RequestBuilder {
     backend: Backend,
     progress_callback: Option<Arc<dyn Fn(u64, Option<u64>) + Send + Sync + 'static>>,
     error_for_status: bool,
+    body_high_water_mark: Option<usize>,
+    small_response_threshold: Option<usize>,
+    priority: crate::Priority,
+    disable_cache: bool,
+    traffic_stats_tag: Option<i32>,
+    cancel: Option<crate::CancellationToken>,
+    cache: Option<crate::ResponseCache>,
 }
 
 impl RequestBuilder {
@@ -64,6 +88,13 @@ impl RequestBuilder {
             backend,
             progress_callback: None,
             error_for_status: true,
+            body_high_water_mark: None,
+            small_response_threshold: None,
+            priority: crate::Priority::default(),
+            disable_cache: false,
+            traffic_stats_tag: None,
+            cancel: None,
+            cache: None,
         }
     }
 
@@ -127,6 +158,74 @@ impl RequestBuilder {
         self
     }
 
+    /// Limit how much of the response body may be buffered ahead of the reader
+    ///
+    /// Once `bytes` are waiting to be consumed, the backend stops reading from the
+    /// network until the reader catches up. Use a small value when the body goes to a
+    /// slow sink such as a disk or a streaming parser. Currently only the Android
+    /// backend honours this; it defaults to 2 MB there.
+    pub fn body_high_water_mark(mut self, bytes: usize) -> Self {
+        self.body_high_water_mark = Some(bytes);
+        self
+    }
+
+    /// Deliver responses of up to `bytes` in one step instead of streaming them
+    ///
+    /// When the server announces a Content-Length no larger than this, the backend
+    /// reads the whole body before handing the response over, which saves a round
+    /// of callbacks per chunk on small API responses. Larger bodies still stream.
+    /// Pass 0 to always stream. Currently only the Android backend honours this; it
+    /// defaults to 64 KB there and is capped at 512 KB.
+    pub fn small_response_threshold(mut self, bytes: usize) -> Self {
+        self.small_response_threshold = Some(bytes);
+        self
+    }
+
+    /// Set how urgently this request should be served relative to others
+    ///
+    /// Use a low priority for prefetches so they do not hold up requests the user
+    /// is waiting on. On Android this is Cronet's request priority. With reqwest it
+    /// orders requests queued by
+    /// [`ClientBuilder::max_concurrent_requests`](crate::ClientBuilder::max_concurrent_requests).
+    /// Other backends ignore it.
+    pub fn priority(mut self, priority: crate::Priority) -> Self {
+        self.priority = priority;
+        self
+    }
+
+    /// Neither read the response from nor write it to the HTTP cache
+    ///
+    /// This skips the client's [`ResponseCache`](crate::ResponseCache), and on Android
+    /// also Cronet's own cache; see [`HttpCacheMode`](crate::HttpCacheMode).
+    pub fn disable_cache(mut self) -> Self {
+        self.disable_cache = true;
+        self
+    }
+
+    pub(crate) fn response_cache(mut self, cache: Option<crate::ResponseCache>) -> Self {
+        self.cache = cache;
+        self
+    }
+
+    /// Tag the request's sockets for Android's per-app traffic statistics
+    ///
+    /// Lets data usage be broken down by feature, as with `TrafficStats.setThreadStatsTag`.
+    /// Other backends ignore it.
+    pub fn traffic_stats_tag(mut self, tag: i32) -> Self {
+        self.traffic_stats_tag = Some(tag);
+        self
+    }
+
+    /// Stop the request when `token` is cancelled
+    ///
+    /// This also stops a response body that is still streaming; reading it then
+    /// fails with [`Error::Cancelled`](crate::Error::Cancelled). Dropping the
+    /// future returned by [`send`](Self::send) stops the request as well.
+    pub fn cancellation_token(mut self, token: crate::CancellationToken) -> Self {
+        self.cancel = Some(token);
+        self
+    }
+
     /// Configure whether to return an error for HTTP error status codes (>= 400).
     ///
     /// When enabled (the default), responses with status codes >= 400 will return
@@ -196,6 +295,13 @@ impl RequestBuilder {
             backend: self.backend,
             progress_callback: self.progress_callback,
             error_for_status: self.error_for_status,
+            body_high_water_mark: self.body_high_water_mark,
+            small_response_threshold: self.small_response_threshold,
+            priority: self.priority,
+            disable_cache: self.disable_cache,
+            traffic_stats_tag: self.traffic_stats_tag,
+            cancel: self.cancel,
+            cache: self.cache,
         };
         request.send().await
     }
@@ -38,6 +38,25 @@ impl Response {
         }
     }
 
+    /// Create a Response whose whole body is already in memory
+    pub(crate) fn from_bytes(
+        status: StatusCode,
+        headers: HeaderMap,
+        url: Url,
+        body: Bytes,
+    ) -> Self {
+        let (sender, body_receiver) = mpsc::channel(1);
+        if !body.is_empty() {
+            let _ = sender.try_send(Ok(body));
+        }
+        Self {
+            status,
+            headers,
+            url,
+            body_receiver,
+        }
+    }
+
     /// Get the status code
     pub fn status(&self) -> StatusCode {
         self.status